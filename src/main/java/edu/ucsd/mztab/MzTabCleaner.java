@@ -1,11 +1,10 @@
 package edu.ucsd.mztab;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.util.Collection;
@@ -15,6 +14,7 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.util.MappedLineReader;
 
 public class MzTabCleaner
 {
@@ -205,12 +205,15 @@ public class MzTabCleaner
 		// read mzTab file, update all "ms_run[*]-location" lines
 		File cleanedMzTabFile =
 			new File(cleanup.outputDirectory, mzTabFile.getName());
-		BufferedReader reader = null;
+		MappedLineReader reader = null;
 		PrintWriter writer = null;
 		try {
-			reader = new BufferedReader(new FileReader(mzTabFile));
-			writer = new PrintWriter(new BufferedWriter(
-				new FileWriter(cleanedMzTabFile, false)));
+			reader = new MappedLineReader(mzTabFile);
+			// write UTF-8, the same charset MappedLineReader reads by
+			// default, rather than the platform's default charset
+			writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(cleanedMzTabFile, false),
+				MappedLineReader.DEFAULT_CHARSET)));
 			String line = null;
 			int validIndex = -1;
 			int invalidReasonIndex = -1;
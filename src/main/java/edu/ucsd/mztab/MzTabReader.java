@@ -1,39 +1,66 @@
 package edu.ucsd.mztab;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.ucsd.mztab.model.MetricsRegistry;
 import edu.ucsd.mztab.model.MzTabFile;
+import edu.ucsd.mztab.model.MzTabFileIndex;
 import edu.ucsd.mztab.model.MzTabProcessor;
-import edu.ucsd.mztab.model.TimingRecord;
-import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.model.MzTabProcessorAdapter;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
+import edu.ucsd.mztab.model.MetricsRegistry.Timer;
+import edu.ucsd.mztab.util.MappedLineReader;
 
 public class MzTabReader
 {
     /*========================================================================
      * Constants
      *========================================================================*/
-    private static final String DEBUG_LOG_HEADER =
-        "category\tcount\ttotal_time_ns\tmax_time_ns\tmin_time_ns\taverage_time_ns";
+    public static final int DEFAULT_PIPELINE_BATCH_SIZE = 1000;
+    public static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 16;
+    // approximate number of characters of PSM rows in each parallel chunk
+    public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 1024 * 1024;
+    // marker batch signalling to each pipeline stage that input is exhausted
+    private static final RowBatch END_OF_INPUT = new RowBatch(0);
 
 	/*========================================================================
 	 * Properties
 	 *========================================================================*/
 	private MzTabFile                 mzTabFile;
-	private List<MzTabProcessor>      processors;
+	private List<MzTabRowProcessor>   processors;
 	private File                      outputFile;
 	private File                      debugLogFile;
-	private Map<String, TimingRecord> timing;
+	private MetricsRegistry           metrics;
+	private boolean                   pipelined;
+	private int                       pipelineBatchSize;
+	private int                       pipelineQueueCapacity;
+	private boolean                   indexed;
+	private boolean                   parallel;
+	private int                       parallelism;
+	private int                       parallelChunkSize;
+	// timers registered with the metrics registry at the start of each read
+	private Timer                     lineReadTimer;
+	private Timer                     lineWriteTimer;
+	private Timer[]                   processorTimers;
 	
 	/*========================================================================
 	 * Constructor
@@ -43,13 +70,21 @@ public class MzTabReader
 	}
 	
 	public MzTabReader(MzTabFile mzTabFile, File outputFile) {
+		this(mzTabFile, outputFile, null);
+	}
+	
+	/**
+	 * @param options	execution modes of this reader, or null to read
+	 * 					serially without writing any section index
+	 */
+	public MzTabReader(MzTabFile mzTabFile, File outputFile, Options options) {
 		// validate input mzTab file
 		if (mzTabFile == null)
 			throw new NullPointerException(
 				"Argument mzTab file cannot be null.");
 		else this.mzTabFile = mzTabFile;
 		// initialize processor chain
-		processors = new ArrayList<MzTabProcessor>();
+		processors = new ArrayList<MzTabRowProcessor>();
 		// validate output file (can be null)
 		if (outputFile == null)
 			this.outputFile = null;
@@ -58,81 +93,56 @@ public class MzTabReader
 			throw new IllegalArgumentException(String.format(
 				"Argument output file [%s] must be a writable file."));
 		else this.outputFile = outputFile;
-		// initialize timing record map
-		timing = new LinkedHashMap<String, TimingRecord>();
+		// initialize metrics registry
+		metrics = new MetricsRegistry("mzTab reader");
+		// initialize pipelining settings
+		pipelined = options != null && options.pipelined;
+		pipelineBatchSize = DEFAULT_PIPELINE_BATCH_SIZE;
+		pipelineQueueCapacity = DEFAULT_PIPELINE_QUEUE_CAPACITY;
+		// initialize indexing settings
+		indexed = options != null && options.indexed;
+		// initialize parallel processing settings
+		parallel = options != null && options.parallel;
+		parallelism = Runtime.getRuntime().availableProcessors();
+		parallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
 	}
 	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
 	public void read() {
-		long start = System.nanoTime();
+		Timer totalTimer = metrics.timer("total_read");
+		long start = totalTimer.start();
 		// set up all processors
-		long checkpoint = start;
-		for (MzTabProcessor processor : processors) {
+		for (MzTabRowProcessor processor : processors) {
+			Timer timer = metrics.timer(String.format(
+				"%s_processor_setup", getProcessorName(processor)));
+			long checkpoint = timer.start();
 			processor.setUp(mzTabFile);
-			long end = System.nanoTime();
-			addTiming(String.format("%s_processor_setup", processor.getClass().getName()),
-				end - checkpoint);
-			checkpoint = end;
+			timer.stop(checkpoint);
 		}
 		// read through mzTab file line by line, processing each accordingly
-		BufferedReader reader = null;
-		PrintWriter writer = null;
-		try {
-			reader = new BufferedReader(new FileReader(mzTabFile.getFile()));
-			// if an output file was specified, set up its writer
-			if (outputFile != null)
-				writer = new PrintWriter(
-					new BufferedWriter(new FileWriter(outputFile, false)));
-			String line = null;
-			int lineNumber = 0;
-			long readStart = System.nanoTime();
-			checkpoint = readStart;
-			while (true) {
-				line = reader.readLine();
-				if (line == null)
-					break;
-				long end = System.nanoTime();
-				addTiming("line_read", end - checkpoint);
-				checkpoint = end;
-				lineNumber++;
-				for (MzTabProcessor processor : processors) {
-					line = processor.processMzTabLine(line, lineNumber);
-					end = System.nanoTime();
-					addTiming(String.format("%s_processor_read", processor.getClass().getName()),
-						end - checkpoint);
-					checkpoint = end;
-				}
-				// if an output file was specified, write
-				// the fully processed line to it
-				if (writer != null) {
-					writer.println(line);
-					end = System.nanoTime();
-					addTiming("line_write", end - checkpoint);
-					checkpoint = end;
-				}
-			}
-			addTiming("all_lines_read", checkpoint - readStart);
-		} catch (RuntimeException error) {
-			throw error;
-		} catch (Throwable error) {
-			throw new RuntimeException(error);
-		} finally {
-			try { reader.close(); } catch (Throwable error) {}
-			try { writer.close(); } catch (Throwable error) {}
-		}
+		Timer allLinesTimer = metrics.timer("all_lines_read");
+		registerTimers();
+		long checkpoint = allLinesTimer.start();
+		int parallelProcessors = getParallelProcessorCount();
+		if (parallelProcessors > 0)
+			readLinesParallel(parallelProcessors);
+		else if (pipelined)
+			readLinesPipelined();
+		else readLines();
+		allLinesTimer.stop(checkpoint);
 		// tear down all processors
-		for (MzTabProcessor processor : processors) {
+		for (MzTabRowProcessor processor : processors) {
+			Timer timer = metrics.timer(String.format(
+				"%s_processor_teardown", getProcessorName(processor)));
+			checkpoint = timer.start();
 			processor.tearDown();
-			long end = System.nanoTime();
-			addTiming(String.format("%s_processor_teardown", processor.getClass().getName()),
-				end - checkpoint);
-			checkpoint = end;
+			timer.stop(checkpoint);
 		}
-		addTiming("total_read", checkpoint - start);
-		// TODO: implement debug flag, only do this if set
-		dumpTiming();
+		totalTimer.stop(start);
+		// metrics are only reported if they were enabled
+		metrics.report(debugLogFile);
 	}
 	
 	/*========================================================================
@@ -143,6 +153,11 @@ public class MzTabReader
 	}
 	
 	public void addProcessor(MzTabProcessor processor) {
+		if (processor != null)
+			processors.add(new MzTabProcessorAdapter(processor));
+	}
+	
+	public void addProcessor(MzTabRowProcessor processor) {
 		if (processor != null)
 			processors.add(processor);
 	}
@@ -150,113 +165,699 @@ public class MzTabReader
 	public void setDebugLogFile(File debugLogFile) {
 		this.debugLogFile = debugLogFile;
 	}
+	
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets the registry this reader records its timings into, so that several
+	 * readers, or a reader and its processors, can report together. Readers
+	 * otherwise get their own registry, which is disabled unless a default
+	 * sample interval was set (see MetricsRegistry).
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		if (metrics == null)
+			throw new NullPointerException(
+				"Argument metrics registry cannot be null.");
+		else this.metrics = metrics;
+	}
+	
+	public boolean isPipelined() {
+		return pipelined;
+	}
+	
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+	
+	public void setPipelineBatchSize(int pipelineBatchSize) {
+		if (pipelineBatchSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Pipeline batch size (%d) must be a positive integer.",
+				pipelineBatchSize));
+		else this.pipelineBatchSize = pipelineBatchSize;
+	}
+	
+	public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+		if (pipelineQueueCapacity < 1)
+			throw new IllegalArgumentException(String.format(
+				"Pipeline queue capacity (%d) must be a positive integer.",
+				pipelineQueueCapacity));
+		else this.pipelineQueueCapacity = pipelineQueueCapacity;
+	}
+	
+	public boolean isIndexed() {
+		return indexed;
+	}
+	
+	/**
+	 * Sets whether this reader writes a section index (see MzTabFileIndex)
+	 * for its input file, if that file does not already have a current
+	 * one, and for its output file, if any.
+	 */
+	public void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+	}
+	
+	public boolean isParallel() {
+		return parallel;
+	}
+	
+	/**
+	 * Sets whether this reader splits runs of PSM rows into chunks and
+	 * processes them on several threads at once. Only the processors at the
+	 * front of the chain that implement MzTabRowIndependentProcessor are run
+	 * in parallel; the rest still see every row serially and in file order.
+	 * If the first processor is not row-independent, then this setting has
+	 * no effect. Takes precedence over pipelining.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException(String.format(
+				"Parallelism (%d) must be a positive integer.", parallelism));
+		else this.parallelism = parallelism;
+	}
+	
+	public void setParallelChunkSize(int parallelChunkSize) {
+		if (parallelChunkSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Parallel chunk size (%d) must be a positive integer.",
+				parallelChunkSize));
+		else this.parallelChunkSize = parallelChunkSize;
+	}
 
     /*========================================================================
      * Convenience methods
      *========================================================================*/
-    private void addTiming(String type, long milliseconds) {
-        if (type == null)
-            return;
-        TimingRecord timingRecord = timing.get(type);
-        if (timingRecord == null)
-            timingRecord = new TimingRecord();
-        timingRecord.add(milliseconds);
-        timing.put(type, timingRecord);
+    private void readLines() {
+        MappedLineReader reader = null;
+        PrintWriter writer = null;
+        MzTabFileIndex inputIndex = createInputIndex();
+        MzTabFileIndex outputIndex = createOutputIndex();
+        try {
+            reader = new MappedLineReader(mzTabFile.getFile());
+            // if an output file was specified, set up its writer
+            if (outputFile != null)
+                writer = createWriter();
+            String line = null;
+            int lineNumber = 0;
+            while (true) {
+                long offset = reader.getPosition();
+                // whether or not this line is timed is decided here,
+                // and applies to every step of its processing
+                long checkpoint = lineReadTimer.start();
+                line = reader.readLine();
+                if (line == null) {
+                    lineReadTimer.cancel();
+                    break;
+                }
+                checkpoint = lineReadTimer.stop(checkpoint);
+                lineNumber++;
+                if (inputIndex != null)
+                    inputIndex.addLine(
+                        line, lineNumber, offset, reader.getPosition());
+                // tokenize this line once, for all processors to share
+                MzTabRow row = new MzTabRow(line, lineNumber);
+                checkpoint = processRow(row, 0, processors.size(), checkpoint);
+                // if an output file was specified, write
+                // the fully processed line to it
+                writeRow(row, writer, outputIndex, checkpoint);
+            }
+        } catch (RuntimeException error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new RuntimeException(error);
+        } finally {
+            try { reader.close(); } catch (Throwable error) {}
+            try { writer.close(); } catch (Throwable error) {}
+        }
+        saveIndexes(inputIndex, outputIndex);
     }
 
-    private void dumpTiming() {
-        // write full timing details to debug log file, if specified
+    /**
+     * Reads the mzTab file through a chain of concurrent stages: one thread
+     * reads batches of rows from the file, one thread per processor passes
+     * each batch through that processor, and the calling thread writes the
+     * fully processed batches to the output file. Stages are joined by
+     * bounded queues, so every processor still sees every row exactly once
+     * and in file order, and the output is identical to that of a serial read.
+     */
+    private void readLinesPipelined() {
+        // set up one queue feeding each processor stage, plus one for the writer
+        List<BlockingQueue<RowBatch>> queues =
+            new ArrayList<BlockingQueue<RowBatch>>(processors.size() + 1);
+        for (int i=0; i<=processors.size(); i++)
+            queues.add(new ArrayBlockingQueue<RowBatch>(pipelineQueueCapacity));
+        PipelineControl control = new PipelineControl(Thread.currentThread());
+        // set up reader stage
+        List<PipelineStage> stages = new ArrayList<PipelineStage>(processors.size() + 1);
+        MzTabFileIndex inputIndex = createInputIndex();
+        stages.add(new ReaderStage(control, queues.get(0), inputIndex));
+        // set up processor stages
+        for (int i=0; i<processors.size(); i++)
+            stages.add(new ProcessorStage(control, processors.get(i),
+                processorTimers[i], queues.get(i), queues.get(i + 1)));
+        control.stages = stages;
+        // the calling thread acts as the writer stage
         PrintWriter writer = null;
-        if (debugLogFile != null) try {
-            writer = new PrintWriter(new FileWriter(debugLogFile));
-            writer.println(DEBUG_LOG_HEADER);
-            for (Entry<String, TimingRecord> entry : timing.entrySet())
-                writer.println(String.format(
-                    "%s\t%s", entry.getKey(), entry.getValue().toString()));
+        MzTabFileIndex outputIndex = createOutputIndex();
+        try {
+            for (PipelineStage stage : stages)
+                stage.start();
+            if (outputFile != null)
+                writer = createWriter();
+            BlockingQueue<RowBatch> input = queues.get(processors.size());
+            while (true) {
+                RowBatch batch = input.take();
+                if (batch == END_OF_INPUT)
+                    break;
+                else if (writer != null) {
+                    for (int i=0; i<batch.size; i++) {
+                        MzTabRow row = batch.rows[i];
+                        long checkpoint = lineWriteTimer.start();
+                        writer.println(row.getLine());
+                        if (outputIndex != null)
+                            outputIndex.addWrittenLine(
+                                row.getLine(), row.getLineNumber());
+                        lineWriteTimer.stop(checkpoint);
+                    }
+                }
+            }
         } catch (Throwable error) {
-            System.err.println(String.format(
-                "Could not write mzTab reader timing details to debug log file [%s].",
-                debugLogFile.getAbsolutePath()));
-            error.printStackTrace();
+            control.fail(error);
         } finally {
-            if (writer != null) try {
-                writer.close();
-            } catch (Throwable error) {}
+            try { writer.close(); } catch (Throwable error) {}
+            // make sure no stage outlives this read, whether or not it failed
+            if (control.error != null)
+                for (PipelineStage stage : stages)
+                    stage.interrupt();
+            for (PipelineStage stage : stages) try {
+                stage.join();
+            } catch (InterruptedException error) {
+                control.fail(error);
+            }
+            // clear any interrupt left over from aborting the pipeline
+            Thread.interrupted();
         }
-        // write timing summary to console
-        StringBuilder message = new StringBuilder("mzTab reader timing summary:\n----------");
-        TimingRecord record = timing.get("total_read");
-        if (record != null)
-            message.append("\nOverall time:\t").append(
-                CommonUtils.formatNanoseconds(record.getTotal()));
-        record = timing.get("line_read");
-        if (record != null) {
-            message.append("\nFile read time:\t").append(
-                CommonUtils.formatNanoseconds(record.getTotal()));
-            message.append("\n  Lines read:\t").append(String.format("%,d", record.getCount()));
-            message.append("\n  Maximum line read time:\t").append(
-                CommonUtils.formatNanoseconds(record.getMax()));
-            message.append("\n  Minimum line read time:\t").append(
-                CommonUtils.formatNanoseconds(record.getMin()));
-            message.append("\n  Average line read time:\t").append(
-                CommonUtils.formatNanoseconds(Math.round(record.getAverage())));
+        // propagate the first error encountered by any stage
+        if (control.error instanceof RuntimeException)
+            throw (RuntimeException)control.error;
+        else if (control.error != null)
+            throw new RuntimeException(control.error);
+        saveIndexes(inputIndex, outputIndex);
+    }
+
+    /**
+     * Reads the mzTab file on the calling thread, gathering each run of
+     * consecutive PSM rows into chunks that are passed through forks of the
+     * leading row-independent processors on a pool of worker threads. Every
+     * other row is processed serially, once all chunks before it are done.
+     * Chunks are completed strictly in file order: their forks are merged
+     * back, then their rows go through the remaining processors and on to
+     * the output file, so the output is identical to that of a serial read.
+     */
+    private void readLinesParallel(int parallelProcessors) {
+        MappedLineReader reader = null;
+        PrintWriter writer = null;
+        MzTabFileIndex inputIndex = createInputIndex();
+        MzTabFileIndex outputIndex = createOutputIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            parallelism, new WorkerThreadFactory());
+        // bound the number of chunks held in memory at once
+        int maxPendingChunks = parallelism * 2;
+        LinkedList<RowChunk> pending = new LinkedList<RowChunk>();
+        try {
+            reader = new MappedLineReader(mzTabFile.getFile());
+            if (outputFile != null)
+                writer = createWriter();
+            RowChunk chunk = null;
+            int lineNumber = 0;
+            while (true) {
+                long offset = reader.getPosition();
+                long checkpoint = lineReadTimer.start();
+                String line = reader.readLine();
+                if (line == null) {
+                    lineReadTimer.cancel();
+                    break;
+                }
+                checkpoint = lineReadTimer.stop(checkpoint);
+                lineNumber++;
+                if (inputIndex != null)
+                    inputIndex.addLine(
+                        line, lineNumber, offset, reader.getPosition());
+                // gather PSM rows into chunks
+                if (line.startsWith("PSM")) {
+                    if (chunk == null)
+                        chunk = new RowChunk(parallelProcessors);
+                    chunk.add(line, lineNumber);
+                    if (chunk.length >= parallelChunkSize) {
+                        submitChunk(chunk, executor);
+                        pending.add(chunk);
+                        chunk = null;
+                        if (pending.size() > maxPendingChunks)
+                            completeChunk(pending.removeFirst(),
+                                parallelProcessors, writer, outputIndex);
+                    }
+                    continue;
+                }
+                // any other row may change the processors' state,
+                // so all PSM rows before it must be finished first
+                if (chunk != null) {
+                    submitChunk(chunk, executor);
+                    pending.add(chunk);
+                    chunk = null;
+                }
+                while (pending.isEmpty() == false)
+                    completeChunk(pending.removeFirst(),
+                        parallelProcessors, writer, outputIndex);
+                MzTabRow row = new MzTabRow(line, lineNumber);
+                checkpoint = processRow(row, 0, processors.size(), checkpoint);
+                writeRow(row, writer, outputIndex, checkpoint);
+            }
+            if (chunk != null) {
+                submitChunk(chunk, executor);
+                pending.add(chunk);
+            }
+            while (pending.isEmpty() == false)
+                completeChunk(pending.removeFirst(),
+                    parallelProcessors, writer, outputIndex);
+        } catch (RuntimeException error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new RuntimeException(error);
+        } finally {
+            executor.shutdownNow();
+            try { reader.close(); } catch (Throwable error) {}
+            try { writer.close(); } catch (Throwable error) {}
         }
-        record = timing.get("all_lines_read");
-        if (record != null)
-            message.append("\nFile processing time:\t").append(
-                CommonUtils.formatNanoseconds(record.getTotal()));
-        // organize per-processor timing records
-        Map<String, Map<String, TimingRecord>> processorRecords =
-            new HashMap<String, Map<String, TimingRecord>>();
-        for (Entry<String, TimingRecord> entry : timing.entrySet()) {
-            String type = entry.getKey();
-            String processorName = null;
-            if (type.endsWith("_processor_setup"))
-                processorName = type.substring(0, type.length() - 16);
-            else if (type.endsWith("_processor_read"))
-                processorName = type.substring(0, type.length() - 15);
-            else if (type.endsWith("_processor_teardown"))
-                processorName = type.substring(0, type.length() - 19);
-            if (processorName == null)
-                continue;
-            Map<String, TimingRecord> processorRecord = processorRecords.get(processorName);
-            if (processorRecord == null)
-                processorRecord = new HashMap<String, TimingRecord>(3);
-            if (type.endsWith("_processor_setup"))
-                processorRecord.put("setup", entry.getValue());
-            else if (type.endsWith("_processor_read"))
-                processorRecord.put("read", entry.getValue());
-            else if (type.endsWith("_processor_teardown"))
-                processorRecord.put("teardown", entry.getValue());
-            processorRecords.put(processorName, processorRecord);
+        saveIndexes(inputIndex, outputIndex);
+    }
+
+    private int getParallelProcessorCount() {
+        if (parallel == false)
+            return 0;
+        int count = 0;
+        for (MzTabRowProcessor processor : processors) {
+            if (processor instanceof MzTabRowIndependentProcessor)
+                count++;
+            else break;
         }
-        // write timing summary for each processor
-        for (Entry<String, Map<String, TimingRecord>> entry : processorRecords.entrySet()) {
-            message.append("\nProcessor [").append(entry.getKey()).append("]:");
-            Map<String, TimingRecord> processorRecord = entry.getValue();
-            record = processorRecord.get("setup");
-            if (record != null)
-                message.append("\n  Setup time:\t").append(
-                    CommonUtils.formatNanoseconds(record.getTotal()));
-            record = processorRecord.get("read");
-            if (record != null) {
-                message.append("\n  Processing time:\t").append(
-                    CommonUtils.formatNanoseconds(record.getTotal()));
-                message.append("\n    Lines processed:\t").append(
-                    String.format("%,d", record.getCount()));
-                message.append("\n    Maximum line processing time:\t").append(
-                    CommonUtils.formatNanoseconds(record.getMax()));
-                message.append("\n    Minimum line processing time:\t").append(
-                    CommonUtils.formatNanoseconds(record.getMin()));
-                message.append("\n    Average line processing time:\t").append(
-                    CommonUtils.formatNanoseconds(Math.round(record.getAverage())));
+        return count;
+    }
+
+    private void submitChunk(RowChunk chunk, ExecutorService executor) {
+        // fork the row-independent processors for this chunk; if any of
+        // them can't be forked, then the chunk will be processed serially
+        for (int i=0; i<chunk.forks.length; i++) {
+            chunk.forks[i] =
+                ((MzTabRowIndependentProcessor)processors.get(i)).fork();
+            if (chunk.forks[i] == null) {
+                chunk.forks = null;
+                return;
+            }
+        }
+        chunk.result = executor.submit(chunk);
+    }
+
+    private void completeChunk(
+        RowChunk chunk, int parallelProcessors,
+        PrintWriter writer, MzTabFileIndex outputIndex
+    ) throws InterruptedException {
+        MzTabRow[] rows = null;
+        if (chunk.result != null) {
+            Throwable failure = null;
+            Timer waitTimer = metrics.timer("parallel_chunk_wait");
+            long checkpoint = waitTimer.start();
+            try {
+                rows = chunk.result.get();
+            } catch (ExecutionException error) {
+                failure = error.getCause();
+            }
+            waitTimer.stop(checkpoint, chunk.lines.size());
+            // a chunk's forks only stand if all of them are
+            // consistent with the processors' current state
+            boolean mergeable = true;
+            for (int i=0; i<parallelProcessors; i++) {
+                MzTabRowIndependentProcessor processor =
+                    (MzTabRowIndependentProcessor)processors.get(i);
+                if (processor.isMergeable(chunk.forks[i]) == false) {
+                    mergeable = false;
+                    break;
+                }
+            }
+            if (mergeable == false)
+                rows = null;
+            else if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            else if (failure instanceof Error)
+                throw (Error)failure;
+            else if (failure != null)
+                throw new RuntimeException(failure);
+            else for (int i=0; i<parallelProcessors; i++)
+                ((MzTabRowIndependentProcessor)processors.get(i)).merge(
+                    chunk.forks[i]);
+        }
+        // if this chunk could not be processed in parallel,
+        // then process it serially from its original lines
+        // rows processed by forks on worker threads are not timed, so
+        // chunk rows only start timing once they are back on this thread
+        Timer chunkRowTimer = metrics.sampledTimer("parallel_chunk_row");
+        if (rows == null) {
+            rows = chunk.getRows();
+            for (MzTabRow row : rows)
+                processRow(row, 0, parallelProcessors, chunkRowTimer.start());
+        }
+        // pass the chunk through the rest of the processor chain
+        for (MzTabRow row : rows) {
+            long checkpoint = chunkRowTimer.start();
+            checkpoint = processRow(
+                row, parallelProcessors, processors.size(), checkpoint);
+            writeRow(row, writer, outputIndex, checkpoint);
+        }
+    }
+
+    /**
+     * Passes a row through a range of the processor chain, timing each
+     * processor in turn if the row's processing is being timed at all, as
+     * indicated by the argument checkpoint. Returns the last checkpoint.
+     */
+    private long processRow(MzTabRow row, int start, int end, long checkpoint) {
+        for (int i=start; i<end; i++) {
+            processors.get(i).processMzTabRow(row);
+            checkpoint = processorTimers[i].lap(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    private void writeRow(
+        MzTabRow row, PrintWriter writer, MzTabFileIndex outputIndex,
+        long checkpoint
+    ) {
+        if (writer == null)
+            return;
+        writer.println(row.getLine());
+        if (outputIndex != null)
+            outputIndex.addWrittenLine(row.getLine(), row.getLineNumber());
+        lineWriteTimer.lap(checkpoint);
+    }
+
+    private void registerTimers() {
+        lineReadTimer = metrics.sampledTimer("line_read");
+        processorTimers = new Timer[processors.size()];
+        for (int i=0; i<processorTimers.length; i++)
+            processorTimers[i] = metrics.sampledTimer(String.format(
+                "%s_processor_read", getProcessorName(processors.get(i))));
+        lineWriteTimer = metrics.sampledTimer("line_write");
+    }
+
+    private MzTabFileIndex createInputIndex() {
+        // only index the input file if it isn't already indexed
+        if (indexed == false ||
+            MzTabFileIndex.load(mzTabFile.getFile()) != null)
+            return null;
+        else return new MzTabFileIndex(mzTabFile.getFile());
+    }
+
+    private MzTabFileIndex createOutputIndex() {
+        if (indexed == false || outputFile == null)
+            return null;
+        else return new MzTabFileIndex(outputFile);
+    }
+
+    private PrintWriter createWriter()
+    throws IOException {
+        // write UTF-8, the same charset MappedLineReader reads
+        // by default, so that output file indexes are accurate
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(outputFile, false),
+            MappedLineReader.DEFAULT_CHARSET)));
+    }
+
+    private static void saveIndexes(
+        MzTabFileIndex inputIndex, MzTabFileIndex outputIndex
+    ) {
+        // indexes are only an optimization, so
+        // a failure to save them is not an error
+        if (inputIndex != null)
+            inputIndex.save();
+        if (outputIndex != null)
+            outputIndex.save();
+    }
+
+    private static Class<?> getProcessorClass(MzTabRowProcessor processor) {
+        // report adapted line processors under their own names
+        if (processor instanceof MzTabProcessorAdapter)
+            return ((MzTabProcessorAdapter)processor).getProcessor().getClass();
+        else return processor.getClass();
+    }
+
+    private static String getProcessorName(MzTabRowProcessor processor) {
+        return getProcessorClass(processor).getName();
+    }
+
+    /*========================================================================
+     * Convenience classes
+     *========================================================================*/
+    /**
+     * Execution modes for readers, so that a command line tool can hand the
+     * modes it was run with to every reader it creates. See setPipelined,
+     * setIndexed and setParallel for what each mode does.
+     */
+    public static class Options {
+        private boolean pipelined;
+        private boolean indexed;
+        private boolean parallel;
+
+        public Options(boolean pipelined, boolean indexed, boolean parallel) {
+            this.pipelined = pipelined;
+            this.indexed = indexed;
+            this.parallel = parallel;
+        }
+
+        public boolean isPipelined() {
+            return pipelined;
+        }
+
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        public boolean isParallel() {
+            return parallel;
+        }
+    }
+
+    /**
+     * Struct to carry a contiguous run of mzTab rows between pipeline stages.
+     */
+    private static class RowBatch {
+        private MzTabRow[] rows;
+        private int        size;
+
+        public RowBatch(int capacity) {
+            rows = new MzTabRow[capacity];
+            size = 0;
+        }
+    }
+
+    /**
+     * Shared state of one pipelined read, recording the first error thrown
+     * by any stage and aborting all other stages when that happens.
+     */
+    private static class PipelineControl {
+        private final Thread         writerThread;
+        private List<PipelineStage>  stages;
+        private volatile Throwable   error;
+
+        public PipelineControl(Thread writerThread) {
+            this.writerThread = writerThread;
+            stages = null;
+            error = null;
+        }
+
+        public synchronized void fail(Throwable error) {
+            // only the first error is reported; any interruptions
+            // after that are just the other stages shutting down
+            if (this.error != null)
+                return;
+            this.error = error;
+            if (stages != null)
+                for (PipelineStage stage : stages)
+                    if (stage != Thread.currentThread())
+                        stage.interrupt();
+            if (writerThread != Thread.currentThread())
+                writerThread.interrupt();
+        }
+    }
+
+    private static abstract class PipelineStage extends Thread {
+        protected PipelineControl control;
+
+        public PipelineStage(PipelineControl control, String name) {
+            super(name);
+            setDaemon(true);
+            this.control = control;
+        }
+
+        @Override
+        public void run() {
+            try {
+                process();
+            } catch (Throwable error) {
+                control.fail(error);
+            }
+        }
+
+        protected abstract void process() throws Exception;
+    }
+
+    /**
+     * Pipeline stage that reads the input mzTab file into row batches.
+     */
+    private class ReaderStage extends PipelineStage {
+        private BlockingQueue<RowBatch> output;
+        private MzTabFileIndex          index;
+
+        public ReaderStage(
+            PipelineControl control, BlockingQueue<RowBatch> output,
+            MzTabFileIndex index
+        ) {
+            super(control, "mzTab-reader");
+            this.output = output;
+            this.index = index;
+        }
+
+        @Override
+        protected void process() throws Exception {
+            MappedLineReader reader = null;
+            try {
+                reader = new MappedLineReader(mzTabFile.getFile());
+                int lineNumber = 0;
+                RowBatch batch = new RowBatch(pipelineBatchSize);
+                while (true) {
+                    long offset = reader.getPosition();
+                    long checkpoint = lineReadTimer.start();
+                    String line = reader.readLine();
+                    if (line == null) {
+                        lineReadTimer.cancel();
+                        break;
+                    }
+                    lineReadTimer.stop(checkpoint);
+                    lineNumber++;
+                    if (index != null)
+                        index.addLine(
+                            line, lineNumber, offset, reader.getPosition());
+                    batch.rows[batch.size++] = new MzTabRow(line, lineNumber);
+                    // hand off this batch once it's full
+                    if (batch.size >= pipelineBatchSize) {
+                        output.put(batch);
+                        batch = new RowBatch(pipelineBatchSize);
+                    }
+                }
+                if (batch.size > 0)
+                    output.put(batch);
+                output.put(END_OF_INPUT);
+            } finally {
+                try { reader.close(); } catch (Throwable error) {}
+            }
+        }
+    }
+
+    /**
+     * A run of consecutive PSM rows to be passed through the forks of the
+     * leading row-independent processors on a worker thread. The original
+     * lines are kept so that the chunk can be processed again serially if
+     * its forks' results turn out not to be mergeable.
+     */
+    private static class RowChunk implements Callable<MzTabRow[]> {
+        private List<String>                   lines;
+        private List<Integer>                  lineNumbers;
+        private int                            length;
+        private MzTabRowIndependentProcessor[] forks;
+        private Future<MzTabRow[]>             result;
+
+        public RowChunk(int parallelProcessors) {
+            lines = new ArrayList<String>();
+            lineNumbers = new ArrayList<Integer>();
+            length = 0;
+            forks = new MzTabRowIndependentProcessor[parallelProcessors];
+            result = null;
+        }
+
+        public void add(String line, int lineNumber) {
+            lines.add(line);
+            lineNumbers.add(lineNumber);
+            length += line.length();
+        }
+
+        public MzTabRow[] getRows() {
+            MzTabRow[] rows = new MzTabRow[lines.size()];
+            for (int i=0; i<rows.length; i++)
+                rows[i] = new MzTabRow(lines.get(i), lineNumbers.get(i));
+            return rows;
+        }
+
+        public MzTabRow[] call() {
+            MzTabRow[] rows = getRows();
+            for (MzTabRow row : rows)
+                for (MzTabRowIndependentProcessor fork : forks)
+                    fork.processMzTabRow(row);
+            return rows;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, String.format(
+                "mzTab-worker-%d", count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Pipeline stage that passes each row batch through a single processor.
+     */
+    private static class ProcessorStage extends PipelineStage {
+        private MzTabRowProcessor       processor;
+        private Timer                   timer;
+        private BlockingQueue<RowBatch> input;
+        private BlockingQueue<RowBatch> output;
+
+        public ProcessorStage(
+            PipelineControl control, MzTabRowProcessor processor, Timer timer,
+            BlockingQueue<RowBatch> input, BlockingQueue<RowBatch> output
+        ) {
+            super(control, String.format("mzTab-processor-%s",
+                getProcessorClass(processor).getSimpleName()));
+            this.processor = processor;
+            this.timer = timer;
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        protected void process() throws Exception {
+            while (true) {
+                RowBatch batch = input.take();
+                if (batch == END_OF_INPUT) {
+                    output.put(batch);
+                    return;
+                }
+                for (int i=0; i<batch.size; i++) {
+                    long checkpoint = timer.start();
+                    processor.processMzTabRow(batch.rows[i]);
+                    timer.stop(checkpoint);
+                }
+                output.put(batch);
             }
-            record = processorRecord.get("teardown");
-            if (record != null)
-                message.append("\n  Teardown time:\t").append(
-                    CommonUtils.formatNanoseconds(record.getTotal()));
         }
-        message.append("\n----------");
-        System.out.println(message.toString());
     }
 }
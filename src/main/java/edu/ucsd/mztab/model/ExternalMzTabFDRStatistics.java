@@ -0,0 +1,437 @@
+package edu.ucsd.mztab.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucsd.mztab.model.MzTabConstants.FDRType;
+import edu.ucsd.mztab.util.ExternalSorter;
+import edu.ucsd.mztab.util.ExternalSorter.SortedReader;
+import edu.ucsd.mztab.util.QValueEstimator;
+
+/**
+ * FDR statistics of an mzTab file too large for its distinct PSMs, peptides
+ * and proteins to be held in memory, even in compact form.
+ *
+ * Instead of being looked up as they're found, PSM, peptide and
+ * protein-peptide records are spilled to sorted run files. Once the whole
+ * file has been read, all records of each PSM and peptide are merged in
+ * one sequential pass, peptides are merge-joined with the proteins they're
+ * matched to, and the resulting protein records are sorted and merged in
+ * turn, using the same rules as the in-memory statistics. Only the element
+ * counts and highest Q-values are kept, so these statistics only serve as
+ * an FDR counter; individual elements can't be looked up afterwards.
+ */
+public class ExternalMzTabFDRStatistics implements MzTabFDRCounter
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	private static final String TRUE = "T";
+	private static final String FALSE = "F";
+	private static final String NULL = "N";
+	private static final String[] ELEMENT_TYPES = new String[]{
+		"targetPSM", "decoyPSM", "nullDecoyPSM",
+		"targetPeptide", "decoyPeptide", "nullDecoyPeptide",
+		"targetProtein", "decoyProtein", "nullDecoyProtein"
+	};
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File                 runBase;
+	// "<PSM ID>\t<isDecoy>"
+	private ExternalSorter       psms;
+	// "<sequence>\t<passThreshold>\t<isDecoy>"
+	private ExternalSorter       peptides;
+	// "<sequence>\t<accession>"
+	private ExternalSorter       proteinPeptides;
+	// "<sequence>\t<score>" and "<accession>\t<score>"
+	private ExternalSorter       peptideScores;
+	private ExternalSorter       proteinScores;
+	// element type -> count, once all records have been merged
+	private Map<String, Integer> counts;
+	// highest found Q-values are few enough to be kept in memory
+	private MzTabFDRStatistics   qValues;
+
+	/*========================================================================
+	 * Constructor
+	 *========================================================================*/
+	/**
+	 * @param runBase	base path of the temporary run files of all records
+	 */
+	public ExternalMzTabFDRStatistics(File runBase) {
+		if (runBase == null)
+			throw new NullPointerException("Run file base cannot be null.");
+		this.runBase = runBase;
+		psms = new ExternalSorter(getRunBase("psms"), true);
+		peptides = new ExternalSorter(getRunBase("peptides"), true);
+		proteinPeptides = new ExternalSorter(getRunBase("edges"), true);
+		peptideScores = new ExternalSorter(getRunBase("peptideScores"), true);
+		proteinScores = new ExternalSorter(getRunBase("proteinScores"), true);
+		counts = null;
+		qValues = new MzTabFDRStatistics();
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	@Override
+	public void addPSM(String psmID, Boolean isDecoy) {
+		if (psmID == null)
+			return;
+		else add(psms, psmID, format(isDecoy));
+	}
+
+	@Override
+	public void addPeptide(
+		String sequence, Boolean passThreshold, Boolean isDecoy
+	) {
+		if (sequence == null)
+			return;
+		else add(peptides, sequence, format(passThreshold), format(isDecoy));
+	}
+
+	@Override
+	public void addProteinPeptide(String accession, String sequence) {
+		if (accession == null || sequence == null)
+			return;
+		else add(proteinPeptides, sequence, accession);
+	}
+
+	@Override
+	public void recordScore(String sequence, String accession, double score) {
+		if (Double.isNaN(score))
+			return;
+		if (sequence != null)
+			add(peptideScores, sequence, Double.toString(score));
+		if (accession != null)
+			add(proteinScores, accession, Double.toString(score));
+	}
+
+	@Override
+	public void recordQValue(
+		FDRType type, Double qValue, FDRType filterType, Double filterFDR
+	) {
+		qValues.recordQValue(type, qValue, filterType, filterFDR);
+	}
+
+	@Override
+	public Double getMaxQValue(FDRType type) {
+		return qValues.getMaxQValue(type);
+	}
+
+	public void mergeRecords() {
+		mergeRecords(null, null);
+	}
+
+	/**
+	 * Merges all records added so far into the final element counts, and
+	 * deletes their run files. No more records can be added afterwards.
+	 * The best score of each counted peptide and protein of known decoy
+	 * status, if any, is added to the argument estimator of its level.
+	 */
+	public void mergeRecords(
+		QValueEstimator peptideQValues, QValueEstimator proteinQValues
+	) {
+		if (counts != null)
+			return;
+		Map<String, Integer> merged = new HashMap<String, Integer>();
+		for (String type : ELEMENT_TYPES)
+			merged.put(type, 0);
+		try {
+			mergePSMs(merged);
+			ExternalSorter proteins =
+				new ExternalSorter(getRunBase("proteins"), true);
+			try {
+				mergePeptides(merged, proteins, peptideQValues);
+				mergeProteins(merged, proteins, proteinQValues);
+			} finally {
+				proteins.close();
+			}
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not merge the FDR statistics records spilled to [%s].",
+				runBase.getAbsolutePath()), error);
+		} finally {
+			close();
+		}
+		counts = merged;
+	}
+
+	@Override
+	public int getElementCount(String type) {
+		if (type == null)
+			return 0;
+		else if (counts == null)
+			throw new IllegalStateException(
+				"FDR statistics records have not been merged yet.");
+		Integer count = counts.get(type);
+		if (count == null)
+			return 0;
+		else return count;
+	}
+
+	/**
+	 * Deletes all run files of records that haven't been merged yet.
+	 */
+	public void close() {
+		psms.close();
+		peptides.close();
+		proteinPeptides.close();
+		peptideScores.close();
+		proteinScores.close();
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Reads sorted records back as groups of all the records sharing the
+	 * same key (their first field).
+	 */
+	private static class RecordGroups {
+		private SortedReader   reader;
+		private String         next;
+		private String         key;
+		private List<String[]> values;
+
+		public RecordGroups(SortedReader reader) throws IOException {
+			this.reader = reader;
+			next = reader.readLine();
+			key = null;
+			values = new ArrayList<String[]>();
+		}
+
+		/**
+		 * Advances to the next group, returning false if there are no more.
+		 */
+		public boolean advance() throws IOException {
+			values.clear();
+			if (next == null) {
+				key = null;
+				return false;
+			}
+			key = next.substring(0, next.indexOf('\t'));
+			while (next != null && next.startsWith(key) &&
+				next.length() > key.length() &&
+				next.charAt(key.length()) == '\t') {
+				values.add(next.substring(key.length() + 1).split("\t"));
+				next = reader.readLine();
+			}
+			return true;
+		}
+
+		public void close() {
+			reader.close();
+		}
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	/**
+	 * A PSM counts as a target if any of its rows is a target, otherwise as
+	 * a decoy if any of its rows is a decoy, and otherwise as a null-decoy
+	 * PSM; this is the same outcome as the in-memory element sets reach,
+	 * whatever the order of the rows.
+	 */
+	private void mergePSMs(Map<String, Integer> merged) throws IOException {
+		RecordGroups groups = new RecordGroups(psms.finish());
+		try {
+			while (groups.advance()) {
+				Boolean isDecoy = null;
+				for (String[] values : groups.values) {
+					Boolean value = parse(values[0]);
+					if (value != null && (isDecoy == null || value == false))
+						isDecoy = value;
+				}
+				increment(merged, getElementType(isDecoy, "PSM"));
+			}
+		} finally {
+			groups.close();
+		}
+	}
+
+	/**
+	 * Merges all records of each peptide, counts it, and joins it with all
+	 * the proteins it's matched to, writing one record of each such protein
+	 * with the peptide's attributes to the argument sorter.
+	 */
+	private void mergePeptides(
+		Map<String, Integer> merged, ExternalSorter proteins,
+		QValueEstimator qValues
+	) throws IOException {
+		RecordGroups peptideGroups = new RecordGroups(peptides.finish());
+		RecordGroups edgeGroups = new RecordGroups(proteinPeptides.finish());
+		RecordGroups scoreGroups = new RecordGroups(peptideScores.finish());
+		try {
+			boolean moreEdges = edgeGroups.advance();
+			boolean moreScores = scoreGroups.advance();
+			while (peptideGroups.advance()) {
+				// passThreshold=true wins over false, which wins over null;
+				// isDecoy=false wins over true, which wins over null
+				Boolean passThreshold = null;
+				Boolean isDecoy = null;
+				for (String[] values : peptideGroups.values) {
+					Boolean pass = parse(values[0]);
+					if (pass != null && (passThreshold == null || pass))
+						passThreshold = pass;
+					Boolean decoy = parse(values[1]);
+					if (decoy != null && (isDecoy == null || decoy == false))
+						isDecoy = decoy;
+				}
+				// count this peptide if it passes threshold
+				if (passThreshold != null && passThreshold) {
+					increment(merged, getElementType(isDecoy, "Peptide"));
+					// every scored peptide also has a peptide record
+					while (moreScores && ExternalSorter.compareKeys(
+						scoreGroups.key, peptideGroups.key) < 0)
+						moreScores = scoreGroups.advance();
+					if (moreScores &&
+						scoreGroups.key.equals(peptideGroups.key)) {
+						if (qValues != null && isDecoy != null)
+							qValues.addScore(getBestScore(scoreGroups), isDecoy);
+						moreScores = scoreGroups.advance();
+					}
+				}
+				// proteins matched only to unknown peptides
+				// still get a record, without any attributes
+				while (moreEdges && ExternalSorter.compareKeys(
+					edgeGroups.key, peptideGroups.key) < 0) {
+					addProteinRecords(proteins, edgeGroups, null, null);
+					moreEdges = edgeGroups.advance();
+				}
+				if (moreEdges && edgeGroups.key.equals(peptideGroups.key)) {
+					addProteinRecords(
+						proteins, edgeGroups, passThreshold, isDecoy);
+					moreEdges = edgeGroups.advance();
+				}
+			}
+			while (moreEdges) {
+				addProteinRecords(proteins, edgeGroups, null, null);
+				moreEdges = edgeGroups.advance();
+			}
+		} finally {
+			peptideGroups.close();
+			edgeGroups.close();
+			scoreGroups.close();
+		}
+	}
+
+	/**
+	 * A protein passes threshold iff any of its peptides does (or if none
+	 * of them is known to pass or fail), and is a decoy iff any of its
+	 * peptides is, or a target if otherwise any of them is a target.
+	 */
+	private void mergeProteins(
+		Map<String, Integer> merged, ExternalSorter proteins,
+		QValueEstimator qValues
+	) throws IOException {
+		RecordGroups groups = new RecordGroups(proteins.finish());
+		RecordGroups scoreGroups = new RecordGroups(proteinScores.finish());
+		try {
+			boolean moreScores = scoreGroups.advance();
+			while (groups.advance()) {
+				Boolean passThreshold = null;
+				Boolean isDecoy = null;
+				for (String[] values : groups.values) {
+					Boolean pass = parse(values[0]);
+					if (pass != null && (passThreshold == null || pass))
+						passThreshold = pass;
+					Boolean decoy = parse(values[1]);
+					if (decoy != null && (isDecoy == null || decoy))
+						isDecoy = decoy;
+				}
+				if (passThreshold != null && passThreshold == false)
+					continue;
+				increment(merged, getElementType(isDecoy, "Protein"));
+				while (moreScores && ExternalSorter.compareKeys(
+					scoreGroups.key, groups.key) < 0)
+					moreScores = scoreGroups.advance();
+				if (moreScores && scoreGroups.key.equals(groups.key)) {
+					if (qValues != null && isDecoy != null)
+						qValues.addScore(getBestScore(scoreGroups), isDecoy);
+					moreScores = scoreGroups.advance();
+				}
+			}
+		} finally {
+			groups.close();
+			scoreGroups.close();
+		}
+	}
+
+	private static double getBestScore(RecordGroups scores) {
+		double best = Double.NaN;
+		for (String[] values : scores.values) {
+			double score = Double.parseDouble(values[0]);
+			if (Double.isNaN(best) || best < score)
+				best = score;
+		}
+		return best;
+	}
+
+	private void addProteinRecords(
+		ExternalSorter proteins, RecordGroups edges,
+		Boolean passThreshold, Boolean isDecoy
+	) throws IOException {
+		for (String[] values : edges.values)
+			proteins.add(join(values[0], format(passThreshold), format(isDecoy)));
+	}
+
+	private void add(ExternalSorter sorter, String... fields) {
+		try {
+			sorter.add(join(fields));
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not spill FDR statistics records to [%s].",
+				runBase.getAbsolutePath()), error);
+		}
+	}
+
+	private File getRunBase(String records) {
+		return new File(String.format(
+			"%s.%s", runBase.getAbsolutePath(), records));
+	}
+
+	private static String getElementType(Boolean isDecoy, String element) {
+		if (isDecoy == null)
+			return "nullDecoy" + element;
+		else if (isDecoy)
+			return "decoy" + element;
+		else return "target" + element;
+	}
+
+	private static void increment(Map<String, Integer> counts, String type) {
+		counts.put(type, counts.get(type) + 1);
+	}
+
+	private static String format(Boolean value) {
+		if (value == null)
+			return NULL;
+		else if (value)
+			return TRUE;
+		else return FALSE;
+	}
+
+	private static Boolean parse(String value) {
+		if (TRUE.equals(value))
+			return true;
+		else if (FALSE.equals(value))
+			return false;
+		else return null;
+	}
+
+	private static String join(String... fields) {
+		StringBuilder joined = new StringBuilder();
+		for (String field : fields) {
+			if (joined.length() > 0)
+				joined.append("\t");
+			joined.append(field);
+		}
+		return joined.toString();
+	}
+}
@@ -0,0 +1,496 @@
+package edu.ucsd.mztab.model;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.ucsd.mztab.util.CommonUtils;
+
+/**
+ * A named set of timers and counters describing where a long-running
+ * operation spends its time.
+ *
+ * Timers and counters are registered once, up front, and then updated
+ * through the objects returned at registration, so recording an event never
+ * involves a map lookup, string formatting or boxing. A registry may be
+ * disabled entirely, in which case its timers never even read the clock, or
+ * it may sample only every Nth event of its per-row timers, so that the cost
+ * of timing tens of millions of rows stays negligible. Durations recorded by
+ * a timer are also counted in a fixed set of logarithmic buckets, from which
+ * approximate latency percentiles are reported.
+ *
+ * Registration is thread-safe, but each timer and counter is meant to be
+ * updated by only one thread at a time.
+ */
+public class MetricsRegistry
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	// sample interval value indicating that metrics are not to be recorded
+	public static final int DISABLED = 0;
+	// value returned by timers for events that are not being timed
+	public static final long NOT_SAMPLED = Long.MIN_VALUE;
+	private static final String DEBUG_LOG_HEADER =
+		"metric\tcount\tsampled_count\telement_count\ttotal_time_ns\t" +
+		"estimated_total_time_ns\tmin_time_ns\tmax_time_ns\t" +
+		"average_time_ns\tp50_time_ns\tp90_time_ns\tp99_time_ns";
+	private static final double[] REPORTED_PERCENTILES =
+		new double[]{ 0.5, 0.9, 0.99 };
+	// each power of two is split into this many histogram buckets
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	/*========================================================================
+	 * Static properties
+	 *========================================================================*/
+	private static int defaultSampleInterval = DISABLED;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private String               name;
+	private int                  sampleInterval;
+	private Map<String, Timer>   timers;
+	private Map<String, Counter> counters;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public MetricsRegistry(String name) {
+		this(name, defaultSampleInterval);
+	}
+
+	/**
+	 * Creates a registry whose sampled timers record one of every
+	 * sampleInterval events. An interval of 1 records every event, and
+	 * an interval of 0 (DISABLED) records nothing at all.
+	 */
+	public MetricsRegistry(String name, int sampleInterval) {
+		if (name == null)
+			throw new NullPointerException(
+				"Argument metrics registry name cannot be null.");
+		else this.name = name;
+		if (sampleInterval < 0)
+			throw new IllegalArgumentException(String.format(
+				"Metrics sample interval (%d) cannot be negative.",
+				sampleInterval));
+		else this.sampleInterval = sampleInterval;
+		timers = new LinkedHashMap<String, Timer>();
+		counters = new LinkedHashMap<String, Counter>();
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Registers a timer for coarse-grained events, such as processor setup or
+	 * database loads, that records every event whenever this registry is
+	 * enabled. Returns the already registered timer, if there is one.
+	 */
+	public synchronized Timer timer(String name) {
+		return register(name, isEnabled() ? 1 : DISABLED);
+	}
+
+	/**
+	 * Registers a timer for fine-grained events, such as the processing of
+	 * a single row, that records only one of every sampleInterval events.
+	 * Returns the already registered timer, if there is one.
+	 */
+	public synchronized Timer sampledTimer(String name) {
+		return register(name, sampleInterval);
+	}
+
+	public synchronized Counter counter(String name) {
+		if (name == null)
+			throw new NullPointerException("Counter name cannot be null.");
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counter = new Counter(isEnabled());
+			counters.put(name, counter);
+		}
+		return counter;
+	}
+
+	public synchronized Timer getTimer(String name) {
+		if (name == null)
+			return null;
+		else return timers.get(name);
+	}
+
+	public synchronized Map<String, Timer> getTimers() {
+		return Collections.unmodifiableMap(
+			new LinkedHashMap<String, Timer>(timers));
+	}
+
+	public synchronized Counter getCounter(String name) {
+		if (name == null)
+			return null;
+		else return counters.get(name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public boolean isEnabled() {
+		return sampleInterval != DISABLED;
+	}
+
+	/**
+	 * Prints a summary of this registry's metrics to the console and, if a
+	 * debug log file is specified, writes every metric to it in full. Does
+	 * nothing if this registry is disabled.
+	 */
+	public void report(File debugLogFile) {
+		if (isEnabled() == false)
+			return;
+		if (debugLogFile != null)
+			writeDebugLog(debugLogFile);
+		System.out.println(getSummary());
+	}
+
+	public synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder(name);
+		summary.append(" metrics");
+		if (sampleInterval > 1)
+			summary.append(String.format(
+				" (per-row timings sampled 1 in %,d)", sampleInterval));
+		summary.append(":\n----------");
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			if (timer.getSampleCount() < 1)
+				continue;
+			summary.append("\n").append(entry.getKey()).append(":\t");
+			summary.append(formatNanoseconds(timer.getEstimatedTotal()));
+			summary.append(String.format("\t%,d", timer.getCount()));
+			if (timer.getSampleCount() < timer.getCount())
+				summary.append(String.format(
+					" (%,d sampled)", timer.getSampleCount()));
+			if (timer.getCount() > 1) {
+				summary.append("\taverage ").append(
+					formatNanoseconds(Math.round(timer.getAverage())));
+				for (double percentile : REPORTED_PERCENTILES)
+					summary.append(String.format("\tp%s ",
+						formatPercentile(percentile))).append(
+						formatNanoseconds(timer.getPercentile(percentile)));
+				summary.append("\tmax ").append(
+					formatNanoseconds(timer.getMax()));
+			}
+		}
+		for (Map.Entry<String, Counter> entry : counters.entrySet())
+			summary.append("\n").append(entry.getKey()).append(":\t").append(
+				String.format("%,d", entry.getValue().get()));
+		summary.append("\n----------");
+		return summary.toString();
+	}
+
+	/**
+	 * Sets the sample interval of registries that are constructed without
+	 * one, so that command line tools can turn on metrics for every
+	 * component that reports them without threading a flag through each one.
+	 */
+	public static void setDefaultSampleInterval(int sampleInterval) {
+		if (sampleInterval < 0)
+			throw new IllegalArgumentException(String.format(
+				"Metrics sample interval (%d) cannot be negative.",
+				sampleInterval));
+		else defaultSampleInterval = sampleInterval;
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private Timer register(String name, int interval) {
+		if (name == null)
+			throw new NullPointerException("Timer name cannot be null.");
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			timer = new Timer(interval);
+			timers.put(name, timer);
+		}
+		return timer;
+	}
+
+	private synchronized void writeDebugLog(File debugLogFile) {
+		PrintWriter writer = null;
+		try {
+			writer = new PrintWriter(new FileWriter(debugLogFile));
+			writer.println(DEBUG_LOG_HEADER);
+			for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+				Timer timer = entry.getValue();
+				writer.print(String.format("%s\t%d\t%d\t%d\t%d\t%d",
+					entry.getKey(), timer.getCount(), timer.getSampleCount(),
+					timer.getElementCount(), timer.getTotal(),
+					timer.getEstimatedTotal()));
+				if (timer.getSampleCount() > 0) {
+					writer.print(String.format("\t%d\t%d\t%.1f",
+						timer.getMin(), timer.getMax(), timer.getAverage()));
+					for (double percentile : REPORTED_PERCENTILES)
+						writer.print(String.format(
+							"\t%d", timer.getPercentile(percentile)));
+					writer.println();
+				} else writer.println("\t--\t--\t--\t--\t--\t--");
+			}
+			for (Map.Entry<String, Counter> entry : counters.entrySet())
+				writer.println(String.format("%s\t%d\t--\t--\t--\t--\t--\t--" +
+					"\t--\t--\t--\t--", entry.getKey(), entry.getValue().get()));
+		} catch (Throwable error) {
+			System.err.println(String.format(
+				"Could not write %s metrics to debug log file [%s].",
+				name, debugLogFile.getAbsolutePath()));
+			error.printStackTrace();
+		} finally {
+			try { writer.close(); } catch (Throwable error) {}
+		}
+	}
+
+	private static String formatNanoseconds(long nanoseconds) {
+		// CommonUtils rounds to whole milliseconds,
+		// which hides everything that happens per row
+		if (nanoseconds < 1000)
+			return String.format("%d ns", nanoseconds);
+		else if (nanoseconds < 1000000)
+			return String.format("%.1f us", nanoseconds / 1000.0);
+		else return CommonUtils.formatNanoseconds(nanoseconds);
+	}
+
+	private static String formatPercentile(double percentile) {
+		double value = percentile * 100;
+		if (value == Math.rint(value))
+			return Long.toString(Math.round(value));
+		else return Double.toString(value);
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Accumulates the durations of one kind of event in primitive fields.
+	 *
+	 * An event is timed either with start() and stop(), or, when several
+	 * timers cover consecutive steps of the same event, by passing the
+	 * checkpoint returned by one timer's start() through each subsequent
+	 * timer's lap(), so that the whole chain reads the clock only once per
+	 * step and the sampling decision made at the start applies to every
+	 * step. Every method is a no-op returning NOT_SAMPLED for events that
+	 * are not being timed.
+	 */
+	public static class Timer {
+		private final int interval;
+		private long      count;
+		private long      samples;
+		private long      elements;
+		private long      total;
+		private long      min;
+		private long      max;
+		private long[]    histogram;
+
+		private Timer(int interval) {
+			this.interval = interval;
+			count = 0;
+			samples = 0;
+			elements = 0;
+			total = 0;
+			min = Long.MAX_VALUE;
+			max = 0;
+			// only allocate the histogram if it might ever be used
+			if (interval != DISABLED)
+				histogram = new long[BUCKETS];
+		}
+
+		/**
+		 * Begins a new event, returning the current time if this event
+		 * is to be timed, or NOT_SAMPLED otherwise.
+		 */
+		public long start() {
+			if (interval == DISABLED)
+				return NOT_SAMPLED;
+			else if (count++ % interval != 0)
+				return NOT_SAMPLED;
+			else return System.nanoTime();
+		}
+
+		/**
+		 * Ends an event begun by start(), returning the current time if
+		 * it was timed, or NOT_SAMPLED otherwise.
+		 */
+		public long stop(long start) {
+			return stop(start, 1);
+		}
+
+		public long stop(long start, long elements) {
+			if (start == NOT_SAMPLED)
+				return NOT_SAMPLED;
+			long end = System.nanoTime();
+			add(end - start, elements);
+			return end;
+		}
+
+		/**
+		 * Discards an event begun by start() that turned out not to have
+		 * happened, such as an attempt to read past the end of a file.
+		 */
+		public void cancel() {
+			if (interval != DISABLED)
+				count--;
+		}
+
+		/**
+		 * Counts a new event that began at the argument checkpoint, as
+		 * returned by another timer's start(), stop() or lap(), and ended
+		 * now. Returns the current time to be passed on to the next step,
+		 * or NOT_SAMPLED if this event is not being timed.
+		 */
+		public long lap(long checkpoint) {
+			if (interval == DISABLED)
+				return NOT_SAMPLED;
+			count++;
+			if (checkpoint == NOT_SAMPLED)
+				return NOT_SAMPLED;
+			long end = System.nanoTime();
+			add(end - checkpoint, 1);
+			return end;
+		}
+
+		/**
+		 * Counts a new event whose duration was already measured, such as
+		 * a database load that reports how many rows it affected.
+		 */
+		public void record(long elapsed, long elements) {
+			if (interval == DISABLED)
+				return;
+			count++;
+			add(elapsed, elements);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSampleCount() {
+			return samples;
+		}
+
+		public long getElementCount() {
+			return elements;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Returns the total time spent on all events counted by this timer,
+		 * extrapolated from the ones that were actually timed.
+		 */
+		public long getEstimatedTotal() {
+			if (samples < 1)
+				return 0;
+			else if (samples == count)
+				return total;
+			else return Math.round((double)total / samples * count);
+		}
+
+		public long getMin() {
+			return samples < 1 ? 0 : min;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getAverage() {
+			if (samples < 1)
+				return 0.0;
+			else return (double)total / samples;
+		}
+
+		/**
+		 * Returns the approximate duration under which the argument fraction
+		 * (between 0 and 1) of timed events fell. Durations are bucketed to
+		 * within 25% of their true value.
+		 */
+		public long getPercentile(double percentile) {
+			if (samples < 1)
+				return 0;
+			long rank = (long)Math.ceil(percentile * samples);
+			if (rank < 1)
+				rank = 1;
+			long seen = 0;
+			for (int i=0; i<BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= rank)
+					return Math.max(Math.min(getBucketMax(i), max), min);
+			}
+			return max;
+		}
+
+		private void add(long elapsed, long elements) {
+			if (elapsed < 0)
+				elapsed = 0;
+			samples++;
+			this.elements += elements;
+			total += elapsed;
+			if (elapsed < min)
+				min = elapsed;
+			if (elapsed > max)
+				max = elapsed;
+			histogram[getBucket(elapsed)]++;
+		}
+
+		private static int getBucket(long value) {
+			if (value < SUB_BUCKETS)
+				return (int)value;
+			// bucket by power of two, then by the next most significant bits
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket =
+				(int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		private static long getBucketMax(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			long subBucket = bucket % SUB_BUCKETS;
+			// the top bucket's bound overflows to exactly Long.MAX_VALUE
+			return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+
+	/**
+	 * A running count of some kind of event, such as rows read.
+	 */
+	public static class Counter {
+		private final boolean enabled;
+		private long          count;
+
+		private Counter(boolean enabled) {
+			this.enabled = enabled;
+			count = 0;
+		}
+
+		public void increment() {
+			if (enabled)
+				count++;
+		}
+
+		public void add(long amount) {
+			if (enabled)
+				count += amount;
+		}
+
+		public long get() {
+			return count;
+		}
+	}
+}
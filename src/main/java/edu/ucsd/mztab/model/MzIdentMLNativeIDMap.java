@@ -51,7 +51,7 @@ public class MzIdentMLNativeIDMap
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
-	public boolean isScan(
+	public synchronized boolean isScan(
 		MzTabFile mzTabFile, String sequence, int id
 	) throws UnverifiableNativeIDException {
 		if (mzTabFile == null)
@@ -0,0 +1,24 @@
+package edu.ucsd.mztab.model;
+
+import edu.ucsd.mztab.model.MzTabConstants.FDRType;
+
+/**
+ * What the first FDR pass needs of the FDR statistics of an mzTab file: to
+ * record its PSM rows, and to read back its element counts by target/decoy
+ * status and its highest Q-values once they're all recorded.
+ */
+public interface MzTabFDRCounter
+{
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void addPSM(String psmID, Boolean isDecoy);
+	public void addPeptide(
+		String sequence, Boolean passThreshold, Boolean isDecoy);
+	public void addProteinPeptide(String accession, String sequence);
+	public void recordScore(String sequence, String accession, double score);
+	public void recordQValue(
+		FDRType type, Double qValue, FDRType filterType, Double filterFDR);
+	public int getElementCount(String type);
+	public Double getMaxQValue(FDRType type);
+}
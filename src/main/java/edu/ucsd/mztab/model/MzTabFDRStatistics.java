@@ -1,5 +1,7 @@
 package edu.ucsd.mztab.model;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -8,32 +10,70 @@ import java.util.Set;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import edu.ucsd.mztab.model.MzTabConstants.FDRType;
+import edu.ucsd.mztab.util.StringDictionary;
 
-public class MzTabFDRStatistics
+/**
+ * FDR-relevant statistics of one mzTab file: its distinct PSMs, peptides and
+ * proteins by target/decoy status, the passThreshold/isDecoy attributes of
+ * its peptides and proteins, the peptides matched to each protein, and its
+ * highest Q-values.
+ *
+ * To keep the statistics of very large files within a modest heap, every
+ * identifier is dictionary-encoded as an int ID once, and everything else
+ * is kept in terms of those IDs: element sets and Boolean attributes as bit
+ * sets, and the protein-peptide relation as a sorted array of ID pairs that
+ * is compressed into per-protein rows of peptide IDs once it's read.
+ */
+public class MzTabFDRStatistics implements MzTabFDRCounter
 {
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	private static final int INITIAL_EDGE_CAPACITY = 1024;
+	private static final int INITIAL_SCORE_CAPACITY = 1024;
+
 	/*========================================================================
 	 * Properties
 	 *========================================================================*/
-	// element type ("targetXYZ"/"decoyXYZ") -> set of distinct elements
-	private Map<String, Set<String>>                     elements;
-	// protein accession -> matched peptides
-	private Map<String, Set<String>>                     proteinPeptides;
-	// identifier -> passThreshold/isDecoy
-	private Map<String, ImmutablePair<Boolean, Boolean>> peptides;
-	private Map<String, ImmutablePair<Boolean, Boolean>> proteins;
-	// highest found Q-values
-	private Map<FDRType, Double>                         maxQValues;
+	// identifier (PSM ID, sequence or accession) -> ID
+	private StringDictionary   identifiers;
+	// element type ("targetXYZ"/"decoyXYZ") -> IDs of distinct elements
+	private Map<String, BitSet> elements;
+	// identifier ID -> passThreshold/isDecoy
+	private Attributes          peptides;
+	private Attributes          proteins;
+	// protein accession -> matched peptides, as (protein << 32 | peptide)
+	// ID pairs; pairs are sorted and deduplicated whenever the array fills
+	private long[]              proteinPeptideEdges;
+	private int                 edgeCount;
+	// the same relation, compressed into one row of peptide IDs per
+	// protein, once it's read; rows are kept in protein ID order
+	private int[]               mappedProteins;
+	private int[]               rowOffsets;
+	private int[]               rowPeptides;
+	// highest found Q-values, by FDR type; NaN if none was found
+	private double[]            maxQValues;
+	// identifier ID -> best (highest) PSM score of the peptide or protein
+	// with that identifier, if any were recorded; NaN if none was
+	private double[]            peptideScores;
+	private double[]            proteinScores;
 	
 	/*========================================================================
 	 * Constructor
 	 *========================================================================*/
 	public MzTabFDRStatistics() {
 		// initialize all properties
-		elements = new HashMap<String, Set<String>>();
-		proteinPeptides = new HashMap<String, Set<String>>();
-		peptides = new HashMap<String, ImmutablePair<Boolean, Boolean>>();
-		proteins = new HashMap<String, ImmutablePair<Boolean, Boolean>>();
-		maxQValues = new HashMap<FDRType, Double>();
+		identifiers = new StringDictionary();
+		elements = new HashMap<String, BitSet>();
+		peptides = new Attributes();
+		proteins = new Attributes();
+		proteinPeptideEdges = new long[INITIAL_EDGE_CAPACITY];
+		edgeCount = 0;
+		mappedProteins = null;
+		maxQValues = new double[FDRType.values().length];
+		Arrays.fill(maxQValues, Double.NaN);
+		peptideScores = null;
+		proteinScores = null;
 	}
 	
 	/*========================================================================
@@ -42,44 +82,80 @@ public class MzTabFDRStatistics
 	public void addElement(String type, String identifier) {
 		if (type == null || identifier == null)
 			return;
-		Set<String> theseElements = elements.get(type);
-		if (theseElements == null)
-			theseElements = new HashSet<String>();
-		theseElements.add(identifier);
-		elements.put(type, theseElements);
+		BitSet theseElements = elements.get(type);
+		if (theseElements == null) {
+			theseElements = new BitSet();
+			elements.put(type, theseElements);
+		}
+		theseElements.set(identifiers.add(identifier));
 	}
 	
 	public void removeElement(String type, String identifier) {
 		if (type == null || identifier == null)
 			return;
-		Set<String> theseElements = elements.get(type);
-		if (theseElements == null)
+		BitSet theseElements = elements.get(type);
+		int id = identifiers.getID(identifier);
+		if (theseElements == null || id < 0)
 			return;
-		else theseElements.remove(identifier);
+		else theseElements.clear(id);
 	}
 	
 	public boolean containsElement(String type, String identifier) {
 		if (type == null || identifier == null)
 			return false;
-		Set<String> theseElements = elements.get(type);
-		if (theseElements == null)
+		BitSet theseElements = elements.get(type);
+		int id = identifiers.getID(identifier);
+		if (theseElements == null || id < 0)
 			return false;
-		else return theseElements.contains(identifier);
+		else return theseElements.get(id);
 	}
 	
 	public Set<String> getElements(String type) {
 		if (type == null)
 			return null;
-		else return new HashSet<String>(elements.get(type));
+		else return decode(elements.get(type));
 	}
 	
 	public int getElementCount(String type) {
 		if (type == null)
 			return 0;
-		Set<String> theseElements = elements.get(type);
+		BitSet theseElements = elements.get(type);
 		if (theseElements == null)
 			return 0;
-		else return theseElements.size();
+		else return theseElements.cardinality();
+	}
+	
+	/**
+	 * Counts a PSM row that passed threshold, by its decoy status.
+	 */
+	public void addPSM(String psmID, Boolean isDecoy) {
+		if (psmID == null)
+			return;
+		// increment the proper count for this PSM if its "isDecoy"
+		// value is not null.
+		if (isDecoy != null) {
+			// a PSM is a target PSM if any of its rows
+			// have isDecoy=false; any target PSM should
+			// explicitly not be in the decoy or null sets
+			if (isDecoy == false) {
+				addElement("targetPSM", psmID);
+				removeElement("decoyPSM", psmID);
+				removeElement("nullDecoyPSM", psmID);
+			}
+			// a PSM should only be added to the decoy
+			// set if it's not already in the target set
+			else if (containsElement("targetPSM", psmID) == false) {
+				addElement("decoyPSM", psmID);
+				removeElement("nullDecoyPSM", psmID);
+			}
+		}
+		// since this PSM row passed threshold, note it even if it has
+		// isDecoy=null, since it may need to be considered against
+		// any decoy PSMs that were found due to standard decoy patterns
+		else if (
+			containsElement("targetPSM", psmID) == false &&
+			containsElement("decoyPSM", psmID) == false)
+			addElement("nullDecoyPSM", psmID);
 	}
 	
 	public void addPeptide(
@@ -87,10 +163,10 @@ public class MzTabFDRStatistics
 	) {
 		if (sequence == null)
 			return;
-		ImmutablePair<Boolean, Boolean> attributes = peptides.get(sequence);
-		if (attributes != null) {
-			Boolean savedPassThreshold = attributes.getLeft();
-			Boolean savedIsDecoy = attributes.getRight();
+		int id = identifiers.add(sequence);
+		if (peptides.contains(id)) {
+			Boolean savedPassThreshold = peptides.getPassThreshold(id);
+			Boolean savedIsDecoy = peptides.getIsDecoy(id);
 			// overwrite this passThreshold with the saved one only if this
 			// one is null, or if the saved one is true; consequently:
 			// 1. null is always overwritten, so passThreshold will end up null
@@ -115,31 +191,29 @@ public class MzTabFDRStatistics
 				isDecoy = savedIsDecoy;
 		}
 		// save these attributes for this identifier
-		attributes =
-			new ImmutablePair<Boolean, Boolean>(passThreshold, isDecoy);
-		peptides.put(sequence, attributes);
+		peptides.put(id, passThreshold, isDecoy);
 	}
 	
 	public Set<String> getPeptides() {
-		return new HashSet<String>(peptides.keySet());
+		return decode(peptides.present);
 	}
 	
 	public ImmutablePair<Boolean, Boolean> getPeptide(String sequence) {
 		if (sequence == null)
 			return null;
-		else return peptides.get(sequence);
+		else return peptides.get(identifiers.getID(sequence));
 	}
 	
 	public void removePeptide(String sequence) {
 		if (sequence == null)
 			return;
-		else peptides.remove(sequence);
+		else peptides.remove(identifiers.getID(sequence));
 	}
 	
 	public boolean containsPeptide(String sequence) {
 		if (sequence == null)
 			return false;
-		else return peptides.containsKey(sequence);
+		else return peptides.contains(identifiers.getID(sequence));
 	}
 	
 	public void addProtein(
@@ -147,10 +221,10 @@ public class MzTabFDRStatistics
 	) {
 		if (accession == null)
 			return;
-		ImmutablePair<Boolean, Boolean> attributes = proteins.get(accession);
-		if (attributes != null) {
-			Boolean savedPassThreshold = attributes.getLeft();
-			Boolean savedIsDecoy = attributes.getRight();
+		int id = identifiers.add(accession);
+		if (proteins.contains(id)) {
+			Boolean savedPassThreshold = proteins.getPassThreshold(id);
+			Boolean savedIsDecoy = proteins.getIsDecoy(id);
 			// overwrite this passThreshold with the saved one only if this
 			// one is null, or if the saved one is true; consequently:
 			// 1. null is always overwritten, so passThreshold will end up null
@@ -175,51 +249,70 @@ public class MzTabFDRStatistics
 				isDecoy = savedIsDecoy;
 		}
 		// save these attributes for this identifier
-		attributes =
-			new ImmutablePair<Boolean, Boolean>(passThreshold, isDecoy);
-		proteins.put(accession, attributes);
+		proteins.put(id, passThreshold, isDecoy);
 	}
 	
 	public Set<String> getProteins() {
-		return new HashSet<String>(proteins.keySet());
+		return decode(proteins.present);
 	}
 	
 	public ImmutablePair<Boolean, Boolean> getProtein(String accession) {
 		if (accession == null)
 			return null;
-		else return proteins.get(accession);
+		else return proteins.get(identifiers.getID(accession));
 	}
 	
 	public void removeProtein(String accession) {
 		if (accession == null)
 			return;
-		else proteins.remove(accession);
+		else proteins.remove(identifiers.getID(accession));
 	}
 	
 	public boolean containsProtein(String accession) {
 		if (accession == null)
 			return false;
-		else return proteins.containsKey(accession);
+		else return proteins.contains(identifiers.getID(accession));
 	}
 	
 	public void addProteinPeptide(String accession, String sequence) {
 		if (accession == null || sequence == null)
 			return;
-		Set<String> peptides = proteinPeptides.get(accession);
-		if (peptides == null)
-			peptides = new HashSet<String>();
-		peptides.add(sequence);
-		proteinPeptides.put(accession, peptides);
+		// the relation can't be added to while it's compressed into rows
+		if (mappedProteins != null)
+			expandRows();
+		if (edgeCount == proteinPeptideEdges.length) {
+			compactEdges();
+			// only grow if deduplication didn't free up enough room
+			if (edgeCount > proteinPeptideEdges.length / 2)
+				proteinPeptideEdges = Arrays.copyOf(
+					proteinPeptideEdges, proteinPeptideEdges.length * 2);
+		}
+		proteinPeptideEdges[edgeCount++] =
+			((long)identifiers.add(accession) << 32) |
+			identifiers.add(sequence);
 	}
 	
 	public Set<String> getPeptideMappedProteins() {
-		return new HashSet<String>(proteinPeptides.keySet());
+		compressRows();
+		Set<String> accessions = new HashSet<String>(mappedProteins.length);
+		for (int protein : mappedProteins)
+			accessions.add(identifiers.getString(protein));
+		return accessions;
 	}
 	
 	public Set<String> getProteinPeptides(String accession) {
 		if (accession == null)
 			return null;
-		else return proteinPeptides.get(accession);
+		compressRows();
+		int row = Arrays.binarySearch(
+			mappedProteins, identifiers.getID(accession));
+		if (row < 0)
+			return null;
+		Set<String> sequences =
+			new HashSet<String>(rowOffsets[row + 1] - rowOffsets[row]);
+		for (int i=rowOffsets[row]; i<rowOffsets[row + 1]; i++)
+			sequences.add(identifiers.getString(rowPeptides[i]));
+		return sequences;
 	}
 	
 	public void recordQValue(
@@ -233,14 +326,188 @@ public class MzTabFDRStatistics
 			(filterType != null && filterType.equals(type))) &&
 			filterFDR != null && filterFDR < qValue)
 			return;
-		Double currentMaxQValue = maxQValues.get(type);
-		if (currentMaxQValue == null || currentMaxQValue < qValue)
-			maxQValues.put(type, qValue);
+		int index = type.ordinal();
+		if (Double.isNaN(maxQValues[index]) || maxQValues[index] < qValue)
+			maxQValues[index] = qValue;
 	}
 	
 	public Double getMaxQValue(FDRType type) {
-		if (type == null)
+		if (type == null || Double.isNaN(maxQValues[type.ordinal()]))
+			return null;
+		else return maxQValues[type.ordinal()];
+	}
+	
+	/**
+	 * Notes the score of a PSM row that passed threshold against its peptide
+	 * and protein, each of which keeps the best score of all its PSMs. Scores
+	 * must already be oriented so that higher is better.
+	 */
+	public void recordScore(String sequence, String accession, double score) {
+		if (Double.isNaN(score))
+			return;
+		if (sequence != null)
+			peptideScores = recordScore(
+				peptideScores, identifiers.add(sequence), score);
+		if (accession != null)
+			proteinScores = recordScore(
+				proteinScores, identifiers.add(accession), score);
+	}
+	
+	public Double getPeptideScore(String sequence) {
+		return getScore(peptideScores, identifiers.getID(sequence));
+	}
+	
+	public Double getProteinScore(String accession) {
+		return getScore(proteinScores, identifiers.getID(accession));
+	}
+	
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Nullable passThreshold/isDecoy attributes of a set of identifier IDs,
+	 * each kept as a pair of bit sets: whether it's known, and its value.
+	 */
+	private static class Attributes {
+		private BitSet present = new BitSet();
+		private BitSet passThresholdKnown = new BitSet();
+		private BitSet passThreshold = new BitSet();
+		private BitSet isDecoyKnown = new BitSet();
+		private BitSet isDecoy = new BitSet();
+		
+		public boolean contains(int id) {
+			return id >= 0 && present.get(id);
+		}
+		
+		public ImmutablePair<Boolean, Boolean> get(int id) {
+			if (contains(id) == false)
+				return null;
+			else return new ImmutablePair<Boolean, Boolean>(
+				getPassThreshold(id), getIsDecoy(id));
+		}
+		
+		public Boolean getPassThreshold(int id) {
+			if (passThresholdKnown.get(id) == false)
+				return null;
+			else return passThreshold.get(id);
+		}
+		
+		public Boolean getIsDecoy(int id) {
+			if (isDecoyKnown.get(id) == false)
+				return null;
+			else return isDecoy.get(id);
+		}
+		
+		public void put(int id, Boolean passThreshold, Boolean isDecoy) {
+			present.set(id);
+			passThresholdKnown.set(id, passThreshold != null);
+			this.passThreshold.set(id,
+				passThreshold != null && passThreshold);
+			isDecoyKnown.set(id, isDecoy != null);
+			this.isDecoy.set(id, isDecoy != null && isDecoy);
+		}
+		
+		public void remove(int id) {
+			if (contains(id) == false)
+				return;
+			present.clear(id);
+			passThresholdKnown.clear(id);
+			passThreshold.clear(id);
+			isDecoyKnown.clear(id);
+			isDecoy.clear(id);
+		}
+	}
+	
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private Set<String> decode(BitSet ids) {
+		if (ids == null)
+			return new HashSet<String>();
+		Set<String> values = new HashSet<String>(ids.cardinality());
+		for (int id=ids.nextSetBit(0); id>=0; id=ids.nextSetBit(id + 1))
+			values.add(identifiers.getString(id));
+		return values;
+	}
+	
+	private static double[] recordScore(
+		double[] scores, int id, double score
+	) {
+		if (scores == null || id >= scores.length) {
+			int length = scores == null ? 0 : scores.length;
+			scores = Arrays.copyOf(scores == null ? new double[0] : scores,
+				Math.max(id + 1, Math.max(INITIAL_SCORE_CAPACITY, length * 2)));
+			Arrays.fill(scores, length, scores.length, Double.NaN);
+		}
+		if (Double.isNaN(scores[id]) || scores[id] < score)
+			scores[id] = score;
+		return scores;
+	}
+	
+	private static Double getScore(double[] scores, int id) {
+		if (scores == null || id < 0 || id >= scores.length ||
+			Double.isNaN(scores[id]))
 			return null;
-		else return maxQValues.get(type);
+		else return scores[id];
+	}
+	
+	/**
+	 * Sorts the protein-peptide pairs and removes duplicates in place.
+	 */
+	private void compactEdges() {
+		Arrays.sort(proteinPeptideEdges, 0, edgeCount);
+		int distinct = 0;
+		for (int i=0; i<edgeCount; i++)
+			if (distinct == 0 ||
+				proteinPeptideEdges[i] != proteinPeptideEdges[distinct - 1])
+				proteinPeptideEdges[distinct++] = proteinPeptideEdges[i];
+		edgeCount = distinct;
+	}
+	
+	/**
+	 * Compresses the protein-peptide pairs into one row of peptide IDs per
+	 * protein, releasing the pairs, unless that's already been done.
+	 */
+	private void compressRows() {
+		if (mappedProteins != null)
+			return;
+		compactEdges();
+		int rows = 0;
+		for (int i=0; i<edgeCount; i++)
+			if (i == 0 || (proteinPeptideEdges[i] >>> 32) !=
+				(proteinPeptideEdges[i - 1] >>> 32))
+				rows++;
+		mappedProteins = new int[rows];
+		rowOffsets = new int[rows + 1];
+		rowPeptides = new int[edgeCount];
+		int row = -1;
+		for (int i=0; i<edgeCount; i++) {
+			int protein = (int)(proteinPeptideEdges[i] >>> 32);
+			if (row < 0 || mappedProteins[row] != protein) {
+				mappedProteins[++row] = protein;
+				rowOffsets[row] = i;
+			}
+			rowPeptides[i] = (int)proteinPeptideEdges[i];
+		}
+		rowOffsets[rows] = edgeCount;
+		proteinPeptideEdges = null;
+		edgeCount = 0;
+	}
+	
+	/**
+	 * Turns the compressed rows back into protein-peptide pairs, so that
+	 * more of them can be added.
+	 */
+	private void expandRows() {
+		edgeCount = rowPeptides.length;
+		proteinPeptideEdges = new long[Math.max(
+			INITIAL_EDGE_CAPACITY, edgeCount * 2)];
+		for (int row=0; row<mappedProteins.length; row++)
+			for (int i=rowOffsets[row]; i<rowOffsets[row + 1]; i++)
+				proteinPeptideEdges[i] =
+					((long)mappedProteins[row] << 32) | rowPeptides[i];
+		mappedProteins = null;
+		rowOffsets = null;
+		rowPeptides = null;
 	}
 }
@@ -1,8 +1,6 @@
 package edu.ucsd.mztab.model;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
@@ -11,6 +9,8 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 
+import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
+import edu.ucsd.mztab.util.MappedLineReader;
 import edu.ucsd.mztab.util.ProteoSAFeUtils;
 
 public class MzTabFile
@@ -304,13 +304,28 @@ public class MzTabFile
 		if (mzTabFile == null)
 			return null;
 		Map<Integer, MzTabMsRun> msRuns = new TreeMap<Integer, MzTabMsRun>();
-		BufferedReader reader = null;
+		// if this file has a current section index,
+		// then only read its metadata section
+		MzTabFileIndex.SectionOffsets mtd = null;
+		MzTabFileIndex fileIndex = MzTabFileIndex.load(mzTabFile);
+		if (fileIndex != null) {
+			mtd = fileIndex.getSection(MzTabSection.MTD);
+			if (mtd == null)
+				return msRuns;
+		}
+		MappedLineReader reader = null;
 		int highestIndex = 0;
 		try {
-			reader = new BufferedReader(new FileReader(mzTabFile));
+			reader = new MappedLineReader(mzTabFile);
 			String line = null;
 			int lineNumber = 0;
+			if (mtd != null) {
+				reader.seek(mtd.getStart());
+				lineNumber = mtd.getFirstLineNumber() - 1;
+			}
 			while (true) {
+				if (mtd != null && reader.getPosition() >= mtd.getEnd())
+					break;
 				line = reader.readLine();
 				if (line == null)
 					break;
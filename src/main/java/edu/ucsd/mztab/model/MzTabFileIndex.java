@@ -0,0 +1,360 @@
+package edu.ucsd.mztab.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FilenameUtils;
+
+import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
+import edu.ucsd.mztab.util.MappedLineReader;
+
+/**
+ * Byte offsets and row counts of each section of an mzTab file, so that
+ * readers interested in only one section can seek straight to it instead
+ * of scanning the file from the top.
+ *
+ * An index is built from one full pass over the file, either as it is read
+ * or as it is written, and is stored as a file with the extension ".idx" in
+ * a separate index directory, so that the directories holding mzTab files
+ * are never written to. A stored index is only trusted if the path, size and
+ * last modification time it recorded still match those of the mzTab file.
+ */
+public class MzTabFileIndex
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final String INDEX_FILE_EXTENSION = "idx";
+	private static final String INDEX_FILE_HEADER_LINE =
+		"# mzTab section index\tsection\tstart\tend\tfirst_line\trows";
+	private static final String FILE_PATH_FIELD = "file_path";
+	private static final String FILE_SIZE_FIELD = "file_size";
+	private static final String LAST_MODIFIED_FIELD = "last_modified";
+	private static final int LINE_SEPARATOR_LENGTH =
+		System.getProperty("line.separator").getBytes(
+			MappedLineReader.DEFAULT_CHARSET).length;
+	private static final String DEFAULT_INDEX_DIRECTORY_NAME = "mztab-index";
+
+	/*========================================================================
+	 * Static properties
+	 *========================================================================*/
+	private static File indexDirectory = new File(
+		System.getProperty("java.io.tmpdir"), DEFAULT_INDEX_DIRECTORY_NAME);
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File                             mzTabFile;
+	private Map<MzTabSection, SectionOffsets> sections;
+	// state used only while the index is being built
+	private MzTabSection                     currentSection;
+	private long                             length;
+	private boolean                          contiguous;
+
+	/*========================================================================
+	 * Constructor
+	 *========================================================================*/
+	public MzTabFileIndex(File mzTabFile) {
+		if (mzTabFile == null)
+			throw new NullPointerException(
+				"Argument mzTab file cannot be null.");
+		else this.mzTabFile = mzTabFile;
+		sections = new EnumMap<MzTabSection, SectionOffsets>(MzTabSection.class);
+		currentSection = null;
+		length = 0;
+		contiguous = true;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Records a line read from the indexed file, whose bytes (including its
+	 * line terminator) run from offset up to but not including nextOffset.
+	 */
+	public void addLine(
+		String line, int lineNumber, long offset, long nextOffset
+	) {
+		if (line == null)
+			return;
+		length = nextOffset;
+		MzTabSection section = getSection(line);
+		// comments and blank lines belong to no section
+		if (section == null)
+			return;
+		SectionOffsets offsets = sections.get(section);
+		if (section != currentSection) {
+			// an index can only describe sections that are each a single
+			// contiguous block of lines; if any section is split up, then
+			// this index is not usable and will never be saved
+			if (offsets != null)
+				contiguous = false;
+			else {
+				offsets = new SectionOffsets(offset, lineNumber);
+				sections.put(section, offsets);
+			}
+			currentSection = section;
+		}
+		offsets.end = nextOffset;
+		if (isHeader(line) == false)
+			offsets.rows++;
+	}
+
+	/**
+	 * Records a line just written to the indexed file, which must be written
+	 * in UTF-8 and terminated by the platform line separator, as it would be
+	 * by PrintWriter.println() on a writer using that charset.
+	 */
+	public void addWrittenLine(String line, int lineNumber) {
+		if (line == null)
+			return;
+		long offset = length;
+		addLine(line, lineNumber, offset,
+			offset + getEncodedLength(line) + LINE_SEPARATOR_LENGTH);
+	}
+
+	public SectionOffsets getSection(MzTabSection section) {
+		if (section == null)
+			return null;
+		else return sections.get(section);
+	}
+
+	/**
+	 * Writes this index to the mzTab file's index file. Returns
+	 * false if it could not be written, or if it does not accurately describe
+	 * the mzTab file as it now exists on disk; the index is only an
+	 * optimization, so failing to save it is never an error.
+	 */
+	public boolean save() {
+		if (contiguous == false || mzTabFile.isFile() == false ||
+			mzTabFile.length() != length)
+			return false;
+		File indexFile = getIndexFile(mzTabFile);
+		File tempFile = new File(indexFile.getPath() + ".temp");
+		PrintWriter writer = null;
+		try {
+			indexFile.getParentFile().mkdirs();
+			writer = new PrintWriter(
+				new BufferedWriter(new FileWriter(tempFile, false)));
+			writer.println(INDEX_FILE_HEADER_LINE);
+			writer.println(String.format(
+				"%s\t%s", FILE_PATH_FIELD, mzTabFile.getAbsolutePath()));
+			writer.println(String.format(
+				"%s\t%d", FILE_SIZE_FIELD, mzTabFile.length()));
+			writer.println(String.format(
+				"%s\t%d", LAST_MODIFIED_FIELD, mzTabFile.lastModified()));
+			for (MzTabSection section : sections.keySet()) {
+				SectionOffsets offsets = sections.get(section);
+				writer.println(String.format("%s\t%d\t%d\t%d\t%d",
+					section.name(), offsets.start, offsets.end,
+					offsets.firstLineNumber, offsets.rows));
+			}
+			writer.close();
+			writer = null;
+			// replace any old index in one step, so that
+			// readers never see a partially written one
+			indexFile.delete();
+			if (tempFile.renameTo(indexFile))
+				return true;
+		} catch (Throwable error) {
+		} finally {
+			try { writer.close(); } catch (Throwable error) {}
+		}
+		tempFile.delete();
+		return false;
+	}
+
+	/**
+	 * Loads the stored index of the argument mzTab file. Returns null if
+	 * there is no such index, if it cannot be parsed, or if the mzTab file
+	 * has changed since the index was written.
+	 */
+	public static MzTabFileIndex load(File mzTabFile) {
+		if (mzTabFile == null || mzTabFile.isFile() == false)
+			return null;
+		File indexFile = getIndexFile(mzTabFile);
+		if (indexFile.isFile() == false || indexFile.canRead() == false)
+			return null;
+		MzTabFileIndex index = new MzTabFileIndex(mzTabFile);
+		String filePath = null;
+		Long fileSize = null;
+		Long lastModified = null;
+		MappedLineReader reader = null;
+		try {
+			reader = new MappedLineReader(indexFile);
+			String line = reader.readLine();
+			if (line == null || line.equals(INDEX_FILE_HEADER_LINE) == false)
+				return null;
+			while (true) {
+				line = reader.readLine();
+				if (line == null)
+					break;
+				String[] tokens = line.split("\\t");
+				if (tokens[0].equals(FILE_PATH_FIELD) && tokens.length == 2)
+					filePath = tokens[1];
+				else if (tokens[0].equals(FILE_SIZE_FIELD) && tokens.length == 2)
+					fileSize = Long.parseLong(tokens[1]);
+				else if (tokens[0].equals(LAST_MODIFIED_FIELD) &&
+					tokens.length == 2)
+					lastModified = Long.parseLong(tokens[1]);
+				else if (tokens.length == 5) {
+					SectionOffsets offsets = new SectionOffsets(
+						Long.parseLong(tokens[1]), Integer.parseInt(tokens[3]));
+					offsets.end = Long.parseLong(tokens[2]);
+					offsets.rows = Integer.parseInt(tokens[4]);
+					index.sections.put(MzTabSection.valueOf(tokens[0]), offsets);
+				} else return null;
+			}
+		} catch (Throwable error) {
+			return null;
+		} finally {
+			try { reader.close(); } catch (Throwable error) {}
+		}
+		// only trust this index if it was built for this very file,
+		// and the file hasn't changed since it was built
+		if (filePath == null ||
+			filePath.equals(mzTabFile.getAbsolutePath()) == false ||
+			fileSize == null || lastModified == null ||
+			fileSize != mzTabFile.length() ||
+			lastModified != mzTabFile.lastModified())
+			return null;
+		index.length = fileSize;
+		return index;
+	}
+
+	public static File getIndexFile(File mzTabFile) {
+		if (mzTabFile == null)
+			return null;
+		// qualify the file's name with a hash of its full path, so
+		// that same-named files in different directories don't collide
+		String path = mzTabFile.getAbsolutePath();
+		return new File(indexDirectory, String.format("%s-%08x.%s",
+			mzTabFile.getName(), path.hashCode(), INDEX_FILE_EXTENSION));
+	}
+	
+	public static File getIndexDirectory() {
+		return indexDirectory;
+	}
+	
+	public static void setIndexDirectory(File directory) {
+		if (directory == null)
+			throw new NullPointerException(
+				"Argument index directory cannot be null.");
+		else indexDirectory = directory;
+	}
+	
+	/**
+	 * Returns a copy of the argument file collection without any index files
+	 * that earlier versions of this class wrote next to the mzTab files they
+	 * described, so that they are never mistaken for mzTab files themselves.
+	 */
+	public static List<File> excludeIndexFiles(Collection<File> files) {
+		if (files == null)
+			return null;
+		List<File> filtered = new ArrayList<File>(files.size());
+		for (File file : files) {
+			String name = file.getName();
+			if (FilenameUtils.isExtension(name, INDEX_FILE_EXTENSION) &&
+				new File(file.getParentFile(),
+					FilenameUtils.removeExtension(name)).isFile())
+				continue;
+			filtered.add(file);
+		}
+		return filtered;
+	}
+
+	public static MzTabSection getSection(String line) {
+		if (line == null || line.length() < 3)
+			return null;
+		else if (line.startsWith("MTD"))
+			return MzTabSection.MTD;
+		else if (line.startsWith("PRH") || line.startsWith("PRT"))
+			return MzTabSection.PRT;
+		else if (line.startsWith("PEH") || line.startsWith("PEP"))
+			return MzTabSection.PEP;
+		else if (line.startsWith("PSH") || line.startsWith("PSM"))
+			return MzTabSection.PSM;
+		else if (line.startsWith("SMH") || line.startsWith("SML"))
+			return MzTabSection.SML;
+		else return null;
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private static boolean isHeader(String line) {
+		return line.startsWith("PRH") || line.startsWith("PEH") ||
+			line.startsWith("PSH") || line.startsWith("SMH");
+	}
+
+	private static long getEncodedLength(String line) {
+		// count the bytes UTF-8 would encode this line to,
+		// without actually encoding it
+		long length = 0;
+		for (int i=0; i<line.length(); i++) {
+			char current = line.charAt(i);
+			if (current < 0x80)
+				length++;
+			else if (current < 0x800)
+				length += 2;
+			else if (Character.isHighSurrogate(current) &&
+				i + 1 < line.length() &&
+				Character.isLowSurrogate(line.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			// unpaired surrogates are encoded as a one-byte replacement
+			else if (current >= Character.MIN_SURROGATE &&
+				current <= Character.MAX_SURROGATE)
+				length++;
+			else length += 3;
+		}
+		return length;
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Struct to hold the location of one section within an mzTab file.
+	 * Offsets run from the start of the section's first line up to but not
+	 * including the first byte after its last line; the section header, if
+	 * any, is included in the range but not counted as a row.
+	 */
+	public static class SectionOffsets {
+		private long start;
+		private long end;
+		private int  firstLineNumber;
+		private int  rows;
+
+		private SectionOffsets(long start, int firstLineNumber) {
+			this.start = start;
+			this.end = start;
+			this.firstLineNumber = firstLineNumber;
+			this.rows = 0;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public int getFirstLineNumber() {
+			return firstLineNumber;
+		}
+
+		public int getRowCount() {
+			return rows;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package edu.ucsd.mztab.model;
+
+/**
+ * Lets a line-based MzTabProcessor take part in a chain of row processors,
+ * by handing it each row's line and storing back whatever line it returns.
+ */
+public class MzTabProcessorAdapter implements MzTabRowProcessor
+{
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private MzTabProcessor processor;
+	
+	/*========================================================================
+	 * Constructor
+	 *========================================================================*/
+	public MzTabProcessorAdapter(MzTabProcessor processor) {
+		if (processor == null)
+			throw new NullPointerException("Argument processor is null.");
+		else this.processor = processor;
+	}
+	
+	/*========================================================================
+	 * Property accessor methods
+	 *========================================================================*/
+	public MzTabProcessor getProcessor() {
+		return processor;
+	}
+	
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void setUp(MzTabFile mzTabFile) {
+		processor.setUp(mzTabFile);
+	}
+	
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
+			throw new NullPointerException(
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		String processed = processor.processMzTabLine(line, row.getLineNumber());
+		// only re-tokenize the row if the processor changed its line
+		if (processed != line)
+			row.setLine(processed);
+	}
+	
+	public void tearDown() {
+		processor.tearDown();
+	}
+}
@@ -0,0 +1,159 @@
+package edu.ucsd.mztab.model;
+
+import java.util.Arrays;
+
+/**
+ * A single line of an mzTab file, tokenized at most once and shared by
+ * every processor in a reader's chain.
+ *
+ * Column boundaries are recorded as offsets into the original line, and
+ * each column's String value is only materialized when it is first asked
+ * for. Columns may be replaced or appended; the line is then rebuilt only
+ * once, the next time it is needed.
+ */
+public class MzTabRow
+{
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	// backing line; null if columns have been edited since it was last built
+	private String   line;
+	private int      lineNumber;
+	// start offset of each column in the backing line, plus one
+	// extra entry marking the position just past the end of the line
+	private int[]    offsets;
+	// number of columns in this row; -1 if the line is not yet tokenized
+	private int      columnCount;
+	// column values materialized so far (null entries not yet materialized)
+	private String[] columns;
+	
+	/*========================================================================
+	 * Constructor
+	 *========================================================================*/
+	public MzTabRow(String line, int lineNumber) {
+		setLine(line);
+		this.lineNumber = lineNumber;
+	}
+	
+	/*========================================================================
+	 * Property accessor methods
+	 *========================================================================*/
+	public int getLineNumber() {
+		return lineNumber;
+	}
+	
+	public String getLine() {
+		if (line != null)
+			return line;
+		// rebuild the line from its edited columns
+		StringBuilder builder = new StringBuilder();
+		for (int i=0; i<columnCount; i++) {
+			if (i > 0)
+				builder.append('\t');
+			builder.append(columns[i]);
+		}
+		line = builder.toString();
+		return line;
+	}
+	
+	public void setLine(String line) {
+		if (line == null)
+			throw new NullPointerException(
+				"Processed mzTab line cannot be null.");
+		this.line = line;
+		offsets = null;
+		columnCount = -1;
+		columns = null;
+	}
+	
+	public int getColumnCount() {
+		tokenize();
+		return columnCount;
+	}
+	
+	public String getColumn(int index) {
+		tokenize();
+		if (index < 0 || index >= columnCount)
+			throw new IndexOutOfBoundsException(String.format(
+				"Column index %d is out of range for mzTab row with %d " +
+				"columns.", index, columnCount));
+		String column = columns[index];
+		if (column == null) {
+			column = line.substring(offsets[index], offsets[index + 1] - 1);
+			columns[index] = column;
+		}
+		return column;
+	}
+	
+	public String[] getColumns() {
+		materialize();
+		return Arrays.copyOf(columns, columnCount);
+	}
+	
+	/**
+	 * Replaces the value of the column at the specified index. If the index
+	 * is beyond the end of the row, then the row is extended to include it,
+	 * and any columns in between are filled with "null".
+	 */
+	public void setColumn(int index, String value) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException(String.format(
+				"Column index %d cannot be negative.", index));
+		materialize();
+		if (index >= columnCount) {
+			if (index >= columns.length)
+				columns = Arrays.copyOf(
+					columns, Math.max(index + 1, columns.length * 2));
+			for (int i=columnCount; i<index; i++)
+				columns[i] = "null";
+			columnCount = index + 1;
+		}
+		columns[index] = value == null ? "null" : value;
+		line = null;
+		offsets = null;
+	}
+	
+	public void addColumn(String value) {
+		setColumn(getColumnCount(), value);
+	}
+	
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public boolean startsWith(String prefix) {
+		if (prefix == null)
+			return false;
+		else return getLine().startsWith(prefix);
+	}
+	
+	@Override
+	public String toString() {
+		return getLine();
+	}
+	
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private void tokenize() {
+		if (columnCount >= 0)
+			return;
+		// count tabs to size the offsets array exactly
+		int tabs = 0;
+		for (int i=line.indexOf('\t'); i>=0; i=line.indexOf('\t', i + 1))
+			tabs++;
+		offsets = new int[tabs + 2];
+		int column = 1;
+		for (int i=line.indexOf('\t'); i>=0; i=line.indexOf('\t', i + 1))
+			offsets[column++] = i + 1;
+		offsets[column] = line.length() + 1;
+		columnCount = tabs + 1;
+		columns = new String[columnCount];
+	}
+	
+	private void materialize() {
+		tokenize();
+		for (int i=0; i<columnCount; i++)
+			if (columns[i] == null)
+				getColumn(i);
+	}
+}
@@ -0,0 +1,45 @@
+package edu.ucsd.mztab.model;
+
+/**
+ * A row processor whose handling of each PSM row depends only on that row
+ * and on state set up by the rows before the PSM section (e.g. the PSH
+ * header), so that a reader may split runs of PSM rows into chunks and
+ * process them on several threads at once.
+ *
+ * Each chunk is handed to a fork of the processor, and the fork's results
+ * are merged back into the original once the chunk is done. Forks only ever
+ * see PSM rows; they are never set up or torn down, and must not have any
+ * side effects outside of themselves and the rows they process, since a
+ * chunk may have to be thrown away and processed again serially.
+ */
+public interface MzTabRowIndependentProcessor
+extends MzTabRowProcessor
+{
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Returns a new processor that shares this processor's current state
+	 * for processing PSM rows, but none of its accumulated results. Returns
+	 * null if PSM rows cannot be processed independently at this point in
+	 * the file, in which case the reader processes the chunk serially.
+	 */
+	public MzTabRowIndependentProcessor fork();
+
+	/**
+	 * Returns true if the results of a processor returned from this
+	 * processor's fork() method are the same as this processor would have
+	 * produced by processing the fork's chunk itself, given everything that
+	 * has been merged into it so far. If any fork of a chunk is not
+	 * mergeable, then that chunk is processed again serially. This check
+	 * is also made for forks that failed, before reporting the failure.
+	 */
+	public boolean isMergeable(MzTabRowIndependentProcessor fork);
+
+	/**
+	 * Adds the results accumulated by a processor returned from this
+	 * processor's fork() method into this processor. Forks are merged one
+	 * at a time and in file order, on the reader's own thread.
+	 */
+	public void merge(MzTabRowIndependentProcessor fork);
+}
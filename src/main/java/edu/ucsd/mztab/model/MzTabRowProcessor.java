@@ -0,0 +1,11 @@
+package edu.ucsd.mztab.model;
+
+public interface MzTabRowProcessor
+{
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void setUp(MzTabFile mzTabFile);
+	public void processMzTabRow(MzTabRow row);
+	public void tearDown();
+}
@@ -143,6 +143,32 @@ public class MzTabSectionHeader
 		return columns;
 	}
 	
+	public void validateMzTabRow(MzTabRow row) {
+		if (row == null)
+			throw new NullPointerException("Argument mzTab row is null.");
+		// compare the already-tokenized row against header
+		int columnCount = row.getColumnCount();
+		int expectedColumnCount = getColumnCount();
+		if (columnCount != expectedColumnCount)
+			throw new IllegalArgumentException(String.format(
+				"Argument mzTab row line is invalid:\n" +
+				"The number of columns (%d) does not match the number " +
+				"previously parsed from the header row (%d)." +
+				"\n----------\n%s",
+				columnCount, expectedColumnCount,
+				dumpHeaderVsRowComparison(row.getColumns())));
+		// ensure that this row is of the same type as the header
+		String rowToken = row.getColumn(0);
+		MzTabSection rowType = MzTabSection.valueOf(rowToken);
+		if (rowType == null || rowType.equals(section) == false)
+			throw new IllegalArgumentException(String.format(
+				"Argument mzTab row line is invalid:" +
+				"\n----------\n%s\n----------\n" +
+				"The first token [%s] does not correspond to the expected " +
+				"mzTab file section as implied by the header row [%s].",
+				row.getLine(), rowToken, section.name()));
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
@@ -1,6 +1,7 @@
 package edu.ucsd.mztab.model;
 
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.regex.Matcher;
 
@@ -8,6 +9,49 @@ import org.apache.commons.lang3.StringEscapeUtils;
 
 public class PSM implements Comparable<PSM>
 {
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	/**
+	 * Orders PSMs field by field over the same fields that define their
+	 * equality, so that it is consistent with {@link #equals(Object)}, and
+	 * without building any strings along the way. Note that this differs
+	 * from the natural ordering of PSMs, which only considers their IDs.
+	 */
+	public static final Comparator<PSM> IDENTITY_ORDER = new Comparator<PSM>() {
+		public int compare(PSM psm1, PSM psm2) {
+			if (psm1 == psm2)
+				return 0;
+			else if (psm1 == null)
+				return -1;
+			else if (psm2 == null)
+				return 1;
+			int comparison = psm1.index.compareTo(psm2.index);
+			if (comparison == 0)
+				comparison = psm1.id.compareTo(psm2.id);
+			if (comparison == 0)
+				comparison = psm1.msRun.compareTo(psm2.msRun);
+			if (comparison == 0)
+				comparison = psm1.nativeID.compareTo(psm2.nativeID);
+			if (comparison == 0)
+				comparison = psm1.sequence.compareTo(psm2.sequence);
+			if (comparison == 0)
+				comparison = psm1.charge.compareTo(psm2.charge);
+			if (comparison == 0) {
+				if (psm1.massToCharge == null)
+					comparison = psm2.massToCharge == null ? 0 : -1;
+				else if (psm2.massToCharge == null)
+					comparison = 1;
+				else comparison =
+					psm1.massToCharge.compareTo(psm2.massToCharge);
+			}
+			if (comparison == 0)
+				comparison = psm1.modificationsKey.compareTo(
+					psm2.modificationsKey);
+			return comparison;
+		}
+	};
+	
 	/*========================================================================
 	 * Properties
 	 *========================================================================*/
@@ -19,6 +63,10 @@ public class PSM implements Comparable<PSM>
 	private Integer                  charge;
 	private Double                   massToCharge;
 	private Collection<Modification> modifications;
+	// identity key state, computed once since PSMs are
+	// used as map keys throughout the import process
+	private String                   modificationsKey;
+	private int                      hash;
 	
 	/*========================================================================
 	 * Constructor
@@ -96,6 +144,9 @@ public class PSM implements Comparable<PSM>
 		if (modifications == null)
 			this.modifications = new LinkedHashSet<Modification>();
 		else this.modifications = modifications;
+		// precompute identity key
+		modificationsKey = buildModificationsKey(this.modifications);
+		hash = computeHash();
 	}
 	
 	/*========================================================================
@@ -103,36 +154,35 @@ public class PSM implements Comparable<PSM>
 	 *========================================================================*/
 	@Override
 	public String toString() {
-		// build modification string
-		StringBuilder mods = new StringBuilder("[");
-		for (Modification modification : modifications) {
-			mods.append("\"");
-			mods.append(StringEscapeUtils.escapeJson(modification.toString()));
-			mods.append("\",");
-		}
-		// chomp trailing comma
-		if (mods.charAt(mods.length() - 1) == ',')
-			mods.setLength(mods.length() - 1);
-		mods.append("]");
 		// return complete JSON string
 		return String.format(
-			"{id:%d,spectra_ref:\"ms_run[%d]:%s\",sequence:\"%s\"," +
+			"{id:\"%s\",spectra_ref:\"ms_run[%d]:%s\",sequence:\"%s\"," +
 			"charge:%d,exp_mass_to_charge:\"%s\",modifications:%s}",
-			id, msRun, nativeID, sequence, charge,
+			StringEscapeUtils.escapeJson(id), msRun, nativeID, sequence, charge,
 			massToCharge == null ? "null" : Double.toString(massToCharge),
-			mods.toString());
+			modificationsKey);
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
-		if (obj instanceof PSM == false)
+		if (obj == this)
+			return true;
+		else if (obj instanceof PSM == false)
 			return false;
-		else return toString().equals(obj.toString());
+		PSM psm = (PSM)obj;
+		// cheapest and most distinguishing fields first
+		return hash == psm.hash &&
+			index.equals(psm.index) && msRun.equals(psm.msRun) &&
+			charge.equals(psm.charge) && id.equals(psm.id) &&
+			nativeID.equals(psm.nativeID) && sequence.equals(psm.sequence) &&
+			(massToCharge == null ? psm.massToCharge == null :
+				massToCharge.equals(psm.massToCharge)) &&
+			modificationsKey.equals(psm.modificationsKey);
 	}
 	
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		return hash;
 	}
 
 	public int compareTo(PSM psm) {
@@ -178,4 +228,35 @@ public class PSM implements Comparable<PSM>
 	public Double getMassToCharge() {
 		return massToCharge;
 	}
+	
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private static String buildModificationsKey(
+		Collection<Modification> modifications
+	) {
+		StringBuilder mods = new StringBuilder("[");
+		for (Modification modification : modifications) {
+			mods.append("\"");
+			mods.append(StringEscapeUtils.escapeJson(modification.toString()));
+			mods.append("\",");
+		}
+		// chomp trailing comma
+		if (mods.charAt(mods.length() - 1) == ',')
+			mods.setLength(mods.length() - 1);
+		mods.append("]");
+		return mods.toString();
+	}
+	
+	private int computeHash() {
+		int hash = index.hashCode();
+		hash = 31 * hash + id.hashCode();
+		hash = 31 * hash + msRun.hashCode();
+		hash = 31 * hash + nativeID.hashCode();
+		hash = 31 * hash + sequence.hashCode();
+		hash = 31 * hash + charge.hashCode();
+		hash = 31 * hash + (massToCharge == null ? 0 : massToCharge.hashCode());
+		hash = 31 * hash + modificationsKey.hashCode();
+		return hash;
+	}
 }
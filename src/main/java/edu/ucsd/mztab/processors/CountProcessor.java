@@ -10,11 +10,12 @@ import java.util.regex.Matcher;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.util.ProteomicsUtils;
 
-public class CountProcessor implements MzTabProcessor
+public class CountProcessor implements MzTabRowIndependentProcessor
 {
 	/*========================================================================
 	 * Constants
@@ -73,12 +74,14 @@ public class CountProcessor implements MzTabProcessor
 		else mzTabFilename = mzTabFile.getMzTabFilename();
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		int lineNumber = row.getLineNumber();
 		// protein section
-		else if (line.startsWith("PRH")) {
+		if (line.startsWith("PRH")) {
 			if (prtHeader != null)
 				throw new IllegalArgumentException(String.format(
 					"Line %d of mzTab file [%s] is invalid:\n" +
@@ -95,19 +98,18 @@ public class CountProcessor implements MzTabProcessor
 					"----------\n%s\n----------\n" +
 					"A \"PRT\" row was found before any \"PRH\" row.",
 					lineNumber, mzTabFilename, line));
-			else prtHeader.validateMzTabRow(line);
+			else prtHeader.validateMzTabRow(row);
 			incrementCount("PRT");
 			// extract count-worthy elements from this PRT row
-			String[] columns = line.split("\\t");
 			for (String column : RELEVANT_PRT_COLUMNS) {
 				String element = String.format("PRT_%s", column);
 				// clean protein accessions as a special case
 				if (column.equals("accession"))
 					addElement(element, ProteomicsUtils.cleanProteinAccession(
-						columns[prtHeader.getColumnIndex(column)]));
+						row.getColumn(prtHeader.getColumnIndex(column))));
 				// just dump everything else as-is into the counter map
 				else addElement(
-					element, columns[prtHeader.getColumnIndex(column)]);
+					element, row.getColumn(prtHeader.getColumnIndex(column)));
 			}
 		}
 		// peptide section
@@ -128,12 +130,12 @@ public class CountProcessor implements MzTabProcessor
 					"----------\n%s\n----------\n" +
 					"A \"PEP\" row was found before any \"PEH\" row.",
 					lineNumber, mzTabFilename, line));
-			else pepHeader.validateMzTabRow(line);
+			else pepHeader.validateMzTabRow(row);
 			incrementCount("PEP");
 			// extract count-worthy elements from this PEP row
-//			String[] columns = line.split("\\t");
 //			for (String column : RELEVANT_PEP_COLUMNS)
-//				addElement(column, columns[pepHeader.getColumnIndex(column)]);
+//				addElement(
+//					column, row.getColumn(pepHeader.getColumnIndex(column)));
 		}
 		// PSM section
 		else if (line.startsWith("PSH")) {
@@ -153,14 +155,14 @@ public class CountProcessor implements MzTabProcessor
 					"----------\n%s\n----------\n" +
 					"A \"PSM\" row was found before any \"PSH\" row.",
 					lineNumber, mzTabFilename, line));
-			else psmHeader.validateMzTabRow(line);
+			else psmHeader.validateMzTabRow(row);
 			incrementCount("PSM");
 			// extract count-worthy elements from this PSM row
-			String[] columns = line.split("\\t");
 			for (String column : RELEVANT_PSM_COLUMNS) {
 				// count invalid rows as a special case
 				if (column.equals("opt_global_valid")) {
-					String value = columns[psmHeader.getColumnIndex(column)];
+					String value =
+						row.getColumn(psmHeader.getColumnIndex(column));
 					if (value != null &&
 						value.trim().equalsIgnoreCase("INVALID"))
 						incrementCount("invalid_PSM");
@@ -168,18 +170,19 @@ public class CountProcessor implements MzTabProcessor
 				// clean protein accessions as a special case
 				else if (column.equals("accession"))
 					addElement(column, ProteomicsUtils.cleanProteinAccession(
-						columns[psmHeader.getColumnIndex(column)]));
+						row.getColumn(psmHeader.getColumnIndex(column))));
 				// just dump everything else as-is into the counter map
 				else addElement(
-					column, columns[psmHeader.getColumnIndex(column)]);
+					column, row.getColumn(psmHeader.getColumnIndex(column)));
 			}
 			// build variant identifier and add that to the count map
-			String sequence = columns[psmHeader.getColumnIndex("sequence")];
+			String sequence =
+				row.getColumn(psmHeader.getColumnIndex("sequence"));
 			String modifications =
-				columns[psmHeader.getColumnIndex("modifications")];
+				row.getColumn(psmHeader.getColumnIndex("modifications"));
 			String modifiedSequence =
 				ProteomicsUtils.getModifiedSequence(sequence, modifications);
-			String charge = columns[psmHeader.getColumnIndex("charge")];
+			String charge = row.getColumn(psmHeader.getColumnIndex("charge"));
 			addElement("variant", String.format("%s_%s",
 				modifiedSequence != null ? modifiedSequence : "null",
 				charge != null ? charge : "null"));
@@ -191,7 +194,6 @@ public class CountProcessor implements MzTabProcessor
 				throw (RuntimeException)error;
 			else throw new RuntimeException(error);
 		}
-		return line;
 	}
 	
 	public void tearDown() {
@@ -232,16 +234,50 @@ public class CountProcessor implements MzTabProcessor
 		else counts.put("modification", 0);
 	}
 	
+	public MzTabRowIndependentProcessor fork() {
+		CountProcessor fork = new CountProcessor(
+			new HashMap<String, Integer>(2),
+			new HashMap<String, Set<String>>());
+		fork.mzTabFilename = mzTabFilename;
+		fork.prtHeader = prtHeader;
+		fork.pepHeader = pepHeader;
+		fork.psmHeader = psmHeader;
+		return fork;
+	}
+	
+	public boolean isMergeable(MzTabRowIndependentProcessor fork) {
+		return true;
+	}
+	
+	public void merge(MzTabRowIndependentProcessor fork) {
+		if (fork == null)
+			return;
+		CountProcessor processor = (CountProcessor)fork;
+		for (Map.Entry<String, Integer> count : processor.counts.entrySet())
+			incrementCount(count.getKey(), count.getValue());
+		for (Map.Entry<String, Set<String>> elements :
+			processor.uniqueElements.entrySet()) {
+			Set<String> values = uniqueElements.get(elements.getKey());
+			if (values == null)
+				uniqueElements.put(elements.getKey(), elements.getValue());
+			else values.addAll(elements.getValue());
+		}
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
 	private void incrementCount(String count) {
+		incrementCount(count, 1);
+	}
+	
+	private void incrementCount(String count, int increment) {
 		if (count == null)
 			return;
 		Integer value = counts.get(count);
 		if (value == null)
-			value = 1;
-		else value += 1;
+			value = increment;
+		else value += increment;
 		counts.put(count, value);
 	}
 	
@@ -1,5 +1,7 @@
 package edu.ucsd.mztab.processors;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -9,16 +11,20 @@ import java.util.regex.Matcher;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
+import edu.ucsd.mztab.model.ExternalMzTabFDRStatistics;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabConstants.FDRType;
+import edu.ucsd.mztab.model.MzTabFDRCounter;
 import edu.ucsd.mztab.model.MzTabFDRStatistics;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.util.QValueEstimator;
 
-public class FDRCalculationProcessor implements MzTabProcessor
+public class FDRCalculationProcessor implements MzTabRowProcessor
 {
 	/*========================================================================
 	 * Constants
@@ -37,7 +43,7 @@ public class FDRCalculationProcessor implements MzTabProcessor
 	private Map<String, Integer> columns;
 	private Map<Integer, String> scoreColumns;
 	// source file FDR properties
-	private MzTabFDRStatistics   statistics;
+	private MzTabFDRCounter      statistics;
 	private String               passThresholdColumn;
 	private String               decoyColumn;
 	private String               decoyPattern;
@@ -47,15 +53,43 @@ public class FDRCalculationProcessor implements MzTabProcessor
 	// FDR filter threshold
 	private FDRType              filterType;
 	private Double               filterFDR;
+	// Q-value estimation from scores, for levels without Q-value columns
+	private String               scoreColumn;
+	private boolean              higherScoreBetter;
+	private File                 scratchBase;
+	private Integer              scoreIndex;
+	private QValueEstimator      psmQValues;
+	private QValueEstimator      peptideQValues;
+	private QValueEstimator      proteinQValues;
 	
 	/*========================================================================
 	 * Constructor
 	 *========================================================================*/
 	public FDRCalculationProcessor(
-		MzTabFDRStatistics statistics, String passThresholdColumn,
+		MzTabFDRCounter statistics, String passThresholdColumn,
 		String decoyColumn, String decoyPattern, String psmQValueColumn,
 		String peptideQValueColumn, String proteinQValueColumn,
 		FDRType filterType, Double filterFDR
+	) {
+		this(statistics, passThresholdColumn, decoyColumn, decoyPattern,
+			psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
+			filterType, filterFDR, null, true, null);
+	}
+	
+	/**
+	 * @param scoreColumn		PSM score column from which to estimate the
+	 * 							Q-values of any level (PSM, peptide or
+	 * 							protein) for which no Q-value column is
+	 * 							found; null to estimate none
+	 * @param scratchBase		base path of the temporary files of any
+	 * 							scores too many to hold in memory
+	 */
+	public FDRCalculationProcessor(
+		MzTabFDRCounter statistics, String passThresholdColumn,
+		String decoyColumn, String decoyPattern, String psmQValueColumn,
+		String peptideQValueColumn, String proteinQValueColumn,
+		FDRType filterType, Double filterFDR,
+		String scoreColumn, boolean higherScoreBetter, File scratchBase
 	) {
 		// initialize FDR statistics data structure
 		if (statistics == null)
@@ -79,6 +113,17 @@ public class FDRCalculationProcessor implements MzTabProcessor
 		// initialize FDR filter settings
 		this.filterType = filterType;
 		this.filterFDR = filterFDR;
+		// initialize Q-value estimation settings
+		if (scoreColumn != null && scratchBase == null)
+			throw new NullPointerException(
+				"Scratch file base cannot be null if a score column is given.");
+		this.scoreColumn = scoreColumn;
+		this.higherScoreBetter = higherScoreBetter;
+		this.scratchBase = scratchBase;
+		scoreIndex = null;
+		psmQValues = null;
+		peptideQValues = null;
+		proteinQValues = null;
 	}
 	
 	/*========================================================================
@@ -90,12 +135,14 @@ public class FDRCalculationProcessor implements MzTabProcessor
 		else mzTabFilename = mzTabFile.getMzTabFilename();
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		int lineNumber = row.getLineNumber();
 		// map score columns
-		else if (line.startsWith("MTD")) {
+		if (line.startsWith("MTD")) {
 			Matcher matcher =
 				MzTabConstants.PSM_SEARCH_ENGINE_SCORE_LINE_PATTERN.matcher(
 					line);
@@ -232,22 +279,41 @@ public class FDRCalculationProcessor implements MzTabProcessor
 			if (columns.get(MzTabConstants.PASS_THRESHOLD_COLUMN) == null) {
 				columns.put(
 					MzTabConstants.PASS_THRESHOLD_COLUMN, headers.size());
-				line = String.format("%s\t%s", line.trim(),
-					MzTabConstants.PASS_THRESHOLD_COLUMN);
+				row.addColumn(MzTabConstants.PASS_THRESHOLD_COLUMN);
 				headers.add(MzTabConstants.PASS_THRESHOLD_COLUMN);
 			}
 			if (columns.get(MzTabConstants.IS_DECOY_COLUMN) == null) {
 				columns.put(MzTabConstants.IS_DECOY_COLUMN, headers.size());
-				line = String.format("%s\t%s", line.trim(),
-					MzTabConstants.IS_DECOY_COLUMN);
+				row.addColumn(MzTabConstants.IS_DECOY_COLUMN);
 				headers.add(MzTabConstants.IS_DECOY_COLUMN);
 			}
 			if (columns.get(MzTabConstants.Q_VALUE_COLUMN) == null) {
 				columns.put(MzTabConstants.Q_VALUE_COLUMN, headers.size());
-				line = String.format("%s\t%s", line.trim(),
-					MzTabConstants.Q_VALUE_COLUMN);
+				row.addColumn(MzTabConstants.Q_VALUE_COLUMN);
 				headers.add(MzTabConstants.Q_VALUE_COLUMN);
 			}
+			// if Q-values are to be estimated from a score column, find it;
+			// only levels with no Q-value column of their own need them
+			if (scoreColumn != null) {
+				for (int i=0; i<headers.size(); i++) {
+					String header = headers.get(i);
+					if (header != null && CommonUtils.headerCorrespondsToColumn(
+						header, scoreColumn, scoreColumns)) {
+						scoreIndex = i;
+						break;
+					}
+				}
+				if (scoreIndex != null) {
+					if (psmQValueColumn == null)
+						psmQValues = new QValueEstimator(getScratchFile("psm"));
+					if (peptideQValueColumn == null)
+						peptideQValues =
+							new QValueEstimator(getScratchFile("peptide"));
+					if (proteinQValueColumn == null)
+						proteinQValues =
+							new QValueEstimator(getScratchFile("protein"));
+				}
+			}
 		}
 		// record FDR attributes for this PSM row
 		else if (line.startsWith("PSM")) {
@@ -257,26 +323,23 @@ public class FDRCalculationProcessor implements MzTabProcessor
 					"\n----------\n%s\n----------\n" +
 					"A \"PSM\" row was found before any \"PSH\" row.",
 					lineNumber, mzTabFilename, line));
-			else psmHeader.validateMzTabRow(line);
-			// determine controlled FDR values, if present
-			String[] row = line.split("\\t");
+			else psmHeader.validateMzTabRow(row);
+			// determine controlled FDR values, if present; note the width
+			// the row will need if any missing control columns are written
+			int width = row.getColumnCount();
 			// get PSM_ID (should be present for all rows)
-			String psmID = row[columns.get(MzTabConstants.PSH_PSM_ID_COLUMN)];
+			String psmID =
+				row.getColumn(columns.get(MzTabConstants.PSH_PSM_ID_COLUMN));
 			// passThreshold; default true
 			Boolean passThreshold = true;
 			Integer passThresholdIndex =
 				columns.get(MzTabConstants.PASS_THRESHOLD_COLUMN);
 			// if the control column is already present, just read its value
-			if (passThresholdIndex < row.length)
-				passThreshold =
-					CommonUtils.parseBooleanColumn(row[passThresholdIndex]);
+			if (passThresholdIndex < row.getColumnCount())
+				passThreshold = CommonUtils.parseBooleanColumn(
+					row.getColumn(passThresholdIndex));
 			// add the control column if it's not already there
-			else {
-				String[] newRow = new String[passThresholdIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-			}
+			else width = Math.max(width, passThresholdIndex + 1);
 			// if the control column was not present, or if it is
 			// present but its value could not be clearly interpreted
 			// as either true or false, then try to determine the
@@ -286,29 +349,25 @@ public class FDRCalculationProcessor implements MzTabProcessor
 				if (passThresholdColumn != null) {
 					Integer index = columns.get(passThresholdColumn);
 					if (index != null)
-						passThreshold =
-							CommonUtils.parseBooleanColumn(row[index]);
+						passThreshold = CommonUtils.parseBooleanColumn(
+							row.getColumn(index));
 				}
 				// enforce a default of true, even if something was present
 				// but could not be interpreted as a valid boolean value
 				if (passThreshold == null)
 					passThreshold = true;
-				row[passThresholdIndex] = Boolean.toString(passThreshold);
-				line = getLine(row);
+				setColumn(row, width, passThresholdIndex,
+					Boolean.toString(passThreshold));
 			}
 			// isDecoy; default null
 			Boolean isDecoy = null;
 			Integer decoyIndex = columns.get(MzTabConstants.IS_DECOY_COLUMN);
 			// if the control column is already present, just read its value
-			if (decoyIndex < row.length)
-				isDecoy = CommonUtils.parseBooleanColumn(row[decoyIndex]);
+			if (decoyIndex < row.getColumnCount())
+				isDecoy =
+					CommonUtils.parseBooleanColumn(row.getColumn(decoyIndex));
 			// add the control column if it's not already there
-			else {
-				String[] newRow = new String[decoyIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-			}
+			else width = Math.max(width, decoyIndex + 1);
 			// if the control column was not present, or if it is
 			// present but its value could not be clearly interpreted
 			// as either true or false, then try to determine the
@@ -323,7 +382,7 @@ public class FDRCalculationProcessor implements MzTabProcessor
 				// if any potential decoy-indicating
 				// column could be found, check it
 				if (index != null) {
-					String value = row[index];
+					String value = row.getColumn(index);
 					// if a decoy substring was provided, then the
 					// row is a decoy hit iff the given column value
 					// contains that substring
@@ -347,23 +406,17 @@ public class FDRCalculationProcessor implements MzTabProcessor
 						isDecoy = CommonUtils.parseBooleanColumn(value);
 				}
 				// write isDecoy as 0/1 by convention
-				row[decoyIndex] =
-					isDecoy == null ? "null" : isDecoy ? "1" : "0";
-				line = getLine(row);
+				setColumn(row, width, decoyIndex,
+					isDecoy == null ? "null" : isDecoy ? "1" : "0");
 			}
 			// PSM-level Q-value; default null
 			String qValue = "null";
 			Integer qValueIndex = columns.get(MzTabConstants.Q_VALUE_COLUMN);
 			// if the control column is already present, just read its value
-			if (qValueIndex < row.length)
-				qValue = row[qValueIndex];
+			if (qValueIndex < row.getColumnCount())
+				qValue = row.getColumn(qValueIndex);
 			// add the control column if it's not already there
-			else {
-				String[] newRow = new String[qValueIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-			}
+			else width = Math.max(width, qValueIndex + 1);
 			// if the control column was not present, or if it is
 			// present but its value could not be clearly interpreted
 			// as a valid Q-value, then try to determine the
@@ -373,10 +426,9 @@ public class FDRCalculationProcessor implements MzTabProcessor
 				if (psmQValueColumn != null) {
 					Integer index = columns.get(psmQValueColumn);
 					if (index != null)
-						qValue = row[index];
+						qValue = row.getColumn(index);
 				}
-				row[qValueIndex] = qValue == null ? "null" : qValue;
-				line = getLine(row);
+				setColumn(row, width, qValueIndex, qValue);
 			}
 			// keep track of this PSM for FDR statistical
 			// purposes only if it passes threshold
@@ -394,7 +446,7 @@ public class FDRCalculationProcessor implements MzTabProcessor
 						Integer index = columns.get(peptideQValueColumn);
 						if (index != null) try {
 							statistics.recordQValue(
-								FDRType.PEPTIDE, Double.parseDouble(row[index]),
+								FDRType.PEPTIDE, Double.parseDouble(row.getColumn(index)),
 								filterType, filterFDR);
 						} catch (NumberFormatException error) {}
 					}
@@ -403,51 +455,105 @@ public class FDRCalculationProcessor implements MzTabProcessor
 						Integer index = columns.get(proteinQValueColumn);
 						if (index != null) try {
 							statistics.recordQValue(
-								FDRType.PROTEIN, Double.parseDouble(row[index]),
+								FDRType.PROTEIN, Double.parseDouble(row.getColumn(index)),
 								filterType, filterFDR);
 						} catch (NumberFormatException error) {}
 					}
 				}
-				// increment the proper count for this PSM if it passes
-				// threshold and its "isDecoy" value is not null.
-				if (isDecoy != null) {
-					// a PSM is a target PSM if any of its rows
-					// have isDecoy=false; any target PSM should
-					// explicitly not be in the decoy or null sets
-					if (isDecoy == false) {
-						statistics.addElement("targetPSM", psmID);
-						statistics.removeElement("decoyPSM", psmID);
-						statistics.removeElement("nullDecoyPSM", psmID);
-					}
-					// a PSM should only be added to the decoy
-					// set if it's not already in the target set
-					else if (statistics.containsElement("targetPSM", psmID)
-						== false) {
-						statistics.addElement("decoyPSM", psmID);
-						statistics.removeElement("nullDecoyPSM", psmID);
-					}
-				}
-				// since this PSM row passed threshold, note it even if it has
-				// isDecoy=null, since it may need to be considered against
-				// any decoy PSMs that were found due to standard decoy patterns
-				else if (
-					statistics.containsElement("targetPSM", psmID) == false &&
-					statistics.containsElement("decoyPSM", psmID) == false)
-					statistics.addElement("nullDecoyPSM", psmID);
+				// count this PSM by its decoy status, since it passes threshold
+				statistics.addPSM(psmID, isDecoy);
 			}
 			// add this PSM row's peptide sequence to the proper maps
 			Integer peptideIndex =
 				psmHeader.getColumnIndex(MzTabConstants.PSH_PEPTIDE_COLUMN);
 			Integer proteinIndex =
 				psmHeader.getColumnIndex(MzTabConstants.PSH_PROTEIN_COLUMN);
-			String peptide = row[peptideIndex];
+			String peptide = row.getColumn(peptideIndex);
 			statistics.addPeptide(peptide, passThreshold, isDecoy);
-			statistics.addProteinPeptide(row[proteinIndex], peptide);
+			statistics.addProteinPeptide(row.getColumn(proteinIndex), peptide);
+			// note this PSM's score if Q-values are to be estimated from it
+			if (passThreshold && scoreIndex != null &&
+				scoreIndex < row.getColumnCount()) {
+				Double score =
+					parseScore(row.getColumn(scoreIndex), higherScoreBetter);
+				if (score != null) {
+					if (isDecoy != null)
+						addScore(psmQValues, score, isDecoy);
+					statistics.recordScore(
+						peptide, row.getColumn(proteinIndex), score);
+				}
+			}
 		}
-		return line;
 	}
 	
 	public void tearDown() {
+		// statistics kept on disk work out the attributes and counts of all
+		// elements in one merge of their sorted records, while those kept
+		// in memory are worked out by looking up each element in turn
+		if (statistics instanceof ExternalMzTabFDRStatistics)
+			((ExternalMzTabFDRStatistics)statistics).mergeRecords(
+				peptideQValues, proteinQValues);
+		else if (statistics instanceof MzTabFDRStatistics)
+			countElements((MzTabFDRStatistics)statistics);
+		recordEstimatedQValues();
+	}
+	
+	/**
+	 * Returns the PSM-level Q-values estimated from the score column, or
+	 * null if none were estimated; valid once this processor is torn down.
+	 */
+	public QValueEstimator getPSMQValues() {
+		return psmQValues;
+	}
+	
+	/**
+	 * Returns the index of the PSM score column from which Q-values were
+	 * estimated, or null if none was found.
+	 */
+	public Integer getScoreIndex() {
+		return scoreIndex;
+	}
+	
+	/**
+	 * Deletes any scores spilled to temporary files, whether or not the
+	 * file was read through.
+	 */
+	public void close() {
+		if (psmQValues != null)
+			psmQValues.close();
+		if (peptideQValues != null)
+			peptideQValues.close();
+		if (proteinQValues != null)
+			proteinQValues.close();
+	}
+	
+	/**
+	 * Parses a score column value, oriented so that higher scores are always
+	 * better; returns null if the value is not a number.
+	 */
+	public static Double parseScore(String value, boolean higherScoreBetter) {
+		if (value == null)
+			return null;
+		double score;
+		try { score = Double.parseDouble(value.trim()); }
+		catch (NumberFormatException error) {
+			return null;
+		}
+		if (Double.isNaN(score))
+			return null;
+		else if (higherScoreBetter)
+			return score;
+		else return -score;
+	}
+	
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	/**
+	 * Works out the attributes of all proteins from those of their
+	 * peptides, and counts all peptides and proteins that pass threshold.
+	 */
+	private void countElements(MzTabFDRStatistics statistics) {
 		// calculate FDR attributes for all proteins
 		for (String accession : statistics.getPeptideMappedProteins()) {
 			// ensure this protein is counted by adding a default record for it
@@ -521,6 +627,10 @@ public class FDRCalculationProcessor implements MzTabProcessor
 					else if (attributes.getRight())
 						statistics.addElement("decoyPeptide", sequence);
 					else statistics.addElement("targetPeptide", sequence);
+					// a peptide is scored by its best PSM
+					Double score = statistics.getPeptideScore(sequence);
+					if (score != null && attributes.getRight() != null)
+						addScore(peptideQValues, score, attributes.getRight());
 				}
 			}
 		}
@@ -537,23 +647,73 @@ public class FDRCalculationProcessor implements MzTabProcessor
 					else if (attributes.getRight())
 						statistics.addElement("decoyProtein", accession);
 					else statistics.addElement("targetProtein", accession);
+					// a protein is scored by its best PSM
+					Double score = statistics.getProteinScore(accession);
+					if (score != null && attributes.getRight() != null)
+						addScore(proteinQValues, score, attributes.getRight());
 				}
 			}
 		}
 	}
 	
-	/*========================================================================
-	 * Convenience methods
-	 *========================================================================*/
-	private String getLine(String[] tokens) {
-		if (tokens == null || tokens.length < 1)
-			return null;
-		StringBuilder line = new StringBuilder();
-		for (int i=0; i<tokens.length; i++)
-			line.append(tokens[i]).append("\t");
-		// chomp trailing tab ("\t")
-		if (line.charAt(line.length() - 1) == '\t')
-			line.setLength(line.length() - 1);
-		return line.toString();
+	private void setColumn(
+		MzTabRow row, int width, int index, String value
+	) {
+		// pad the row out to include any control columns added to it so far,
+		// so that they are all written together with "null" values
+		if (width > row.getColumnCount())
+			row.setColumn(width - 1, "null");
+		row.setColumn(index, value);
+	}
+	
+	private void addScore(
+		QValueEstimator qValues, double score, boolean isDecoy
+	) {
+		if (qValues == null)
+			return;
+		else try {
+			qValues.addScore(score, isDecoy);
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not spill scores of mzTab file [%s] to disk.",
+				mzTabFilename), error);
+		}
+	}
+	
+	/**
+	 * Estimates Q-values from all scores noted, and records the highest
+	 * estimated Q-value of each level just like one read from the file.
+	 */
+	private void recordEstimatedQValues() {
+		recordEstimatedQValue(FDRType.PSM, psmQValues);
+		recordEstimatedQValue(FDRType.PEPTIDE, peptideQValues);
+		recordEstimatedQValue(FDRType.PROTEIN, proteinQValues);
+	}
+	
+	private void recordEstimatedQValue(
+		FDRType type, QValueEstimator qValues
+	) {
+		if (qValues == null)
+			return;
+		try {
+			qValues.estimate();
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not read back scores of mzTab file [%s] from disk.",
+				mzTabFilename), error);
+		}
+		// only a Q-value within the filter threshold of this level would be
+		// recorded, so look for the highest one that is
+		Double limit = null;
+		if ((filterType == null && type.equals(FDRType.PSM)) ||
+			type.equals(filterType))
+			limit = filterFDR;
+		statistics.recordQValue(
+			type, qValues.getMaxTargetQValue(limit), filterType, filterFDR);
+	}
+	
+	private File getScratchFile(String level) {
+		return new File(String.format(
+			"%s.%s", scratchBase.getAbsolutePath(), level));
 	}
 }
@@ -3,7 +3,8 @@ package edu.ucsd.mztab.processors;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.sql.Connection;
@@ -14,6 +15,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -22,25 +24,39 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 
+import edu.ucsd.mztab.model.MetricsRegistry;
 import edu.ucsd.mztab.model.Modification;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.model.PSM;
-import edu.ucsd.mztab.model.TimingRecord;
 import edu.ucsd.mztab.model.MzTabMsRun;
+import edu.ucsd.mztab.model.MetricsRegistry.Timer;
 import edu.ucsd.mztab.ui.MzTabPROXIImporter;
 import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.util.DatabaseUtils;
+import edu.ucsd.mztab.util.ElementIDCache;
+import edu.ucsd.mztab.util.IDRangeAllocator;
+import edu.ucsd.mztab.util.ImportJournal;
+import edu.ucsd.mztab.util.LoadDataBuffer;
 import edu.ucsd.mztab.util.ProteomicsUtils;
+import edu.ucsd.mztab.util.SortedLoadFileWriter;
 
-public class MassIVESearchProcessor implements MzTabProcessor
+public class MassIVESearchProcessor implements MzTabRowProcessor
 {
     /*========================================================================
      * Constants
@@ -53,14 +69,182 @@ public class MassIVESearchProcessor implements MzTabProcessor
         "PSM_ID", "sequence", "accession", "modifications", "spectra_ref",
         "charge", "exp_mass_to_charge"
     };
-    private static final String DEBUG_LOG_HEADER =
-        "category\ttotal_batch_count\ttotal_element_count\ttotal_time_ns" +
-        "\tslowest_batch_element_count\tslowest_batch_time_ns" +
-        "\tfastest_batch_element_count\tfastest_batch_time_ns" +
-        "\taverage_batch_element_count\taverage_batch_time_ns";
     // MySQL LOAD DATA input files
     private static final String TEMP_DIRECTORY_NAME = "temp";
-    private static final int WRITE_BUFFER_SIZE = 8 * 1024; // 8 KiB
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024; // 1 MiB
+    // most connections used to load the tables of one dependency level
+    private static final int MAX_CONCURRENT_LOADS = 4;
+    // element ID recorded for rows whose real ID was only ever
+    // looked up on the server, during a staged import
+    private static final int SERVER_RESOLVED_ID = -1;
+    // marks the end of a file's batches for the background loader
+    private static final MassIVESearchDataLoadManager END_OF_BATCHES =
+        new MassIVESearchDataLoadManager();
+    // staging tables for each dependent table, in a staged import
+    private static final StagingTable VARIANTS_STAGING = new StagingTable(
+        "variants",
+        "SELECT v.sequence, v.charge, p.sequence AS peptide_sequence " +
+        "FROM proxi.variants v, proxi.peptides p",
+        "sequence, charge, peptide_sequence",
+        "sequence, charge, peptide_id", "s.sequence, s.charge, p.id",
+        "proxi.peptides p ON p.sequence = s.peptide_sequence");
+    private static final StagingTable RESULTFILE_PEPTIDES_STAGING = new StagingTable(
+        "resultfile_peptides",
+        "SELECT sequence FROM proxi.peptides", "sequence",
+        "sequence, resultfile_id, peptide_id", "s.sequence, ?, p.id",
+        "proxi.peptides p ON p.sequence = s.sequence");
+    private static final StagingTable RESULTFILE_PROTEINS_STAGING = new StagingTable(
+        "resultfile_proteins",
+        "SELECT name AS accession FROM proxi.proteins", "accession",
+        "resultfile_id, protein_id", "?, r.id",
+        "proxi.proteins r ON r.name = s.accession");
+    private static final StagingTable RESULTFILE_MODIFICATIONS_STAGING = new StagingTable(
+        "resultfile_modifications",
+        "SELECT name AS modification FROM proxi.modifications", "modification",
+        "resultfile_id, modification_id", "?, m.id",
+        "proxi.modifications m ON m.name = s.modification");
+    private static final StagingTable DATASET_PEPTIDES_STAGING = new StagingTable(
+        "dataset_peptides",
+        "SELECT sequence FROM proxi.peptides", "sequence",
+        "sequence, dataset_id, peptide_id", "s.sequence, ?, p.id",
+        "proxi.peptides p ON p.sequence = s.sequence");
+    private static final StagingTable DATASET_PROTEINS_STAGING = new StagingTable(
+        "dataset_proteins",
+        "SELECT name AS accession FROM proxi.proteins", "accession",
+        "dataset_id, protein_id", "?, r.id",
+        "proxi.proteins r ON r.name = s.accession");
+    private static final StagingTable DATASET_MODIFICATIONS_STAGING = new StagingTable(
+        "dataset_modifications",
+        "SELECT name AS modification FROM proxi.modifications", "modification",
+        "dataset_id, modification_id", "?, m.id",
+        "proxi.modifications m ON m.name = s.modification");
+    private static final StagingTable PEPTIDE_PROTEINS_STAGING = new StagingTable(
+        "peptide_proteins",
+        "SELECT p.sequence, r.name AS accession " +
+        "FROM proxi.peptides p, proxi.proteins r",
+        "sequence, accession",
+        "sequence, peptide_id, protein_id", "s.sequence, p.id, r.id",
+        "proxi.peptides p ON p.sequence = s.sequence",
+        "proxi.proteins r ON r.name = s.accession");
+    private static final StagingTable PEPTIDE_MODIFICATIONS_STAGING = new StagingTable(
+        "peptide_modifications",
+        "SELECT p.sequence, m.name AS modification " +
+        "FROM proxi.peptides p, proxi.modifications m",
+        "sequence, modification",
+        "peptide_id, modification_id", "p.id, m.id",
+        "proxi.peptides p ON p.sequence = s.sequence",
+        "proxi.modifications m ON m.name = s.modification");
+    private static final StagingTable PROTEIN_MODIFICATIONS_STAGING = new StagingTable(
+        "protein_modifications",
+        "SELECT r.name AS accession, m.name AS modification " +
+        "FROM proxi.proteins r, proxi.modifications m",
+        "accession, modification",
+        "protein_id, modification_id", "r.id, m.id",
+        "proxi.proteins r ON r.name = s.accession",
+        "proxi.modifications m ON m.name = s.modification");
+    private static final String PSMS_STAGING_TEMPLATE =
+        "SELECT x.id, x.id_in_file, x.index_in_file, x.nativeid, " +
+        "x.variant_sequence, x.charge, x.exp_mass_to_charge, " +
+        "f.file_descriptor, p.sequence AS peptide_sequence, " +
+        "v.sequence AS variant_key_sequence, v.charge AS variant_key_charge " +
+        "FROM proxi.psms x, proxi.spectrumfiles f, proxi.peptides p, " +
+        "proxi.variants v";
+    private static final String PSMS_STAGING_COLUMNS =
+        "id, id_in_file, index_in_file, nativeid, variant_sequence, charge, " +
+        "exp_mass_to_charge, file_descriptor, peptide_sequence, " +
+        "variant_key_sequence, variant_key_charge";
+    private static final String[] PSMS_STAGING_JOINS = new String[]{
+        "proxi.spectrumfiles f ON f.file_descriptor = s.file_descriptor",
+        "proxi.peptides p ON p.sequence = s.peptide_sequence",
+        "proxi.variants v ON v.sequence = s.variant_key_sequence " +
+            "AND v.charge = s.variant_key_charge"
+    };
+    private static final StagingTable PSMS_STAGING = new StagingTable(
+        "psms", PSMS_STAGING_TEMPLATE, PSMS_STAGING_COLUMNS,
+        "id, id_in_file, index_in_file, nativeid, variant_sequence, charge, " +
+        "exp_mass_to_charge, resultfile_id, spectrumfile_id, peptide_id, variant_id",
+        "s.id, s.id_in_file, s.index_in_file, s.nativeid, s.variant_sequence, " +
+        "s.charge, s.exp_mass_to_charge, ?, f.id, p.id, v.id",
+        PSMS_STAGING_JOINS);
+    private static final StagingTable DATASET_PSMS_STAGING = new StagingTable(
+        "psms", PSMS_STAGING_TEMPLATE, PSMS_STAGING_COLUMNS,
+        "id, id_in_file, index_in_file, nativeid, variant_sequence, charge, " +
+        "exp_mass_to_charge, resultfile_id, spectrumfile_id, peptide_id, variant_id, " +
+        "dataset_id",
+        "s.id, s.id_in_file, s.index_in_file, s.nativeid, s.variant_sequence, " +
+        "s.charge, s.exp_mass_to_charge, ?, f.id, p.id, v.id, ?",
+        PSMS_STAGING_JOINS);
+    private static final StagingTable RESULTFILE_VARIANTS_STAGING = new StagingTable(
+        "resultfile_variants",
+        "SELECT sequence, charge FROM proxi.variants", "sequence, charge",
+        "sequence, resultfile_id, variant_id", "s.sequence, ?, v.id",
+        "proxi.variants v ON v.sequence = s.sequence AND v.charge = s.charge");
+    private static final StagingTable DATASET_VARIANTS_STAGING = new StagingTable(
+        "dataset_variants",
+        "SELECT sequence, charge FROM proxi.variants", "sequence, charge",
+        "sequence, dataset_id, variant_id", "s.sequence, ?, v.id",
+        "proxi.variants v ON v.sequence = s.sequence AND v.charge = s.charge");
+    private static final StagingTable VARIANT_PROTEINS_STAGING = new StagingTable(
+        "variant_proteins",
+        "SELECT v.sequence, v.charge, r.name AS accession " +
+        "FROM proxi.variants v, proxi.proteins r",
+        "sequence, charge, accession",
+        "variant_id, protein_id", "v.id, r.id",
+        "proxi.variants v ON v.sequence = s.sequence AND v.charge = s.charge",
+        "proxi.proteins r ON r.name = s.accession");
+    private static final StagingTable VARIANT_MODIFICATIONS_STAGING = new StagingTable(
+        "variant_modifications",
+        "SELECT x.location, v.sequence, v.charge, m.name AS modification " +
+        "FROM proxi.variant_modifications x, proxi.variants v, " +
+        "proxi.modifications m",
+        "location, sequence, charge, modification",
+        "location, variant_id, modification_id", "s.location, v.id, m.id",
+        "proxi.variants v ON v.sequence = s.sequence AND v.charge = s.charge",
+        "proxi.modifications m ON m.name = s.modification");
+    private static final StagingTable PSM_PROTEINS_STAGING = new StagingTable(
+        "psm_proteins",
+        "SELECT x.psm_id, r.name AS accession " +
+        "FROM proxi.psm_proteins x, proxi.proteins r",
+        "psm_id, accession",
+        "psm_id, protein_id", "s.psm_id, r.id",
+        "proxi.proteins r ON r.name = s.accession");
+    private static final StagingTable PSM_MODIFICATIONS_STAGING = new StagingTable(
+        "psm_modifications",
+        "SELECT x.psm_id, m.name AS modification " +
+        "FROM proxi.psm_modifications x, proxi.modifications m",
+        "psm_id, modification",
+        "psm_id, modification_id", "s.psm_id, m.id",
+        "proxi.modifications m ON m.name = s.modification");
+    // removes everything loaded for one resultfile, in foreign key order;
+    // elements shared with other files, such as peptides, are left alone
+    private static final String[] RESULTFILE_DELETIONS = new String[]{
+        "DELETE j FROM proxi.psm_proteins j " +
+        "JOIN proxi.psms x ON x.id = j.psm_id WHERE x.resultfile_id=?",
+        "DELETE j FROM proxi.psm_modifications j " +
+        "JOIN proxi.psms x ON x.id = j.psm_id WHERE x.resultfile_id=?",
+        "DELETE FROM proxi.psms WHERE resultfile_id=?",
+        "DELETE FROM proxi.resultfile_peptides WHERE resultfile_id=?",
+        "DELETE FROM proxi.resultfile_proteins WHERE resultfile_id=?",
+        "DELETE FROM proxi.resultfile_modifications WHERE resultfile_id=?",
+        "DELETE FROM proxi.resultfile_variants WHERE resultfile_id=?",
+        "DELETE FROM proxi.resultfiles WHERE id=?"
+    };
+
+    /*========================================================================
+     * Static properties
+     *========================================================================*/
+    private static boolean defaultStagedImport = false;
+    private static int     defaultLoadBatchSize = 0;
+    private static long    defaultMemoryBudget = 0;
+    private static int     defaultMemoryBudgetPSMs = 0;
+    // numbers the load file directories of imports in this process,
+    // so that files imported concurrently never share load files
+    private static final AtomicInteger importCounter = new AtomicInteger();
+    private static boolean defaultReservedIDs = false;
+    private static boolean defaultStreamedLoads = false;
+    // shared by all imports in this process, so that each
+    // reserved block of IDs is used up across files
+    private static final IDRangeAllocator ID_ALLOCATOR = new IDRangeAllocator();
 
     /*========================================================================
      * Properties
@@ -68,23 +252,61 @@ public class MassIVESearchProcessor implements MzTabProcessor
     private Connection                        connection;
     private Map<String, Map<String, Integer>> uniqueElements;
     private Map<String, Map<String, Integer>> globalElements;
+    // IDs of global elements known to earlier import processes
+    private ElementIDCache                    elementIDCache;
     private Map<String, Integer>              rowCounts;
     private Map<String, File>                 dataLoadFiles;
     private Set<String>                       psmIDs;
-    private Long[]                            psmDatabaseIDs;
+    // PSM index -> database ID, or 0 if not imported
+    private long[]                            psmDatabaseIDs;
     private Long                              lastPSMDatabaseID;
+    // where lastPSMDatabaseID comes from, if not yet known
+    private Callable<Long>                    startingPSMIDSource;
     private MassIVESearchMzTabRecord          mzTabRecord;
+    // batch being filled by parsing, and batch being loaded
     private MassIVESearchDataLoadManager      dataLoadManager;
+    private MassIVESearchDataLoadManager      loadingBatch;
+    private DataLoadThread                    loader;
     private MzTabSectionHeader                prtHeader;
     private MzTabSectionHeader                pepHeader;
     private MzTabSectionHeader                psmHeader;
     private boolean                           importByQValue;
+    private boolean                           stagedImport;
+    private boolean                           reservedIDs;
+    private boolean                           streamedLoads;
+    // load file -> its content, while it's held for streaming
+    private Map<File, LoadDataBuffer>         loadBuffers;
+    private int                               loadBatchSize;
+    // records which load levels of which batches have finished, so that
+    // a re-run of a failed import can skip them
+    private ImportJournal                     journal;
+    private int                               loadedBatches;
+    private long                              memoryBudget;
+    private int                               memoryBudgetPSMs;
+    private int                               batchPSMCount;
+    private Integer                           batchPSMIndex;
+    // whether any PSM of this file has been found importable, so that
+    // its resultfile row has been inserted and its content may be loaded
+    private boolean                           accepted;
     private Integer                           lastPSMIndex;
     private Integer                           validColumn;
     private Integer                           qValueColumn;
     private File                              tempDirectory;
     private File                              debugLogFile;
     private Long                              start;
+    // per-row timers, registered up front so that timing a row is cheap
+    private MetricsRegistry                   metrics;
+    private Timer                             psmRowCountTimer;
+    private Timer                             psmRowValidateTimer;
+    private Timer                             psmRowIndexTimer;
+    private Timer                             psmRowImportableTimer;
+    private Timer                             psmRowModificationsTimer;
+    private Timer                             psmRowInstantiateTimer;
+    private Timer                             psmRowImportable2Timer;
+    private Timer                             psmRowPreprocessingTimer;
+    private Timer                             psmRowProteinCleanTimer;
+    private Timer                             psmRowCascadeTimer;
+    private Timer                             batchHandoffTimer;
 
     /*========================================================================
      * Constructor
@@ -118,8 +340,18 @@ public class MassIVESearchProcessor implements MzTabProcessor
         psmHeader = null;
         qValueColumn = null;
         this.importByQValue = importByQValue;
+        stagedImport = defaultStagedImport;
+        reservedIDs = defaultReservedIDs;
+        streamedLoads = defaultStreamedLoads;
+        loadBuffers = new ConcurrentHashMap<File, LoadDataBuffer>();
+        loadBatchSize = defaultLoadBatchSize;
+        memoryBudget = defaultMemoryBudget;
+        memoryBudgetPSMs = defaultMemoryBudgetPSMs;
+        journal = null;
+        elementIDCache = null;
         // initialize load files
-        tempDirectory = new File(TEMP_DIRECTORY_NAME);
+        tempDirectory = new File(TEMP_DIRECTORY_NAME,
+            String.format("import-%d", importCounter.incrementAndGet()));
         tempDirectory.mkdirs();
         if (tempDirectory.isDirectory() == false || tempDirectory.canWrite() == false)
             throw new RuntimeException(String.format(
@@ -162,11 +394,32 @@ public class MassIVESearchProcessor implements MzTabProcessor
                     "Starting PSM database ID [%d] cannot be less than 1.", startingPSMID));
             else lastPSMDatabaseID = startingPSMID;
         } else lastPSMDatabaseID = 1L;
+        startingPSMIDSource = null;
+        accepted = false;
         psmIDs = null;
         psmDatabaseIDs = null;
         lastPSMIndex = null;
+        // initialize batch state
+        loadingBatch = null;
+        loadedBatches = 0;
+        loader = null;
+        batchPSMCount = 0;
+        batchPSMIndex = null;
         // intialize start time
         start = null;
+        // initialize metrics
+        metrics = new MetricsRegistry("MassIVE search import");
+        psmRowPreprocessingTimer = metrics.sampledTimer("psm_row_preprocessing");
+        psmRowCountTimer = metrics.sampledTimer("psm_row_increment_row_count");
+        psmRowValidateTimer = metrics.sampledTimer("psm_row_validate");
+        psmRowIndexTimer = metrics.sampledTimer("psm_row_check_index");
+        psmRowImportableTimer = metrics.sampledTimer("psm_row_check_importable");
+        psmRowModificationsTimer = metrics.sampledTimer("psm_row_clean_mods");
+        psmRowInstantiateTimer = metrics.sampledTimer("psm_row_instantiate_psm");
+        psmRowImportable2Timer = metrics.sampledTimer("psm_row_check_importable_2");
+        psmRowProteinCleanTimer = metrics.sampledTimer("psm_row_protein_clean");
+        psmRowCascadeTimer = metrics.sampledTimer("psm_row_cascade");
+        batchHandoffTimer = metrics.timer("load_batch_handoff");
     }
 
     /*========================================================================
@@ -179,21 +432,22 @@ public class MassIVESearchProcessor implements MzTabProcessor
         else this.mzTabRecord.mzTabFile = mzTabFile;
         // intialize start time for logging purposes
         start = System.nanoTime();
-        // insert mzTab file into database,
-        // populate mzTabFile object with column values
-        insertMzTabFile();
-        // initialize batch manager
-        dataLoadManager = new MassIVESearchDataLoadManager(mzTabRecord, connection);
+        // initialize batch manager; nothing is written to the database
+        // until the first importable PSM accepts this file for import
+        dataLoadManager =
+            new MassIVESearchDataLoadManager(mzTabRecord, metrics, connection);
         // record all of this mzTab file's referenced spectrum files
         for (Integer msRun : mzTabRecord.mzTabFile.getMsRuns().keySet())
             processSpectrumFile(mzTabRecord.mzTabFile.getMsRun(msRun).getDescriptor());
     }
 
-    public String processMzTabLine(String line, int lineNumber) {
-        if (line == null)
+    public void processMzTabRow(MzTabRow row) {
+        if (row == null)
             throw new NullPointerException(
-                "Processed mzTab line cannot be null.");
+                "Processed mzTab row cannot be null.");
         else incrementRowCount("lines_in_file");
+        String line = row.getLine();
+        int lineNumber = row.getLineNumber();
         String mzTabFilename = mzTabRecord.mzTabFile.getMzTabFilename();
         // read line and, if it's a content row, parse and insert its content
         // protein section
@@ -303,38 +557,23 @@ public class MassIVESearchProcessor implements MzTabProcessor
             qValueColumn =
                 psmHeader.getColumnIndex(MzTabConstants.Q_VALUE_COLUMN);
         } else if (line.startsWith("PSM")) {
-//
-System.out.println("PSM row:");
-//
-            long start = System.nanoTime();
+            // whether or not this row is timed is decided here,
+            // and applies to every step of its processing
+            long start = psmRowPreprocessingTimer.start();
             long checkpoint = start;
-            long minorCheckpoint = checkpoint;
             incrementRowCount("PSM");
-            long end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_increment_row_count\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-            dataLoadManager.addTiming("psm_row_increment_row_count", end - minorCheckpoint, 1);
-            minorCheckpoint = end;
+            checkpoint = psmRowCountTimer.lap(checkpoint);
             if (psmHeader == null)
                 throw new IllegalArgumentException(String.format(
                     "Line %d of mzTab file [%s] is invalid:" +
                     "\n----------\n%s\n----------\n" +
                     "A \"PSM\" row was found before any \"PSH\" row.",
                     lineNumber, mzTabFilename, line));
-            else psmHeader.validateMzTabRow(line);
-            end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_validate\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-            dataLoadManager.addTiming("psm_row_validate", end - minorCheckpoint, 1);
-            minorCheckpoint = end;
+            else psmHeader.validateMzTabRow(row);
+            checkpoint = psmRowValidateTimer.lap(checkpoint);
             // extract insertable elements from this PSM row
-            String[] columns = line.split("\t");
             // get this PSM's index
-            String psmID = columns[psmHeader.getColumnIndex("PSM_ID")];
+            String psmID = row.getColumn(psmHeader.getColumnIndex("PSM_ID"));
             Integer psmIndex = null;
             // if the PSM_ID set is initialized, then we've already determined that PSM_ID
             // values differ from 1-based index, so just use the set
@@ -390,17 +629,11 @@ System.out.println(String.format("  psm_row_validate\t%s",
                 }
                 psmIndex = lastPSMIndex;
             }
-            end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_check_index (%d)\t%s",
-    psmIndex, CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-            dataLoadManager.addTiming("psm_row_check_index", end - minorCheckpoint, 1);
-            minorCheckpoint = end;
+            checkpoint = psmRowIndexTimer.lap(checkpoint);
             // if this PSM is not explicitly marked as valid, do not import
-            boolean importable = true;
-            try {
-                String valid = columns[validColumn];
+            boolean importable = validColumn != null;
+            if (importable) try {
+                String valid = row.getColumn(validColumn);
                 if (valid == null ||
                     valid.trim().equalsIgnoreCase("VALID") == false)
                     importable = false;
@@ -409,76 +642,58 @@ System.out.println(String.format("  psm_row_check_index (%d)\t%s",
             }
             // if flag is set to only import PSMs at or below the designated
             // Q-value threshold, determine if this PSM makes the cut
-            if (importable && importByQValue) try {
-                double qValue = Double.parseDouble(columns[qValueColumn]);
+            if (importable && importByQValue && qValueColumn == null)
+                importable = false;
+            else if (importable && importByQValue) try {
+                double qValue = Double.parseDouble(row.getColumn(qValueColumn));
                 if (qValue > MzTabConstants.DEFAULT_IMPORT_Q_VALUE_THRESHOLD)
                     importable = false;
             } catch (Throwable error) {
                 importable = false;
             }
-            end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_check_importable\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-            dataLoadManager.addTiming("psm_row_check_importable", end - minorCheckpoint, 1);
-            minorCheckpoint = end;
+            checkpoint = psmRowImportableTimer.lap(checkpoint);
             // instantiate and validate the PSM
             Collection<Modification> modifications = null;
             PSM psm = null;
             if (importable) try {
                 modifications = cleanModificationsForSearch(
                     ProteomicsUtils.getModifications(
-                        columns[psmHeader.getColumnIndex("modifications")]));
-                end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_clean_mods\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-                dataLoadManager.addTiming("psm_row_clean_mods", end - minorCheckpoint, 1);
-                minorCheckpoint = end;
+                        row.getColumn(psmHeader.getColumnIndex("modifications"))));
+                checkpoint = psmRowModificationsTimer.lap(checkpoint);
                 psm = new PSM(
                     psmID, psmIndex,
-                    columns[psmHeader.getColumnIndex("spectra_ref")],
-                    columns[psmHeader.getColumnIndex("sequence")],
-                    columns[psmHeader.getColumnIndex("charge")],
-                    columns[psmHeader.getColumnIndex("exp_mass_to_charge")],
+                    row.getColumn(psmHeader.getColumnIndex("spectra_ref")),
+                    row.getColumn(psmHeader.getColumnIndex("sequence")),
+                    row.getColumn(psmHeader.getColumnIndex("charge")),
+                    row.getColumn(psmHeader.getColumnIndex("exp_mass_to_charge")),
                     modifications
                 );
-                end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_instantiate_psm\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-                dataLoadManager.addTiming("psm_row_instantiate_psm", end - minorCheckpoint, 1);
-                minorCheckpoint = end;
+                checkpoint = psmRowInstantiateTimer.lap(checkpoint);
                 // if this PSM doesn't pass basic validation, do not import
                 if (MzTabPROXIImporter.isImportable(psm) == false)
                     importable = false;
-                end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_check_importable_2\t%s",
-    CommonUtils.formatNanoseconds(end - minorCheckpoint)));
-//
-                dataLoadManager.addTiming("psm_row_check_importable_2", end - minorCheckpoint, 1);
-                minorCheckpoint = end;
+                checkpoint = psmRowImportable2Timer.lap(checkpoint);
             } catch (Throwable error) {
                 importable = false;
             }
-            end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_preprocessing\t%s",
-    CommonUtils.formatNanoseconds(end - checkpoint)));
-//
-            dataLoadManager.addTiming("psm_row_preprocessing", end - checkpoint, 1);
-            checkpoint = end;
+            checkpoint = psmRowPreprocessingTimer.stop(start);
             // only record this PSM if it passes the threshold
             if (importable) {
+                if (accepted == false)
+                    accept();
+                // once the current batch is full, or has used up its memory
+                // budget, load it, but never between two rows of one PSM
+                if (psmIndex.equals(batchPSMIndex) == false) {
+                    if (isBatchFull())
+                        flushBatch();
+                    batchPSMCount++;
+                    batchPSMIndex = psmIndex;
+                }
                 // split protein list, if aggregated (should only be one per
                 // PSM row, but mzTab producers sometimes don't follow rules)
                 String[] proteins = null;
                 String accession =
-                    columns[psmHeader.getColumnIndex("accession")];
+                    row.getColumn(psmHeader.getColumnIndex("accession"));
                 if (accession != null)
                     proteins = accession.split(";");
                 if (proteins == null)
@@ -489,42 +704,49 @@ System.out.println(String.format("  psm_row_preprocessing\t%s",
                     String cleanedAccession =
                         ProteomicsUtils.cleanProteinAccession(
                             ProteomicsUtils.filterProteinAccession(protein));
-                    end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_protein_clean\t%s",
-    CommonUtils.formatNanoseconds(end - checkpoint)));
-//
-                    dataLoadManager.addTiming("psm_row_protein_clean", end - checkpoint, 1);
-                    checkpoint = end;
+                    checkpoint = psmRowProteinCleanTimer.lap(checkpoint);
                     // process this PSM into the current batch
                     cascadePSM(psm, cleanedAccession, modifications);
-                    end = System.nanoTime();
-//
-System.out.println(String.format("  psm_row_cascade\t%s",
-    CommonUtils.formatNanoseconds(end - checkpoint)));
-//
-                    dataLoadManager.addTiming("psm_row_cascade", end - checkpoint, 1);
-                    checkpoint = end;
+                    checkpoint = psmRowCascadeTimer.lap(checkpoint);
                 }
             } else incrementRowCount("unimportable_PSM");
         }
-        return line;
     }
 
     public void tearDown() {
-        // allocate PSM database IDs array
-        if (lastPSMIndex == null)
+        // a file with no importable PSMs leaves no trace in the database
+        if (accepted == false) {
+            System.out.println(String.format(
+                "Skipped file [%s]: no importable PSMs were found.",
+                mzTabRecord.mzTabFile.getMzTabFilename()));
+            tempDirectory.delete();
+            return;
+        } else if (lastPSMIndex == null) {
+            stopLoader();
             throw new IllegalStateException(
                 "mzTab file is done being read, yet lastPSMIndex is still null.");
-        psmDatabaseIDs = new Long[lastPSMIndex + 1];
-        // build and submit all data
+        }
+        // build and submit all remaining data
         try {
-            loadData();
+            if (loader != null) {
+                // the last batch goes through the background loader like
+                // all the others, and every batch must finish loading
+                // before this file's import is complete
+                loader.submit(dataLoadManager);
+                loader.finish();
+            } else loadData(dataLoadManager);
         } catch (RuntimeException error) {
             throw error;
         } catch (Throwable error) {
             throw new RuntimeException(error);
+        } finally {
+            // never leave the background loader waiting on a failed import
+            stopLoader();
+            // every load file is deleted once it's loaded, so this
+            // only removes this import's directory if it's empty
+            tempDirectory.delete();
         }
+        ensurePSMCapacity(lastPSMIndex);
         // report import results
         StringBuilder success = new StringBuilder("Imported file [");
         success.append(mzTabRecord.mzTabFile.getMzTabFilename());
@@ -588,20 +810,169 @@ System.out.println(String.format("  psm_row_cascade\t%s",
 
     public int getImportedPSMCount() {
         int importedPSMs = 0;
-        for (Long id : psmDatabaseIDs)
-            if (id != null)
+        for (long id : psmDatabaseIDs)
+            if (id > 0)
                 importedPSMs++;
         return importedPSMs;
     }
 
+    /**
+     * Returns whether this file was accepted for import, which happens as
+     * soon as its first importable PSM is read. If no PSM of the file is
+     * importable, nothing is written to the database for it.
+     */
+    public boolean isAccepted() {
+        return accepted;
+    }
+
     public long getLastPSMDatabaseID() {
         return lastPSMDatabaseID;
     }
 
+    /**
+     * Sets where this processor gets the database ID of its first PSM, in
+     * place of the one it was constructed with. The source is only called
+     * once this processor is about to load its first PSMs, so that when
+     * several files are imported at once, each one can start its PSMs right
+     * after those of the files before it, as soon as that is known.
+     */
+    public void setStartingPSMID(Callable<Long> startingPSMID) {
+        startingPSMIDSource = startingPSMID;
+    }
+
     public void setDebugLogFile(File debugLogFile) {
         this.debugLogFile = debugLogFile;
     }
 
+    /**
+     * Sets whether dependent tables are loaded through temporary staging
+     * tables, with their foreign keys resolved on the database server
+     * instead of by querying every generated ID back into this processor.
+     */
+    public void setStagedImport(boolean stagedImport) {
+        this.stagedImport = stagedImport;
+    }
+
+    public static void setDefaultStagedImport(boolean stagedImport) {
+        defaultStagedImport = stagedImport;
+    }
+
+    /**
+     * Sets the number of PSMs parsed into each batch before that batch is
+     * handed off to a background thread to be loaded, while parsing of the
+     * rest of the file continues. A size of 0 or less disables this, so
+     * that the whole file is loaded at once after it has been parsed.
+     */
+    public void setLoadBatchSize(int loadBatchSize) {
+        this.loadBatchSize = loadBatchSize;
+    }
+
+    public static void setDefaultLoadBatchSize(int loadBatchSize) {
+        defaultLoadBatchSize = loadBatchSize;
+    }
+
+    /**
+     * Sets the approximate number of bytes of parsed rows that any one
+     * batch may hold before it is loaded, so that the memory needed to
+     * import a file depends on this budget rather than on the file's size.
+     * Only the maps of database IDs needed to resolve later rows are kept
+     * across batches. A budget of 0 or less disables this limit.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public static void setDefaultMemoryBudget(long memoryBudget) {
+        defaultMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the number of PSMs that any one batch may hold before it is
+     * loaded, as an alternative to a budget in bytes. A budget of 0 or
+     * less disables this limit.
+     */
+    public void setMemoryBudgetPSMs(int memoryBudgetPSMs) {
+        this.memoryBudgetPSMs = memoryBudgetPSMs;
+    }
+
+    public static void setDefaultMemoryBudgetPSMs(int memoryBudgetPSMs) {
+        defaultMemoryBudgetPSMs = memoryBudgetPSMs;
+    }
+
+    /**
+     * Sets whether new spectrum files, peptides, proteins, modifications
+     * and variants are written with IDs from blocks reserved on the server,
+     * after matching any that already exist, instead of querying the IDs
+     * generated for them back after they are loaded.
+     */
+    public void setReservedIDs(boolean reservedIDs) {
+        this.reservedIDs = reservedIDs;
+    }
+
+    public static void setDefaultReservedIDs(boolean reservedIDs) {
+        defaultReservedIDs = reservedIDs;
+    }
+
+    /**
+     * Sets whether load files are held in memory (spilling to local disk
+     * only past a fixed size) and streamed to the database server through
+     * "LOAD DATA LOCAL INFILE", instead of being written to disk for the
+     * server to read back, which requires a filesystem shared with it.
+     */
+    public void setStreamedLoads(boolean streamedLoads) {
+        this.streamedLoads = streamedLoads;
+    }
+
+    public static void setDefaultStreamedLoads(boolean streamedLoads) {
+        defaultStreamedLoads = streamedLoads;
+    }
+
+    /**
+     * Sets the journal in which each dependency level of each batch is
+     * recorded once it has been loaded. Levels already recorded there by
+     * an earlier, failed run of the same import are not loaded again.
+     */
+    public void setImportJournal(ImportJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the local cache of global element IDs that is consulted before
+     * any element is looked up in the database, and that is filled in with
+     * every element ID this import learns.
+     */
+    public void setElementIDCache(ElementIDCache elementIDCache) {
+        this.elementIDCache = elementIDCache;
+    }
+
+    /**
+     * Stops the background loader, if any, after a read of this file has
+     * failed, and removes everything already loaded for this file. Batches
+     * are loaded while the file is still being read, so a row found to be
+     * invalid late in the file would otherwise leave the rows of all the
+     * batches before it in the database. Batches not yet loaded are
+     * discarded, and this waits for the one being loaded to finish, so that
+     * the database connection is free to be used again once this returns.
+     */
+    public void abort() {
+        stopLoader();
+        if (accepted == false || mzTabRecord.id == null)
+            return;
+        try {
+            deleteMzTabFile();
+            // the levels journaled for this file are gone now too,
+            // so a re-run must load all of its batches again
+            if (journal != null)
+                journal.discardFile(mzTabRecord.mzTabFile.getFile());
+        } catch (Throwable error) {
+            System.err.println(String.format(
+                "Could not remove the rows already loaded for mzTab " +
+                "file [%s] (resultfile ID %d) after its import failed.",
+                mzTabRecord.mzTabFile.getMzTabFilename(), mzTabRecord.id));
+            error.printStackTrace();
+        }
+    }
+
     /*========================================================================
      * Convenience classes
      *========================================================================*/
@@ -626,7 +997,222 @@ System.out.println(String.format("  psm_row_cascade\t%s",
         }
     }
 
+    /**
+     * The tables loaded for each mzTab file, each with the tables it has
+     * foreign keys to. A table's level is one more than the highest level
+     * among the tables it refers to, so all the tables in one level can be
+     * loaded independently of each other once every earlier level is done.
+     * Each table's loader only writes to that table's ID map, and only
+     * reads the ID maps of the tables it depends on.
+     */
+    private static enum DataLoadTable {
+        // level 1 - no foreign keys
+        SPECTRUMFILES(false),
+        PEPTIDES(false),
+        PROTEINS(false),
+        MODIFICATIONS(false),
+        // level 2 - foreign keys to level 1
+        VARIANTS(false, PEPTIDES),
+        RESULTFILE_PEPTIDES(false, PEPTIDES),
+        RESULTFILE_PROTEINS(false, PROTEINS),
+        RESULTFILE_MODIFICATIONS(false, MODIFICATIONS),
+        DATASET_PEPTIDES(true, PEPTIDES),
+        DATASET_PROTEINS(true, PROTEINS),
+        DATASET_MODIFICATIONS(true, MODIFICATIONS),
+        PEPTIDE_PROTEINS(false, PEPTIDES, PROTEINS),
+        PEPTIDE_MODIFICATIONS(false, PEPTIDES, MODIFICATIONS),
+        PROTEIN_MODIFICATIONS(false, PROTEINS, MODIFICATIONS),
+        // level 3 - foreign keys to level 2
+        PSMS(false, SPECTRUMFILES, PEPTIDES, VARIANTS),
+        RESULTFILE_VARIANTS(false, VARIANTS),
+        DATASET_VARIANTS(true, VARIANTS),
+        VARIANT_PROTEINS(false, VARIANTS, PROTEINS),
+        VARIANT_MODIFICATIONS(false, VARIANTS, MODIFICATIONS),
+        // level 4 - foreign keys to level 3
+        PSM_PROTEINS(false, PSMS, PROTEINS),
+        PSM_MODIFICATIONS(false, PSMS, MODIFICATIONS);
+
+        private final boolean         datasetOnly;
+        private final DataLoadTable[] dependencies;
+        private final int             level;
+
+        private DataLoadTable(boolean datasetOnly, DataLoadTable... dependencies) {
+            this.datasetOnly = datasetOnly;
+            this.dependencies = dependencies;
+            int level = 1;
+            for (DataLoadTable dependency : dependencies)
+                level = Math.max(level, dependency.level + 1);
+            this.level = level;
+        }
+    }
+
+    /**
+     * Loads tables from a queue shared by all the connections loading
+     * one level, until the queue is empty or a load fails.
+     */
+    private class DataLoadLane implements Runnable {
+        private ConcurrentLinkedQueue<DataLoadTable> queue;
+        private Connection                           connection;
+        private Throwable                            error;
+
+        public DataLoadLane(
+            ConcurrentLinkedQueue<DataLoadTable> queue, Connection connection
+        ) {
+            this.queue = queue;
+            this.connection = connection;
+            error = null;
+        }
+
+        public void run() {
+            try {
+                DataLoadTable table = queue.poll();
+                while (table != null) {
+                    loadTable(table, connection);
+                    table = queue.poll();
+                }
+            } catch (Throwable error) {
+                this.error = error;
+                // don't start any more of this level's loads
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Loads the batches handed off by the parsing thread, one at a time and
+     * in the order they were handed off. Since each batch is loaded only
+     * after every earlier batch is fully loaded, all of a batch's levels can
+     * rely on the rows of earlier batches, including PSMs whose rows were
+     * split between two batches. At most one batch waits to be loaded while
+     * another is loading, so a slow load holds up parsing rather than
+     * letting unloaded batches pile up in memory.
+     */
+    private class DataLoadThread extends Thread {
+        private BlockingQueue<MassIVESearchDataLoadManager> batches;
+        private volatile boolean                            cancelled;
+        private volatile Throwable                          error;
+
+        public DataLoadThread() {
+            super(String.format("mzTab-loader-%d", mzTabRecord.id));
+            setDaemon(true);
+            batches = new ArrayBlockingQueue<MassIVESearchDataLoadManager>(1);
+            cancelled = false;
+            error = null;
+        }
+
+        public void submit(MassIVESearchDataLoadManager batch) {
+            // stop parsing as soon as any earlier batch has failed to load
+            rethrowError();
+            try {
+                batches.put(batch);
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(error);
+            }
+        }
+
+        public void finish() throws SQLException {
+            try {
+                batches.put(END_OF_BATCHES);
+                while (isAlive())
+                    join();
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(error);
+            }
+            if (error instanceof SQLException)
+                throw (SQLException)error;
+            else rethrowError();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            // only the parsing thread ever adds batches, and it has
+            // stopped, so there is now room for the end marker
+            batches.clear();
+            batches.offer(END_OF_BATCHES);
+            while (isAlive()) try {
+                join();
+            } catch (InterruptedException error) {}
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                MassIVESearchDataLoadManager batch = null;
+                try {
+                    batch = batches.take();
+                } catch (InterruptedException error) {
+                    return;
+                }
+                if (batch == END_OF_BATCHES)
+                    return;
+                // after a failure or cancellation, keep taking batches
+                // without loading them, so that parsing never blocks
+                else if (cancelled || error != null)
+                    continue;
+                try {
+                    loadData(batch);
+                } catch (Throwable error) {
+                    this.error = error;
+                }
+            }
+        }
+
+        private void rethrowError() {
+            if (error instanceof RuntimeException)
+                throw (RuntimeException)error;
+            else if (error instanceof Error)
+                throw (Error)error;
+            else if (error != null)
+                throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Struct to describe how one dependent table is loaded in a staged
+     * import: the query whose columns define its staging table, the staging
+     * columns in load file order, the real table's columns along with the
+     * SELECT list that fills them, and the joins that resolve each staged
+     * key to its ID. Every join is given as "<table> <alias> ON ...", and
+     * is expected to resolve the ID column "<alias>.id".
+     */
+    private static class StagingTable {
+        private String   table;
+        private String   template;
+        private String   stagingColumns;
+        private String   insertColumns;
+        private String   selectColumns;
+        private String[] joins;
+        private String[] joinIDs;
+
+        private StagingTable(
+            String table, String template, String stagingColumns,
+            String insertColumns, String selectColumns, String... joins
+        ) {
+            this.table = table;
+            this.template = template;
+            this.stagingColumns = stagingColumns;
+            this.insertColumns = insertColumns;
+            this.selectColumns = selectColumns;
+            this.joins = joins;
+            joinIDs = new String[joins.length];
+            for (int i=0; i<joins.length; i++)
+                joinIDs[i] = joins[i].split("\\s+")[1] + ".id";
+        }
+    }
+
     private static class MassIVESearchDataLoadManager {
+        /*====================================================================
+         * Constants
+         *====================================================================*/
+        // rough heap footprints, only used to tell when a batch is full:
+        // a map entry or list element with its pair, a string without its
+        // characters, and a parsed PSM with its modifications
+        private static final int ENTRY_BYTES  = 64;
+        private static final int STRING_BYTES = 40;
+        private static final int PSM_BYTES    = 320;
+
         /*====================================================================
          * Properties
          *====================================================================*/
@@ -688,23 +1274,28 @@ System.out.println(String.format("  psm_row_cascade\t%s",
 
         // data load properties
         private boolean                                      isDatasetResult;
-        private Map<String, MassIVESearchTimingRecord>       timingRecords;
+        private long                                         estimatedSize;
+        private MetricsRegistry                              metrics;
 
         /*====================================================================
-         * Constructor
+         * Constructors
          *====================================================================*/
+        // only used to mark the end of a file's batches
+        private MassIVESearchDataLoadManager() {}
+
         public MassIVESearchDataLoadManager(
-            MassIVESearchMzTabRecord mzTabRecord, Connection connection
+            MassIVESearchMzTabRecord mzTabRecord, MetricsRegistry metrics,
+            Connection connection
         ) {
             if (mzTabRecord == null)
                 throw new NullPointerException("mzTab record cannot be null.");
-            else if (mzTabRecord.id == null)
-                throw new NullPointerException("mzTab record resultfile ID cannot be null.");
+            else if (metrics == null)
+                throw new NullPointerException("Metrics registry cannot be null.");
             else if (connection == null)
                 throw new NullPointerException("Connection cannot be null.");
             // initialize data load state
             isDatasetResult = mzTabRecord.datasetID != null;
-            timingRecords = new LinkedHashMap<String, MassIVESearchTimingRecord>();
+            this.metrics = metrics;
             clear();
         }
 
@@ -712,6 +1303,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
          * Public interface methods
          *====================================================================*/
         public void clear() {
+            estimatedSize = 0;
             // initialize all new element collections
             // top-level tables
             spectrumFiles = new TreeMap<String, Integer>();
@@ -752,6 +1344,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // update the proper batch state ID map with this spectrum file
             spectrumFiles.put(fileDescriptor, id);
+            estimatedSize += ENTRY_BYTES + sizeOf(fileDescriptor);
         }
 
         public void processPeptide(String sequence, Integer id) {
@@ -762,6 +1355,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this peptide to the proper batch state ID map
             peptides.put(sequence, id);
+            estimatedSize += ENTRY_BYTES + sizeOf(sequence);
         }
 
         public void processProtein(String accession, Integer id) {
@@ -772,6 +1366,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this protein to the proper batch state ID map
             proteins.put(accession, id);
+            estimatedSize += ENTRY_BYTES + sizeOf(accession);
         }
 
         public void processModification(Modification modification, Integer id) {
@@ -784,6 +1379,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this modification to the proper batch state ID maps
             modifications.put(name, id);
             modificationMasses.put(name, modification.getMass());
+            estimatedSize += 2 * ENTRY_BYTES + sizeOf(name);
         }
 
         // level 2 - foreign keys to level 1
@@ -804,6 +1400,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this variant to the proper batch state ID maps
             variants.put(variant, id);
             variantPeptides.put(variant, peptideSequence);
+            estimatedSize += 2 * ENTRY_BYTES + sizeOf(variant.getLeft());
         }
 
         public void processResultFilePeptide(String sequence) {
@@ -811,6 +1408,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Peptide sequence cannot be null.");
             // add this peptide to the proper batch state join set
             resultFilePeptides.add(sequence);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processResultFileProtein(String accession) {
@@ -818,6 +1416,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Protein accession cannot be null.");
             // add this protein to the proper batch state join set
             resultFileProteins.add(accession);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processResultFileModification(Modification modification) {
@@ -825,6 +1424,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Modification cannot be null.");
             // add this modification to the proper batch state join set
             resultFileModifications.add(modification.getName());
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processDatasetPeptide(String sequence) {
@@ -835,6 +1435,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this peptide to the proper batch state join set
             datasetPeptides.add(sequence);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processDatasetProtein(String accession) {
@@ -845,6 +1446,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this protein to the proper batch state join set
             datasetProteins.add(accession);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processDatasetModification(Modification modification) {
@@ -855,6 +1457,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this modification to the proper batch state join set
             datasetModifications.add(modification.getName());
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processPeptideProtein(String sequence, String accession) {
@@ -864,6 +1467,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Protein accession cannot be null.");
             // add this peptide/protein pair to the proper batch state join map
             peptideProteins.add(new ImmutablePair<String, String>(sequence, accession));
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processPeptideModification(String sequence, Modification modification) {
@@ -874,6 +1478,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this peptide/modification pair to the proper batch state join map
             peptideModifications.add(
                 new ImmutablePair<String, String>(sequence, modification.getName()));
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processProteinModification(String accession, Modification modification) {
@@ -884,6 +1489,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this protein/modification pair to the proper batch state join map
             proteinModifications.add(
                 new ImmutablePair<String, String>(accession, modification.getName()));
+            estimatedSize += ENTRY_BYTES;
         }
 
         // level 3 - foreign keys to level 2
@@ -907,6 +1513,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this PSM to the proper batch state ID maps
             psms.put(psm, new ImmutableTriple<String, String, ImmutablePair<String, Integer>>(
                  fileDescriptor, peptideSequence, variant));
+            estimatedSize += ENTRY_BYTES + PSM_BYTES;
         }
 
         public void processResultFileVariant(ImmutablePair<String, Integer> variant) {
@@ -914,6 +1521,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Variant cannot be null.");
             // add this variant to the proper batch state join set
             resultFileVariants.add(variant);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processDatasetVariant(ImmutablePair<String, Integer> variant) {
@@ -924,6 +1532,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 return;
             // add this variant to the proper batch state join set
             datasetVariants.add(variant);
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processVariantProtein(
@@ -940,6 +1549,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // add this variant/modification pair to the proper batch state join map
             variantProteins.add(
                 new ImmutablePair<ImmutablePair<String, Integer>, String>(variant, accession));
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processVariantModification(
@@ -961,6 +1571,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             variantModifications.add(
                 new ImmutablePair<ImmutablePair<String, Integer>, ImmutablePair<String, Integer>>(
                     variant, new ImmutablePair<String, Integer>(modification.getName(), position)));
+            estimatedSize += ENTRY_BYTES;
         }
 
         // level 3 - foreign keys to level 2
@@ -971,6 +1582,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Protein accession cannot be null.");
             // add this PSM/protein pair to the proper batch state join map
             psmProteins.add(new ImmutablePair<PSM, String>(psm, accession));
+            estimatedSize += ENTRY_BYTES;
         }
 
         public void processPSMModification(PSM psm, Modification modification) {
@@ -980,111 +1592,43 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 throw new NullPointerException("Modification cannot be null.");
             // add this PSM/modification pair to the proper batch state join map
             psmModifications.add(new ImmutablePair<PSM, String>(psm, modification.getName()));
+            estimatedSize += ENTRY_BYTES;
         }
 
         /*====================================================================
          * Convenience methods
          *====================================================================*/
-        private void addTiming(String type, long time, int batchSize) {
-            if (type == null)
-                return;
-            MassIVESearchTimingRecord timingRecord = timingRecords.get(type);
-            if (timingRecord == null)
-                timingRecord = new MassIVESearchTimingRecord();
-            timingRecord.add(time, batchSize);
-            timingRecords.put(type, timingRecord);
-        }
-    }
-
-    @SuppressWarnings("unused")
-    private static class MassIVESearchTimingRecord extends TimingRecord {
-        /*====================================================================
-         * Properties
-         *====================================================================*/
-        private Integer totalBatchSize;
-        private Integer slowestBatchSize;
-        private Integer fastestBatchSize;
-
-        /*====================================================================
-         * Constructor
-         *====================================================================*/
-        public MassIVESearchTimingRecord() {
-            super();
-            totalBatchSize = null;
-            slowestBatchSize = null;
-            fastestBatchSize = null;
+        private static int sizeOf(String value) {
+            if (value == null)
+                return 0;
+            else return STRING_BYTES + 2 * value.length();
         }
 
-        /*====================================================================
-         * Property accessor methods
-         *====================================================================*/
-        public Integer getTotalBatchSize() {
-            return totalBatchSize;
-        }
-
-        public Integer getSlowestBatchSize() {
-            return slowestBatchSize;
-        }
-
-        public Integer getFastestBatchSize() {
-            return fastestBatchSize;
-        }
-
-        /*====================================================================
-         * Public interface methods
-         *====================================================================*/
-        public void add(long elapsed, int batchSize) {
-            // compare this timing to current max and min, set batch size accordingly
-            if (totalBatchSize == null)
-                totalBatchSize = batchSize;
-            else totalBatchSize += batchSize;
-            Long maxTime = getMax();
-            if (slowestBatchSize == null || maxTime == null || maxTime < elapsed)
-                slowestBatchSize = batchSize;
-            Long minTime = getMin();
-            if (fastestBatchSize == null || minTime == null || minTime > elapsed)
-                fastestBatchSize = batchSize;
-            // set timing
-            super.add(elapsed);
-        }
-
-        public ImmutablePair<Double, Double> getCombinedAverage() {
-            Integer count = getCount();
-            if (count < 1 || getTotal() == null || totalBatchSize == null)
-                return null;
-            else return new ImmutablePair<Double, Double>(
-                super.getAverage(), (double)totalBatchSize / count);
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder record = new StringBuilder();
-            record.append(getCount());
-            if (totalBatchSize != null)
-                record.append("\t").append(totalBatchSize);
-            Long totalTime = getTotal();
-            if (totalTime != null)
-                record.append("\t").append(totalTime);
-            Integer count = getCount();
-            if (count > 1) {
-                record.append("\t").append(slowestBatchSize).append("\t").append(getMax());
-                record.append("\t").append(fastestBatchSize).append("\t").append(getMin());
-                ImmutablePair<Double, Double> average = getCombinedAverage();
-                record.append("\t").append(
-                    average.getRight()).append("\t").append(average.getLeft());
-            } else record.append("\t--\t--\t--\t--\t--\t--");
-            return record.toString();
-        }
-
-        @Override
-        public int hashCode() {
-            return toString().hashCode();
+        private void addTiming(String type, long time, int batchSize) {
+            // database operations are timed once per table,
+            // so the timer lookup here costs next to nothing
+            if (type == null || metrics.isEnabled() == false)
+                return;
+            metrics.timer(type).record(time, batchSize);
         }
     }
 
     /*========================================================================
      * Convenience methods
      *========================================================================*/
+    private void accept() {
+        // insert mzTab file into database,
+        // populate mzTabFile object with column values
+        insertMzTabFile();
+        // if batches are to be loaded while the file is still being parsed,
+        // start the background loader that will take them
+        if (loadBatchSize > 0) {
+            loader = new DataLoadThread();
+            loader.start();
+        }
+        accepted = true;
+    }
+
     private void insertMzTabFile() {
         // insert resultfile row into database
         String descriptor = mzTabRecord.mzTabFile.getDescriptor();
@@ -1143,6 +1687,19 @@ System.out.println(String.format("  psm_row_cascade\t%s",
         }
     }
 
+    private void deleteMzTabFile() throws SQLException {
+        for (String sql : RESULTFILE_DELETIONS) {
+            PreparedStatement statement = null;
+            try {
+                statement = connection.prepareStatement(sql);
+                statement.setInt(1, mzTabRecord.id);
+                statement.executeUpdate();
+            } finally {
+                try { statement.close(); } catch (Throwable error) {}
+            }
+        }
+    }
+
     private void cascadePSM(
         PSM psm, String accession, Collection<Modification> modifications
     ) {
@@ -1311,45 +1868,230 @@ System.out.println(String.format("  psm_row_cascade\t%s",
         dataLoadManager.processPSMModification(psm, modification);
     }
 
-    private void loadData() throws SQLException {
-        // build and submit level 1 load files
-        loadSpectrumFiles();
-        loadPeptides();
-        loadProteins();
-        loadModifications();
-        // build and submit level 2 load files
-        loadVariants();
-        loadResultFilePeptides();
-        loadResultFileProteins();
-        loadResultFileModifications();
-        if (dataLoadManager.isDatasetResult) {
-            loadDatasetPeptides();
-            loadDatasetProteins();
-            loadDatasetModifications();
-        }
-        loadPeptideProteins();
-        loadPeptideModifications();
-        loadProteinModifications();
-        // build and submit level 3 load files
-        loadPSMs();
-        loadResultFileVariants();
-        if (dataLoadManager.isDatasetResult)
-            loadDatasetVariants();
-        loadVariantProteins();
-        loadVariantModifications();
-        // build and submit level 4 load files
-        loadPSMProteins();
-        loadPSMModifications();
+    private void stopLoader() {
+        if (loader == null)
+            return;
+        loader.cancel();
+        loader = null;
+    }
+
+    private boolean isBatchFull() {
+        if (loader != null && batchPSMCount >= loadBatchSize)
+            return true;
+        else if (memoryBudgetPSMs > 0 && batchPSMCount >= memoryBudgetPSMs)
+            return true;
+        else return memoryBudget > 0 &&
+            dataLoadManager.estimatedSize >= memoryBudget;
+    }
+
+    private void flushBatch() {
+        long start = batchHandoffTimer.start();
+        // this blocks only while the previous batch is still waiting to load;
+        // without a background loader, the batch is loaded right here
+        if (loader != null)
+            loader.submit(dataLoadManager);
+        else try {
+            loadData(dataLoadManager);
+        } catch (RuntimeException error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new RuntimeException(error);
+        }
+        batchHandoffTimer.stop(start);
+        // start a new batch; elements loaded with earlier batches will be
+        // found by ID, and any still loading will just be loaded again
+        dataLoadManager =
+            new MassIVESearchDataLoadManager(mzTabRecord, metrics, connection);
+        batchPSMCount = 0;
+    }
+
+    private void loadData(MassIVESearchDataLoadManager batch) throws SQLException {
+        // every load method reads the batch being loaded from this field;
+        // any other loading threads are started only after it's set
+        loadingBatch = batch;
+        // group tables by dependency level, so that every table
+        // is loaded only after all the tables it refers to
+        List<List<DataLoadTable>> levels = new ArrayList<List<DataLoadTable>>();
+        for (DataLoadTable table : DataLoadTable.values()) {
+            if (table.datasetOnly && loadingBatch.isDatasetResult == false)
+                continue;
+            while (levels.size() < table.level)
+                levels.add(new ArrayList<DataLoadTable>());
+            levels.get(table.level - 1).add(table);
+        }
+        // with a journal, find the levels of this batch that were already
+        // loaded by an earlier run of this import; the batch is recognized
+        // by the PSM IDs it gives out, which are the same on every run
+        loadedBatches++;
+        if (journal != null)
+            resolveStartingPSMID();
+        long firstPSMID = lastPSMDatabaseID;
+        long nextPSMID = firstPSMID;
+        Set<Integer> completed = new HashSet<Integer>();
+        if (journal != null) {
+            nextPSMID += getNewPSMs().size();
+            completed = journal.getCompletedLevels(
+                mzTabRecord.mzTabFile.getFile(), loadedBatches, firstPSMID, nextPSMID);
+        }
+        // a table in a completed level is still loaded again if any table
+        // in a level yet to be loaded needs its IDs, which are only known
+        // from loading it; loading its rows again just finds them all
+        Set<DataLoadTable> needed = new HashSet<DataLoadTable>();
+        for (int i=levels.size() - 1; i>=0; i--) {
+            for (DataLoadTable table : levels.get(i)) {
+                if (completed.contains(table.level) == false ||
+                    needed.contains(table))
+                    needed.addAll(Arrays.asList(table.dependencies));
+            }
+        }
+        // build and submit each level's load files, in level order
+        for (List<DataLoadTable> level : levels) {
+            int number = level.get(0).level;
+            // levels before the PSMs' own don't need their IDs yet
+            if (number >= DataLoadTable.PSMS.level)
+                resolveStartingPSMID();
+            if (completed.contains(number) == false) {
+                loadLevel(level);
+                if (journal != null)
+                    journal.completeLevel(mzTabRecord.mzTabFile.getFile(),
+                        loadedBatches, firstPSMID, nextPSMID, number);
+                continue;
+            }
+            List<DataLoadTable> reloaded = new ArrayList<DataLoadTable>(level.size());
+            for (DataLoadTable table : level) {
+                if (needed.contains(table))
+                    reloaded.add(table);
+                // PSMs that aren't loaded again still get the same IDs
+                // they were loaded with, for the batches after this one
+                else if (table == DataLoadTable.PSMS)
+                    skipPSMs();
+            }
+            loadLevel(reloaded);
+        }
+    }
+
+    private void resolveStartingPSMID() {
+        if (startingPSMIDSource == null)
+            return;
+        try {
+            lastPSMDatabaseID = startingPSMIDSource.call();
+        } catch (RuntimeException error) {
+            throw error;
+        } catch (Exception error) {
+            throw new RuntimeException(error);
+        }
+        startingPSMIDSource = null;
+    }
+
+    /**
+     * Gives the batch's new PSMs their database IDs just as loading them
+     * would, for when they were already loaded by an earlier run.
+     */
+    private void skipPSMs() {
+        for (PSM psm : getNewPSMs().values())
+            psmDatabaseIDs[psm.getIndex()] = lastPSMDatabaseID++;
+    }
+
+    private void loadLevel(List<DataLoadTable> tables) throws SQLException {
+        if (tables == null || tables.isEmpty())
+            return;
+        // tables within a level are independent of each other, so they can
+        // be loaded at once over several connections; this processor's own
+        // connection is always used, and any others are borrowed from the
+        // pool only if they are free right now
+        List<Connection> connections = new ArrayList<Connection>();
+        connections.add(connection);
+        int width = Math.min(tables.size(), MAX_CONCURRENT_LOADS);
+        while (connections.size() < width) {
+            Connection pooled = DatabaseUtils.tryGetConnection();
+            if (pooled == null)
+                break;
+            else connections.add(pooled);
+        }
+        // each connection loads the next unclaimed table
+        // in the level until there are none left
+        ConcurrentLinkedQueue<DataLoadTable> queue =
+            new ConcurrentLinkedQueue<DataLoadTable>(tables);
+        List<DataLoadLane> lanes = new ArrayList<DataLoadLane>(connections.size());
+        List<Thread> threads = new ArrayList<Thread>(connections.size() - 1);
+        try {
+            for (Connection laneConnection : connections)
+                lanes.add(new DataLoadLane(queue, laneConnection));
+            for (int i=1; i<lanes.size(); i++) {
+                Thread thread = new Thread(lanes.get(i), String.format(
+                    "mzTab-load-%d-%d", mzTabRecord.id, i));
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            lanes.get(0).run();
+            // wait for the whole level to finish before moving on
+            for (Thread thread : threads) {
+                while (thread.isAlive()) try {
+                    thread.join();
+                } catch (InterruptedException error) {}
+            }
+        } finally {
+            for (int i=1; i<connections.size(); i++)
+                try { connections.get(i).close(); } catch (Throwable error) {}
+        }
+        // report the first failure, if any
+        for (DataLoadLane lane : lanes) {
+            if (lane.error instanceof SQLException)
+                throw (SQLException)lane.error;
+            else if (lane.error instanceof RuntimeException)
+                throw (RuntimeException)lane.error;
+            else if (lane.error instanceof Error)
+                throw (Error)lane.error;
+            else if (lane.error != null)
+                throw new RuntimeException(lane.error);
+        }
+    }
+
+    private void loadTable(DataLoadTable table, Connection connection)
+    throws SQLException {
+        if (stagedImport && table.level > 1) {
+            loadStagedTable(table, connection);
+            return;
+        }
+        switch (table) {
+            case SPECTRUMFILES:            loadSpectrumFiles(connection); break;
+            case PEPTIDES:                 loadPeptides(connection); break;
+            case PROTEINS:                 loadProteins(connection); break;
+            case MODIFICATIONS:            loadModifications(connection); break;
+            case VARIANTS:                 loadVariants(connection); break;
+            case RESULTFILE_PEPTIDES:      loadResultFilePeptides(connection); break;
+            case RESULTFILE_PROTEINS:      loadResultFileProteins(connection); break;
+            case RESULTFILE_MODIFICATIONS: loadResultFileModifications(connection); break;
+            case DATASET_PEPTIDES:         loadDatasetPeptides(connection); break;
+            case DATASET_PROTEINS:         loadDatasetProteins(connection); break;
+            case DATASET_MODIFICATIONS:    loadDatasetModifications(connection); break;
+            case PEPTIDE_PROTEINS:         loadPeptideProteins(connection); break;
+            case PEPTIDE_MODIFICATIONS:    loadPeptideModifications(connection); break;
+            case PROTEIN_MODIFICATIONS:    loadProteinModifications(connection); break;
+            case PSMS:                     loadPSMs(connection); break;
+            case RESULTFILE_VARIANTS:      loadResultFileVariants(connection); break;
+            case DATASET_VARIANTS:         loadDatasetVariants(connection); break;
+            case VARIANT_PROTEINS:         loadVariantProteins(connection); break;
+            case VARIANT_MODIFICATIONS:    loadVariantModifications(connection); break;
+            case PSM_PROTEINS:             loadPSMProteins(connection); break;
+            case PSM_MODIFICATIONS:        loadPSMModifications(connection); break;
+        }
     }
 
     // level 1 - no foreign keys
-    private void loadSpectrumFiles() throws SQLException {
+    private void loadSpectrumFiles(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get file descriptors for all new spectrum files
-        List<String> values = new ArrayList<String>(dataLoadManager.spectrumFiles.size());
-        for (Entry<String, Integer> entry : dataLoadManager.spectrumFiles.entrySet())
+        List<String> values = new ArrayList<String>(loadingBatch.spectrumFiles.size());
+        for (Entry<String, Integer> entry : loadingBatch.spectrumFiles.entrySet())
             if (entry.getValue() == null)
                 values.add(entry.getKey());
+        // with reserved IDs, spectrum files that already exist are matched
+        // first, and the rest are given their IDs before they're inserted
+        if (reservedIDs)
+            assignIDs(connection, "spectrumfiles", "file_descriptor", "spectrumFile",
+                loadingBatch.spectrumFiles, values);
         // if there were any new spectrum files, insert all
         if (values.isEmpty() == false) {
             // build spectrumfiles load file
@@ -1360,15 +2102,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (String fileDescriptor : values) {
                     // write this spectrumfiles row to the load file
                     StringBuilder loadFileLine = new StringBuilder();
+                    if (reservedIDs)
+                        loadFileLine.append(
+                            loadingBatch.spectrumFiles.get(fileDescriptor)).append("\t");
                     loadFileLine.append(fileDescriptor);
                     loadFileLine.append("\t").append(mzTabRecord.taskID);
-                    if (dataLoadManager.isDatasetResult)
+                    if (loadingBatch.isDatasetResult)
                         loadFileLine.append("\t").append(mzTabRecord.datasetID);
                     writer.println(loadFileLine.toString());
                     loadRows++;
@@ -1384,18 +2129,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("spectrumfiles_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("spectrumfiles_batch", end - checkpoint, loadRows);
             // import spectrumfiles load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
-                statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                statement = connection.prepareStatement(String.format(
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.spectrumfiles " +
                     "FIELDS TERMINATED BY '\\t' " +
-                    "(file_descriptor, task_id, dataset_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                    "(%sfile_descriptor, task_id, dataset_id)", reservedIDs ? "id, " : ""));
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -1404,7 +2149,25 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("spectrumfiles_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("spectrumfiles_insert", end - checkpoint, loadResult);
+            // with reserved IDs, every new row's ID is already known, unless
+            // another import inserted some of the same rows in the meantime
+            if (reservedIDs) {
+                if (loadResult == loadRows) {
+                    recordElements("spectrumFile", loadingBatch.spectrumFiles, values);
+                    loadingBatch.addTiming("spectrumfiles", System.nanoTime() - start, 1);
+                    return;
+                }
+                // otherwise look up all of their IDs below, as if none had been reserved
+                forgetIDs(loadingBatch.spectrumFiles, values);
+            }
+            // in a staged import, dependent tables look these IDs
+            // up on the server, so there's no need to query them back
+            if (stagedImport) {
+                markResolvedOnServer("spectrumFile", loadingBatch.spectrumFiles, values);
+                loadingBatch.addTiming("spectrumfiles", System.nanoTime() - start, 1);
+                return;
+            }
             // query database for newly inserted spectrumfiles IDs
             checkpoint = end;
             StringBuilder valueSet = new StringBuilder("(");
@@ -1428,7 +2191,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     resultCount++;
                     String fileDescriptor = result.getString("file_descriptor");
                     int id = result.getInt("id");
-                    dataLoadManager.spectrumFiles.put(fileDescriptor, id);
+                    loadingBatch.spectrumFiles.put(fileDescriptor, id);
                     addElement("spectrumFile", fileDescriptor, id);
                     values.remove(fileDescriptor);
                 }
@@ -1439,12 +2202,12 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 catch (Throwable error) {}
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("spectrumfiles_query", end - checkpoint, resultCount);
+            loadingBatch.addTiming("spectrumfiles_query", end - checkpoint, resultCount);
             // IDs should now be stored for all new spectrum files
             if (values.isEmpty() == false) {
                 // verify missing IDs in the actual ID map
                 Collection<String> missingIDs = new LinkedHashSet<String>(values.size());
-                for (Entry<String, Integer> entry : dataLoadManager.spectrumFiles.entrySet())
+                for (Entry<String, Integer> entry : loadingBatch.spectrumFiles.entrySet())
                     if (entry.getValue() == null)
                         missingIDs.add(entry.getKey());
                 if (missingIDs.isEmpty() == false) {
@@ -1467,7 +2230,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     for (String fileDescriptor : values) {
                         message.append("\n").append(fileDescriptor);
                         message.append(" : ").append(
-                            dataLoadManager.spectrumFiles.get(fileDescriptor));
+                            loadingBatch.spectrumFiles.get(fileDescriptor));
                     }
                     message.append("\n----------");
                     System.out.println(message.toString());
@@ -1475,16 +2238,21 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             }
         } 
         long end = System.nanoTime();
-        dataLoadManager.addTiming("spectrumfiles", end - start, 1);
+        loadingBatch.addTiming("spectrumfiles", end - start, 1);
     }
 
-    private void loadPeptides() throws SQLException {
+    private void loadPeptides(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get sequences for all new peptides
-        List<String> values = new ArrayList<String>(dataLoadManager.peptides.size());
-        for (Entry<String, Integer> entry : dataLoadManager.peptides.entrySet())
+        List<String> values = new ArrayList<String>(loadingBatch.peptides.size());
+        for (Entry<String, Integer> entry : loadingBatch.peptides.entrySet())
             if (entry.getValue() == null)
                 values.add(entry.getKey());
+        // with reserved IDs, peptides that already exist are matched
+        // first, and the rest are given their IDs before they're inserted
+        if (reservedIDs)
+            assignIDs(connection, "peptides", "sequence", "sequence",
+                loadingBatch.peptides, values);
         // if there were any new peptides, insert the batch
         if (values.isEmpty() == false) {
             // build peptides load file
@@ -1495,11 +2263,13 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (String sequence : values) {
                     // write this peptides row to the load file
+                    if (reservedIDs)
+                        writer.print(loadingBatch.peptides.get(sequence) + "\t");
                     writer.println(sequence);
                     loadRows++;
                 }
@@ -1514,18 +2284,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("peptides_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("peptides_batch", end - checkpoint, loadRows);
             // import peptides load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
-                statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                statement = connection.prepareStatement(String.format(
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.peptides " +
                     "FIELDS TERMINATED BY '\\t' " +
-                    "(sequence)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                    "(%ssequence)", reservedIDs ? "id, " : ""));
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -1534,7 +2304,25 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("peptides_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("peptides_insert", end - checkpoint, loadResult);
+            // with reserved IDs, every new row's ID is already known, unless
+            // another import inserted some of the same rows in the meantime
+            if (reservedIDs) {
+                if (loadResult == loadRows) {
+                    recordElements("sequence", loadingBatch.peptides, values);
+                    loadingBatch.addTiming("peptides", System.nanoTime() - start, 1);
+                    return;
+                }
+                // otherwise look up all of their IDs below, as if none had been reserved
+                forgetIDs(loadingBatch.peptides, values);
+            }
+            // in a staged import, dependent tables look these IDs
+            // up on the server, so there's no need to query them back
+            if (stagedImport) {
+                markResolvedOnServer("sequence", loadingBatch.peptides, values);
+                loadingBatch.addTiming("peptides", System.nanoTime() - start, 1);
+                return;
+            }
             // query database for newly inserted peptides IDs
             checkpoint = end;
             StringBuilder valueSet = new StringBuilder("(");
@@ -1558,7 +2346,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     resultCount++;
                     String sequence = result.getString("sequence");
                     int id = result.getInt("id");
-                    dataLoadManager.peptides.put(sequence, id);
+                    loadingBatch.peptides.put(sequence, id);
                     addElement("sequence", sequence, id);
                     values.remove(sequence);
                 }
@@ -1569,12 +2357,12 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 catch (Throwable error) {}
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("peptides_query", end - checkpoint, resultCount);
+            loadingBatch.addTiming("peptides_query", end - checkpoint, resultCount);
             // IDs should now be stored for all new peptides
             if (values.isEmpty() == false) {
                 // verify missing IDs in the actual ID map
                 Collection<String> missingIDs = new LinkedHashSet<String>(values.size());
-                for (Entry<String, Integer> entry : dataLoadManager.peptides.entrySet())
+                for (Entry<String, Integer> entry : loadingBatch.peptides.entrySet())
                     if (entry.getValue() == null)
                         missingIDs.add(entry.getKey());
                 if (missingIDs.isEmpty() == false) {
@@ -1596,7 +2384,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     message.append("\n----------");
                     for (String sequence : values) {
                         message.append("\n").append(sequence);
-                        message.append(" : ").append(dataLoadManager.peptides.get(sequence));
+                        message.append(" : ").append(loadingBatch.peptides.get(sequence));
                     }
                     message.append("\n----------");
                     System.out.println(message.toString());
@@ -1604,16 +2392,21 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             }
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("peptides", end - start, 1);
+        loadingBatch.addTiming("peptides", end - start, 1);
     }
 
-    private void loadProteins() throws SQLException {
+    private void loadProteins(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get accessions for all new proteins
-        List<String> values = new ArrayList<String>(dataLoadManager.proteins.size());
-        for (Entry<String, Integer> entry : dataLoadManager.proteins.entrySet())
+        List<String> values = new ArrayList<String>(loadingBatch.proteins.size());
+        for (Entry<String, Integer> entry : loadingBatch.proteins.entrySet())
             if (entry.getValue() == null)
                 values.add(entry.getKey());
+        // with reserved IDs, proteins that already exist are matched
+        // first, and the rest are given their IDs before they're inserted
+        if (reservedIDs)
+            assignIDs(connection, "proteins", "name", "accession",
+                loadingBatch.proteins, values);
         // if there were any new proteins, insert the batch
         if (values.isEmpty() == false) {
             // build proteins load file
@@ -1624,11 +2417,13 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (String accession : values) {
                     // write this proteins row to the load file
+                    if (reservedIDs)
+                        writer.print(loadingBatch.proteins.get(accession) + "\t");
                     writer.println(accession);
                     loadRows++;
                 }
@@ -1643,18 +2438,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("proteins_batch", end - checkpoint, loadRows);
             // import proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
-                statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                statement = connection.prepareStatement(String.format(
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
-                    "(name)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                    "(%sname)", reservedIDs ? "id, " : ""));
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -1663,7 +2458,25 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("proteins_insert", end - checkpoint, loadResult);
+            // with reserved IDs, every new row's ID is already known, unless
+            // another import inserted some of the same rows in the meantime
+            if (reservedIDs) {
+                if (loadResult == loadRows) {
+                    recordElements("accession", loadingBatch.proteins, values);
+                    loadingBatch.addTiming("proteins", System.nanoTime() - start, 1);
+                    return;
+                }
+                // otherwise look up all of their IDs below, as if none had been reserved
+                forgetIDs(loadingBatch.proteins, values);
+            }
+            // in a staged import, dependent tables look these IDs
+            // up on the server, so there's no need to query them back
+            if (stagedImport) {
+                markResolvedOnServer("accession", loadingBatch.proteins, values);
+                loadingBatch.addTiming("proteins", System.nanoTime() - start, 1);
+                return;
+            }
             // query database for newly inserted proteins IDs
             checkpoint = end;
             StringBuilder valueSet = new StringBuilder("(");
@@ -1687,7 +2500,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     resultCount++;
                     String accession = result.getString("name");
                     int id = result.getInt("id");
-                    dataLoadManager.proteins.put(accession, id);
+                    loadingBatch.proteins.put(accession, id);
                     addElement("accession", accession, id);
                     values.remove(accession);
                 }
@@ -1698,12 +2511,12 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 catch (Throwable error) {}
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("proteins_query", end - checkpoint, resultCount);
+            loadingBatch.addTiming("proteins_query", end - checkpoint, resultCount);
             // IDs should now be stored for all new proteins
             if (values.isEmpty() == false) {
                 // verify missing IDs in the actual ID map
                 Collection<String> missingIDs = new LinkedHashSet<String>(values.size());
-                for (Entry<String, Integer> entry : dataLoadManager.proteins.entrySet())
+                for (Entry<String, Integer> entry : loadingBatch.proteins.entrySet())
                     if (entry.getValue() == null)
                         missingIDs.add(entry.getKey());
                 if (missingIDs.isEmpty() == false) {
@@ -1725,7 +2538,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     message.append("\n----------");
                     for (String accession : values) {
                         message.append("\n").append(accession);
-                        message.append(" : ").append(dataLoadManager.proteins.get(accession));
+                        message.append(" : ").append(loadingBatch.proteins.get(accession));
                     }
                     message.append("\n----------");
                     System.out.println(message.toString());
@@ -1733,19 +2546,24 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             }
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("proteins", end - start, 1);
+        loadingBatch.addTiming("proteins", end - start, 1);
     }
 
-    private void loadModifications() throws SQLException {
+    private void loadModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new modifications
         Map<String, Double> values = new LinkedHashMap<String, Double>();
-        for (Entry<String, Integer> entry : dataLoadManager.modifications.entrySet()) {
+        for (Entry<String, Integer> entry : loadingBatch.modifications.entrySet()) {
             if (entry.getValue() == null) {
                 String name = entry.getKey();
-                values.put(name, dataLoadManager.modificationMasses.get(name));
+                values.put(name, loadingBatch.modificationMasses.get(name));
             }
         }
+        // with reserved IDs, modifications that already exist are matched
+        // first, and the rest are given their IDs before they're inserted
+        if (reservedIDs)
+            assignIDs(connection, "modifications", "name", "modification",
+                loadingBatch.modifications, values.keySet());
         // if there were any new modifications, insert the batch
         if (values.isEmpty() == false) {
             // build modifications load file
@@ -1756,12 +2574,15 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (Entry<String, Double> entry : values.entrySet()) {
                     // write this modifications row to the load file
                     StringBuilder loadFileLine = new StringBuilder();
+                    if (reservedIDs)
+                        loadFileLine.append(
+                            loadingBatch.modifications.get(entry.getKey())).append("\t");
                     loadFileLine.append(entry.getKey());
                     loadFileLine.append("\t");
                     Double mass = entry.getValue();
@@ -1782,18 +2603,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("modifications_batch", end - checkpoint, loadRows);
             // import modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
-                statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                statement = connection.prepareStatement(String.format(
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
-                    "(name, mass)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                    "(%sname, mass)", reservedIDs ? "id, " : ""));
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -1802,7 +2623,25 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("modifications_insert", end - checkpoint, loadResult);
+            // with reserved IDs, every new row's ID is already known, unless
+            // another import inserted some of the same rows in the meantime
+            if (reservedIDs) {
+                if (loadResult == loadRows) {
+                    recordElements("modification", loadingBatch.modifications, values.keySet());
+                    loadingBatch.addTiming("modifications", System.nanoTime() - start, 1);
+                    return;
+                }
+                // otherwise look up all of their IDs below, as if none had been reserved
+                forgetIDs(loadingBatch.modifications, values.keySet());
+            }
+            // in a staged import, dependent tables look these IDs
+            // up on the server, so there's no need to query them back
+            if (stagedImport) {
+                markResolvedOnServer("modification", loadingBatch.modifications, values.keySet());
+                loadingBatch.addTiming("modifications", System.nanoTime() - start, 1);
+                return;
+            }
             // query database for newly inserted modifications IDs
             checkpoint = end;
             StringBuilder valueSet = new StringBuilder("(");
@@ -1827,7 +2666,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     resultCount++;
                     String name = result.getString("name");
                     int id = result.getInt("id");
-                    dataLoadManager.modifications.put(name, id);
+                    loadingBatch.modifications.put(name, id);
                     addElement("modification", name, id);
                     values.remove(name);
                 }
@@ -1838,12 +2677,12 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 catch (Throwable error) {}
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("modifications_query", end - checkpoint, resultCount);
+            loadingBatch.addTiming("modifications_query", end - checkpoint, resultCount);
             // IDs should now be stored for all new modifications
             if (values.isEmpty() == false) {
                 // verify missing IDs in the actual ID map
                 Collection<String> missingIDs = new LinkedHashSet<String>();
-                for (Entry<String, Integer> entry : dataLoadManager.modifications.entrySet())
+                for (Entry<String, Integer> entry : loadingBatch.modifications.entrySet())
                     if (entry.getValue() == null)
                         missingIDs.add(entry.getKey());
                 if (missingIDs.isEmpty() == false) {
@@ -1866,7 +2705,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     for (Entry<String, Double> entry : values.entrySet()) {
                         String name = entry.getKey();
                         message.append("\n").append(name);
-                        message.append(" : ").append(dataLoadManager.modifications.get(name));
+                        message.append(" : ").append(loadingBatch.modifications.get(name));
                     }
                     message.append("\n----------");
                     System.out.println(message.toString());
@@ -1874,19 +2713,23 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             }
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("modifications", end - start, 1);
+        loadingBatch.addTiming("modifications", end - start, 1);
     }
 
     // level 2 - foreign keys to level 1
-    private void loadVariants() throws SQLException {
+    private void loadVariants(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get sequence/charge for all new variants
         List<ImmutablePair<String, Integer>> values =
-            new ArrayList<ImmutablePair<String, Integer>>(dataLoadManager.variants.size());
+            new ArrayList<ImmutablePair<String, Integer>>(loadingBatch.variants.size());
         for (Entry<ImmutablePair<String, Integer>, Integer> entry :
-            dataLoadManager.variants.entrySet())
+            loadingBatch.variants.entrySet())
             if (entry.getValue() == null)
                 values.add(entry.getKey());
+        // with reserved IDs, variants that already exist are matched
+        // first, and the rest are given their IDs before they're inserted
+        if (reservedIDs)
+            assignVariantIDs(connection, values);
         // if there were any new variants, set up the batch
         // (using recently generated peptide IDs) and insert it
         if (values.isEmpty() == false) {
@@ -1898,18 +2741,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (ImmutablePair<String, Integer> variant : values) {
                     // get this variant's peptide ID
-                    String peptideSequence = dataLoadManager.variantPeptides.get(variant);
+                    String peptideSequence = loadingBatch.variantPeptides.get(variant);
                     if (peptideSequence == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant [%s/%d]: " +
                             "No peptide sequence was registered for this variant.",
                             variant.getLeft(), variant.getRight()));
-                    Integer peptideID = dataLoadManager.peptides.get(peptideSequence);
+                    Integer peptideID = loadingBatch.peptides.get(peptideSequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant [%s/%d]: " +
@@ -1917,6 +2760,8 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             variant.getLeft(), variant.getRight(), peptideSequence));
                     // write this variants row to the load file
                     StringBuilder loadFileLine = new StringBuilder();
+                    if (reservedIDs)
+                        loadFileLine.append(loadingBatch.variants.get(variant)).append("\t");
                     loadFileLine.append(variant.getLeft());
                     loadFileLine.append("\t").append(variant.getRight());
                     loadFileLine.append("\t").append(peptideID);
@@ -1934,18 +2779,18 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("variants_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("variants_batch", end - checkpoint, loadRows);
             // import variants load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
-                statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                statement = connection.prepareStatement(String.format(
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.variants " +
                     "FIELDS TERMINATED BY '\\t' " +
-                    "(sequence, charge, peptide_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                    "(%ssequence, charge, peptide_id)", reservedIDs ? "id, " : ""));
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -1954,7 +2799,21 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("variants_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("variants_insert", end - checkpoint, loadResult);
+            // with reserved IDs, every new row's ID is already known, unless
+            // another import inserted some of the same rows in the meantime
+            if (reservedIDs) {
+                if (loadResult == loadRows) {
+                    for (ImmutablePair<String, Integer> variant : values)
+                        addElement("variant", String.format(
+                            "%s_%d", variant.getLeft(), variant.getRight()),
+                            loadingBatch.variants.get(variant));
+                    loadingBatch.addTiming("variants", System.nanoTime() - start, 1);
+                    return;
+                }
+                // otherwise look up all of their IDs below, as if none had been reserved
+                forgetIDs(loadingBatch.variants, values);
+            }
             // query database for newly inserted variants IDs
             checkpoint = end;
             StringBuilder valueSet = new StringBuilder("(");
@@ -1984,7 +2843,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     int id = result.getInt("id");
                     ImmutablePair<String, Integer> variant =
                         new ImmutablePair<String, Integer>(sequence, charge);
-                    dataLoadManager.variants.put(variant, id);
+                    loadingBatch.variants.put(variant, id);
                     addElement("variant", String.format("%s_%d", sequence, charge), id);
                     values.remove(variant);
                 }
@@ -1995,14 +2854,14 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 catch (Throwable error) {}
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("variants_query", end - checkpoint, resultCount);
+            loadingBatch.addTiming("variants_query", end - checkpoint, resultCount);
             // IDs should now be stored for all new variants
             if (values.isEmpty() == false) {
                 // verify missing IDs in the actual ID map
                 Collection<ImmutablePair<String, Integer>> missingIDs =
                     new LinkedHashSet<ImmutablePair<String, Integer>>(values.size());
                 for (Entry<ImmutablePair<String, Integer>, Integer> entry :
-                    dataLoadManager.variants.entrySet())
+                    loadingBatch.variants.entrySet())
                     if (entry.getValue() == null)
                         missingIDs.add(entry.getKey());
                 if (missingIDs.isEmpty() == false) {
@@ -2026,7 +2885,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     for (ImmutablePair<String, Integer> variant : values) {
                         message.append("\n").append(variant.getLeft())
                             .append("/").append(variant.getRight());
-                        message.append(" : ").append(dataLoadManager.variants.get(variant));
+                        message.append(" : ").append(loadingBatch.variants.get(variant));
                     }
                     message.append("\n----------");
                     System.out.println(message.toString());
@@ -2034,30 +2893,26 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             }
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("variants", end - start, 1);
+        loadingBatch.addTiming("variants", end - start, 1);
     }
 
-    private void loadResultFilePeptides() throws SQLException {
+    private void loadResultFilePeptides(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new resultfile/peptide join pairs
-        Collection<String> values = dataLoadManager.resultFilePeptides;
+        Collection<String> values = loadingBatch.resultFilePeptides;
         // if there were any new joins, set up the batch
         // (using recently generated peptide IDs) and insert it
         if (values.isEmpty() == false) {
             // build resultfile_peptides load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "resultfile_peptides.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String sequence : values) {
                     // get this peptide's ID
-                    Integer peptideID = dataLoadManager.peptides.get(sequence);
+                    Integer peptideID = loadingBatch.peptides.get(sequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for resultfile/peptide join [%d/%s]: " +
@@ -2068,32 +2923,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(sequence);
                     loadFileLine.append("\t").append(mzTabRecord.id);
                     loadFileLine.append("\t").append(peptideID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(peptideID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_peptides_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("resultfile_peptides_batch", end - checkpoint, loadRows);
             // import resultfile_peptides load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.resultfile_peptides " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(sequence, resultfile_id, peptide_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2102,33 +2956,29 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_peptides_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("resultfile_peptides_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("resultfile_peptides", end - start, 1);
+        loadingBatch.addTiming("resultfile_peptides", end - start, 1);
     }
 
-    private void loadResultFileProteins() throws SQLException {
+    private void loadResultFileProteins(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new resultfile/protein join pairs
-        Collection<String> values = dataLoadManager.resultFileProteins;
+        Collection<String> values = loadingBatch.resultFileProteins;
         // if there were any new joins, set up the batch
         // (using recently generated protein IDs) and insert it
         if (values.isEmpty() == false) {
             // build resultfile_proteins load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "resultfile_proteins.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String accession : values) {
                     // get this protein's ID
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for resultfile/protein join [%d/%s]: " +
@@ -2138,32 +2988,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(mzTabRecord.id);
                     loadFileLine.append("\t").append(proteinID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(proteinID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("resultfile_proteins_batch", end - checkpoint, loadRows);
             // import resultfile_proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.resultfile_proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(resultfile_id, protein_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2172,33 +3021,29 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("resultfile_proteins_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("resultfile_proteins", end - start, 1);
+        loadingBatch.addTiming("resultfile_proteins", end - start, 1);
     }
 
-    private void loadResultFileModifications() throws SQLException {
+    private void loadResultFileModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new resultfile/modification join pairs
-        Collection<String> values = dataLoadManager.resultFileModifications;
+        Collection<String> values = loadingBatch.resultFileModifications;
         // if there were any new joins, set up the batch
         // (using recently generated modification IDs) and insert it
         if (values.isEmpty() == false) {
             // build resultfile_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "resultfile_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String modification : values) {
                     // get this modification's ID
-                    Integer modificationID = dataLoadManager.modifications.get(modification);
+                    Integer modificationID = loadingBatch.modifications.get(modification);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for resultfile/modification join " +
@@ -2208,32 +3053,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(mzTabRecord.id);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(modificationID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("resultfile_modifications_batch", end - checkpoint, loadRows);
             // import resultfile_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.resultfile_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(resultfile_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2242,37 +3086,33 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming(
+            loadingBatch.addTiming(
                 "resultfile_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("resultfile_modifications", end - start, 1);
+        loadingBatch.addTiming("resultfile_modifications", end - start, 1);
     }
 
-    private void loadDatasetPeptides() throws SQLException {
+    private void loadDatasetPeptides(Connection connection) throws SQLException {
         // if this is not a dataset result, do nothing
-        if (dataLoadManager.isDatasetResult == false)
+        if (loadingBatch.isDatasetResult == false)
             return;
         long start = System.nanoTime();
         // get all new dataset/peptide join pairs
-        Collection<String> values = dataLoadManager.datasetPeptides;
+        Collection<String> values = loadingBatch.datasetPeptides;
         // if there were any new joins, set up the batch
         // (using recently generated peptide IDs) and insert it
         if (values.isEmpty() == false) {
             // build dataset_peptides load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "dataset_peptides.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String sequence : values) {
                     // get this peptide's ID
-                    Integer peptideID = dataLoadManager.peptides.get(sequence);
+                    Integer peptideID = loadingBatch.peptides.get(sequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for dataset/peptide join [%d/%s]: " +
@@ -2283,32 +3123,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(sequence);
                     loadFileLine.append("\t").append(mzTabRecord.datasetID);
                     loadFileLine.append("\t").append(peptideID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(peptideID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_peptides_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("dataset_peptides_batch", end - checkpoint, loadRows);
             // import dataset_peptides load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.dataset_peptides " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(sequence, dataset_id, peptide_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2317,36 +3156,32 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_peptides_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("dataset_peptides_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("dataset_peptides", end - start, 1);
+        loadingBatch.addTiming("dataset_peptides", end - start, 1);
     }
 
-    private void loadDatasetProteins() throws SQLException {
+    private void loadDatasetProteins(Connection connection) throws SQLException {
         // if this is not a dataset result, do nothing
-        if (dataLoadManager.isDatasetResult == false)
+        if (loadingBatch.isDatasetResult == false)
             return;
         long start = System.nanoTime();
         // get all new dataset/protein join pairs
-        Collection<String> values = dataLoadManager.datasetProteins;
+        Collection<String> values = loadingBatch.datasetProteins;
         // if there were any new joins, set up the batch
         // (using recently generated protein IDs) and insert it
         if (values.isEmpty() == false) {
             // build dataset_proteins load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "dataset_proteins.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String accession : values) {
                     // get this protein's ID
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for dataset/protein join [%d/%s]: " +
@@ -2356,32 +3191,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(mzTabRecord.datasetID);
                     loadFileLine.append("\t").append(proteinID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(proteinID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("dataset_proteins_batch", end - checkpoint, loadRows);
             // import dataset_proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.dataset_proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(dataset_id, protein_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2390,36 +3224,32 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("dataset_proteins_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("dataset_proteins", end - start, 1);
+        loadingBatch.addTiming("dataset_proteins", end - start, 1);
     }
 
-    private void loadDatasetModifications() throws SQLException {
+    private void loadDatasetModifications(Connection connection) throws SQLException {
         // if this is not a dataset result, do nothing
-        if (dataLoadManager.isDatasetResult == false)
+        if (loadingBatch.isDatasetResult == false)
             return;
         long start = System.nanoTime();
         // get all new dataset/modifications join pairs
-        Collection<String> values = dataLoadManager.datasetModifications;
+        Collection<String> values = loadingBatch.datasetModifications;
         // if there were any new joins, set up the batch
         // (using recently generated modifications IDs) and insert it
         if (values.isEmpty() == false) {
             // build dataset_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "dataset_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (String modification : values) {
                     // get this modification's ID
-                    Integer modificationID = dataLoadManager.modifications.get(modification);
+                    Integer modificationID = loadingBatch.modifications.get(modification);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for dataset/modification join [%d/%s]: " +
@@ -2429,32 +3259,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(mzTabRecord.datasetID);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(modificationID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("dataset_modifications_batch", end - checkpoint, loadRows);
             // import dataset_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.dataset_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(dataset_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2463,41 +3292,37 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("dataset_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("dataset_modifications", end - start, 1);
+        loadingBatch.addTiming("dataset_modifications", end - start, 1);
     }
 
-    private void loadPeptideProteins() throws SQLException {
+    private void loadPeptideProteins(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new peptide/protein join pairs
-        Collection<ImmutablePair<String, String>> values = dataLoadManager.peptideProteins;
+        Collection<ImmutablePair<String, String>> values = loadingBatch.peptideProteins;
         // if there were any new joins, set up the batch
         // (using recently generated peptide and protein IDs) and insert it
         if (values.isEmpty() == false) {
             // build peptide_proteins load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "peptide_proteins.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<String, String> value : values) {
                     // get this peptide's ID
                     String sequence = value.getLeft();
-                    Integer peptideID = dataLoadManager.peptides.get(sequence);
+                    Integer peptideID = loadingBatch.peptides.get(sequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for peptide/protein joins [%s]: " +
                             "No database ID has been determined yet for this peptide.", sequence));
                     // get this protein's ID
                     String accession = value.getRight();
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for peptide/protein join [%s/%s]: " +
@@ -2508,32 +3333,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(sequence);
                     loadFileLine.append("\t").append(peptideID);
                     loadFileLine.append("\t").append(proteinID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(peptideID, proteinID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("peptide_proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("peptide_proteins_batch", end - checkpoint, loadRows);
             // import peptide_proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.peptide_proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(sequence, peptide_id, protein_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2542,41 +3366,37 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("peptide_proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("peptide_proteins_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("peptide_proteins", end - start, 1);
+        loadingBatch.addTiming("peptide_proteins", end - start, 1);
     }
 
-    private void loadPeptideModifications() throws SQLException {
+    private void loadPeptideModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new peptide/modification join pairs
-        Collection<ImmutablePair<String, String>> values = dataLoadManager.peptideModifications;
+        Collection<ImmutablePair<String, String>> values = loadingBatch.peptideModifications;
         // if there were any new joins, set up the batch
         // (using recently generated peptide and modification IDs) and insert it
         if (values.isEmpty() == false) {
             // build peptide_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "peptide_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<String, String> value : values) {
                     // get this peptide's ID
                     String sequence = value.getLeft();
-                    Integer peptideID = dataLoadManager.peptides.get(sequence);
+                    Integer peptideID = loadingBatch.peptides.get(sequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for peptide/modification joins [%s]: " +
                             "No database ID has been determined yet for this peptide.", sequence));
                     // get this modification's ID
                     String modification = value.getRight();
-                    Integer modificationID = dataLoadManager.modifications.get(modification);
+                    Integer modificationID = loadingBatch.modifications.get(modification);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for peptide/modification join " +
@@ -2586,32 +3406,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(peptideID);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(peptideID, modificationID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("peptide_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("peptide_modifications_batch", end - checkpoint, loadRows);
             // import peptide_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.peptide_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(peptide_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2620,41 +3439,37 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("peptide_modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("peptide_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("peptide_modifications", end - start, 1);
+        loadingBatch.addTiming("peptide_modifications", end - start, 1);
     }
 
-    private void loadProteinModifications() throws SQLException {
+    private void loadProteinModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new protein/modification join pairs
-        Collection<ImmutablePair<String, String>> values = dataLoadManager.proteinModifications;
+        Collection<ImmutablePair<String, String>> values = loadingBatch.proteinModifications;
         // if there were any new joins, set up the batch
         // (using recently generated protein and modification IDs) and insert it
         if (values.isEmpty() == false) {
             // build protein_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "protein_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<String, String> value : values) {
                     // get this protein's ID
                     String accession = value.getLeft();
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for protein/modification joins [%s]: " +
                             "No database ID has been determined yet for this protein.", accession));
                     // get this modification's ID
                     String modification = value.getRight();
-                    Integer modificationID = dataLoadManager.modifications.get(modification);
+                    Integer modificationID = loadingBatch.modifications.get(modification);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for protein/modification join " +
@@ -2664,32 +3479,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(proteinID);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(proteinID, modificationID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("protein_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("protein_modifications_batch", end - checkpoint, loadRows);
             // import protein_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.protein_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(protein_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2698,19 +3512,17 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("protein_modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("protein_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("protein_modifications", end - start, 1);
+        loadingBatch.addTiming("protein_modifications", end - start, 1);
     }
 
     // level 3 - foreign keys to level 2
-    private void loadPSMs() throws SQLException {
+    private void loadPSMs(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new PSMs
-        Map<Integer, PSM> values = new TreeMap<Integer, PSM>();
-        for (PSM psm : dataLoadManager.psms.keySet())
-            values.put(psm.getIndex(), psm);
+        Map<Integer, PSM> values = getNewPSMs();
         long end = System.nanoTime();
         // if there were any new PSMs, set up the batch
         // (using recently generated spectrumfile/peptide/variant IDs) and insert it
@@ -2723,14 +3535,14 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             try {
                 writer = new PrintWriter(
                     new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
+                        new OutputStreamWriter(openLoadOutput(loadFile)),
                         WRITE_BUFFER_SIZE)
                 );
                 for (Entry<Integer, PSM> entry : values.entrySet()) {
                     PSM psm = entry.getValue();
                     // get this PSM's spectrumfile, peptide, and variant IDs
                     ImmutableTriple<String, String, ImmutablePair<String, Integer>> properties =
-                        dataLoadManager.psms.get(psm);
+                        loadingBatch.psms.get(psm);
                     if (properties == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM %,d: " +
@@ -2742,7 +3554,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             "Properties tuple for this PSM has null spectrum file descriptor.",
                             entry.getKey()));
                     Integer spectrumFileID =
-                        dataLoadManager.spectrumFiles.get(spectrumFileDescriptor);
+                        loadingBatch.spectrumFiles.get(spectrumFileDescriptor);
                     if (spectrumFileID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM %,d: " +
@@ -2754,7 +3566,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             "ERROR setting up batch insert for PSM %,d: " +
                             "Properties tuple for this PSM has null peptide sequence.",
                             entry.getKey()));
-                    Integer peptideID = dataLoadManager.peptides.get(peptideSequence);
+                    Integer peptideID = loadingBatch.peptides.get(peptideSequence);
                     if (peptideID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM %,d: " +
@@ -2766,7 +3578,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             "ERROR setting up batch insert for PSM %,d: " +
                             "Properties tuple for this PSM has null variant.",
                             entry.getKey()));
-                    Integer variantID = dataLoadManager.variants.get(variant);
+                    Integer variantID = loadingBatch.variants.get(variant);
                     if (variantID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM %,d: " +
@@ -2792,7 +3604,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append("\t").append(spectrumFileID);
                     loadFileLine.append("\t").append(peptideID);
                     loadFileLine.append("\t").append(variantID);
-                    if (dataLoadManager.isDatasetResult)
+                    if (loadingBatch.isDatasetResult)
                         loadFileLine.append("\t").append(mzTabRecord.datasetID);
                     writer.println(loadFileLine.toString());
                     loadRows++;
@@ -2808,23 +3620,23 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                 }
             }
             end = System.nanoTime();
-            dataLoadManager.addTiming("psms_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("psms_batch", end - checkpoint, loadRows);
             // import psms load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 StringBuilder sql = new StringBuilder(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.psms " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(id, id_in_file, index_in_file, nativeid, variant_sequence, charge, " +
                     "exp_mass_to_charge, resultfile_id, spectrumfile_id, peptide_id, variant_id");
-                if (dataLoadManager.isDatasetResult)
+                if (loadingBatch.isDatasetResult)
                     sql.append(", dataset_id");
                 sql.append(")");
                 statement = connection.prepareStatement(sql.toString());
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2833,32 +3645,28 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("psms_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("psms_insert", end - checkpoint, loadResult);
         }
-        dataLoadManager.addTiming("psms", end - start, 1);
+        loadingBatch.addTiming("psms", end - start, 1);
     }
 
-    private void loadResultFileVariants() throws SQLException {
+    private void loadResultFileVariants(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new resultfile/variant join pairs
-        Collection<ImmutablePair<String, Integer>> values = dataLoadManager.resultFileVariants;
+        Collection<ImmutablePair<String, Integer>> values = loadingBatch.resultFileVariants;
         // if there were any new joins, set up the batch
         // (using recently generated variant IDs) and insert it
         if (values.isEmpty() == false) {
             // build resultfile_variants load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "resultfile_variants.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<String, Integer> variant : values) {
                     // get this variant's ID
-                    Integer variantID = dataLoadManager.variants.get(variant);
+                    Integer variantID = loadingBatch.variants.get(variant);
                     if (variantID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for resultfile/variant join " +
@@ -2869,32 +3677,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(variant.getLeft());
                     loadFileLine.append("\t").append(mzTabRecord.id);
                     loadFileLine.append("\t").append(variantID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(variantID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_variants_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("resultfile_variants_batch", end - checkpoint, loadRows);
             // import resultfile_variants load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.resultfile_variants " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(sequence, resultfile_id, variant_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2903,36 +3710,32 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("resultfile_variants_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("resultfile_variants_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("resultfile_variants", end - start, 1);
+        loadingBatch.addTiming("resultfile_variants", end - start, 1);
     }
 
-    private void loadDatasetVariants() throws SQLException {
+    private void loadDatasetVariants(Connection connection) throws SQLException {
         // if this is not a dataset result, do nothing
-        if (dataLoadManager.isDatasetResult == false)
+        if (loadingBatch.isDatasetResult == false)
             return;
         long start = System.nanoTime();
         // get all new dataset/variant join pairs
-        Collection<ImmutablePair<String, Integer>> values = dataLoadManager.datasetVariants;
+        Collection<ImmutablePair<String, Integer>> values = loadingBatch.datasetVariants;
         // if there were any new joins, set up the batch
         // (using recently generated variant IDs) and insert it
         if (values.isEmpty() == false) {
             // build dataset_variants load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "dataset_variants.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<String, Integer> variant : values) {
                     // get this variant's ID
-                    Integer variantID = dataLoadManager.variants.get(variant);
+                    Integer variantID = loadingBatch.variants.get(variant);
                     if (variantID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for dataset/variant join [%d/%s/%d]: " +
@@ -2943,32 +3746,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(variant.getLeft());
                     loadFileLine.append("\t").append(mzTabRecord.datasetID);
                     loadFileLine.append("\t").append(variantID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(variantID, 0, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_variants_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("dataset_variants_batch", end - checkpoint, loadRows);
             // import dataset_variants load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.dataset_variants " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(sequence, dataset_id, variant_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -2977,35 +3779,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("dataset_variants_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("dataset_variants_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("dataset_variants", end - start, 1);
+        loadingBatch.addTiming("dataset_variants", end - start, 1);
     }
 
-    private void loadVariantProteins() throws SQLException {
+    private void loadVariantProteins(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new variant/protein join pairs
         Collection<ImmutablePair<ImmutablePair<String, Integer>, String>> values =
-            dataLoadManager.variantProteins;
+            loadingBatch.variantProteins;
         // if there were any new joins, set up the batch
         // (using recently generated variant and protein IDs) and insert it
         if (values.isEmpty() == false) {
             // build variant_proteins load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "variant_proteins.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<ImmutablePair<String, Integer>, String> value : values) {
                     // get this variant's ID
                     ImmutablePair<String, Integer> variant = value.getLeft();
-                    Integer variantID = dataLoadManager.variants.get(variant);
+                    Integer variantID = loadingBatch.variants.get(variant);
                     if (variantID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant/protein joins [%s/%d]: " +
@@ -3013,7 +3811,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             variant.getLeft(), variant.getRight()));
                     // get this protein's ID
                     String accession = value.getRight();
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant/protein join " +
@@ -3023,32 +3821,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(variantID);
                     loadFileLine.append("\t").append(proteinID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(variantID, proteinID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("variant_proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("variant_proteins_batch", end - checkpoint, loadRows);
             // import variant_proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.variant_proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(variant_id, protein_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -3057,37 +3854,33 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("variant_proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("variant_proteins_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("variant_proteins", end - start, 1);
+        loadingBatch.addTiming("variant_proteins", end - start, 1);
     }
 
-    private void loadVariantModifications() throws SQLException {
+    private void loadVariantModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new variant/modification join pairs
         Collection<ImmutablePair<
             ImmutablePair<String, Integer>, ImmutablePair<String, Integer>>> values =
-                dataLoadManager.variantModifications;
+                loadingBatch.variantModifications;
         // if there were any new joins, set up the batch
         // (using recently generated variant and modification IDs) and insert it
         if (values.isEmpty() == false) {
             // build variant_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "variant_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<
                     ImmutablePair<String, Integer>, ImmutablePair<String, Integer>> value : values) {
                     // get this variant's ID
                     ImmutablePair<String, Integer> variant = value.getLeft();
-                    Integer variantID = dataLoadManager.variants.get(variant);
+                    Integer variantID = loadingBatch.variants.get(variant);
                     if (variantID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant/modification joins " +
@@ -3105,7 +3898,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             variant.getLeft(), variant.getRight(), modification.getLeft()));
                     // get this modification's ID
                     String name = modification.getLeft();
-                    Integer modificationID = dataLoadManager.modifications.get(name);
+                    Integer modificationID = loadingBatch.modifications.get(name);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for variant/modification join " +
@@ -3117,32 +3910,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     loadFileLine.append(position);
                     loadFileLine.append("\t").append(variantID);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(variantID, modificationID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("variant_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("variant_modifications_batch", end - checkpoint, loadRows);
             // import variant_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.variant_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(location, variant_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -3151,35 +3943,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("variant_modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("variant_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("variant_modifications", end - start, 1);
+        loadingBatch.addTiming("variant_modifications", end - start, 1);
     }
 
     // level 3 - foreign keys to level 2
-    private void loadPSMProteins() throws SQLException {
+    private void loadPSMProteins(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new PSM/protein join pairs
-        Collection<ImmutablePair<PSM, String>> values = dataLoadManager.psmProteins;
+        Collection<ImmutablePair<PSM, String>> values = loadingBatch.psmProteins;
         // if there were any new joins, set up the batch
         // (using recently generated PSM and protein IDs) and insert it
         if (values.isEmpty() == false) {
             // build psm_proteins load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "psm_proteins.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<PSM, String> value : values) {
                     // get this PSM's ID
                     PSM psm = value.getLeft();
-                    Long psmID = psmDatabaseIDs[psm.getIndex()];
+                    Long psmID = getPSMDatabaseID(psm.getIndex());
                     if (psmID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM/protein joins [%d]: " +
@@ -3187,7 +3975,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             psm.getIndex()));
                     // get this protein's ID
                     String accession = value.getRight();
-                    Integer proteinID = dataLoadManager.proteins.get(accession);
+                    Integer proteinID = loadingBatch.proteins.get(accession);
                     if (proteinID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM/protein join [%d/%s]: " +
@@ -3197,32 +3985,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(psmID);
                     loadFileLine.append("\t").append(proteinID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(psmID, proteinID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("psm_proteins_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("psm_proteins_batch", end - checkpoint, loadRows);
             // import psm_proteins load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.psm_proteins " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(psm_id, protein_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -3231,34 +4018,30 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("psm_proteins_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("psm_proteins_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("psm_proteins", end - start, 1);
+        loadingBatch.addTiming("psm_proteins", end - start, 1);
     }
 
-    private void loadPSMModifications() throws SQLException {
+    private void loadPSMModifications(Connection connection) throws SQLException {
         long start = System.nanoTime();
         // get all new PSM/modification join pairs
-        Collection<ImmutablePair<PSM, String>> values = dataLoadManager.psmModifications;
+        Collection<ImmutablePair<PSM, String>> values = loadingBatch.psmModifications;
         // if there were any new joins, set up the batch
         // (using recently generated PSM and modification IDs) and insert it
         if (values.isEmpty() == false) {
             // build psm_modifications load file
             long checkpoint = System.nanoTime();
             File loadFile = new File(tempDirectory, "psm_modifications.tsv");
-            PrintWriter writer = null;
+            SortedLoadFileWriter writer = null;
             int loadRows = 0;
             try {
-                writer = new PrintWriter(
-                    new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(loadFile)),
-                        WRITE_BUFFER_SIZE)
-                );
+                writer = new SortedLoadFileWriter(loadFile);
                 for (ImmutablePair<PSM, String> value : values) {
                     // get this PSM's ID
                     PSM psm = value.getLeft();
-                    Long psmID = psmDatabaseIDs[psm.getIndex()];
+                    Long psmID = getPSMDatabaseID(psm.getIndex());
                     if (psmID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM/modification joins [%d]: " +
@@ -3266,7 +4049,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                             psm.getIndex()));
                     // get this modification's ID
                     String modification = value.getRight();
-                    Integer modificationID = dataLoadManager.modifications.get(modification);
+                    Integer modificationID = loadingBatch.modifications.get(modification);
                     if (modificationID == null)
                         throw new IllegalStateException(String.format(
                             "ERROR setting up batch insert for PSM/modification join " +
@@ -3276,32 +4059,31 @@ System.out.println(String.format("  psm_row_cascade\t%s",
                     StringBuilder loadFileLine = new StringBuilder();
                     loadFileLine.append(psmID);
                     loadFileLine.append("\t").append(modificationID);
-                    writer.println(loadFileLine.toString());
+                    writer.write(psmID, modificationID, loadFileLine.toString());
                     loadRows++;
                 }
+                writer.finish(openLoadOutput(loadFile));
             } catch (RuntimeException error) {
                 throw error;
             } catch (Throwable error) {
                 throw new RuntimeException(error);
             } finally {
-                if (writer != null) {
-                    try { writer.flush(); } catch (Throwable error) {}
-                    try { writer.close(); } catch (Throwable error) {}
-                }
+                if (writer != null)
+                    writer.close();
             }
             long end = System.nanoTime();
-            dataLoadManager.addTiming("psm_modifications_batch", end - checkpoint, loadRows);
+            loadingBatch.addTiming("psm_modifications_batch", end - checkpoint, loadRows);
             // import psm_modifications load file
             checkpoint = end;
             PreparedStatement statement = null;
             Integer loadResult = null;
             try {
                 statement = connection.prepareStatement(
-                    "LOAD DATA CONCURRENT INFILE ? IGNORE " +
+                    loadDataClause() + "IGNORE " +
                     "INTO TABLE proxi.psm_modifications " +
                     "FIELDS TERMINATED BY '\\t' " +
                     "(psm_id, modification_id)");
-                statement.setString(1, loadFile.getAbsolutePath());
+                setLoadFile(statement, loadFile);
                 loadResult = statement.executeUpdate();
             } finally {
                 try { statement.close(); }
@@ -3310,10 +4092,635 @@ System.out.println(String.format("  psm_row_cascade\t%s",
             // after import is complete, delete load file
             loadFile.delete();
             end = System.nanoTime();
-            dataLoadManager.addTiming("psm_modifications_insert", end - checkpoint, loadResult);
+            loadingBatch.addTiming("psm_modifications_insert", end - checkpoint, loadResult);
         }
         long end = System.nanoTime();
-        dataLoadManager.addTiming("psm_modifications", end - start, 1);
+        loadingBatch.addTiming("psm_modifications", end - start, 1);
+    }
+
+    /*
+     * In a staged import, the rows of each dependent table are written with
+     * the natural keys of the rows they refer to rather than with their
+     * database IDs. They are loaded into a temporary staging table on the
+     * loading connection, and then copied into the real table by a single
+     * INSERT ... SELECT that looks up those IDs with joins on the server.
+     * Top-level tables are loaded directly as usual, but their generated IDs
+     * are never queried back, since nothing on this side needs them.
+     */
+    private void loadStagedTable(DataLoadTable table, Connection connection)
+    throws SQLException {
+        switch (table) {
+            case VARIANTS:                 stageVariants(connection); break;
+            case RESULTFILE_PEPTIDES:      stageResultFilePeptides(connection); break;
+            case RESULTFILE_PROTEINS:      stageResultFileProteins(connection); break;
+            case RESULTFILE_MODIFICATIONS: stageResultFileModifications(connection); break;
+            case DATASET_PEPTIDES:         stageDatasetPeptides(connection); break;
+            case DATASET_PROTEINS:         stageDatasetProteins(connection); break;
+            case DATASET_MODIFICATIONS:    stageDatasetModifications(connection); break;
+            case PEPTIDE_PROTEINS:         stagePeptideProteins(connection); break;
+            case PEPTIDE_MODIFICATIONS:    stagePeptideModifications(connection); break;
+            case PROTEIN_MODIFICATIONS:    stageProteinModifications(connection); break;
+            case PSMS:                     stagePSMs(connection); break;
+            case RESULTFILE_VARIANTS:      stageResultFileVariants(connection); break;
+            case DATASET_VARIANTS:         stageDatasetVariants(connection); break;
+            case VARIANT_PROTEINS:         stageVariantProteins(connection); break;
+            case VARIANT_MODIFICATIONS:    stageVariantModifications(connection); break;
+            case PSM_PROTEINS:             stagePSMProteins(connection); break;
+            case PSM_MODIFICATIONS:        stagePSMModifications(connection); break;
+            // top-level tables have nothing to resolve
+            default: throw new IllegalArgumentException(String.format(
+                "Table [%s] has no foreign keys to resolve.", table));
+        }
+    }
+
+    private void stageVariants(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        List<ImmutablePair<String, Integer>> values =
+            new ArrayList<ImmutablePair<String, Integer>>();
+        for (Entry<ImmutablePair<String, Integer>, Integer> entry :
+            loadingBatch.variants.entrySet())
+            if (entry.getValue() == null)
+                values.add(entry.getKey());
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, "variants.tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            int loadRows = 0;
+            try {
+                for (ImmutablePair<String, Integer> variant : values) {
+                    String peptideSequence = loadingBatch.variantPeptides.get(variant);
+                    if (peptideSequence == null)
+                        throw new IllegalStateException(String.format(
+                            "ERROR setting up batch insert for variant [%s/%d]: " +
+                            "No peptide sequence was registered for this variant.",
+                            variant.getLeft(), variant.getRight()));
+                    writer.println(String.format("%s\t%d\t%s",
+                        variant.getLeft(), variant.getRight(), peptideSequence));
+                    loadRows++;
+                }
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, VARIANTS_STAGING, loadFile, loadRows);
+            // dependent tables will look these variants up by sequence/charge
+            for (ImmutablePair<String, Integer> variant : values) {
+                loadingBatch.variants.put(variant, SERVER_RESOLVED_ID);
+                addElement("variant", String.format(
+                    "%s_%d", variant.getLeft(), variant.getRight()),
+                    SERVER_RESOLVED_ID);
+            }
+        }
+        loadingBatch.addTiming("variants", System.nanoTime() - start, 1);
+    }
+
+    private void stageResultFilePeptides(Connection connection) throws SQLException {
+        stageKeys(connection, RESULTFILE_PEPTIDES_STAGING,
+            loadingBatch.resultFilePeptides, mzTabRecord.id);
+    }
+
+    private void stageResultFileProteins(Connection connection) throws SQLException {
+        stageKeys(connection, RESULTFILE_PROTEINS_STAGING,
+            loadingBatch.resultFileProteins, mzTabRecord.id);
+    }
+
+    private void stageResultFileModifications(Connection connection) throws SQLException {
+        stageKeys(connection, RESULTFILE_MODIFICATIONS_STAGING,
+            loadingBatch.resultFileModifications, mzTabRecord.id);
+    }
+
+    private void stageDatasetPeptides(Connection connection) throws SQLException {
+        stageKeys(connection, DATASET_PEPTIDES_STAGING,
+            loadingBatch.datasetPeptides, mzTabRecord.datasetID);
+    }
+
+    private void stageDatasetProteins(Connection connection) throws SQLException {
+        stageKeys(connection, DATASET_PROTEINS_STAGING,
+            loadingBatch.datasetProteins, mzTabRecord.datasetID);
+    }
+
+    private void stageDatasetModifications(Connection connection) throws SQLException {
+        stageKeys(connection, DATASET_MODIFICATIONS_STAGING,
+            loadingBatch.datasetModifications, mzTabRecord.datasetID);
+    }
+
+    private void stagePeptideProteins(Connection connection) throws SQLException {
+        stagePairs(connection, PEPTIDE_PROTEINS_STAGING,
+            loadingBatch.peptideProteins);
+    }
+
+    private void stagePeptideModifications(Connection connection) throws SQLException {
+        stagePairs(connection, PEPTIDE_MODIFICATIONS_STAGING,
+            loadingBatch.peptideModifications);
+    }
+
+    private void stageProteinModifications(Connection connection) throws SQLException {
+        stagePairs(connection, PROTEIN_MODIFICATIONS_STAGING,
+            loadingBatch.proteinModifications);
+    }
+
+    private void stagePSMs(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        // PSM IDs are still assigned here, in file order
+        Map<Integer, PSM> values = getNewPSMs();
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, "psms.tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            int loadRows = 0;
+            try {
+                for (PSM psm : values.values()) {
+                    ImmutableTriple<String, String, ImmutablePair<String, Integer>> properties =
+                        loadingBatch.psms.get(psm);
+                    if (properties == null || properties.getLeft() == null ||
+                        properties.getMiddle() == null || properties.getRight() == null)
+                        throw new IllegalStateException(String.format(
+                            "ERROR setting up batch insert for PSM %,d: " +
+                            "The properties tuple registered for this PSM is incomplete.",
+                            psm.getIndex()));
+                    int index = psm.getIndex();
+                    psmDatabaseIDs[index] = lastPSMDatabaseID;
+                    StringBuilder loadFileLine = new StringBuilder();
+                    loadFileLine.append(lastPSMDatabaseID++);
+                    loadFileLine.append("\t").append(psm.getID());
+                    loadFileLine.append("\t").append(index);
+                    loadFileLine.append("\t").append(psm.getNativeID());
+                    loadFileLine.append("\t").append(psm.getModifiedSequence());
+                    loadFileLine.append("\t").append(psm.getCharge());
+                    Double massToCharge = psm.getMassToCharge();
+                    if (massToCharge != null)
+                        loadFileLine.append("\t").append(massToCharge);
+                    else loadFileLine.append("\t\\N");
+                    loadFileLine.append("\t").append(properties.getLeft());
+                    loadFileLine.append("\t").append(properties.getMiddle());
+                    loadFileLine.append("\t").append(properties.getRight().getLeft());
+                    loadFileLine.append("\t").append(properties.getRight().getRight());
+                    writer.println(loadFileLine.toString());
+                    loadRows++;
+                }
+            } finally {
+                closeLoadFile(writer);
+            }
+            if (loadingBatch.isDatasetResult)
+                loadStaged(connection, DATASET_PSMS_STAGING, loadFile, loadRows,
+                    mzTabRecord.id, mzTabRecord.datasetID);
+            else loadStaged(connection, PSMS_STAGING, loadFile, loadRows,
+                mzTabRecord.id);
+        }
+        loadingBatch.addTiming("psms", System.nanoTime() - start, 1);
+    }
+
+    private void stageResultFileVariants(Connection connection) throws SQLException {
+        stageVariantKeys(connection, RESULTFILE_VARIANTS_STAGING,
+            loadingBatch.resultFileVariants, mzTabRecord.id);
+    }
+
+    private void stageDatasetVariants(Connection connection) throws SQLException {
+        stageVariantKeys(connection, DATASET_VARIANTS_STAGING,
+            loadingBatch.datasetVariants, mzTabRecord.datasetID);
+    }
+
+    private void stageVariantProteins(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        Collection<ImmutablePair<ImmutablePair<String, Integer>, String>> values =
+            loadingBatch.variantProteins;
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, "variant_proteins.tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            int loadRows = 0;
+            try {
+                for (ImmutablePair<ImmutablePair<String, Integer>, String> value : values) {
+                    writer.println(String.format("%s\t%d\t%s",
+                        value.getLeft().getLeft(), value.getLeft().getRight(),
+                        value.getRight()));
+                    loadRows++;
+                }
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, VARIANT_PROTEINS_STAGING, loadFile, loadRows);
+        }
+        loadingBatch.addTiming("variant_proteins", System.nanoTime() - start, 1);
+    }
+
+    private void stageVariantModifications(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        Collection<ImmutablePair<
+            ImmutablePair<String, Integer>, ImmutablePair<String, Integer>>> values =
+                loadingBatch.variantModifications;
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, "variant_modifications.tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            int loadRows = 0;
+            try {
+                for (ImmutablePair<
+                    ImmutablePair<String, Integer>, ImmutablePair<String, Integer>> value : values) {
+                    ImmutablePair<String, Integer> variant = value.getLeft();
+                    ImmutablePair<String, Integer> modification = value.getRight();
+                    if (modification.getRight() == null)
+                        throw new IllegalStateException(String.format(
+                            "ERROR setting up batch insert for variant/modification join " +
+                            "[%s/%d/%s]: Modification has null position - how did it get " +
+                            "registered for a variant join?",
+                            variant.getLeft(), variant.getRight(), modification.getLeft()));
+                    writer.println(String.format("%d\t%s\t%d\t%s",
+                        modification.getRight(), variant.getLeft(), variant.getRight(),
+                        modification.getLeft()));
+                    loadRows++;
+                }
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, VARIANT_MODIFICATIONS_STAGING, loadFile, loadRows);
+        }
+        loadingBatch.addTiming("variant_modifications", System.nanoTime() - start, 1);
+    }
+
+    private void stagePSMProteins(Connection connection) throws SQLException {
+        stagePSMJoins(connection, PSM_PROTEINS_STAGING, loadingBatch.psmProteins);
+    }
+
+    private void stagePSMModifications(Connection connection) throws SQLException {
+        stagePSMJoins(connection, PSM_MODIFICATIONS_STAGING,
+            loadingBatch.psmModifications);
+    }
+
+    // join tables with one key fixed for the whole file
+    private void stageKeys(
+        Connection connection, StagingTable staging, Collection<String> values,
+        Object fixedKey
+    ) throws SQLException {
+        long start = System.nanoTime();
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, staging.table + ".tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            try {
+                for (String value : values)
+                    writer.println(value);
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, staging, loadFile, values.size(), fixedKey);
+        }
+        loadingBatch.addTiming(staging.table, System.nanoTime() - start, 1);
+    }
+
+    private void stageVariantKeys(
+        Connection connection, StagingTable staging,
+        Collection<ImmutablePair<String, Integer>> values, Object fixedKey
+    ) throws SQLException {
+        long start = System.nanoTime();
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, staging.table + ".tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            try {
+                for (ImmutablePair<String, Integer> variant : values)
+                    writer.println(String.format(
+                        "%s\t%d", variant.getLeft(), variant.getRight()));
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, staging, loadFile, values.size(), fixedKey);
+        }
+        loadingBatch.addTiming(staging.table, System.nanoTime() - start, 1);
+    }
+
+    // join tables between two top-level tables
+    private void stagePairs(
+        Connection connection, StagingTable staging,
+        Collection<ImmutablePair<String, String>> values
+    ) throws SQLException {
+        long start = System.nanoTime();
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, staging.table + ".tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            try {
+                for (ImmutablePair<String, String> value : values)
+                    writer.println(String.format(
+                        "%s\t%s", value.getLeft(), value.getRight()));
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, staging, loadFile, values.size());
+        }
+        loadingBatch.addTiming(staging.table, System.nanoTime() - start, 1);
+    }
+
+    private void stagePSMJoins(
+        Connection connection, StagingTable staging,
+        Collection<ImmutablePair<PSM, String>> values
+    ) throws SQLException {
+        long start = System.nanoTime();
+        if (values.isEmpty() == false) {
+            File loadFile = new File(tempDirectory, staging.table + ".tsv");
+            PrintWriter writer = openLoadFile(loadFile);
+            try {
+                for (ImmutablePair<PSM, String> value : values) {
+                    PSM psm = value.getLeft();
+                    Long psmID = getPSMDatabaseID(psm.getIndex());
+                    if (psmID == null)
+                        throw new IllegalStateException(String.format(
+                            "ERROR setting up batch insert for %s [%d]: " +
+                            "No database ID has been determined yet for this PSM.",
+                            staging.table, psm.getIndex()));
+                    writer.println(String.format("%d\t%s", psmID, value.getRight()));
+                }
+            } finally {
+                closeLoadFile(writer);
+            }
+            loadStaged(connection, staging, loadFile, values.size());
+        }
+        loadingBatch.addTiming(staging.table, System.nanoTime() - start, 1);
+    }
+
+    /**
+     * Loads the argument file into a new temporary staging table on the
+     * argument connection, verifies that every key in it refers to an
+     * existing row, and copies it into the real table. Any parameters are
+     * bound, in order, to the placeholders in the staging table's SELECT
+     * list, which stand for the keys fixed for the whole file.
+     */
+    private void loadStaged(
+        Connection connection, StagingTable staging, File loadFile, int loadRows,
+        Object... parameters
+    ) throws SQLException {
+        String name = staging.table;
+        String stagingTable = "staging_" + name;
+        Statement ddl = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            // staging tables only exist in this connection's session,
+            // so concurrent loads on other connections never see them
+            long checkpoint = System.nanoTime();
+            ddl = connection.createStatement();
+            ddl.executeUpdate("DROP TEMPORARY TABLE IF EXISTS " + stagingTable);
+            ddl.executeUpdate(String.format(
+                "CREATE TEMPORARY TABLE %s %s LIMIT 0",
+                stagingTable, staging.template));
+            statement = connection.prepareStatement(String.format(
+                loadDataClause() +
+                "INTO TABLE %s " +
+                "FIELDS TERMINATED BY '\\t' " +
+                "(%s)", stagingTable, staging.stagingColumns));
+            setLoadFile(statement, loadFile);
+            int loadResult = statement.executeUpdate();
+            try { statement.close(); } catch (Throwable error) {}
+            long end = System.nanoTime();
+            loadingBatch.addTiming(name + "_stage", end - checkpoint, loadResult);
+            // every staged key must refer to a row that already exists,
+            // or the join below would silently drop its row
+            checkpoint = end;
+            if (staging.joins.length > 0) {
+                StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ");
+                sql.append(stagingTable).append(" s");
+                StringBuilder unresolved = new StringBuilder();
+                for (int i=0; i<staging.joins.length; i++) {
+                    sql.append(" LEFT JOIN ").append(staging.joins[i]);
+                    if (i > 0)
+                        unresolved.append(" OR ");
+                    unresolved.append(staging.joinIDs[i]).append(" IS NULL");
+                }
+                sql.append(" WHERE ").append(unresolved);
+                statement = connection.prepareStatement(sql.toString());
+                result = statement.executeQuery();
+                int missing = result.next() ? result.getInt(1) : 0;
+                try { result.close(); } catch (Throwable error) {}
+                try { statement.close(); } catch (Throwable error) {}
+                if (missing > 0)
+                    throw new IllegalStateException(String.format(
+                        "ERROR inserting %s batch: %,d staged %s refer to rows " +
+                        "for which no database ID could be found.",
+                        name, missing, CommonUtils.pluralize("row", missing)));
+            }
+            end = System.nanoTime();
+            loadingBatch.addTiming(name + "_resolve", end - checkpoint, loadRows);
+            // copy staged rows into the real table, resolving IDs on the server
+            checkpoint = end;
+            StringBuilder sql = new StringBuilder("INSERT IGNORE INTO proxi.");
+            sql.append(name).append(" (").append(staging.insertColumns);
+            sql.append(") SELECT ").append(staging.selectColumns);
+            sql.append(" FROM ").append(stagingTable).append(" s");
+            for (String join : staging.joins)
+                sql.append(" JOIN ").append(join);
+            statement = connection.prepareStatement(sql.toString());
+            for (int i=0; i<parameters.length; i++)
+                statement.setObject(i + 1, parameters[i]);
+            int insertResult = statement.executeUpdate();
+            end = System.nanoTime();
+            loadingBatch.addTiming(name + "_insert", end - checkpoint, insertResult);
+        } finally {
+            try { result.close(); } catch (Throwable error) {}
+            try { statement.close(); } catch (Throwable error) {}
+            if (ddl != null) try {
+                ddl.executeUpdate("DROP TEMPORARY TABLE IF EXISTS " + stagingTable);
+            } catch (Throwable error) {}
+            try { ddl.close(); } catch (Throwable error) {}
+            loadFile.delete();
+        }
+    }
+
+    /**
+     * Looks up which of the argument new top-level rows already exist, by
+     * their unique key column, and records their IDs. Every row that's left
+     * is given a new ID from a block reserved for its table, and only those
+     * rows are left in the argument collection to be inserted.
+     */
+    private void assignIDs(
+        Connection connection, String table, String keyColumn, String type,
+        Map<String, Integer> ids, Collection<String> values
+    ) throws SQLException {
+        if (values.isEmpty())
+            return;
+        long start = System.nanoTime();
+        StringBuilder valueSet = new StringBuilder("(");
+        for (int i=0; i<values.size(); i++)
+            valueSet.append("?,");
+        valueSet.setLength(valueSet.length() - 1);
+        valueSet.append(")");
+        Set<String> existing = new TreeSet<String>();
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            statement = connection.prepareStatement(String.format(
+                "SELECT id, %s FROM proxi.%s WHERE %s IN %s",
+                keyColumn, table, keyColumn, valueSet.toString()));
+            int valueCounter = 1;
+            for (String value : values)
+                statement.setString(valueCounter++, value);
+            result = statement.executeQuery();
+            while (result.next()) {
+                String value = result.getString(keyColumn);
+                int id = result.getInt("id");
+                ids.put(value, id);
+                addElement(type, value, id);
+                existing.add(value);
+            }
+        } finally {
+            try { result.close(); } catch (Throwable error) {}
+            try { statement.close(); } catch (Throwable error) {}
+        }
+        values.removeAll(existing);
+        long end = System.nanoTime();
+        loadingBatch.addTiming(table + "_match", end - start, existing.size());
+        // give all truly new rows their IDs
+        if (values.isEmpty() == false) {
+            long id = ID_ALLOCATOR.allocate(connection, "proxi." + table, values.size());
+            for (String value : values)
+                ids.put(value, (int)id++);
+        }
+        loadingBatch.addTiming(table + "_reserve", System.nanoTime() - end, values.size());
+    }
+
+    private void assignVariantIDs(
+        Connection connection, Collection<ImmutablePair<String, Integer>> values
+    ) throws SQLException {
+        if (values.isEmpty())
+            return;
+        long start = System.nanoTime();
+        StringBuilder valueSet = new StringBuilder("(");
+        for (int i=0; i<values.size(); i++)
+            valueSet.append("(?,?),");
+        valueSet.setLength(valueSet.length() - 1);
+        valueSet.append(")");
+        Set<ImmutablePair<String, Integer>> existing =
+            new TreeSet<ImmutablePair<String, Integer>>();
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            statement = connection.prepareStatement(String.format(
+                "SELECT id, sequence, charge FROM proxi.variants " +
+                "WHERE (sequence, charge) IN %s", valueSet.toString()));
+            int valueCounter = 1;
+            for (ImmutablePair<String, Integer> variant : values) {
+                statement.setString(valueCounter++, variant.getLeft());
+                statement.setInt(valueCounter++, variant.getRight());
+            }
+            result = statement.executeQuery();
+            while (result.next()) {
+                String sequence = result.getString("sequence");
+                int charge = result.getInt("charge");
+                int id = result.getInt("id");
+                ImmutablePair<String, Integer> variant =
+                    new ImmutablePair<String, Integer>(sequence, charge);
+                loadingBatch.variants.put(variant, id);
+                addElement("variant", String.format("%s_%d", sequence, charge), id);
+                existing.add(variant);
+            }
+        } finally {
+            try { result.close(); } catch (Throwable error) {}
+            try { statement.close(); } catch (Throwable error) {}
+        }
+        values.removeAll(existing);
+        long end = System.nanoTime();
+        loadingBatch.addTiming("variants_match", end - start, existing.size());
+        // give all truly new variants their IDs
+        if (values.isEmpty() == false) {
+            long id = ID_ALLOCATOR.allocate(connection, "proxi.variants", values.size());
+            for (ImmutablePair<String, Integer> variant : values)
+                loadingBatch.variants.put(variant, (int)id++);
+        }
+        loadingBatch.addTiming("variants_reserve", System.nanoTime() - end, values.size());
+    }
+
+    private <K> void forgetIDs(Map<K, Integer> ids, Collection<K> values) {
+        for (K value : values)
+            ids.put(value, null);
+    }
+
+    private void recordElements(
+        String type, Map<String, Integer> ids, Collection<String> values
+    ) {
+        for (String value : values)
+            addElement(type, value, ids.get(value));
+    }
+
+    /**
+     * Collects the batch's PSMs by index, leaving out any PSM that already
+     * got its database ID in an earlier batch because its rows were split
+     * between the two, and makes room for the IDs of the rest.
+     */
+    private Map<Integer, PSM> getNewPSMs() {
+        TreeMap<Integer, PSM> values = new TreeMap<Integer, PSM>();
+        for (PSM psm : loadingBatch.psms.keySet())
+            if (getPSMDatabaseID(psm.getIndex()) == null)
+                values.put(psm.getIndex(), psm);
+        if (values.isEmpty() == false)
+            ensurePSMCapacity(values.lastKey());
+        return values;
+    }
+
+    private Long getPSMDatabaseID(int index) {
+        if (psmDatabaseIDs == null || index < 0 || index >= psmDatabaseIDs.length ||
+            psmDatabaseIDs[index] < 1)
+            return null;
+        else return psmDatabaseIDs[index];
+    }
+
+    private void ensurePSMCapacity(int index) {
+        if (psmDatabaseIDs == null)
+            psmDatabaseIDs = new long[index + 1];
+        else if (index >= psmDatabaseIDs.length)
+            psmDatabaseIDs = Arrays.copyOf(psmDatabaseIDs,
+                Math.max(index + 1, psmDatabaseIDs.length * 2));
+    }
+
+    private void markResolvedOnServer(
+        String type, Map<String, Integer> ids, Collection<String> values
+    ) {
+        for (String value : values) {
+            ids.put(value, SERVER_RESOLVED_ID);
+            addElement(type, value, SERVER_RESOLVED_ID);
+        }
+    }
+
+    private OutputStream openLoadOutput(File loadFile) throws IOException {
+        if (streamedLoads == false)
+            return new FileOutputStream(loadFile);
+        // the load file itself is only written if the buffer spills
+        LoadDataBuffer buffer = new LoadDataBuffer(loadFile);
+        loadBuffers.put(loadFile, buffer);
+        return buffer;
+    }
+
+    private String loadDataClause() {
+        if (streamedLoads)
+            return "LOAD DATA CONCURRENT LOCAL INFILE ? ";
+        else return "LOAD DATA CONCURRENT INFILE ? ";
+    }
+
+    private void setLoadFile(PreparedStatement statement, File loadFile)
+    throws SQLException {
+        LoadDataBuffer buffer = loadBuffers.remove(loadFile);
+        if (streamedLoads == false || buffer == null) {
+            statement.setString(1, loadFile.getAbsolutePath());
+            return;
+        }
+        // the driver streams this instead of reading the named file;
+        // pooled statements have to be unwrapped to reach it
+        try {
+            statement.unwrap(com.mysql.jdbc.Statement.class)
+                .setLocalInfileInputStream(buffer.getInputStream());
+        } catch (IOException error) {
+            throw new SQLException(error);
+        }
+        statement.setString(1, loadFile.getName());
+    }
+
+    private PrintWriter openLoadFile(File loadFile) {
+        try {
+            return new PrintWriter(
+                new BufferedWriter(
+                    new OutputStreamWriter(openLoadOutput(loadFile)),
+                    WRITE_BUFFER_SIZE)
+            );
+        } catch (Throwable error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private void closeLoadFile(PrintWriter writer) {
+        if (writer != null) {
+            try { writer.flush(); } catch (Throwable error) {}
+            try { writer.close(); } catch (Throwable error) {}
+        }
     }
 
     private Collection<Modification> cleanModificationsForSearch(
@@ -3340,27 +4747,46 @@ System.out.println(String.format("  psm_row_cascade\t%s",
         return cleaned;
     }
     
-    private Integer getElementID(String type, String value) {
+    // synchronized with addElement, since batches
+    // may be loading while later rows are parsed
+    private synchronized Integer getElementID(String type, String value) {
         if (type == null || value == null ||
             value.trim().equalsIgnoreCase("null"))
             return 0;
-        Map<String, Integer> values = null;
-        // get element from global map first, if present
-        if (globalElements != null)
-            values = globalElements.get(type);
+        Integer id = null;
+        boolean found = false;
+        // get element from global map first, if present; it may be
+        // shared with imports of other files running concurrently
+        if (globalElements != null) synchronized (globalElements) {
+            Map<String, Integer> values = globalElements.get(type);
+            if (values != null && values.containsKey(value)) {
+                id = values.get(value);
+                found = true;
+            }
+        }
         // then try to get it from the local map
-        if (values == null || values.containsKey(value) == false)
-            values = uniqueElements.get(type);
-        if (values == null || values.containsKey(value) == false)
+        if (found == false) {
+            Map<String, Integer> values = uniqueElements.get(type);
+            if (values != null && values.containsKey(value))
+                id = values.get(value);
+            // finally, try the IDs known to earlier imports
+            else if (elementIDCache != null &&
+                (id = elementIDCache.getID(type, value)) != null)
+                addElement(type, value, id);
+            else return null;
+        }
+        // an element whose ID was only ever resolved on the server
+        // has to be looked up again by any import that isn't staged
+        if (id != null && id == SERVER_RESOLVED_ID && stagedImport == false)
             return null;
-        else return values.get(value);
+        else return id;
     }
     
     private void addElement(String type, String value, int id) {
         addElement(type, value, id, false);
     }
     
-    private void addElement(
+    private synchronized void addElement(
         String type, String value, int id, boolean localOnly
     ) {
         if (type == null || value == null ||
@@ -3373,13 +4799,16 @@ System.out.println(String.format("  psm_row_cascade\t%s",
         values.put(value, id);
         uniqueElements.put(type, values);
         // add to global map, if requested and present
-        if (localOnly == false && globalElements != null) {
+        if (localOnly == false && globalElements != null) synchronized (globalElements) {
             values = globalElements.get(type);
             if (values == null)
                 values = new TreeMap<String, Integer>();
             values.put(value, id);
             globalElements.put(type, values);
         }
+        // add to persistent cache, if present; only real IDs are cached
+        if (localOnly == false && elementIDCache != null)
+            elementIDCache.putID(type, value, id);
     }
     
     private void incrementRowCount(String type) {
@@ -3416,199 +4845,7 @@ System.out.println(String.format("  psm_row_cascade\t%s",
     }
 
     private void dumpTiming() {
-        // write full timing details to debug log file, if specified
-        PrintWriter writer = null;
-        if (debugLogFile != null) try {
-            writer = new PrintWriter(new FileWriter(debugLogFile));
-            writer.println(DEBUG_LOG_HEADER);
-            for (Entry<String, MassIVESearchTimingRecord> entry :
-                dataLoadManager.timingRecords.entrySet())
-                writer.println(String.format(
-                    "%s\t%s", entry.getKey(), entry.getValue().toString()));
-        } catch (Throwable error) {
-            System.err.println(String.format(
-                "Could not write MassIVE search import timing details to debug log file [%s].",
-                debugLogFile.getAbsolutePath()));
-            error.printStackTrace();
-        } finally {
-            if (writer != null) try {
-                writer.close();
-            } catch (Throwable error) {}
-        }
-        // write timing summary to console
-        StringBuilder message =
-            new StringBuilder("MassIVE search import timing summary:\n----------");
-        String[] summary = new String[14];
-        MassIVESearchTimingRecord record =
-            dataLoadManager.timingRecords.get("psm_row_preprocessing");
-        String total = null;
-        Long preProcessingTotal = null;
-        if (record != null) {
-            preProcessingTotal = record.getTotal();
-            total = CommonUtils.formatNanoseconds(preProcessingTotal);
-            message.append("\nPSM row pre-processing:").append("\t").append(total);
-            message.append("\n  Rows:")
-                .append("\t").append(String.format("%,d", record.getCount()));
-            message.append("\n  Slowest row:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMax()));
-            message.append("\n  Fastest row:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMin()));
-            message.append("\n  Average row:")
-                .append("\t").append(CommonUtils.formatNanoseconds(Math.round(record.getAverage())));
-        }
-        record = dataLoadManager.timingRecords.get("psm_row_increment_row_count");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tIncrement PSM row count:").append("\t").append(total);
-            summary[6] = total;
-        } else summary[6] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_validate");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tValidate PSM row:").append("\t").append(total);
-            summary[7] = total;
-        } else summary[7] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_check_index");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tProcess PSM index:").append("\t").append(total);
-            summary[8] = total;
-        } else summary[8] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_check_importable");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tFirst check that PSM row is importable:")
-                .append("\t").append(total);
-            summary[9] = total;
-        } else summary[9] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_clean_mods");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tModification formatting:").append("\t").append(total);
-            summary[10] = total;
-        } else summary[10] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_instantiate_psm");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tInstantiate PSM object:").append("\t").append(total);
-            summary[11] = total;
-        } else summary[11] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_check_importable_2");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\n\t\tSecond check that PSM row is importable:")
-                .append("\t").append(total);
-            summary[12] = total;
-        } else summary[12] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_protein_clean");
-        if (record != null) {
-            long proteinCleanTotal = record.getTotal();
-            total = CommonUtils.formatNanoseconds(proteinCleanTotal);
-            message.append("\nProtein string formatting:").append("\t").append(total);
-            message.append("\n  Proteins:")
-                .append("\t").append(String.format("%,d", record.getCount()));
-            message.append("\n  Slowest protein:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMax()));
-            message.append("\n  Fastest protein:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMin()));
-            message.append("\n  Average protein:")
-                .append("\t").append(CommonUtils.formatNanoseconds(Math.round(record.getAverage())));
-            summary[13] = total;
-            if (preProcessingTotal == null)
-                preProcessingTotal = proteinCleanTotal;
-            else preProcessingTotal += proteinCleanTotal;
-        } else summary[13] = "null";
-        if (preProcessingTotal != null)
-            summary[0] = CommonUtils.formatNanoseconds(preProcessingTotal);
-        else summary[0] = "null";
-        record = dataLoadManager.timingRecords.get("psm_row_cascade");
-        if (record != null) {
-            total = CommonUtils.formatNanoseconds(record.getTotal());
-            message.append("\nPSM row batch processing:").append("\t").append(total);
-            message.append("\n  PSM/protein pairs:")
-                .append("\t").append(String.format("%,d", record.getCount()));
-            message.append("\n  Slowest PSM/protein pair:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMax()));
-            message.append("\n  Fastest PSM/protein pair:")
-                .append("\t").append(CommonUtils.formatNanoseconds(record.getMin()));
-            message.append("\n  Average PSM/protein pair:")
-                .append("\t").append(CommonUtils.formatNanoseconds(Math.round(record.getAverage())));
-            summary[1] = total;
-        } else summary[1] = "null";
-        // organize database operation timing records
-        long totalBatchTime = 0L;
-        long totalInsertTime = 0L;
-        long totalQueryTime = 0L;
-        Map<String, Map<String, MassIVESearchTimingRecord>> operationRecords =
-            new LinkedHashMap<String, Map<String, MassIVESearchTimingRecord>>();
-        for (Entry<String, MassIVESearchTimingRecord> entry :
-            dataLoadManager.timingRecords.entrySet()) {
-            String type = entry.getKey();
-            String operation = null;
-            if (type.endsWith("_batch") || type.endsWith("_query"))
-                operation = type.substring(0, type.length() - 6);
-            else if (type.endsWith("_insert"))
-                operation = type.substring(0, type.length() - 7);
-            else continue;
-            Map<String, MassIVESearchTimingRecord> operationRecord = operationRecords.get(operation);
-            if (operationRecord == null)
-                operationRecord = new LinkedHashMap<String, MassIVESearchTimingRecord>(4);
-            record = entry.getValue();
-            if (type.endsWith("_batch")) {
-                operationRecord.put("batch", record);
-                totalBatchTime += record.getTotal();
-            } else if (type.endsWith("_insert")) {
-                operationRecord.put("insert", record);
-                totalInsertTime += record.getTotal();
-            } else if (type.endsWith("_query")) {
-                operationRecord.put("query", record);
-                totalQueryTime += record.getTotal();
-            }
-            operationRecords.put(operation, operationRecord);
-        }
-        // write timing summary for each database operation
-        total = CommonUtils.formatNanoseconds(totalBatchTime);
-        message.append("\nTotal load file write time:\t").append(total);
-        summary[2] = total;
-        total = CommonUtils.formatNanoseconds(totalInsertTime);
-        message.append("\nTotal data load time:\t").append(total);
-        summary[3] = total;
-        total = CommonUtils.formatNanoseconds(totalQueryTime);
-        message.append("\nTotal follow-up query time:\t").append(total);
-        summary[4] = total;
-        for (Entry<String, Map<String, MassIVESearchTimingRecord>> entry :
-            operationRecords.entrySet()) {
-            message.append("\nMassIVE search table [").append(entry.getKey()).append("]:");
-            Map<String, MassIVESearchTimingRecord> operationRecord = entry.getValue();
-            record = operationRecord.get("batch");
-            if (record != null) {
-                message.append("\n  Load file write:")
-                    .append("\t").append(CommonUtils.formatNanoseconds(record.getTotal()));
-                message.append("\t").append(String.format("%,d", record.getTotalBatchSize()))
-                    .append(" rows");
-            }
-            record = operationRecord.get("insert");
-            if (record != null) {
-                message.append("\n  Data load:")
-                    .append("\t").append(CommonUtils.formatNanoseconds(record.getTotal()));
-                message.append("\t").append(String.format("%,d", record.getTotalBatchSize()))
-                    .append(" rows");
-            }
-            record = operationRecord.get("query");
-            if (record != null) {
-                message.append("\n  Follow-up queries:")
-                    .append("\t").append(CommonUtils.formatNanoseconds(record.getTotal()));
-                message.append("\t").append(String.format("%,d", record.getTotalBatchSize()))
-                    .append(" query set values");
-            }
-        }
-        for (int i=0; i<summary.length; i++) {
-            if (i == 0)
-                message.append("\n");
-            else message.append("\t");
-            message.append(summary[i]);
-        }
-        message.append("\n----------");
-        System.out.println(message.toString());
+        // metrics are only reported if they were enabled
+        metrics.report(debugLogFile);
     }
 }
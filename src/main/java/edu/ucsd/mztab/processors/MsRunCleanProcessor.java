@@ -5,9 +5,10 @@ import java.util.regex.Matcher;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
 import edu.ucsd.mztab.model.MzTabMsRun;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
 
-public class MsRunCleanProcessor implements MzTabProcessor
+public class MsRunCleanProcessor implements MzTabRowIndependentProcessor
 {
 	/*========================================================================
 	 * Properties
@@ -23,11 +24,13 @@ public class MsRunCleanProcessor implements MzTabProcessor
 		else this.mzTabFile = mzTabFile;
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
-		else if (line.startsWith("MTD")) {
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		int lineNumber = row.getLineNumber();
+		if (line.startsWith("MTD")) {
 			// if this is an ms_run-location line, update it
 			Matcher matcher = MzTabConstants.FILE_LINE_PATTERN.matcher(line);
 			if (matcher.matches()) {
@@ -63,12 +66,24 @@ public class MsRunCleanProcessor implements MzTabProcessor
 				if (path.matches("^.{1}\\..*$"))
 					path = path.substring(2);
 				// update this ms_run-location to reference the descriptor
-				line = String.format(
-					"MTD\tms_run[%d]-location\tfile://%s", msRunIndex, path);
+				row.setLine(String.format(
+					"MTD\tms_run[%d]-location\tfile://%s", msRunIndex, path));
 			}
 		}
-		return line;
 	}
 	
 	public void tearDown() {}
+	
+	public MzTabRowIndependentProcessor fork() {
+		// only metadata rows are cleaned, so PSM rows pass through untouched
+		MsRunCleanProcessor fork = new MsRunCleanProcessor();
+		fork.mzTabFile = mzTabFile;
+		return fork;
+	}
+	
+	public boolean isMergeable(MzTabRowIndependentProcessor fork) {
+		return true;
+	}
+	
+	public void merge(MzTabRowIndependentProcessor fork) {}
 }
@@ -34,6 +34,7 @@ import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.model.PSM;
 import edu.ucsd.mztab.model.MzTabMsRun;
 import edu.ucsd.mztab.ui.MzTabPROXIImporter;
+import edu.ucsd.mztab.util.AdaptiveBatchSizer;
 import edu.ucsd.mztab.util.CommonUtils;
 import edu.ucsd.mztab.util.ProteomicsUtils;
 
@@ -51,6 +52,10 @@ public class PROXIProcessor implements MzTabProcessor
 		"charge", "exp_mass_to_charge"
 	};
 	private static final int DEFAULT_INSERT_BATCH_SIZE = 100000;
+	// most placeholders MySQL allows in one prepared statement
+	private static final int MAX_STATEMENT_PARAMETERS = 65535;
+	// MySQL's default "max_allowed_packet", if the server won't report it
+	private static final int DEFAULT_MAX_PACKET_SIZE = 4 * 1024 * 1024;
     private static final String DEBUG_LOG_HEADER =
         "category\ttotal_batch_count\ttotal_element_count\ttotal_time_ns" +
         "\tslowest_batch_element_count\tslowest_batch_time_ns" +
@@ -62,6 +67,15 @@ public class PROXIProcessor implements MzTabProcessor
         "id_in_file\tnativeid\tvariant_sequence\tcharge\texp_mass_to_charge" +
         "\tresultfile_id\tspectrumfile_id\tpeptide_id\tvariant_id\tdataset_id";
 	
+	/*========================================================================
+	 * Static properties
+	 *========================================================================*/
+	private static long defaultTargetInsertLatency =
+		AdaptiveBatchSizer.DEFAULT_TARGET_LATENCY;
+	private static int  defaultMinInsertRows =
+		AdaptiveBatchSizer.DEFAULT_MIN_BATCH_SIZE;
+	private static int  defaultMaxInsertRows = DEFAULT_INSERT_BATCH_SIZE;
+	
 	/*========================================================================
 	 * Properties
 	 *========================================================================*/
@@ -80,6 +94,9 @@ public class PROXIProcessor implements MzTabProcessor
 	private Integer                           validColumn;
 	private Integer                           qValueColumn;
 	private Integer                           batchSize;
+	private long                              targetInsertLatency;
+	private int                               minInsertRows;
+	private int                               maxInsertRows;
 	private File                              psmsLoadFile;
 	private PrintWriter                       psmsLoadFileWriter;
 	private File                              debugLogFile;
@@ -126,6 +143,9 @@ public class PROXIProcessor implements MzTabProcessor
 		this.importByQValue = importByQValue;
 		// initialize batch state
 		this.batchSize = batchSize;
+		targetInsertLatency = defaultTargetInsertLatency;
+		minInsertRows = defaultMinInsertRows;
+		maxInsertRows = defaultMaxInsertRows;
 		// initialize PSMs load file
 		File tempDirectory = new File(TEMP_DIRECTORY_NAME);
 		tempDirectory.mkdir();
@@ -153,7 +173,8 @@ public class PROXIProcessor implements MzTabProcessor
 		// populate mzTabFile object with column values
 		insertMzTabFile();
 		// initialize batch manager
-		batchManager = new PROXIBatchManager(mzTabRecord, batchSize, connection);
+		batchManager = new PROXIBatchManager(mzTabRecord, batchSize,
+			targetInsertLatency, minInsertRows, maxInsertRows, connection);
 		// record all of this mzTab file's referenced spectrum files
 		for (Integer msRun : mzTabRecord.mzTabFile.getMsRuns().keySet())
 			processSpectrumFile(mzTabRecord.mzTabFile.getMsRun(msRun).getDescriptor());
@@ -464,6 +485,31 @@ public class PROXIProcessor implements MzTabProcessor
         this.debugLogFile = debugLogFile;
     }
 
+    /**
+     * Sets how long, in milliseconds, any one multi-row INSERT statement
+     * should take. The number of rows sent per statement is tuned for each
+     * table towards this latency, within the argument limits.
+     */
+    public void setInsertTuning(
+        long targetInsertLatency, int minInsertRows, int maxInsertRows
+    ) {
+        AdaptiveBatchSizer.checkLimits(
+            targetInsertLatency, minInsertRows, maxInsertRows);
+        this.targetInsertLatency = targetInsertLatency;
+        this.minInsertRows = minInsertRows;
+        this.maxInsertRows = maxInsertRows;
+    }
+
+    public static void setDefaultInsertTuning(
+        long targetInsertLatency, int minInsertRows, int maxInsertRows
+    ) {
+        AdaptiveBatchSizer.checkLimits(
+            targetInsertLatency, minInsertRows, maxInsertRows);
+        defaultTargetInsertLatency = targetInsertLatency;
+        defaultMinInsertRows = minInsertRows;
+        defaultMaxInsertRows = maxInsertRows;
+    }
+
 	/*========================================================================
 	 * Convenience classes
 	 *========================================================================*/
@@ -496,7 +542,7 @@ public class PROXIProcessor implements MzTabProcessor
          * Properties
          *====================================================================*/
         // SQL INSERT statement templates
-        private Map<String, PreparedStatement>               insertTemplates;
+        private Map<String, PROXIInsertBatch>                insertTemplates;
         // top-level ID collections
         // PSM -> psms.id
         private Map<PSM, Integer>                            psms;
@@ -557,12 +603,19 @@ public class PROXIProcessor implements MzTabProcessor
         private int                                          maxBatchSize;
         private int                                          totalBatchSize;
         private int                                          batchInsertThreshold;
+        // multi-row INSERT statement properties
+        private long                                         targetInsertLatency;
+        private int                                          minInsertRows;
+        private int                                          maxInsertRows;
+        private int                                          maxPacketSize;
 
         /*====================================================================
          * Constructor
          *====================================================================*/
         public PROXIBatchManager(
-            PROXIMzTabRecord mzTabRecord, Integer batchSize, Connection connection
+            PROXIMzTabRecord mzTabRecord, Integer batchSize,
+            long targetInsertLatency, int minInsertRows, int maxInsertRows,
+            Connection connection
         ) {
             if (mzTabRecord == null)
                 throw new NullPointerException("mzTab record cannot be null.");
@@ -571,8 +624,13 @@ public class PROXIProcessor implements MzTabProcessor
             else if (connection == null)
                 throw new NullPointerException("Connection cannot be null.");
             // initialize SQL INSERT statement templates
-            insertTemplates = new HashMap<String, PreparedStatement>();
+            insertTemplates = new HashMap<String, PROXIInsertBatch>();
+            this.targetInsertLatency = targetInsertLatency;
+            this.minInsertRows = minInsertRows;
+            this.maxInsertRows = maxInsertRows;
             try {
+                // no multi-row INSERT may exceed the server's packet size limit
+                maxPacketSize = getMaxPacketSize(connection);
                 // PSMs
                 StringBuilder sql = new StringBuilder(
                     "INSERT IGNORE INTO proxi.psms " +
@@ -586,8 +644,8 @@ public class PROXIProcessor implements MzTabProcessor
                 if (mzTabRecord.datasetID != null)
                     sql.append(String.format(", '%s'", mzTabRecord.datasetID));
                 sql.append(")");
-                PreparedStatement statement = connection.prepareStatement(sql.toString());
-                insertTemplates.put("psms", statement);
+                PROXIInsertBatch insert = newInsertBatch(sql.toString());
+                insertTemplates.put("psms", insert);
                 // spectrum files
                 sql = new StringBuilder(
                     "INSERT IGNORE INTO proxi.spectrumfiles (file_descriptor, task_id");
@@ -597,105 +655,105 @@ public class PROXIProcessor implements MzTabProcessor
                 if (mzTabRecord.datasetID != null)
                     sql.append(String.format(", '%s'", mzTabRecord.datasetID));
                 sql.append(")");
-                statement = connection.prepareStatement(sql.toString());
-                insertTemplates.put("spectrumfiles", statement);
+                insert = newInsertBatch(sql.toString());
+                insertTemplates.put("spectrumfiles", insert);
                 // PSM proteins
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.psm_proteins (psm_id, protein_id) VALUES(?, ?)");
-                insertTemplates.put("psm_proteins", statement);
+                insertTemplates.put("psm_proteins", insert);
                 // PSM modifications
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.psm_modifications " +
                     "(psm_id, modification_id) VALUES(?, ?)");
-                insertTemplates.put("psm_modifications", statement);
+                insertTemplates.put("psm_modifications", insert);
                 // peptides
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.peptides (sequence) VALUES(?)");
-                insertTemplates.put("peptides", statement);
+                insertTemplates.put("peptides", insert);
                 // resultfile peptides
-                statement = connection.prepareStatement(String.format(
+                insert = newInsertBatch(String.format(
                     "INSERT IGNORE INTO proxi.resultfile_peptides " +
                     "(sequence, resultfile_id, peptide_id) VALUES(?, %d, ?)", mzTabRecord.id));
-                insertTemplates.put("resultfile_peptides", statement);
+                insertTemplates.put("resultfile_peptides", insert);
                 // peptide proteins
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.peptide_proteins " +
                     "(peptide_id, protein_id, sequence) VALUES(?, ?, ?)");
-                insertTemplates.put("peptide_proteins", statement);
+                insertTemplates.put("peptide_proteins", insert);
                 // peptide modifications
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.peptide_modifications " +
                     "(peptide_id, modification_id) VALUES(?, ?)");
-                insertTemplates.put("peptide_modifications", statement);
+                insertTemplates.put("peptide_modifications", insert);
                 // variants
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.variants " +
                     "(sequence, charge, peptide_id) VALUES(?, ?, ?)");
-                insertTemplates.put("variants", statement);
+                insertTemplates.put("variants", insert);
                 // resultfile variants
-                statement = connection.prepareStatement(String.format(
+                insert = newInsertBatch(String.format(
                     "INSERT IGNORE INTO proxi.resultfile_variants " +
                     "(sequence, resultfile_id, variant_id) VALUES(?, %d, ?)", mzTabRecord.id));
-                insertTemplates.put("resultfile_variants", statement);
+                insertTemplates.put("resultfile_variants", insert);
                 // variant proteins
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.variant_proteins " +
                     "(variant_id, protein_id) VALUES(?, ?)");
-                insertTemplates.put("variant_proteins", statement);
+                insertTemplates.put("variant_proteins", insert);
                 // variant modifications
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.variant_modifications " +
                     "(variant_id, modification_id, location) VALUES(?, ?, ?)");
-                insertTemplates.put("variant_modifications", statement);
+                insertTemplates.put("variant_modifications", insert);
                 // proteins
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.proteins (name) VALUES(?)");
-                insertTemplates.put("proteins", statement);
+                insertTemplates.put("proteins", insert);
                 // resultfile proteins
-                statement = connection.prepareStatement(String.format(
+                insert = newInsertBatch(String.format(
                     "INSERT IGNORE INTO proxi.resultfile_proteins " +
                     "(resultfile_id, protein_id) VALUES(%d, ?)", mzTabRecord.id));
-                insertTemplates.put("resultfile_proteins", statement);
+                insertTemplates.put("resultfile_proteins", insert);
                 // protein modifications
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.protein_modifications " +
                     "(protein_id, modification_id) VALUES(?, ?)");
-                insertTemplates.put("protein_modifications", statement);
+                insertTemplates.put("protein_modifications", insert);
                 // modifications
-                statement = connection.prepareStatement(
+                insert = newInsertBatch(
                     "INSERT IGNORE INTO proxi.modifications (name, mass) VALUES(?, ?)");
-                insertTemplates.put("modifications", statement);
+                insertTemplates.put("modifications", insert);
                 // resultfile modifications
-                statement = connection.prepareStatement(String.format(
+                insert = newInsertBatch(String.format(
                     "INSERT IGNORE INTO proxi.resultfile_modifications " +
                     "(resultfile_id, modification_id) VALUES(%d, ?)", mzTabRecord.id));
-                insertTemplates.put("resultfile_modifications", statement);
+                insertTemplates.put("resultfile_modifications", insert);
                 // SQL INSERT statement templates that depend on dataset ID
                 if (mzTabRecord.datasetID != null) {
                     // dataset peptides
-                    statement = connection.prepareStatement(String.format(
+                    insert = newInsertBatch(String.format(
                         "INSERT IGNORE INTO proxi.dataset_peptides " +
                         "(sequence, dataset_id, peptide_id) VALUES(?, '%s', ?)",
                         mzTabRecord.datasetID));
-                    insertTemplates.put("dataset_peptides", statement);
+                    insertTemplates.put("dataset_peptides", insert);
                     // dataset variants
-                    statement = connection.prepareStatement(String.format(
+                    insert = newInsertBatch(String.format(
                         "INSERT IGNORE INTO proxi.dataset_variants " +
                         "(sequence, dataset_id, variant_id) VALUES(?, '%s', ?)",
                         mzTabRecord.datasetID));
-                    insertTemplates.put("dataset_variants", statement);
+                    insertTemplates.put("dataset_variants", insert);
                     // dataset proteins
-                    statement = connection.prepareStatement(String.format(
+                    insert = newInsertBatch(String.format(
                         "INSERT IGNORE INTO proxi.dataset_proteins " +
                         "(dataset_id, protein_id) VALUES('%s', ?)",
                         mzTabRecord.datasetID));
-                    insertTemplates.put("dataset_proteins", statement);
+                    insertTemplates.put("dataset_proteins", insert);
                     // dataset modifications
-                    statement = connection.prepareStatement(String.format(
+                    insert = newInsertBatch(String.format(
                         "INSERT IGNORE INTO proxi.dataset_modifications " +
                         "(dataset_id, modification_id) VALUES('%s', ?)",
                         mzTabRecord.datasetID));
-                    insertTemplates.put("dataset_modifications", statement);
+                    insertTemplates.put("dataset_modifications", insert);
                 }
             } catch (SQLException error) {
                 throw new RuntimeException(error);
@@ -747,11 +805,10 @@ public class PROXIProcessor implements MzTabProcessor
 
         public void close() {
             // close all batch statements
-            for (Entry<String, PreparedStatement> entry : insertTemplates.entrySet()) {
-                PreparedStatement statement = entry.getValue();
-                if (statement != null) try {
-                    statement.close();
-                } catch (Throwable error) {}
+            for (Entry<String, PROXIInsertBatch> entry : insertTemplates.entrySet()) {
+                PROXIInsertBatch insert = entry.getValue();
+                if (insert != null)
+                    insert.close();
             }
         }
 
@@ -764,18 +821,14 @@ public class PROXIProcessor implements MzTabProcessor
             // update the proper batch state ID map with this spectrum file
             spectrumFiles.put(fileDescriptor, id);
             // if the ID is not known, queue an insert
-            if (id == null) try {
-                PreparedStatement statement = insertTemplates.get("spectrumfiles");
-                if (statement == null)
+            if (id == null) {
+                PROXIInsertBatch insert = insertTemplates.get("spectrumfiles");
+                if (insert == null)
                     throw new IllegalStateException(
                         "Could not find SQL INSERT statement template for table \"spectrumfiles\".");
-                statement.setString(1, fileDescriptor);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(fileDescriptor);
                 // increment this batch size and check if max batch size should be increased
                 considerBatchSize(incrementNewElementBatchSize("spectrumfiles"));
-            } catch (SQLException error) {
-                throw new RuntimeException(error);
             }
         }
 
@@ -788,18 +841,14 @@ public class PROXIProcessor implements MzTabProcessor
             // add this peptide to the proper batch state ID map
             peptides.put(sequence, id);
             // if the ID is not known, queue an insert
-            if (id == null) try {
-                PreparedStatement statement = insertTemplates.get("peptides");
-                if (statement == null)
+            if (id == null) {
+                PROXIInsertBatch insert = insertTemplates.get("peptides");
+                if (insert == null)
                     throw new IllegalStateException(
                         "Could not find SQL INSERT statement template for table \"peptides\".");
-                statement.setString(1, sequence);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(sequence);
                 // increment this batch size and check if max batch size should be increased
                 considerBatchSize(incrementNewElementBatchSize("peptides"));
-            } catch (SQLException error) {
-                throw new RuntimeException(error);
             }
         }
 
@@ -912,18 +961,14 @@ public class PROXIProcessor implements MzTabProcessor
             // add this protein to the proper batch state ID map
             proteins.put(accession, id);
             // if the ID is not known, queue an insert
-            if (id == null) try {
-                PreparedStatement statement = insertTemplates.get("proteins");
-                if (statement == null)
+            if (id == null) {
+                PROXIInsertBatch insert = insertTemplates.get("proteins");
+                if (insert == null)
                     throw new IllegalStateException(
                         "Could not find SQL INSERT statement template for table \"proteins\".");
-                statement.setString(1, accession);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(accession);
                 // increment this batch size and check if max batch size should be increased
                 considerBatchSize(incrementNewElementBatchSize("proteins"));
-            } catch (SQLException error) {
-                throw new RuntimeException(error);
             }
         }
 
@@ -974,22 +1019,14 @@ public class PROXIProcessor implements MzTabProcessor
             // add this modification to the proper batch state ID map
             modifications.put(name, id);
             // if the ID is not known, queue an insert
-            if (id == null) try {
-                PreparedStatement statement = insertTemplates.get("modifications");
-                if (statement == null)
+            if (id == null) {
+                PROXIInsertBatch insert = insertTemplates.get("modifications");
+                if (insert == null)
                     throw new IllegalStateException(
                         "Could not find SQL INSERT statement template for table \"modifications\".");
-                statement.setString(1, modification.getName());
-                Double mass = modification.getMass();
-                if (mass != null)
-                    statement.setDouble(2, mass);
-                else statement.setNull(2, Types.DOUBLE);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(modification.getName(), modification.getMass());
                 // increment this batch size and check if max batch size should be increased
                 considerBatchSize(incrementNewElementBatchSize("modifications"));
-            } catch (SQLException error) {
-                throw new RuntimeException(error);
             }
         }
 
@@ -1270,6 +1307,29 @@ public class PROXIProcessor implements MzTabProcessor
             timingRecord.add(time, batchSize);
             timingRecords.put(type, timingRecord);
         }
+
+        private PROXIInsertBatch newInsertBatch(String sql) {
+            // each table gets its own batch sizer, since row
+            // width and index cost differ so much between tables
+            return new PROXIInsertBatch(sql, maxPacketSize,
+                new AdaptiveBatchSizer(
+                    targetInsertLatency, minInsertRows, maxInsertRows));
+        }
+
+        private int getMaxPacketSize(Connection connection) throws SQLException {
+            Statement statement = null;
+            ResultSet result = null;
+            try {
+                statement = connection.createStatement();
+                result = statement.executeQuery("SELECT @@max_allowed_packet");
+                if (result.next())
+                    return (int)Math.min(result.getLong(1), Integer.MAX_VALUE);
+                else return DEFAULT_MAX_PACKET_SIZE;
+            } finally {
+                try { result.close(); } catch (Throwable error) {}
+                try { statement.close(); } catch (Throwable error) {}
+            }
+        }
     }
 
     private static class PROXITimingRecord {
@@ -1340,6 +1400,150 @@ public class PROXIProcessor implements MzTabProcessor
         }
     }
 
+    /**
+     * Collects the rows of one table's INSERT batch and sends them as
+     * multi-row "INSERT IGNORE ... VALUES (...), (...), ..." statements.
+     * Each statement holds as many rows as the table's batch sizer currently
+     * allows, as long as they fit into one packet to the server.
+     */
+    private static class PROXIInsertBatch {
+        /*====================================================================
+         * Properties
+         *====================================================================*/
+        // "INSERT IGNORE INTO <table> (<columns>) VALUES"
+        private String             insertClause;
+        // "(?, ?, <constant>, ...)"
+        private String             rowTemplate;
+        private int                parameterCount;
+        private int                maxPacketSize;
+        private AdaptiveBatchSizer sizer;
+        private List<Object[]>     rows;
+        // the statement last prepared, and how many rows it takes
+        private PreparedStatement  statement;
+        private int                statementRows;
+
+        /*====================================================================
+         * Constructor
+         *====================================================================*/
+        public PROXIInsertBatch(
+            String sql, int maxPacketSize, AdaptiveBatchSizer sizer
+        ) {
+            if (sql == null)
+                throw new NullPointerException("INSERT statement cannot be null.");
+            else if (sizer == null)
+                throw new NullPointerException("Batch sizer cannot be null.");
+            int values = sql.lastIndexOf("VALUES");
+            if (values < 0)
+                throw new IllegalArgumentException(String.format(
+                    "INSERT statement [%s] has no VALUES clause.", sql));
+            insertClause = sql.substring(0, values + 6);
+            rowTemplate = sql.substring(values + 6).trim();
+            parameterCount = 0;
+            for (int i=0; i<rowTemplate.length(); i++)
+                if (rowTemplate.charAt(i) == '?')
+                    parameterCount++;
+            this.maxPacketSize = maxPacketSize;
+            this.sizer = sizer;
+            rows = new ArrayList<Object[]>();
+            statement = null;
+            statementRows = 0;
+        }
+
+        /*====================================================================
+         * Public interface methods
+         *====================================================================*/
+        public void addRow(Object... values) {
+            if (values == null || values.length != parameterCount)
+                throw new IllegalArgumentException(String.format(
+                    "Row for INSERT statement [%s %s] must have %d values.",
+                    insertClause, rowTemplate, parameterCount));
+            rows.add(values);
+        }
+
+        /**
+         * Inserts all rows added since the last call, and returns how many
+         * rows were sent to the server.
+         */
+        public int execute(Connection connection) throws SQLException {
+            int maxRows = parameterCount < 1 ?
+                Integer.MAX_VALUE : MAX_STATEMENT_PARAMETERS / parameterCount;
+            int sent = 0;
+            try {
+                while (sent < rows.size()) {
+                    // take as many rows as the sizer allows,
+                    // unless the packet would get too big first
+                    int limit = Math.min(sizer.getBatchSize(), maxRows);
+                    long packetSize = insertClause.length();
+                    int count = 0;
+                    while (sent + count < rows.size() && count < limit) {
+                        long rowSize = estimateSize(rows.get(sent + count));
+                        if (count > 0 && packetSize + rowSize > maxPacketSize)
+                            break;
+                        packetSize += rowSize;
+                        count++;
+                    }
+                    prepare(connection, count);
+                    int parameter = 1;
+                    for (int i=sent; i<sent + count; i++) {
+                        for (Object value : rows.get(i)) {
+                            if (value == null)
+                                statement.setNull(parameter++, Types.NULL);
+                            else statement.setObject(parameter++, value);
+                        }
+                    }
+                    long start = System.nanoTime();
+                    statement.executeUpdate();
+                    sizer.record(count, System.nanoTime() - start);
+                    statement.clearParameters();
+                    sent += count;
+                }
+            } finally {
+                rows.clear();
+            }
+            return sent;
+        }
+
+        public void close() {
+            rows.clear();
+            if (statement != null) try {
+                statement.close();
+            } catch (Throwable error) {}
+            statement = null;
+        }
+
+        /*====================================================================
+         * Convenience methods
+         *====================================================================*/
+        private void prepare(Connection connection, int count) throws SQLException {
+            // the batch size usually settles after a few
+            // statements, so keep the last one around
+            if (statement != null && statementRows == count)
+                return;
+            close();
+            StringBuilder sql = new StringBuilder(insertClause);
+            for (int i=0; i<count; i++) {
+                if (i > 0)
+                    sql.append(",");
+                sql.append(" ").append(rowTemplate);
+            }
+            statement = connection.prepareStatement(sql.toString());
+            statementRows = count;
+        }
+
+        private long estimateSize(Object[] row) {
+            // allow for quotes, escapes and separators
+            long size = rowTemplate.length() + 2;
+            for (Object value : row) {
+                if (value == null)
+                    size += 4;
+                else if (value instanceof String)
+                    size += ((String)value).length() * 2 + 2;
+                else size += 24;
+            }
+            return size;
+        }
+    }
+
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
@@ -1627,14 +1831,14 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("spectrumfiles");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("spectrumfiles");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"spectrumfiles\".");
             long checkpoint = System.nanoTime();
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             long end = System.nanoTime();
-            batchManager.addTiming("spectrumfiles_insert", end - checkpoint, results.length);
+            batchManager.addTiming("spectrumfiles_insert", end - checkpoint, results);
             // query IDs of all spectrum file rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -1712,14 +1916,14 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("peptides");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("peptides");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"peptides\".");
             long checkpoint = System.nanoTime();
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             long end = System.nanoTime();
-            batchManager.addTiming("peptides_insert", end - checkpoint, results.length);
+            batchManager.addTiming("peptides_insert", end - checkpoint, results);
             // query IDs of all peptide rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -1792,10 +1996,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.resultFilePeptides;
         // if there were any new joins, set up the batch
         // (using recently generated peptide IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("resultfile_peptides");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("resultfile_peptides");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"resultfile_peptides\".");
             long checkpoint = System.nanoTime();
@@ -1806,17 +2009,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for resultfile/peptide join [%d/%s]: " +
                         "No database ID has been determined yet for this peptide.",
                         mzTabRecord.id, sequence));
-                statement.setString(1, sequence);
-                statement.setInt(2, peptideID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(sequence, peptideID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("resultfile_peptides_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("resultfile_peptides_insert", end - checkpoint, results.length);
+            batchManager.addTiming("resultfile_peptides_insert", end - checkpoint, results);
             // note each resultfile/peptide join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (String sequence : values)
@@ -1835,10 +2035,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.datasetPeptides;
         // if there were any new joins, set up the batch
         // (using recently generated peptide IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("dataset_peptides");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("dataset_peptides");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"dataset_peptides\".");
             long checkpoint = System.nanoTime();
@@ -1849,17 +2048,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for dataset/peptide join [%s/%s]: " +
                         "No database ID has been determined yet for this peptide.",
                         mzTabRecord.datasetID, sequence));
-                statement.setString(1, sequence);
-                statement.setInt(2, peptideID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(sequence, peptideID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("dataset_peptides_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("dataset_peptides_insert", end - checkpoint, results.length);
+            batchManager.addTiming("dataset_peptides_insert", end - checkpoint, results);
             // note each dataset/peptide join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (String sequence : values)
@@ -1883,8 +2079,8 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("variants");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("variants");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"variants\".");
             long checkpoint = System.nanoTime();
@@ -1901,18 +2097,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for variant [%s/%d]: " +
                         "No database ID has been determined yet for associated peptide [%s].",
                         variant.getLeft(), variant.getRight(), peptideSequence));
-                statement.setString(1, variant.getLeft());
-                statement.setInt(2, variant.getRight());
-                statement.setInt(3, peptideID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(variant.getLeft(), variant.getRight(), peptideID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("variants_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("variants_insert", end - checkpoint, results.length);
+            batchManager.addTiming("variants_insert", end - checkpoint, results);
             // query IDs of all variant rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -1995,10 +2187,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<ImmutablePair<String, Integer>> values = batchManager.resultFileVariants;
         // if there were any new joins, set up the batch
         // (using recently generated variant IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("resultfile_variants");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("resultfile_variants");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"resultfile_variants\".");
             long checkpoint = System.nanoTime();
@@ -2009,17 +2200,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for resultfile/variant join [%d/%s/%d]: " +
                         "No database ID has been determined yet for this variant.",
                         mzTabRecord.id, variant.getLeft(), variant.getRight()));
-                statement.setString(1, variant.getLeft());
-                statement.setInt(2, variantID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(variant.getLeft(), variantID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("resultfile_variants_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("resultfile_variants_insert", end - checkpoint, results.length);
+            batchManager.addTiming("resultfile_variants_insert", end - checkpoint, results);
             // note each resultfile/variant join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (ImmutablePair<String, Integer> variant : values)
@@ -2039,10 +2227,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<ImmutablePair<String, Integer>> values = batchManager.datasetVariants;
         // if there were any new joins, set up the batch
         // (using recently generated variant IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("dataset_variants");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("dataset_variants");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"dataset_variants\".");
             long checkpoint = System.nanoTime();
@@ -2053,17 +2240,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for dataset/variant join [%s/%s/%d]: " +
                         "No database ID has been determined yet for this peptide.",
                         mzTabRecord.datasetID, variant.getLeft(), variant.getRight()));
-                statement.setString(1, variant.getLeft());
-                statement.setInt(2, variantID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(variant.getLeft(), variantID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("dataset_variants_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("dataset_variants_insert", end - checkpoint, results.length);
+            batchManager.addTiming("dataset_variants_insert", end - checkpoint, results);
             // note each dataset/variant join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (ImmutablePair<String, Integer> variant : values)
@@ -2090,8 +2274,8 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("psms");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("psms");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"psms\".");
             long checkpoint = System.nanoTime();
@@ -2139,20 +2323,10 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for PSM [%s]: " +
                         "No database ID has been determined yet for associated variant [%s/%d].",
                         entry.getKey(), variant.getLeft(), variant.getRight()));
-                statement.setString(1, psm.getID());
-                statement.setInt(2, psm.getIndex());
-                statement.setString(3, psm.getNativeID());
-                statement.setString(4, psm.getModifiedSequence());
-                statement.setInt(5, psm.getCharge());
                 Double massToCharge = psm.getMassToCharge();
-                if (massToCharge == null)
-                    statement.setNull(6, Types.DOUBLE);
-                else statement.setDouble(6, massToCharge);
-                statement.setInt(7, spectrumFileID);
-                statement.setInt(8, peptideID);
-                statement.setInt(9, variantID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(psm.getID(), psm.getIndex(), psm.getNativeID(),
+                    psm.getModifiedSequence(), psm.getCharge(), massToCharge,
+                    spectrumFileID, peptideID, variantID);
                 // write this PSM to the load file
                 StringBuilder loadFileLine = new StringBuilder();
                 loadFileLine.append(psm.getID());
@@ -2169,9 +2343,9 @@ public class PROXIProcessor implements MzTabProcessor
             long end = System.nanoTime();
             batchManager.addTiming("psms_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("psms_insert", end - checkpoint, results.length);
+            batchManager.addTiming("psms_insert", end - checkpoint, results);
             // query IDs of all PSM rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -2259,14 +2433,14 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"proteins\".");
             long checkpoint = System.nanoTime();
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             long end = System.nanoTime();
-            batchManager.addTiming("proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("proteins_insert", end - checkpoint, results);
             // query IDs of all protein rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -2339,10 +2513,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.resultFileProteins;
         // if there were any new joins, set up the batch
         // (using recently generated protein IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("resultfile_proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("resultfile_proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"resultfile_proteins\".");
             long checkpoint = System.nanoTime();
@@ -2353,16 +2526,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for resultfile/protein join [%d/%s]: " +
                         "No database ID has been determined yet for this protein.",
                         mzTabRecord.id, accession));
-                statement.setInt(1, proteinID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(proteinID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("resultfile_proteins_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("resultfile_proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("resultfile_proteins_insert", end - checkpoint, results);
             // note each resultfile/protein join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (String accession : values)
@@ -2381,10 +2552,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.datasetProteins;
         // if there were any new joins, set up the batch
         // (using recently generated protein IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("dataset_proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("dataset_proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"dataset_proteins\".");
             long checkpoint = System.nanoTime();
@@ -2395,16 +2565,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for dataset/protein join [%s/%s]: " +
                         "No database ID has been determined yet for this protein.",
                         mzTabRecord.datasetID, accession));
-                statement.setInt(1, proteinID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(proteinID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("dataset_proteins_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("dataset_proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("dataset_proteins_insert", end - checkpoint, results);
             // note each dataset/protein join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (String accession : values)
@@ -2421,10 +2589,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<String, Set<String>> values = batchManager.peptideProteins;
         // if there were any new joins, set up the batch
         // (using recently generated peptide and protein IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("peptide_proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("peptide_proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"peptide_proteins\".");
             long checkpoint = System.nanoTime();
@@ -2445,19 +2612,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for peptide/protein join [%s/%s]: " +
                             "No database ID has been determined yet for this protein.",
                             sequence, accession));
-                    statement.setInt(1, peptideID);
-                    statement.setInt(2, proteinID);
-                    statement.setString(3, sequence);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(peptideID, proteinID, sequence);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("peptide_proteins_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("peptide_proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("peptide_proteins_insert", end - checkpoint, results);
             // note each peptide/protein join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<String, Set<String>> entry : values.entrySet()) {
@@ -2477,10 +2640,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<ImmutablePair<String, Integer>, Set<String>> values = batchManager.variantProteins;
         // if there were any new joins, set up the batch
         // (using recently generated variant and protein IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("variant_proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("variant_proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"variant_proteins\".");
             long checkpoint = System.nanoTime();
@@ -2502,18 +2664,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for variant/protein join [%s/%d/%s]: " +
                             "No database ID has been determined yet for this protein.",
                             variant.getLeft(), variant.getRight(), accession));
-                    statement.setInt(1, variantID);
-                    statement.setInt(2, proteinID);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(variantID, proteinID);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("variant_proteins_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("variant_proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("variant_proteins_insert", end - checkpoint, results);
             // note each variant/protein join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<ImmutablePair<String, Integer>, Set<String>> entry : values.entrySet()) {
@@ -2535,10 +2694,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<PSM, Set<String>> values = batchManager.psmProteins;
         // if there were any new joins, set up the batch
         // (using recently generated PSM and protein IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("psm_proteins");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("psm_proteins");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"psm_proteins\".");
             long checkpoint = System.nanoTime();
@@ -2560,18 +2718,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for PSM/protein join [%s/%s]: " +
                             "No database ID has been determined yet for this protein.",
                             psm.getID().toString(), accession));
-                    statement.setInt(1, psmID);
-                    statement.setInt(2, proteinID);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(psmID, proteinID);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("psm_proteins_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("psm_proteins_insert", end - checkpoint, results.length);
+            batchManager.addTiming("psm_proteins_insert", end - checkpoint, results);
             // note each PSM/protein join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<PSM, Set<String>> entry : values.entrySet()) {
@@ -2597,14 +2752,14 @@ public class PROXIProcessor implements MzTabProcessor
         PreparedStatement statement = null;
         ResultSet result = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"modifications\".");
             long checkpoint = System.nanoTime();
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             long end = System.nanoTime();
-            batchManager.addTiming("modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("modifications_insert", end - checkpoint, results);
             // query IDs of all modification rows just inserted
             StringBuilder valueSet = new StringBuilder("(");
             for (int i=0; i<values.size(); i++)
@@ -2677,10 +2832,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.resultFileModifications;
         // if there were any new joins, set up the batch
         // (using recently generated modification IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("resultfile_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("resultfile_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"resultfile_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2691,18 +2845,16 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for resultfile/modification join [%d/%s]: " +
                         "No database ID has been determined yet for this modification.",
                         mzTabRecord.id, modification));
-                statement.setInt(1, modificationID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(modificationID);
             }
             long end = System.nanoTime();
             batchManager.addTiming(
                 "resultfile_modifications_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
             batchManager.addTiming(
-                "resultfile_modifications_insert", end - checkpoint, results.length);
+                "resultfile_modifications_insert", end - checkpoint, results);
             // note each resultfile/modification join pair as having been inserted with a dummy ID
             // of 1 - no need to actually query for these rows' IDs, just note that they're there
             for (String modification : values)
@@ -2721,10 +2873,9 @@ public class PROXIProcessor implements MzTabProcessor
         Set<String> values = batchManager.datasetModifications;
         // if there were any new joins, set up the batch
         // (using recently generated modifications IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("dataset_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("dataset_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"dataset_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2735,16 +2886,14 @@ public class PROXIProcessor implements MzTabProcessor
                         "ERROR setting up batch insert for dataset/modification join [%s/%s]: " +
                         "No database ID has been determined yet for this modification.",
                         mzTabRecord.datasetID, modification));
-                statement.setInt(1, modificationID);
-                statement.addBatch();
-                statement.clearParameters();
+                insert.addRow(modificationID);
             }
             long end = System.nanoTime();
             batchManager.addTiming("dataset_modifications_batch", end - checkpoint, values.size());
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("dataset_modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("dataset_modifications_insert", end - checkpoint, results);
             // note each dataset/modification join pair as having been inserted with a dummy ID
             // of 1 - no need to actually query for these rows' IDs, just note that they're there
             for (String modification : values)
@@ -2761,10 +2910,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<String, Set<String>> values = batchManager.peptideModifications;
         // if there were any new joins, set up the batch
         // (using recently generated peptide and modification IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("peptide_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("peptide_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"peptide_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2785,18 +2933,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for peptide/modification join [%s/%s]: " +
                             "No database ID has been determined yet for this modification.",
                             sequence, modification));
-                    statement.setInt(1, peptideID);
-                    statement.setInt(2, modificationID);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(peptideID, modificationID);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("peptide_modifications_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("peptide_modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("peptide_modifications_insert", end - checkpoint, results);
             // note each peptide/modification join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<String, Set<String>> entry : values.entrySet()) {
@@ -2817,10 +2962,9 @@ public class PROXIProcessor implements MzTabProcessor
             batchManager.variantModifications;
         // if there were any new joins, set up the batch
         // (using recently generated variant and modification IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("variant_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("variant_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"variant_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2844,19 +2988,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "[%s/%d/%s/%d]: No database ID has been determined yet for this " +
                             "modification.", variant.getLeft(), variant.getRight(),
                             modification.getName(), modification.getPosition()));
-                    statement.setInt(1, variantID);
-                    statement.setInt(2, modificationID);
-                    statement.setInt(3, modification.getPosition());
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(variantID, modificationID, modification.getPosition());
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("variant_modifications_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("variant_modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("variant_modifications_insert", end - checkpoint, results);
             // note each variant/modification join pair as having been inserted with a dummy ID
             // of 1 - no need to actually query for these rows' IDs, just note that they're there
             for (Entry<ImmutablePair<String, Integer>, Set<Modification>> entry : values.entrySet()) {
@@ -2882,10 +3022,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<String, Set<String>> values = batchManager.proteinModifications;
         // if there were any new joins, set up the batch
         // (using recently generated protein and modification IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("protein_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("protein_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"protein_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2906,18 +3045,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for protein/modification join [%s/%s]: " +
                             "No database ID has been determined yet for this modification.",
                             accession, modification));
-                    statement.setInt(1, proteinID);
-                    statement.setInt(2, modificationID);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(proteinID, modificationID);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("protein_modifications_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("protein_modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("protein_modifications_insert", end - checkpoint, results);
             // note each protein/modification join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<String, Set<String>> entry : values.entrySet()) {
@@ -2937,10 +3073,9 @@ public class PROXIProcessor implements MzTabProcessor
         Map<PSM, Set<String>> values = batchManager.psmModifications;
         // if there were any new joins, set up the batch
         // (using recently generated PSM and modification IDs) and insert it
-        PreparedStatement statement = null;
         if (values.isEmpty() == false) {
-            statement = batchManager.insertTemplates.get("psm_modifications");
-            if (statement == null)
+            PROXIInsertBatch insert = batchManager.insertTemplates.get("psm_modifications");
+            if (insert == null)
                 throw new IllegalStateException("Could not find SQL INSERT " +
                     "statement template for table \"psm_modifications\".");
             long checkpoint = System.nanoTime();
@@ -2962,18 +3097,15 @@ public class PROXIProcessor implements MzTabProcessor
                             "ERROR setting up batch insert for PSM/modification join [%s/%s]: " +
                             "No database ID has been determined yet for this modification.",
                             psm.getID().toString(), modification));
-                    statement.setInt(1, psmID);
-                    statement.setInt(2, modificationID);
-                    statement.addBatch();
-                    statement.clearParameters();
+                    insert.addRow(psmID, modificationID);
                 }
             }
             long end = System.nanoTime();
             batchManager.addTiming("psm_modifications_batch", end - checkpoint, insertCounter);
             checkpoint = end;
-            int[] results = statement.executeBatch();
+            int results = insert.execute(connection);
             end = System.nanoTime();
-            batchManager.addTiming("psm_modifications_insert", end - checkpoint, results.length);
+            batchManager.addTiming("psm_modifications_insert", end - checkpoint, results);
             // note each protein/modification join pair as having been inserted with a dummy ID of 1 -
             // no need to actually query for these rows' IDs, just note that they're there
             for (Entry<PSM, Set<String>> entry : values.entrySet()) {
@@ -1,6 +1,7 @@
 package edu.ucsd.mztab.processors;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -8,12 +9,13 @@ import java.util.Set;
 
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 
 public class PSMValidationProcessor
-implements MzTabProcessor
+implements MzTabRowIndependentProcessor
 {
 	/*========================================================================
 	 * Constants
@@ -61,12 +63,14 @@ implements MzTabProcessor
 		else this.mzTabFilename = mzTabFile.getMzTabFilename();
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		int lineNumber = row.getLineNumber();
 		// set up PSM section header
-		else if (line.startsWith("PSH")) {
+		if (line.startsWith("PSH")) {
 			if (psmHeader != null)
 				throw new IllegalArgumentException(String.format(
 					"Line %d of mzTab file [%s] is invalid:" +
@@ -100,17 +104,18 @@ implements MzTabProcessor
 					"No \"%s\" column was found.",
 					lineNumber, mzTabFilename, line,
 					MzTabConstants.PSH_PSM_ID_COLUMN));
-			// add CCMS-controlled validity columns, if not already present
+			// add CCMS-controlled validity columns, if not already present,
+			// right after the last column of the trimmed header line
+			if (validIndex < 0 || invalidReasonIndex < 0)
+				row.setLine(line.trim());
 			if (validIndex < 0) {
 				validIndex = headers.size();
-				line = String.format("%s\t%s",
-					line.trim(), MzTabConstants.VALID_COLUMN);
+				row.addColumn(MzTabConstants.VALID_COLUMN);
 				headers.add(MzTabConstants.VALID_COLUMN);
 			}
 			if (invalidReasonIndex < 0) {
 				invalidReasonIndex = headers.size();
-				line = String.format("%s\t%s",
-					line.trim(), MzTabConstants.INVALID_REASON_COLUMN);
+				row.addColumn(MzTabConstants.INVALID_REASON_COLUMN);
 				headers.add(MzTabConstants.INVALID_REASON_COLUMN);
 			}
 		}
@@ -122,46 +127,30 @@ implements MzTabProcessor
 					"\n----------\n%s\n----------\n" +
 					"A \"PSM\" row was found before any \"PSH\" row.",
 					lineNumber, mzTabFilename, line));
-			else psmHeader.validateMzTabRow(line);
+			else psmHeader.validateMzTabRow(row);
 			// add this row to the overall count of PSM rows encountered so far
 			incrementCount("PSM");
 			// add this row's PSM_ID to the set of unique PSMs
-			String[] row = line.split("\\t");
-			psmIDs.add(row[psmIDIndex]);
-			// ensure that the valid column is present in this row
-			if (validIndex >= row.length) {
-				String[] newRow = new String[validIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-				// set the valid column's value to "VALID" by default
-				row[validIndex] = "VALID";
-				line = getLine(row);
-			}
-			// ensure that the invalid reason column is present in this row
-			if (invalidReasonIndex >= row.length) {
-				String[] newRow = new String[invalidReasonIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-				// set the invalid reason column's value to "null" by default
-				row[invalidReasonIndex] = "null";
-				line = getLine(row);
-			}
+			psmIDs.add(row.getColumn(psmIDIndex));
+			// ensure that the valid column is present in this row,
+			// setting its value to "VALID" by default
+			if (validIndex >= row.getColumnCount())
+				row.setColumn(validIndex, "VALID");
+			// ensure that the invalid reason column is present in this row,
+			// setting its value to "null" by default
+			if (invalidReasonIndex >= row.getColumnCount())
+				row.setColumn(invalidReasonIndex, "null");
 			// if this PSM row has been marked as invalid, add it to the
 			// count of invalid rows and ensure that a reason is given
-			String valid = row[validIndex];
+			String valid = row.getColumn(validIndex);
 			if (valid != null && valid.trim().equalsIgnoreCase("INVALID")) {
 				incrementCount("invalid_PSM");
-				String reason = row[invalidReasonIndex];
-				if (reason == null || reason.trim().equalsIgnoreCase("null")) {
-					row[invalidReasonIndex] =
-						"This PSM was marked as invalid by its source.";
-					line = getLine(row);
-				}
+				String reason = row.getColumn(invalidReasonIndex);
+				if (reason == null || reason.trim().equalsIgnoreCase("null"))
+					row.setColumn(invalidReasonIndex,
+						"This PSM was marked as invalid by its source.");
 			}
 		}
-		return line;
 	}
 	
 	public void tearDown() {
@@ -169,28 +158,44 @@ implements MzTabProcessor
 		counts.put("PSM_ID", psmIDs.size());
 	}
 	
+	public MzTabRowIndependentProcessor fork() {
+		PSMValidationProcessor fork =
+			new PSMValidationProcessor(new HashMap<String, Integer>(2));
+		fork.mzTabFilename = mzTabFilename;
+		fork.psmHeader = psmHeader;
+		fork.validIndex = validIndex;
+		fork.invalidReasonIndex = invalidReasonIndex;
+		fork.psmIDIndex = psmIDIndex;
+		return fork;
+	}
+	
+	public boolean isMergeable(MzTabRowIndependentProcessor fork) {
+		return true;
+	}
+	
+	public void merge(MzTabRowIndependentProcessor fork) {
+		if (fork == null)
+			return;
+		PSMValidationProcessor processor = (PSMValidationProcessor)fork;
+		for (Map.Entry<String, Integer> count : processor.counts.entrySet())
+			incrementCount(count.getKey(), count.getValue());
+		psmIDs.addAll(processor.psmIDs);
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
 	private void incrementCount(String count) {
+		incrementCount(count, 1);
+	}
+	
+	private void incrementCount(String count, int increment) {
 		if (count == null)
 			return;
 		Integer value = counts.get(count);
 		if (value == null)
-			value = 1;
-		else value += 1;
+			value = increment;
+		else value += increment;
 		counts.put(count, value);
 	}
-	
-	private String getLine(String[] tokens) {
-		if (tokens == null || tokens.length < 1)
-			return null;
-		StringBuilder line = new StringBuilder();
-		for (int i=0; i<tokens.length; i++)
-			line.append(tokens[i]).append("\t");
-		// chomp trailing tab ("\t")
-		if (line.charAt(line.length() - 1) == '\t')
-			line.setLength(line.length() - 1);
-		return line.toString();
-	}
 }
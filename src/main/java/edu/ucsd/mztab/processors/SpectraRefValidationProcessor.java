@@ -19,12 +19,13 @@ import edu.ucsd.mztab.model.MzIdentMLNativeIDMap;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
 import edu.ucsd.mztab.model.MzTabMsRun;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 
 public class SpectraRefValidationProcessor
-implements MzTabProcessor
+implements MzTabRowIndependentProcessor
 {
 	/*========================================================================
 	 * Constants
@@ -48,6 +49,9 @@ implements MzTabProcessor
 	// keep track of how "ambiguous" nativeIDs have been interpreted so far;
 	// null=no ambiguous nativeIDs found so far, true=scan, false=index
 	private Boolean            ambiguousNativeIDsAsScans;
+	// true if this is a fork whose parent had not yet decided how to
+	// interpret ambiguous nativeIDs at the time it was forked
+	private boolean            forkedUndecided;
 	// input spectrum file properties
 	private Map<String, ImmutablePair<Integer, Collection<String>>> spectra;
 	private MzIdentMLNativeIDMap mzidCache;
@@ -72,6 +76,7 @@ implements MzTabProcessor
 		validIndex = -1;
 		invalidReasonIndex = -1;
 		this.ambiguousNativeIDsAsScans = ambiguousNativeIDsAsScans;
+		forkedUndecided = false;
 		// initialize spectrum ID data structures
 		spectra = new LinkedHashMap<
 			String, ImmutablePair<Integer, Collection<String>>>();
@@ -101,6 +106,23 @@ implements MzTabProcessor
 		}
 	}
 	
+	private SpectraRefValidationProcessor(
+		SpectraRefValidationProcessor parent
+	) {
+		// share all of the parent's mzTab and spectrum ID state
+		mzTabFile = parent.mzTabFile;
+		mzTabFilename = parent.mzTabFilename;
+		psmHeader = parent.psmHeader;
+		spectraRefIndex = parent.spectraRefIndex;
+		sequenceIndex = parent.sequenceIndex;
+		validIndex = parent.validIndex;
+		invalidReasonIndex = parent.invalidReasonIndex;
+		ambiguousNativeIDsAsScans = parent.ambiguousNativeIDsAsScans;
+		forkedUndecided = ambiguousNativeIDsAsScans == null;
+		spectra = parent.spectra;
+		mzidCache = parent.mzidCache;
+	}
+	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
@@ -111,12 +133,14 @@ implements MzTabProcessor
 		mzTabFilename = mzTabFile.getMzTabFilename();
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
+				"Processed mzTab row cannot be null.");
+		String line = row.getLine();
+		int lineNumber = row.getLineNumber();
 		// set up PSM section header
-		else if (line.startsWith("PSH")) {
+		if (line.startsWith("PSH")) {
 			if (psmHeader != null)
 				throw new IllegalArgumentException(String.format(
 					"Line %d of mzTab file [%s] is invalid:" +
@@ -145,17 +169,18 @@ implements MzTabProcessor
 					MzTabConstants.INVALID_REASON_COLUMN))
 					invalidReasonIndex = i;
 			}
-			// add CCMS-controlled validity columns, if not already present
+			// add CCMS-controlled validity columns, if not already present,
+			// right after the last column of the trimmed header line
+			if (validIndex < 0 || invalidReasonIndex < 0)
+				row.setLine(line.trim());
 			if (validIndex < 0) {
 				validIndex = headers.size();
-				line = String.format("%s\t%s",
-					line.trim(), MzTabConstants.VALID_COLUMN);
+				row.addColumn(MzTabConstants.VALID_COLUMN);
 				headers.add(MzTabConstants.VALID_COLUMN);
 			}
 			if (invalidReasonIndex < 0) {
 				invalidReasonIndex = headers.size();
-				line = String.format("%s\t%s",
-					line.trim(), MzTabConstants.INVALID_REASON_COLUMN);
+				row.addColumn(MzTabConstants.INVALID_REASON_COLUMN);
 				headers.add(MzTabConstants.INVALID_REASON_COLUMN);
 			}
 		}
@@ -167,43 +192,30 @@ implements MzTabProcessor
 					"\n----------\n%s\n----------\n" +
 					"A \"PSM\" row was found before any \"PSH\" row.",
 					lineNumber, mzTabFilename, line));
-			else psmHeader.validateMzTabRow(line);
-			// ensure that the valid column is present in this row
-			String[] row = line.split("\\t");
-			if (validIndex >= row.length) {
-				String[] newRow = new String[validIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-				// set the valid column's value to "VALID" by default
-				row[validIndex] = "VALID";
-				line = getLine(row);
-			}
-			// ensure that the invalid reason column is present in this row
-			if (invalidReasonIndex >= row.length) {
-				String[] newRow = new String[invalidReasonIndex + 1];
-				for (int i=0; i<row.length; i++)
-					newRow[i] = row[i];
-				row = newRow;
-				// set the invalid reason column's value to "null" by default
-				row[invalidReasonIndex] = "null";
-				line = getLine(row);
-			}
+			else psmHeader.validateMzTabRow(row);
+			// ensure that the valid column is present in this row,
+			// setting its value to "VALID" by default
+			if (validIndex >= row.getColumnCount())
+				row.setColumn(validIndex, "VALID");
+			// ensure that the invalid reason column is present in this row,
+			// setting its value to "null" by default
+			if (invalidReasonIndex >= row.getColumnCount())
+				row.setColumn(invalidReasonIndex, "null");
 			// retrieve the spectra_ref and peptide sequence column values
-			String spectraRef = row[spectraRefIndex];
-			String sequence = row[sequenceIndex];
+			String spectraRef = row.getColumn(spectraRefIndex);
+			String sequence = row.getColumn(sequenceIndex);
 			// parse the spectra_ref column value
 			// into file reference and nativeID
 			Matcher matcher =
 				MzTabConstants.SPECTRA_REF_PATTERN.matcher(spectraRef);
 			if (matcher.matches() == false) {
-				row[validIndex] = "INVALID";
-				row[invalidReasonIndex] = String.format(
+				row.setColumn(validIndex, "INVALID");
+				row.setColumn(invalidReasonIndex, String.format(
 					"Invalid \"spectra_ref\" column value [%s]: " +
 					"this value does not  conform to the " +
 					"expected format [%s].", spectraRef,
-					"ms_run[1-n]:<nativeID-formatted identifier string>");
-				return getLine(row);
+					"ms_run[1-n]:<nativeID-formatted identifier string>"));
+				return;
 			}
 			// extract and validate ms_run index
 			int msRunIndex;
@@ -215,48 +227,48 @@ implements MzTabProcessor
 				throw new IllegalStateException(error);
 			}
 			if (msRunIndex <= 0) {
-				row[validIndex] = "INVALID";
-				row[invalidReasonIndex] = String.format(
+				row.setColumn(validIndex, "INVALID");
+				row.setColumn(invalidReasonIndex, String.format(
 					"Invalid \"spectra_ref\" column value [%s]: " +
 					"this value contains invalid " +
 					"ms_run index %d; ms_run indices should start at 1.",
-					spectraRef, msRunIndex);
-				return getLine(row);
+					spectraRef, msRunIndex));
+				return;
 			}
 			// if this PSM row has already been marked as invalid by some
 			// upstream validator, then don't bother with this validation
-			String valid = row[validIndex];
+			String valid = row.getColumn(validIndex);
 			if (valid != null && valid.trim().equalsIgnoreCase("INVALID"))
-				return line;
+				return;
 			// also don't bother with further validation unless parsed spectra
 			// are present; some workflows don't do this and therefore their
 			// PSMs cannot be validated against any source peak list files
 			else if (spectra == null || spectra.isEmpty())
-				return line;
+				return;
 			// extract nativeID
 			String nativeID = matcher.group(2);
 			// get spectrum IDs file for this PSM row
 			MzTabMsRun msRun = mzTabFile.getMsRun(msRunIndex);
 			String mangledPeakListFilename = msRun.getMangledPeakListFilename();
 			if (mangledPeakListFilename == null) {
-				row[validIndex] = "INVALID";
-				row[invalidReasonIndex] = String.format(
+				row.setColumn(validIndex, "INVALID");
+				row.setColumn(invalidReasonIndex, String.format(
 					"Could not resolve any file mapping for \"ms_run\" " +
-					"index %d.", msRunIndex);
-				return getLine(row);
+					"index %d.", msRunIndex));
+				return;
 			}
 			String spectrumIDsFilename = String.format(
 				"%s.scans", FilenameUtils.getBaseName(mangledPeakListFilename));
 			ImmutablePair<Integer, Collection<String>> spectrumIDs =
 				getSpectrumIDs(spectrumIDsFilename);
 			if (spectrumIDs == null) {
-				row[validIndex] = "INVALID";
-				row[invalidReasonIndex] = String.format(
+				row.setColumn(validIndex, "INVALID");
+				row.setColumn(invalidReasonIndex, String.format(
 					"No spectra were found for \"ms_run\" index %d, " +
 					"corresponding to peak list file [%s] " +
 					"(parsed into spectra summary file [%s]).", msRunIndex,
-					msRun.getPeakListFilename(), spectrumIDsFilename);
-				return getLine(row);
+					msRun.getPeakListFilename(), spectrumIDsFilename));
+				return;
 			}
 			// validate nativeID
 			String validatedNativeID =
@@ -267,10 +279,8 @@ implements MzTabProcessor
 			if (validatedNativeID != null) {
 				String validatedSpectraRef = String.format(
 					"ms_run[%d]:%s", msRunIndex, validatedNativeID);
-				if (spectraRef.equals(validatedSpectraRef) == false) {
-					row[spectraRefIndex] = validatedSpectraRef;
-					line = getLine(row);
-				}
+				if (spectraRef.equals(validatedSpectraRef) == false)
+					row.setColumn(spectraRefIndex, validatedSpectraRef);
 			}
 			// if the nativeID could not be validated, and the current scheme
 			// for interpreting ambiguous nativeIDs is scans, then the index
@@ -290,19 +300,41 @@ implements MzTabProcessor
 			// validated or that scans have already been tried; in either
 			// case, the row should be marked as invalid
 			else {
-				row[validIndex] = "INVALID";
-				row[invalidReasonIndex] = String.format(
+				row.setColumn(validIndex, "INVALID");
+				row.setColumn(invalidReasonIndex, String.format(
 					"Invalid \"spectra_ref\" column value [%s]: this " +
 					"spectrum could not be found in peak list file [%s].",
-					spectraRef, msRun.getPeakListFilename());
-				line = getLine(row);
+					spectraRef, msRun.getPeakListFilename()));
 			}
 		}
-		return line;
 	}
 	
 	public void tearDown() {}
 	
+	public MzTabRowIndependentProcessor fork() {
+		return new SpectraRefValidationProcessor(this);
+	}
+	
+	public boolean isMergeable(MzTabRowIndependentProcessor fork) {
+		// the first ambiguous nativeID found in the file decides how all
+		// later ones are interpreted; if a fork made that decision itself,
+		// then its results only stand if no earlier chunk has made it since
+		SpectraRefValidationProcessor processor =
+			(SpectraRefValidationProcessor)fork;
+		if (processor.forkedUndecided &&
+			processor.ambiguousNativeIDsAsScans != null)
+			return ambiguousNativeIDsAsScans == null;
+		else return true;
+	}
+	
+	public void merge(MzTabRowIndependentProcessor fork) {
+		// adopt any interpretation of ambiguous nativeIDs decided by the fork
+		SpectraRefValidationProcessor processor =
+			(SpectraRefValidationProcessor)fork;
+		if (ambiguousNativeIDsAsScans == null)
+			ambiguousNativeIDsAsScans = processor.ambiguousNativeIDsAsScans;
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
@@ -565,16 +597,4 @@ implements MzTabProcessor
 			return String.format("index=%d", index);
 		else return null;
 	}
-	
-	private String getLine(String[] tokens) {
-		if (tokens == null || tokens.length < 1)
-			return null;
-		StringBuilder line = new StringBuilder();
-		for (int i=0; i<tokens.length; i++)
-			line.append(tokens[i]).append("\t");
-		// chomp trailing tab ("\t")
-		if (line.charAt(line.length() - 1) == '\t')
-			line.setLength(line.length() - 1);
-		return line.toString();
-	}
 }
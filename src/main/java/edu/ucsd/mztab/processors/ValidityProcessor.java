@@ -1,9 +1,10 @@
 package edu.ucsd.mztab.processors;
 
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowIndependentProcessor;
 
-public class ValidityProcessor implements MzTabProcessor
+public class ValidityProcessor implements MzTabRowIndependentProcessor
 {
 	/*========================================================================
 	 * Properties
@@ -30,69 +31,64 @@ public class ValidityProcessor implements MzTabProcessor
 		else mzTabFilename = mzTabFile.getMzTabFilename();
 	}
 	
-	public String processMzTabLine(String line, int lineNumber) {
-		if (line == null)
+	public void processMzTabRow(MzTabRow row) {
+		if (row == null)
 			throw new NullPointerException(
-				"Processed mzTab line cannot be null.");
+				"Processed mzTab row cannot be null.");
 		// if this is the PSH row, then ensure the
 		// file has the special validity columns
-		else if (line.startsWith("PSH")) {
+		else if (row.startsWith("PSH")) {
 			if (validIndex >= 0 || invalidReasonIndex >= 0)
 				throw new IllegalArgumentException(String.format(
 					"Line %d of mzTab file [%s] is invalid:" +
 					"\n----------\n%s\n----------\n" +
 					"A \"PSH\" row was already seen previously in this file.",
-					lineNumber, mzTabFilename, line));
-			String[] headers = line.split("\\t");
-			if (headers == null || headers.length < 1)
-				throw new IllegalArgumentException(String.format(
-					"Line %d of mzTab file [%s] is invalid:" +
-					"\n----------\n%s\n----------\n" +
-					"No columns could be found for this \"PSH\" row.",
-					lineNumber, mzTabFilename, line));
-			else for (int i=0; i<headers.length; i++) {
-				String header = headers[i];
-				if (header == null)
-					continue;
-				else if (header.equalsIgnoreCase("opt_global_valid"))
+					row.getLineNumber(), mzTabFilename, row.getLine()));
+			int columnCount = row.getColumnCount();
+			for (int i=0; i<columnCount; i++) {
+				String header = row.getColumn(i);
+				if (header.equalsIgnoreCase("opt_global_valid"))
 					validIndex = i;
 				else if (header.equalsIgnoreCase("opt_global_invalid_reason"))
 					invalidReasonIndex = i;
 			}
 			// add extra validity optional columns, if necessary
 			if (validIndex < 0) {
-				validIndex = headers.length;
-				line = line.trim() + "\topt_global_valid";
-				headers = line.split("\\t");
+				validIndex = row.getColumnCount();
+				row.addColumn("opt_global_valid");
 			}
 			if (invalidReasonIndex < 0) {
-				invalidReasonIndex = headers.length;
-				line = line.trim() + "\topt_global_invalid_reason";
+				invalidReasonIndex = row.getColumnCount();
+				row.addColumn("opt_global_invalid_reason");
 			}
-		} else if (line.startsWith("PSM")) {
+		} else if (row.startsWith("PSM")) {
 			if (validIndex < 0 || invalidReasonIndex < 0)
 				throw new IllegalArgumentException(String.format(
 					"Line %d of mzTab file [%s] is invalid:" +
 					"\n----------\n%s\n----------\n" +
 					"A \"PSM\" row was found before any \"PSH\" row.",
-					lineNumber, mzTabFilename, line));
-			String[] columns = line.split("\\t");
-			if (columns == null || columns.length < 1)
-				throw new IllegalArgumentException(String.format(
-					"Line %d of mzTab file [%s] is invalid:" +
-					"\n----------\n%s\n----------\n" +
-					"No columns could be found for this \"PSM\" row.",
-					lineNumber, mzTabFilename, line));
+					row.getLineNumber(), mzTabFilename, row.getLine()));
 			// mark the row as valid if it isn't already
-			if (validIndex >= columns.length) {
-				line = line.trim() + "\tVALID";
-				columns = line.split("\\t");
-			}
-			if (invalidReasonIndex >= columns.length)
-				line = line.trim() + "\tnull";
+			if (validIndex >= row.getColumnCount())
+				row.setColumn(validIndex, "VALID");
+			if (invalidReasonIndex >= row.getColumnCount())
+				row.setColumn(invalidReasonIndex, "null");
 		}
-		return line;
 	}
 	
 	public void tearDown() {}
+	
+	public MzTabRowIndependentProcessor fork() {
+		ValidityProcessor fork = new ValidityProcessor();
+		fork.validIndex = validIndex;
+		fork.invalidReasonIndex = invalidReasonIndex;
+		fork.mzTabFilename = mzTabFilename;
+		return fork;
+	}
+	
+	public boolean isMergeable(MzTabRowIndependentProcessor fork) {
+		return true;
+	}
+	
+	public void merge(MzTabRowIndependentProcessor fork) {}
 }
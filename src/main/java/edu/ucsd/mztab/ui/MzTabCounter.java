@@ -1,9 +1,7 @@
 package edu.ucsd.mztab.ui;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
@@ -19,9 +17,14 @@ import edu.ucsd.mztab.MzTabReader;
 import edu.ucsd.mztab.TaskMzTabContext;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
+import edu.ucsd.mztab.model.MzTabFileIndex;
 import edu.ucsd.mztab.model.ProteomicsStatistics;
+import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
+import edu.ucsd.mztab.model.MzTabFileIndex.SectionOffsets;
 import edu.ucsd.mztab.processors.CountProcessor;
+import edu.ucsd.mztab.util.CommonUtils;
 import edu.ucsd.mztab.util.FileIOUtils;
+import edu.ucsd.mztab.util.MappedLineReader;
 
 public class MzTabCounter
 {
@@ -34,7 +37,10 @@ public class MzTabCounter
 		"\n\t[-mztabPath <MzTabRelativePath>]" +
 		"\n\t-params     <ProteoSAFeParametersFile>" +
 		"\n\t-output     <OutputFile>" +
-		"\n\t[-dataset   <DatasetID>|<DatasetIDFile>]";
+		"\n\t[-dataset   <DatasetID>|<DatasetIDFile>]" +
+		"\n\t[-parallel  true/false (default false; " +
+			"if specified, the PSM rows of each mzTab file will be " +
+			"counted on all cores)]";
 	public static final String MZTAB_SUMMARY_FILE_HEADER_LINE =
 		"MzTab_file\tUploaded_file\tDataset_mzTab\tFile_descriptor\t" +
 		"PSM_rows\tInvalid_PSM_rows\tFound_PSMs\tPSM_FDR\t" +
@@ -60,8 +66,8 @@ public class MzTabCounter
 				die(String.format("Could not create output file [%s]",
 					count.outputFile.getAbsolutePath()));
 			// get files from input mzTab directory
-			Collection<File> files =
-				FileIOUtils.findFiles(count.mzTabDirectory);
+			Collection<File> files = MzTabFileIndex.excludeIndexFiles(
+				FileIOUtils.findFiles(count.mzTabDirectory));
 			// if the input mzTab directory is empty, leave the stats file blank
 			if (files == null || files.isEmpty())
 				return;
@@ -76,7 +82,8 @@ public class MzTabCounter
 				new FileWriter(count.outputFile, false)));
 			writer.println(MZTAB_SUMMARY_FILE_HEADER_LINE);
 			// read through all mzTab files, write counts to output file
-			summarizeMzTabFiles(mzTabFiles, writer);
+			summarizeMzTabFiles(mzTabFiles, writer, null,
+				new MzTabReader.Options(false, false, count.parallel));
 		} catch (Throwable error) {
 			die(error.getMessage(), error);
 		} finally {
@@ -91,12 +98,25 @@ public class MzTabCounter
 			return null;
 		// read through input mzTab file, pull out global FDR values
 		// from the "false_discovery_rate" MTD row, if present
-		BufferedReader reader = null;
 		String[] fdr = new String[3];
+		// if this file has a current section index,
+		// then only read its metadata section
+		SectionOffsets mtd = null;
+		MzTabFileIndex fileIndex = MzTabFileIndex.load(mzTabFile);
+		if (fileIndex != null) {
+			mtd = fileIndex.getSection(MzTabSection.MTD);
+			if (mtd == null)
+				return fdr;
+		}
+		MappedLineReader reader = null;
 		try {
-			reader = new BufferedReader(new FileReader(mzTabFile));
+			reader = new MappedLineReader(mzTabFile);
+			if (mtd != null)
+				reader.seek(mtd.getStart());
 			String line = null;
 			while (true) {
+				if (mtd != null && reader.getPosition() >= mtd.getEnd())
+					break;
 				line = reader.readLine();
 				if (line == null)
 					break;
@@ -172,13 +192,24 @@ public class MzTabCounter
 	
 	public static void summarizeMzTabFile(
 		MzTabFile inputFile, PrintWriter writer, ProteomicsStatistics statistics
+	) {
+		summarizeMzTabFile(inputFile, writer, statistics, null);
+	}
+	
+	/**
+	 * @param readerOptions	execution modes of the reader of the file,
+	 * 						or null to read it serially
+	 */
+	public static void summarizeMzTabFile(
+		MzTabFile inputFile, PrintWriter writer, ProteomicsStatistics statistics,
+		MzTabReader.Options readerOptions
 	) {
 		if (inputFile == null)
 			return;
 		Map<String, Integer> counts = new HashMap<String, Integer>(7);
 		Map<String, Set<String>> uniqueElements =
 			new HashMap<String, Set<String>>();
-		MzTabReader reader = new MzTabReader(inputFile);
+		MzTabReader reader = new MzTabReader(inputFile, null, readerOptions);
 		reader.addProcessor(new CountProcessor(counts, uniqueElements));
 		reader.read();
 		// add statistics for this mzTab file to the global count
@@ -225,11 +256,18 @@ public class MzTabCounter
 	public static void summarizeMzTabFiles(
 		Collection<MzTabFile> inputFiles, PrintWriter writer,
 		ProteomicsStatistics statistics
+	) {
+		summarizeMzTabFiles(inputFiles, writer, statistics, null);
+	}
+	
+	public static void summarizeMzTabFiles(
+		Collection<MzTabFile> inputFiles, PrintWriter writer,
+		ProteomicsStatistics statistics, MzTabReader.Options readerOptions
 	) {
 		if (inputFiles == null || inputFiles.isEmpty())
 			return;
 		for (MzTabFile inputFile : inputFiles)
-			summarizeMzTabFile(inputFile, writer, statistics);
+			summarizeMzTabFile(inputFile, writer, statistics, readerOptions);
 	}
 	
 	/*========================================================================
@@ -242,18 +280,20 @@ public class MzTabCounter
 		/*====================================================================
 		 * Properties
 		 *====================================================================*/
-		private File   mzTabDirectory;
-		private File   parameters;
-		private File   outputFile;
-		private String mzTabRelativePath;
-		private String datasetID;
+		private File    mzTabDirectory;
+		private File    parameters;
+		private File    outputFile;
+		private String  mzTabRelativePath;
+		private String  datasetID;
+		private boolean parallel;
 		
 		/*====================================================================
 		 * Constructors
 		 *====================================================================*/
 		public MzTabCountOperation(
 			File mzTabDirectory, String mzTabRelativePath,
-			File parameters, File outputFile, String datasetID
+			File parameters, File outputFile, String datasetID,
+			Boolean parallel
 		) {
 			// validate mzTab directory
 			if (mzTabDirectory == null)
@@ -288,6 +328,10 @@ public class MzTabCounter
 			// initialize file context properties (any or all may be null)
 			this.mzTabRelativePath = mzTabRelativePath;
 			this.datasetID = datasetID;
+			// initialize parallel processing flag
+			if (parallel == null)
+				this.parallel = false;
+			else this.parallel = parallel;
 		}
 	}
 	
@@ -302,6 +346,7 @@ public class MzTabCounter
 		File parameters = null;
 		File output = null;
 		String datasetID = null;
+		Boolean parallel = null;
 		for (int i=0; i<args.length; i++) {
 			String argument = args[i];
 			if (argument == null)
@@ -337,12 +382,14 @@ public class MzTabCounter
 					}
 					// otherwise treat the argument as the literal dataset ID
 					else datasetID = value;
-				} else return null;
+				} else if (argument.equals("-parallel"))
+					parallel = CommonUtils.parseBooleanColumn(value);
+				else return null;
 			}
 		}
 		try {
 			return new MzTabCountOperation(mzTabDirectory, mzTabRelativePath,
-				parameters, output, datasetID);
+				parameters, output, datasetID, parallel);
 		} catch (Throwable error) {
 			System.err.println(error.getMessage());
 			return null;
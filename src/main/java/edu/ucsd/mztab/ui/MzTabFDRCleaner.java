@@ -3,8 +3,10 @@ package edu.ucsd.mztab.ui;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,19 +17,35 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 
 import edu.ucsd.mztab.MzTabReader;
+import edu.ucsd.mztab.model.ExternalMzTabFDRStatistics;
 import edu.ucsd.mztab.model.MzTabConstants;
+import edu.ucsd.mztab.model.MzTabFDRCounter;
 import edu.ucsd.mztab.model.MzTabFDRStatistics;
 import edu.ucsd.mztab.model.MzTabFile;
+import edu.ucsd.mztab.model.MzTabFileIndex;
 import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabProcessorAdapter;
+import edu.ucsd.mztab.model.MzTabRow;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.FDRType;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.processors.FDRCalculationProcessor;
 import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.util.ExternalSorter;
+import edu.ucsd.mztab.util.ExternalSorter.SortedReader;
 import edu.ucsd.mztab.util.FileIOUtils;
+import edu.ucsd.mztab.util.MappedLineReader;
+import edu.ucsd.mztab.util.QValueEstimator;
+import edu.ucsd.mztab.util.SpillBuffer;
 
 public class MzTabFDRCleaner
 {
@@ -51,7 +69,29 @@ public class MzTabFDRCleaner
 			"determines which Q-Value column to use when filtering, " +
 			"if filter=true and filterFDR is specified)]" +
 		"\n\t[-filterFDR     0-1 (if not specified, and filter=true, then " +
-			"only PSMs marked as decoy or passThreshold=false will be removed]";
+			"only PSMs marked as decoy or passThreshold=false will be removed]" +
+		"\n\t[-pipeline      true/false (default false; " +
+			"if specified, each mzTab file will be processed in " +
+			"concurrent stages)]" +
+		"\n\t[-index         true/false (default false; " +
+			"if specified, a section index will be written for " +
+			"each input and output mzTab file)]" +
+		"\n\t[-indexDirectory <IndexDirectory> (default \"mztab-index\" " +
+			"under the system temporary directory; where section " +
+			"indexes are written)]" +
+		"\n\t[-externalThreshold <Bytes>[K|M|G] (default maximum heap " +
+			"size; the FDR statistics of mzTab files larger than this " +
+			"will be kept in sorted files on disk rather than in memory)]" +
+		"\n\t[-score         <PSMScoreColumn> (if specified, Q-values " +
+			"of any level with no Q-value column will be estimated from " +
+			"this score by target-decoy competition)]" +
+		"\n\t[-scoreOrder    higher/lower (default higher; " +
+			"whether higher or lower scores are better)]" +
+		"\n\t[-threads       <FileCount> (default 1; " +
+			"number of mzTab files to clean at once)]" +
+		"\n\t[-scratch       <ScratchDirectory> (default current " +
+			"directory; where each file's temporary files are written, " +
+			"in a uniquely named directory of its own)]";
 	private static final String[] RELEVANT_PSM_COLUMNS = new String[]{
 		MzTabConstants.PSH_PEPTIDE_COLUMN,
 		MzTabConstants.PSH_PROTEIN_COLUMN,
@@ -67,31 +107,145 @@ public class MzTabFDRCleaner
 	};
 	private static final Double DEFAULT_PSM_FDR_THRESHOLD = 0.01;
 	
+	/*========================================================================
+	 * Static properties
+	 *========================================================================*/
+	// total size of all input files in progress whose FDR statistics may be
+	// kept in memory at once; the statistics of any others are kept on disk
+	private static long externalThreshold = Runtime.getRuntime().maxMemory();
+	private static long reservedMemory = 0;
+	// number of mzTab files to clean at once
+	private static int  threads = 1;
+	// directory under which each file gets its own scratch directory
+	private static File scratchDirectory = null;
+	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
 	public static void main(String[] args) {
-		MzTabFDRCleanupOperation cleanup = extractArguments(args);
+		final MzTabFDRCleanupOperation cleanup = extractArguments(args);
 		if (cleanup == null)
 			die(USAGE);
+		final MzTabReader.Options readerOptions =
+			new MzTabReader.Options(cleanup.pipelined, cleanup.indexed, false);
+		if (cleanup.indexDirectory != null)
+			MzTabFileIndex.setIndexDirectory(cleanup.indexDirectory);
+		if (cleanup.externalThreshold != null)
+			setExternalThreshold(cleanup.externalThreshold);
+		setThreads(cleanup.threads);
+		setScratchDirectory(cleanup.scratchDirectory);
 		// read through all mzTab files, ensure that expected FDR
 		// fields are present, and calculate whatever we can
-		Collection<File> files = FileIOUtils.findFiles(cleanup.mzTabDirectory);
+		List<File> files = MzTabFileIndex.excludeIndexFiles(
+			FileIOUtils.findFiles(cleanup.mzTabDirectory));
 		// sort files alphabetically
-		Collections.sort(new ArrayList<File>(files));
-		for (File file : files) {
-			// get this input mzTab file
-			MzTabFile inputFile = new MzTabFile(file);
-			// get final output file
-			File outputFile = new File(cleanup.outputDirectory, file.getName());
-			// FDR-process this mzTab file
-			MzTabFDRCleaner.processMzTabFileFDR(inputFile, outputFile,
-				null, cleanup.passThresholdColumn,
-				cleanup.decoyColumn, cleanup.decoyPattern,
-				cleanup.psmQValueColumn, cleanup.peptideQValueColumn,
-				cleanup.proteinQValueColumn, cleanup.filter,
-				cleanup.filterType, cleanup.filterFDR,
-				cleanup.psmFDR, cleanup.peptideFDR, cleanup.proteinFDR);
+		Collections.sort(files);
+		List<Callable<String>> jobs =
+			new ArrayList<Callable<String>>(files.size());
+		for (final File file : files) {
+			jobs.add(new Callable<String>() {
+				public String call() {
+					long start = System.currentTimeMillis();
+					// get this input mzTab file
+					MzTabFile inputFile = new MzTabFile(file);
+					// get final output file
+					File outputFile =
+						new File(cleanup.outputDirectory, file.getName());
+					// FDR-process this mzTab file
+					MzTabFDRCleaner.processMzTabFileFDRWithRowProcessors(
+						inputFile, outputFile,
+						null, cleanup.passThresholdColumn,
+						cleanup.decoyColumn, cleanup.decoyPattern,
+						cleanup.psmQValueColumn, cleanup.peptideQValueColumn,
+						cleanup.proteinQValueColumn, cleanup.filter,
+						cleanup.filterType, cleanup.filterFDR,
+						cleanup.psmFDR, cleanup.peptideFDR, cleanup.proteinFDR,
+						cleanup.scoreColumn, cleanup.higherScoreBetter,
+						readerOptions);
+					return String.format("Cleaned mzTab file [%s] in %s.",
+						file.getName(), CommonUtils.formatMilliseconds(
+							System.currentTimeMillis() - start));
+				}
+			});
+		}
+		runCleanupJobs(jobs);
+	}
+	
+	/**
+	 * Sets the total size of all input mzTab files in progress at once whose
+	 * FDR statistics may be held in memory; by default, the maximum heap
+	 * size. Each file reserves its size from this budget for as long as it's
+	 * being processed, and the statistics of any file that doesn't fit in
+	 * what's left are instead spilled to sorted scratch files and merged.
+	 * The compact in-memory statistics take far less heap than the file
+	 * takes disk, so files no larger than the heap in total are always safe
+	 * to process in memory.
+	 */
+	public static void setExternalThreshold(long threshold) {
+		externalThreshold = threshold;
+	}
+	
+	/**
+	 * Sets the number of mzTab files cleaned at once by
+	 * {@link #runCleanupJobs(List)}; by default, 1.
+	 */
+	public static void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException(String.format(
+				"Thread count (%d) must be at least 1.", threads));
+		MzTabFDRCleaner.threads = threads;
+	}
+	
+	/**
+	 * Sets the directory under which each mzTab file's temporary files are
+	 * written, in a uniquely named directory of their own; by default
+	 * (null), the current working directory.
+	 */
+	public static void setScratchDirectory(File directory) {
+		scratchDirectory = directory;
+	}
+	
+	/**
+	 * Runs the argument cleanup jobs, one per mzTab file, on up to the
+	 * configured number of threads at once. Each job returns a log message
+	 * for its file, and these are printed in job order, whatever order the
+	 * jobs actually finish in, so that the log of a run reads the same at
+	 * any number of threads. On the first failure (in job order), all jobs
+	 * not yet started are cancelled and that failure is thrown.
+	 */
+	public static void runCleanupJobs(List<Callable<String>> jobs) {
+		if (jobs == null || jobs.isEmpty())
+			return;
+		ExecutorService workers = null;
+		try {
+			if (threads <= 1 || jobs.size() <= 1) {
+				for (Callable<String> job : jobs)
+					log(job.call());
+				return;
+			}
+			workers = Executors.newFixedThreadPool(
+				Math.min(threads, jobs.size()));
+			List<Future<String>> results =
+				new ArrayList<Future<String>>(jobs.size());
+			for (Callable<String> job : jobs)
+				results.add(workers.submit(job));
+			workers.shutdown();
+			for (Future<String> result : results)
+				log(result.get());
+		} catch (ExecutionException error) {
+			Throwable cause = error.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if (cause instanceof Error)
+				throw (Error)cause;
+			else throw new RuntimeException(cause);
+		} catch (RuntimeException error) {
+			throw error;
+		} catch (Throwable error) {
+			throw new RuntimeException(error);
+		} finally {
+			if (workers != null)
+				workers.shutdownNow();
 		}
 	}
 	
@@ -115,6 +269,98 @@ public class MzTabFDRCleaner
 		String proteinQValueColumn,
 		boolean filter, FDRType filterType, Double filterFDR,
 		Double statedPSMFDR, Double statedPeptideFDR, Double statedProteinFDR
+	) {
+		processMzTabFileFDR(inputFile, outputFile, additionalProcessors,
+			passThresholdColumn, decoyColumn, decoyPattern,
+			psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
+			filter, filterType, filterFDR,
+			statedPSMFDR, statedPeptideFDR, statedProteinFDR, null, true);
+	}
+	
+	/**
+	 * @param scoreColumn		PSM score column from which to estimate the
+	 * 							Q-values of any level for which the file has
+	 * 							no Q-value column; null to estimate none
+	 * @param higherScoreBetter	whether higher scores in that column are better
+	 */
+	public static void processMzTabFileFDR(
+		MzTabFile inputFile, File outputFile,
+		Collection<MzTabProcessor> additionalProcessors,
+		String passThresholdColumn, String decoyColumn, String decoyPattern,
+		String psmQValueColumn, String peptideQValueColumn,
+		String proteinQValueColumn,
+		boolean filter, FDRType filterType, Double filterFDR,
+		Double statedPSMFDR, Double statedPeptideFDR, Double statedProteinFDR,
+		String scoreColumn, boolean higherScoreBetter
+	) {
+		// line-based processors take part in the row processor chain
+		Collection<MzTabRowProcessor> rowProcessors = null;
+		if (additionalProcessors != null) {
+			rowProcessors = new ArrayList<MzTabRowProcessor>(
+				additionalProcessors.size());
+			for (MzTabProcessor processor : additionalProcessors)
+				rowProcessors.add(new MzTabProcessorAdapter(processor));
+		}
+		processMzTabFileFDRWithRowProcessors(inputFile, outputFile,
+			rowProcessors, passThresholdColumn, decoyColumn, decoyPattern,
+			psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
+			filter, filterType, filterFDR,
+			statedPSMFDR, statedPeptideFDR, statedProteinFDR,
+			scoreColumn, higherScoreBetter);
+	}
+	
+	/**
+	 * Same as processMzTabFileFDR, but with additional processors that
+	 * work on whole rows rather than on lines.
+	 */
+	public static void processMzTabFileFDRWithRowProcessors(
+		MzTabFile inputFile, File outputFile,
+		Collection<MzTabRowProcessor> additionalProcessors,
+		String passThresholdColumn, String decoyColumn, String decoyPattern,
+		String psmQValueColumn, String peptideQValueColumn,
+		String proteinQValueColumn,
+		boolean filter, FDRType filterType, Double filterFDR,
+		Double statedPSMFDR, Double statedPeptideFDR, Double statedProteinFDR
+	) {
+		processMzTabFileFDRWithRowProcessors(inputFile, outputFile,
+			additionalProcessors, passThresholdColumn, decoyColumn,
+			decoyPattern, psmQValueColumn, peptideQValueColumn,
+			proteinQValueColumn, filter, filterType, filterFDR,
+			statedPSMFDR, statedPeptideFDR, statedProteinFDR, null, true);
+	}
+	
+	public static void processMzTabFileFDRWithRowProcessors(
+		MzTabFile inputFile, File outputFile,
+		Collection<MzTabRowProcessor> additionalProcessors,
+		String passThresholdColumn, String decoyColumn, String decoyPattern,
+		String psmQValueColumn, String peptideQValueColumn,
+		String proteinQValueColumn,
+		boolean filter, FDRType filterType, Double filterFDR,
+		Double statedPSMFDR, Double statedPeptideFDR, Double statedProteinFDR,
+		String scoreColumn, boolean higherScoreBetter
+	) {
+		processMzTabFileFDRWithRowProcessors(inputFile, outputFile,
+			additionalProcessors, passThresholdColumn, decoyColumn,
+			decoyPattern, psmQValueColumn, peptideQValueColumn,
+			proteinQValueColumn, filter, filterType, filterFDR,
+			statedPSMFDR, statedPeptideFDR, statedProteinFDR,
+			scoreColumn, higherScoreBetter, null);
+	}
+	
+	/**
+	 * @param readerOptions		execution modes of the first pass's reader,
+	 * 							or null to read serially without indexing
+	 */
+	public static void processMzTabFileFDRWithRowProcessors(
+		MzTabFile inputFile, File outputFile,
+		Collection<MzTabRowProcessor> additionalProcessors,
+		String passThresholdColumn, String decoyColumn, String decoyPattern,
+		String psmQValueColumn, String peptideQValueColumn,
+		String proteinQValueColumn,
+		boolean filter, FDRType filterType, Double filterFDR,
+		Double statedPSMFDR, Double statedPeptideFDR, Double statedProteinFDR,
+		String scoreColumn, boolean higherScoreBetter,
+		MzTabReader.Options readerOptions
 	) {
 		if (inputFile == null || outputFile == null)
 			return;
@@ -137,99 +383,141 @@ public class MzTabFDRCleaner
 //				} catch (NumberFormatException error) {}
 			}
 		}
-		// set up first intermediate output file
+		// keep all intermediate files of this file in a scratch directory
+		// of their own, so that no two runs or workers ever share any
 		String filename = inputFile.getFile().getName();
-		File tempFile1 = new File(String.format("%s.1.temp", filename));
-		// set up reader
-		MzTabReader reader = new MzTabReader(inputFile, tempFile1);
-		// ensure that each PSM row has the FDR columns
-		// needed by ProteoSAFe to enforce quality control
-		MzTabFDRStatistics statistics = new MzTabFDRStatistics();
-		reader.addProcessor(new FDRCalculationProcessor(
-			statistics, passThresholdColumn, decoyColumn, decoyPattern,
-			psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
-			filterType, filterFDR));
-		// add additional processors specified by the client, if any
-		if (additionalProcessors != null)
-			for (MzTabProcessor processor : additionalProcessors)
-				reader.addProcessor(processor);
-		// clean file
-		reader.read();
-		// determine number of target PSMs; if any PSM is marked as target,
-		// then only count those, otherwise if any PSM is marked as decoy,
-		// then count all PSMs that were NOT marked as decoy
-		int targets = statistics.getElementCount("targetPSM");
-		int decoys = statistics.getElementCount("decoyPSM");
-		if (targets == 0 && decoys > 0)
-			targets = statistics.getElementCount("nullDecoyPSM");
-		// calculate global FDR values from returned count maps
-		Double psmFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
-		// determine highest found PSM Q-Value
-		Double psmQValue = statistics.getMaxQValue(FDRType.PSM);
-		// compare FDR to Q-Value, take highest
-		if (psmQValue != null && (psmFDR == null || psmQValue > psmFDR))
-			psmFDR = psmQValue;
-		// if FDR could not be determined from either decoys
-		// or Q-values, use user-specified FDR
-		if (psmFDR == null)
-			psmFDR = statedPSMFDR;
-		// in the absence of any other valid FDR,
-		// use the filter threshold if specified
-		if (psmFDR == null &&
-			(filterType == null || filterType.equals(FDRType.PSM)))
-			psmFDR = filterFDR;
-		// use logic similar to that of PSMs to
-		// determine the number of target peptides
-		targets = statistics.getElementCount("targetPeptide");
-		decoys = statistics.getElementCount("decoyPeptide");
-		if (targets == 0 && decoys > 0)
-			targets = statistics.getElementCount("nullDecoyPeptide");
-		// peptide-level FDR
-		Double peptideFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
-		Double peptideQValue = statistics.getMaxQValue(FDRType.PEPTIDE);
-		if (peptideQValue != null &&
-			(peptideFDR == null || peptideQValue > peptideFDR))
-			peptideFDR = peptideQValue;
-		if (peptideFDR == null)
-			peptideFDR = statedPeptideFDR;
-		if (peptideFDR == null &&
-			filterType != null && filterType.equals(FDRType.PEPTIDE))
-			peptideFDR = filterFDR;
-		// use logic similar to that of PSMs to
-		// determine the number of target proteins
-		targets = statistics.getElementCount("targetProtein");
-		decoys = statistics.getElementCount("decoyProtein");
-		if (targets == 0 && decoys > 0)
-			targets = statistics.getElementCount("nullDecoyProtein");
-		// protein-level FDR
-//		Double proteinFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
-//		if (proteinFDR == null)
-//			proteinFDR = statedProteinFDR;
-		Double proteinFDR = statedProteinFDR;
-		Double proteinQValue = statistics.getMaxQValue(FDRType.PROTEIN);
-		if (proteinQValue != null &&
-			(proteinFDR == null || proteinQValue > proteinFDR))
-			proteinFDR = proteinQValue;
-		if (proteinFDR == null &&
-			filterType != null && filterType.equals(FDRType.PROTEIN))
-			proteinFDR = filterFDR;
-		// set up second intermediate output file
-		File tempFile2 =
-			new File(String.format("%s.2.temp", filename));
-		// add global FDR values to output file's metadata section,
-		// filter out all PSM rows that do not meet the FDR cutoff,
-		// and propagate calculated global FDR to any empty Q-Values
-		doSecondFDRPass(tempFile1, tempFile2, inputFile.getMzTabFilename(),
-			filter, filterType, filterFDR,
-			peptideQValueColumn, proteinQValueColumn,
-			statedPSMFDR, psmFDR, peptideFDR, proteinFDR, statistics);
-		// filter out all protein and peptide rows no
-		// longer supported by remaining PSM rows
-		doThirdFDRPass(tempFile2, outputFile, inputFile.getMzTabFilename(),
-			filter, statistics);
-		// remove temporary files
-		tempFile1.delete();
-		tempFile2.delete();
+		File scratch = createScratchDirectory(filename);
+		File scratchBase = new File(scratch, outputFile.getName());
+		// only keep FDR statistics in memory if this file's share of the
+		// memory budget can be reserved alongside all other files in progress
+		long reservation = inputFile.getFile().length();
+		boolean inMemory = reserveMemory(reservation);
+		FilterKeyRecorder keys = null;
+		try {
+			// set up first intermediate output file
+			File tempFile1 =
+				new File(scratch, String.format("%s.1.temp", filename));
+			// set up reader
+			MzTabReader reader =
+				new MzTabReader(inputFile, tempFile1, readerOptions);
+			// ensure that each PSM row has the FDR columns
+			// needed by ProteoSAFe to enforce quality control
+			MzTabFDRCounter statistics = null;
+			if (inMemory == false)
+				statistics = new ExternalMzTabFDRStatistics(new File(
+					String.format("%s.statistics.temp",
+						scratchBase.getAbsolutePath())));
+			else statistics = new MzTabFDRStatistics();
+			FDRCalculationProcessor fdrProcessor = new FDRCalculationProcessor(
+				statistics, passThresholdColumn, decoyColumn, decoyPattern,
+				psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
+				filterType, filterFDR, scoreColumn, higherScoreBetter,
+				new File(String.format(
+					"%s.scores.temp", scratchBase.getAbsolutePath())));
+			reader.addProcessor(fdrProcessor);
+			// add additional processors specified by the client, if any
+			if (additionalProcessors != null)
+				for (MzTabRowProcessor processor : additionalProcessors)
+					reader.addProcessor(processor);
+			// if filtering, record the keys of all rows that settle which
+			// peptides and proteins remain, as they are finally written
+			if (filter) {
+				keys = new FilterKeyRecorder(fdrProcessor,
+					peptideQValueColumn, proteinQValueColumn,
+					filterType, filterFDR, inMemory == false, scratchBase);
+				reader.addProcessor(keys);
+			}
+			// clean file
+			try {
+				reader.read();
+			} finally {
+				if (statistics instanceof ExternalMzTabFDRStatistics)
+					((ExternalMzTabFDRStatistics)statistics).close();
+				fdrProcessor.close();
+			}
+			// determine number of target PSMs; if any PSM is marked as
+			// target, then only count those, otherwise if any PSM is marked
+			// as decoy, then count all PSMs that were NOT marked as decoy
+			int targets = statistics.getElementCount("targetPSM");
+			int decoys = statistics.getElementCount("decoyPSM");
+			if (targets == 0 && decoys > 0)
+				targets = statistics.getElementCount("nullDecoyPSM");
+			// calculate global FDR values from returned count maps
+			Double psmFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
+			// determine highest found PSM Q-Value
+			Double psmQValue = statistics.getMaxQValue(FDRType.PSM);
+			// compare FDR to Q-Value, take highest
+			if (psmQValue != null &&
+				(psmFDR == null || psmQValue > psmFDR))
+				psmFDR = psmQValue;
+			// if FDR could not be determined from either decoys
+			// or Q-values, use user-specified FDR
+			if (psmFDR == null)
+				psmFDR = statedPSMFDR;
+			// in the absence of any other valid FDR,
+			// use the filter threshold if specified
+			if (psmFDR == null &&
+				(filterType == null || filterType.equals(FDRType.PSM)))
+				psmFDR = filterFDR;
+			// use logic similar to that of PSMs to
+			// determine the number of target peptides
+			targets = statistics.getElementCount("targetPeptide");
+			decoys = statistics.getElementCount("decoyPeptide");
+			if (targets == 0 && decoys > 0)
+				targets = statistics.getElementCount("nullDecoyPeptide");
+			// peptide-level FDR
+			Double peptideFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
+			Double peptideQValue =
+				statistics.getMaxQValue(FDRType.PEPTIDE);
+			if (peptideQValue != null &&
+				(peptideFDR == null || peptideQValue > peptideFDR))
+				peptideFDR = peptideQValue;
+			if (peptideFDR == null)
+				peptideFDR = statedPeptideFDR;
+			if (peptideFDR == null &&
+				filterType != null && filterType.equals(FDRType.PEPTIDE))
+				peptideFDR = filterFDR;
+			// use logic similar to that of PSMs to
+			// determine the number of target proteins
+			targets = statistics.getElementCount("targetProtein");
+			decoys = statistics.getElementCount("decoyProtein");
+			if (targets == 0 && decoys > 0)
+				targets = statistics.getElementCount("nullDecoyProtein");
+			// protein-level FDR
+//			Double proteinFDR = MzTabFDRCleaner.calculateFDR(targets, decoys);
+//			if (proteinFDR == null)
+//				proteinFDR = statedProteinFDR;
+			Double proteinFDR = statedProteinFDR;
+			Double proteinQValue =
+				statistics.getMaxQValue(FDRType.PROTEIN);
+			if (proteinQValue != null &&
+				(proteinFDR == null || proteinQValue > proteinFDR))
+				proteinFDR = proteinQValue;
+			if (proteinFDR == null &&
+				filterType != null && filterType.equals(FDRType.PROTEIN))
+				proteinFDR = filterFDR;
+			// add global FDR values to output file's metadata section,
+			// filter out all PSM rows that do not meet the FDR cutoff,
+			// propagate calculated global FDR to any empty Q-Values, and
+			// filter out all protein and peptide rows no longer supported
+			// by remaining PSM rows
+			doSecondFDRPass(
+				tempFile1, outputFile, inputFile.getMzTabFilename(),
+				filter, filterType, filterFDR,
+				peptideQValueColumn, proteinQValueColumn,
+				statedPSMFDR, psmFDR, peptideFDR, proteinFDR, statistics,
+				fdrProcessor.getPSMQValues(), fdrProcessor.getScoreIndex(),
+				higherScoreBetter, keys, scratchBase);
+			// remove temporary file, and any index written for it
+			tempFile1.delete();
+			MzTabFileIndex.getIndexFile(tempFile1).delete();
+		} finally {
+			if (keys != null)
+				keys.close();
+			if (inMemory)
+				releaseMemory(reservation);
+			deleteScratchDirectory(scratch);
+		}
 	}
 	
 	/**
@@ -241,8 +529,10 @@ public class MzTabFDRCleaner
 	 * 2. If filter=true, then filter out all PSM rows with passThreshold=false
 	 * or isDecoy=true.
 	 * 
-	 * 3. For any PSM rows whose Q-value is not known, propagate calculated
-	 * global PSM-level FDR to that column.
+	 * 3. For any PSM rows whose Q-value is not known, fill in the Q-value
+	 * estimated from its score, if Q-values were estimated from scores in
+	 * the first pass, or otherwise propagate calculated global PSM-level FDR
+	 * to that column.
 	 * 
 	 * 4. If filter=true and filterFDR is not null, then also filter out all
 	 * rows whose Q-value (of the type specified by filterType) is greater than
@@ -256,8 +546,15 @@ public class MzTabFDRCleaner
 	 * FDR, or 1% if none was specified.
 	 * 
 	 * 6. Remove from the argument peptides and proteins maps all elements
-	 * that are no longer supported by any remaining PSM rows, after filtering,
-	 * to set up the third pass.
+	 * that are no longer supported by any remaining PSM rows, after filtering.
+	 * 
+	 * 7. If filter=true, filter out all PRT and PEP rows not supported by any
+	 * remaining PSM row. These sections come before the PSM section, so if
+	 * the keys of all PSM rows were recorded in the first pass, then which
+	 * peptides and proteins remain is settled from those before this pass
+	 * begins, and every section is written out in its place as it's read.
+	 * Otherwise, PRT and PEP rows are all kept, and the peptides and
+	 * proteins maps are only cleaned up once this pass is done.
 	 * 
 	 * @param input
 	 * @param output
@@ -280,23 +577,152 @@ public class MzTabFDRCleaner
 		Double statedPSMFDR, Double psmFDR, Double peptideFDR,
 		Double proteinFDR, MzTabFDRStatistics statistics
 	) {
-		if (input == null || output == null)
+		doSecondFDRPass(input, output, mzTabFilename,
+			filter, filterType, filterFDR,
+			peptideQValueColumn, proteinQValueColumn,
+			statedPSMFDR, psmFDR, peptideFDR, proteinFDR, statistics,
+			null, null, true);
+	}
+	
+	/**
+	 * @param psmQValues		PSM-level Q-values estimated from scores in
+	 * 							the first pass, or null if none were
+	 * @param scoreIndex		index of the PSM score column they were
+	 * 							estimated from
+	 * @param higherScoreBetter	whether higher scores in that column are better
+	 */
+	public static void doSecondFDRPass(
+		File input, File output, String mzTabFilename,
+		boolean filter, FDRType filterType, Double filterFDR,
+		String peptideQValueColumn, String proteinQValueColumn,
+		Double statedPSMFDR, Double psmFDR, Double peptideFDR,
+		Double proteinFDR, MzTabFDRStatistics statistics,
+		QValueEstimator psmQValues, Integer scoreIndex,
+		boolean higherScoreBetter
+	) {
+		doSecondFDRPass(input, output, mzTabFilename,
+			filter, filterType, filterFDR,
+			peptideQValueColumn, proteinQValueColumn,
+			statedPSMFDR, psmFDR, peptideFDR, proteinFDR, statistics,
+			psmQValues, scoreIndex, higherScoreBetter, null, output);
+	}
+	
+	/**
+	 * @param keys				keys of all PSM, PRT and PEP rows recorded in
+	 * 							the first pass, or null if none were
+	 * @param scratchBase		base path of this pass's temporary files
+	 */
+	private static void doSecondFDRPass(
+		File input, File output, String mzTabFilename,
+		boolean filter, FDRType filterType, Double filterFDR,
+		String peptideQValueColumn, String proteinQValueColumn,
+		Double statedPSMFDR, Double psmFDR, Double peptideFDR,
+		Double proteinFDR, MzTabFDRCounter statistics,
+		QValueEstimator psmQValues, Integer scoreIndex,
+		boolean higherScoreBetter, FilterKeyRecorder keys, File scratchBase
+	) {
+		if (input == null || output == null || scratchBase == null)
 			return;
 		// if the user did not specify a global PSM-level FDR, use the default
 		// FDR cutoff for rows with no passThreshold and an original Q-value
 		if (statedPSMFDR == null)
 			statedPSMFDR = DEFAULT_PSM_FDR_THRESHOLD;
-		// keep track of all peptides and proteins to keep after filtering
+		// determine which global FDR value to fall back on for rows
+		// with no Q-value of the selected FDR filter type
+		Double globalFDR = null;
+		if (filterType == null || filterType.equals(FDRType.PSM))
+			globalFDR = psmFDR;
+		else if (filterType.equals(FDRType.PEPTIDE))
+			globalFDR = peptideFDR;
+		else if (filterType.equals(FDRType.PROTEIN))
+			globalFDR = proteinFDR;
+		// settle which peptides and proteins remain after filtering from the
+		// keys recorded in the first pass, so that PRT and PEP rows can be
+		// filtered as they are read; if statistics are kept on disk, then so
+		// are the kept elements, to be merge-joined with the recorded keys
+		// of all PRT and PEP rows to find the ordinals of those to drop
+		boolean external = statistics instanceof ExternalMzTabFDRStatistics;
+		MzTabFDRStatistics elements = null;
+		if (statistics instanceof MzTabFDRStatistics)
+			elements = (MzTabFDRStatistics)statistics;
+		boolean settled = false;
 		Set<String> keptPeptides = new HashSet<String>();
 		Set<String> keptProteins = new HashSet<String>();
+		ExternalSorter droppedOrdinals = null;
+		DroppedRows droppedRows = null;
+		if (filter && statistics != null && keys != null) try {
+			ExternalSorter keptElements = null;
+			if (external)
+				keptElements = new ExternalSorter(new File(String.format(
+					"%s.kept.temp", scratchBase.getAbsolutePath())), true);
+			try {
+				BufferedReader records = keys.getPSMKeys();
+				try {
+					String record = null;
+					while ((record = records.readLine()) != null) {
+						String[] key = record.split("\\t", -1);
+						// the PSM-level Q-value as found in the file,
+						// or else as estimated from the PSM's score
+						Double originalPSMQValue = parseQValue(key[3]);
+						if (originalPSMQValue == null &&
+							psmQValues != null && scoreIndex != null) {
+							Double score = FDRCalculationProcessor.parseScore(
+								key[4], higherScoreBetter);
+							if (score != null)
+								originalPSMQValue = psmQValues.getQValue(score);
+						}
+						// a missing PSM-level Q-value would be filled in with
+						// the global PSM-level FDR, which is what a row with
+						// no Q-value of the filter type is checked against
+						Double qValue = null;
+						if (filterType == null ||
+							filterType.equals(FDRType.PSM))
+							qValue = originalPSMQValue;
+						else qValue = parseQValue(key[5]);
+						if (isPSMRowKept(
+							CommonUtils.parseBooleanColumn(key[2]),
+							originalPSMQValue, qValue, filterFDR, globalFDR,
+							statedPSMFDR) == false)
+							continue;
+						else if (external) {
+							keptElements.add(getSectionRowKey("PEP", key[0]));
+							keptElements.add(getSectionRowKey("PRT", key[1]));
+						} else {
+							keptPeptides.add(key[0]);
+							keptProteins.add(key[1]);
+						}
+					}
+				} finally {
+					try { records.close(); } catch (Throwable error) {}
+				}
+				if (external) {
+					droppedOrdinals = joinSectionRows(
+						keys.getSectionRows(), keptElements, scratchBase);
+					droppedRows = new DroppedRows(droppedOrdinals.finish());
+				} else removeUnsupportedElements(
+					elements, keptPeptides, keptProteins);
+				settled = true;
+			} finally {
+				if (keptElements != null)
+					keptElements.close();
+			}
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not read back the recorded keys of mzTab file [%s].",
+				mzTabFilename), error);
+		}
 		// read through input mzTab file, update it for FDR
 		// purposes, write updated rows to output file
-		BufferedReader reader = null;
+		MappedLineReader reader = null;
 		PrintWriter writer = null;
 		try {
-			reader = new BufferedReader(new FileReader(input));
-			writer = new PrintWriter(
-				new BufferedWriter(new FileWriter(output, false)));
+			reader = new MappedLineReader(input);
+			// make sure any necessary parent directories are
+			// present before trying to write the output file
+			output.getParentFile().mkdirs();
+			writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output, false),
+				MappedLineReader.DEFAULT_CHARSET)));
 			// determine if anything new needs to be written
 			boolean doneWritingFDR = false;
 			if (psmFDR == null && peptideFDR == null && proteinFDR == null)
@@ -312,6 +738,11 @@ public class MzTabFDRCleaner
 			Integer psmQValueIndex = null;
 			Integer peptideQValueIndex = null;
 			Integer proteinQValueIndex = null;
+			// initialize PRH and PEH column variables
+			MzTabSectionHeader prtHeader = null;
+			Integer prtAccessionIndex = null;
+			MzTabSectionHeader pepHeader = null;
+			Integer pepSequenceIndex = null;
 			// iterate over all lines in file, edit FDR line if
 			// found or otherwise splice it in at the correct
 			// location, and pass through all other lines
@@ -322,6 +753,12 @@ public class MzTabFDRCleaner
 				if (line == null)
 					break;
 				lineNumber++;
+				// fill in this PSM row's missing Q-value from its score,
+				// if Q-values were estimated from scores
+				if (psmQValues != null && scoreIndex != null &&
+					psmHeader != null && line.startsWith("PSM"))
+					line = fillEstimatedQValue(line, psmQValueIndex,
+						scoreIndex, higherScoreBetter, psmQValues);
 				if (line.startsWith("MTD")) {
 					// write global FDR metadata line in the correct place
 					if (doneWritingFDR == false) {
@@ -349,10 +786,13 @@ public class MzTabFDRCleaner
 								String calculatedFDRList =
 									getCalculatedFDRList(
 										psmFDR, peptideFDR, proteinFDR);
-								if (calculatedFDRList != null)
-									writer.println(String.format("MTD\t%s\t%s",
+								if (calculatedFDRList != null) {
+									String fdrLine = String.format(
+										"MTD\t%s\t%s",
 										MzTabConstants.FDR_MTD_FIELD,
-										calculatedFDRList));
+										calculatedFDRList);
+									writer.println(fdrLine);
+								}
 								doneWritingFDR = true;
 							}
 							// while we're combing the MTD section,
@@ -397,6 +837,132 @@ public class MzTabFDRCleaner
 						}
 					}
 				}
+				// set up protein header
+				else if (line.startsWith("PRH")) {
+					if (prtHeader != null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"A \"PRH\" row was already seen previously in " +
+							"this file.", lineNumber, mzTabFilename, line));
+					prtHeader = new MzTabSectionHeader(line);
+					prtHeader.validateHeaderExpectations(
+						MzTabSection.PRT, Arrays.asList(RELEVANT_PRT_COLUMNS));
+					// record accession column index
+					List<String> headers = prtHeader.getColumns();
+					for (int i=0; i<headers.size(); i++) {
+						String header = headers.get(i);
+						if (header == null)
+							continue;
+						else if (header.equalsIgnoreCase(
+							MzTabConstants.PRH_PROTEIN_COLUMN)) {
+							prtAccessionIndex = i;
+							break;
+						}
+					}
+					// ensure that accession index was found
+					if (prtAccessionIndex == null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"No \"%s\" column was found.",
+							lineNumber, mzTabFilename, line,
+							MzTabConstants.PRH_PROTEIN_COLUMN));
+				}
+				// filter this PRT row if appropriate
+				else if (line.startsWith("PRT") && filter &&
+					statistics != null) {
+					if (prtHeader == null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"A \"PRT\" row was found before any \"PRH\" row.",
+							lineNumber, mzTabFilename, line));
+					else prtHeader.validateMzTabRow(line);
+					String[] row = line.split("\\t");
+					// get accession column value (must be present for all rows)
+					if (prtAccessionIndex >= row.length)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"Expected a \"%s\" column value at index %d, " +
+							"but this line only contains %d elements.",
+							lineNumber, mzTabFilename, line,
+							MzTabConstants.PRH_PROTEIN_COLUMN,
+							prtAccessionIndex, row.length));
+					// if it's settled which proteins remain, and this
+					// protein is not one of them, then filter out this row;
+					// statistics kept on disk can't be looked up, so such
+					// rows are found by joining their recorded keys instead
+					if (settled && external) {
+						if (droppedRows.isNextDropped())
+							continue;
+					} else if (settled && elements.containsProtein(
+						row[prtAccessionIndex]) == false)
+						continue;
+				}
+				// set up peptide header
+				else if (line.startsWith("PEH")) {
+					if (pepHeader != null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"A \"PEH\" row was already seen previously in " +
+							"this file.", lineNumber, mzTabFilename, line));
+					pepHeader = new MzTabSectionHeader(line);
+					pepHeader.validateHeaderExpectations(
+						MzTabSection.PEP, Arrays.asList(RELEVANT_PEP_COLUMNS));
+					// record sequence column index
+					List<String> headers = pepHeader.getColumns();
+					for (int i=0; i<headers.size(); i++) {
+						String header = headers.get(i);
+						if (header == null)
+							continue;
+						else if (header.equalsIgnoreCase(
+							MzTabConstants.PEH_PEPTIDE_COLUMN)) {
+							pepSequenceIndex = i;
+							break;
+						}
+					}
+					// ensure that sequence index was found
+					if (pepSequenceIndex == null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"No \"%s\" column was found.",
+							lineNumber, mzTabFilename, line,
+							MzTabConstants.PEH_PEPTIDE_COLUMN));
+				}
+				// filter this PEP row if appropriate
+				else if (line.startsWith("PEP") && filter &&
+					statistics != null) {
+					if (pepHeader == null)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"A \"PEP\" row was found before any \"PEH\" row.",
+							lineNumber, mzTabFilename, line));
+					else pepHeader.validateMzTabRow(line);
+					String[] row = line.split("\\t");
+					// get sequence column value (must be present for all rows)
+					if (pepSequenceIndex >= row.length)
+						throw new IllegalArgumentException(String.format(
+							"Line %d of mzTab file [%s] is invalid:" +
+							"\n----------\n%s\n----------\n" +
+							"Expected a \"%s\" column value at index %d, " +
+							"but this line only contains %d elements.",
+							lineNumber, mzTabFilename, line,
+							MzTabConstants.PEH_PEPTIDE_COLUMN,
+							pepSequenceIndex, row.length));
+					// if it's settled which peptides remain, and this
+					// peptide is not one of them, then filter out this row
+					if (settled && external) {
+						if (droppedRows.isNextDropped())
+							continue;
+					} else if (settled && elements.containsPeptide(
+						row[pepSequenceIndex]) == false)
+						continue;
+				}
 				// set up PSM section header
 				else if (line.startsWith("PSH")) {
 					if (psmHeader != null)
@@ -529,7 +1095,8 @@ public class MzTabFDRCleaner
 						}
 					}
 					// if a threshold filter FDR was specified,
-					// determine if this row makes the cut
+					// get this row's Q-value of the selected type
+					Double qValue = null;
 					if (filterFDR != null) {
 						// determine Q-Value column based
 						// on selected FDR filter type
@@ -547,7 +1114,6 @@ public class MzTabFDRCleaner
 							qValueColumnName = proteinQValueColumn;
 						}
 						// get relevant Q-Value, if present
-						Double qValue = null;
 						if (qValueIndex != null) {
 							// if Q-Value column is present in header but not
 							// this row, then that's a bad mzTab line
@@ -565,252 +1131,27 @@ public class MzTabFDRCleaner
 								qValue = Double.parseDouble(row[qValueIndex]);
 							} catch (NumberFormatException error) {}
 						}
-						// if a non-null Q-value is present
-						// for this row, then filter by that
-						if (qValue != null) {
-							if (qValue > filterFDR)
-								continue;
-						}
-						// otherwise, the user asked for filtering by FDR
-						// threshold, so check the calculated global FDR
-						// since it's the only thing left to do
-						else {
-							// determine which global FDR value to use
-							// based on selected FDR filter type
-							Double globalFDR = null;
-							if (filterType == null ||
-								filterType.equals(FDRType.PSM))
-								globalFDR = psmFDR;
-							else if (filterType.equals(FDRType.PEPTIDE))
-								globalFDR = peptideFDR;
-							else if (filterType.equals(FDRType.PROTEIN))
-								globalFDR = proteinFDR;
-							// if the global FDR of the appropriate type is
-							// null or greater than the user-specified cutoff,
-							// then this row must be cut (along with presumably
-							// all other rows, since if there is no Q-Value of
-							// the appropriate type for this row then there
-							// probably isn't one for any other row)
-							if (globalFDR == null || globalFDR > filterFDR)
-								continue;
-						}
 					}
-					// if no threshold FDR filter was specified, AND
-					// passThreshold is null, AND a non-null PSM-level Q-value
-					// was originally present in this PSM row, then filter
-					// by that Q-value against the user-specified global
-					// PSM-level FDR, or 1% if none was specified
-					else if (passThreshold == null &&
-						originalPSMQValue != null &&
-						originalPSMQValue > statedPSMFDR)
+					// filter out this row if it doesn't make the cut
+					if (isPSMRowKept(passThreshold, originalPSMQValue, qValue,
+						filterFDR, globalFDR, statedPSMFDR) == false)
 						continue;
 					// if we got this far, then the PSM row passed filtering
 					// and therefore we should note its peptide and protein
-					// as ones that should be kept in the final file
-					keptPeptides.add(row[sequenceIndex]);
-					keptProteins.add(row[accessionIndex]);
-				}
-				writer.println(line);
-			}
-		} catch (RuntimeException error) {
-			throw error;
-		} catch (Throwable error) {
-			throw new RuntimeException(error);
-		} finally {
-			try { reader.close(); } catch (Throwable error) {}
-			try { writer.close(); } catch (Throwable error) {}
-		}
-		// remove from the parent peptides and proteins maps all elements that
-		// are no longer supported by PSM evidence in the file after filtering
-		if (filter) {
-			// clean peptides
-			Set<String> originalPeptides = null;
-			if (statistics != null)
-				originalPeptides =
-					new HashSet<String>(statistics.getPeptides());
-			if (originalPeptides != null) {
-				for (String peptide : originalPeptides)
-					if (keptPeptides.contains(peptide) == false)
-						statistics.removePeptide(peptide);
-			}
-			// clean proteins
-			Set<String> originalProteins = null;
-			if (statistics != null)
-				originalProteins =
-					new HashSet<String>(statistics.getProteins());
-			if (originalProteins != null) {
-				for (String protein : originalProteins)
-					if (keptProteins.contains(protein) == false)
-						statistics.removeProtein(protein);
-			}
-		}
-	}
-	
-	/**
-	 * Steps of the third FDR pass:
-	 * 
-	 * 1. Filter out all PRT and PEP rows not supported by any remaining PSM
-	 * 
-	 * @param input
-	 * @param output
-	 * @param mzTabFilename
-	 * @param filter
-	 * @param peptides
-	 * @param proteins
-	 */
-	public static void doThirdFDRPass(
-		File input, File output, String mzTabFilename, boolean filter,
-		MzTabFDRStatistics statistics
-	) {
-		if (input == null || output == null)
-			return;
-		// read through input mzTab file, filter out unsupported PRT/PEP rows
-		BufferedReader reader = null;
-		PrintWriter writer = null;
-		try {
-			reader = new BufferedReader(new FileReader(input));
-			// make sure any necessary parent directories are
-			// present before trying to write the output file
-			output.getParentFile().mkdirs();
-			writer = new PrintWriter(
-				new BufferedWriter(new FileWriter(output, false)));
-			// initialize protein section header variables
-			MzTabSectionHeader prtHeader = null;
-			Integer accessionIndex = null;
-			// initialize peptide section header variables
-			MzTabSectionHeader pepHeader = null;
-			Integer sequenceIndex = null;
-			// iterate over all lines in file, filter out any PRT or PEP line
-			// if it is no longer found in the peptides or proteins maps
-			String line = null;
-			int lineNumber = 0;
-			while (true) {
-				line = reader.readLine();
-				if (line == null)
-					break;
-				lineNumber++;
-				// set up protein header
-				if (line.startsWith("PRH")) {
-					if (prtHeader != null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"A \"PRH\" row was already seen previously in " +
-							"this file.", lineNumber, mzTabFilename, line));
-					prtHeader = new MzTabSectionHeader(line);
-					prtHeader.validateHeaderExpectations(
-						MzTabSection.PRT, Arrays.asList(RELEVANT_PRT_COLUMNS));
-					// record accession column index
-					List<String> headers = prtHeader.getColumns();
-					for (int i=0; i<headers.size(); i++) {
-						String header = headers.get(i);
-						if (header == null)
-							continue;
-						else if (header.equalsIgnoreCase(
-							MzTabConstants.PRH_PROTEIN_COLUMN)) {
-							accessionIndex = i;
-							break;
-						}
+					// as ones that should be kept in the final file, unless
+					// that was already settled
+					if (settled == false && external == false) {
+						keptPeptides.add(row[sequenceIndex]);
+						keptProteins.add(row[accessionIndex]);
 					}
-					// ensure that accession index was found
-					if (accessionIndex == null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"No \"%s\" column was found.",
-							lineNumber, mzTabFilename, line,
-							MzTabConstants.PRH_PROTEIN_COLUMN));
-				}
-				// filter this PRT row if appropriate
-				else if (line.startsWith("PRT") && filter &&
-					statistics != null) {
-					if (prtHeader == null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"A \"PRT\" row was found before any \"PRH\" row.",
-							lineNumber, mzTabFilename, line));
-					else prtHeader.validateMzTabRow(line);
-					String[] row = line.split("\\t");
-					// get accession column value (must be present for all rows)
-					if (accessionIndex >= row.length)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"Expected a \"%s\" column value at index %d, " +
-							"but this line only contains %d elements.",
-							lineNumber, mzTabFilename, line,
-							MzTabConstants.PRH_PROTEIN_COLUMN,
-							accessionIndex, row.length));
-					// if this protein's accession is not found in
-					// the proteins map, then filter out this row
-					String accession = row[accessionIndex];
-					if (accession != null &&
-						statistics.containsProtein(accession) == false)
-						continue;
-				}
-				// set up peptide header
-				else if (line.startsWith("PEH")) {
-					if (pepHeader != null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"A \"PEH\" row was already seen previously in " +
-							"this file.", lineNumber, mzTabFilename, line));
-					pepHeader = new MzTabSectionHeader(line);
-					pepHeader.validateHeaderExpectations(
-						MzTabSection.PEP, Arrays.asList(RELEVANT_PEP_COLUMNS));
-					// record sequence column index
-					List<String> headers = pepHeader.getColumns();
-					for (int i=0; i<headers.size(); i++) {
-						String header = headers.get(i);
-						if (header == null)
-							continue;
-						else if (header.equalsIgnoreCase(
-							MzTabConstants.PEH_PEPTIDE_COLUMN)) {
-							sequenceIndex = i;
-							break;
-						}
-					}
-					// ensure that sequence index was found
-					if (sequenceIndex == null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"No \"%s\" column was found.",
-							lineNumber, mzTabFilename, line,
-							MzTabConstants.PEH_PEPTIDE_COLUMN));
-				}
-				// filter this PEP row if appropriate
-				else if (line.startsWith("PEP") && filter &&
-					statistics != null) {
-					if (pepHeader == null)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"A \"PEP\" row was found before any \"PEH\" row.",
-							lineNumber, mzTabFilename, line));
-					else pepHeader.validateMzTabRow(line);
-					String[] row = line.split("\\t");
-					// get sequence column value (must be present for all rows)
-					if (sequenceIndex >= row.length)
-						throw new IllegalArgumentException(String.format(
-							"Line %d of mzTab file [%s] is invalid:" +
-							"\n----------\n%s\n----------\n" +
-							"Expected a \"%s\" column value at index %d, " +
-							"but this line only contains %d elements.",
-							lineNumber, mzTabFilename, line,
-							MzTabConstants.PEH_PEPTIDE_COLUMN,
-							sequenceIndex, row.length));
-					// if this peptide's sequence is not found in
-					// the peptides map, then filter out this row
-					String sequence = row[sequenceIndex];
-					if (sequence != null &&
-						statistics.containsPeptide(sequence) == false)
-						continue;
 				}
 				writer.println(line);
 			}
+			// if it wasn't settled up front, then remove from the
+			// statistics all peptides and proteins that don't remain
+			if (filter && settled == false && external == false)
+				removeUnsupportedElements(
+					elements, keptPeptides, keptProteins);
 		} catch (RuntimeException error) {
 			throw error;
 		} catch (Throwable error) {
@@ -818,6 +1159,10 @@ public class MzTabFDRCleaner
 		} finally {
 			try { reader.close(); } catch (Throwable error) {}
 			try { writer.close(); } catch (Throwable error) {}
+			if (droppedRows != null)
+				droppedRows.close();
+			if (droppedOrdinals != null)
+				droppedOrdinals.close();
 		}
 	}
 	
@@ -845,6 +1190,14 @@ public class MzTabFDRCleaner
 		private Double  psmFDR;
 		private Double  peptideFDR;
 		private Double  proteinFDR;
+		private boolean pipelined;
+		private boolean indexed;
+		private File    indexDirectory;
+		private Long    externalThreshold;
+		private String  scoreColumn;
+		private boolean higherScoreBetter;
+		private int     threads;
+		private File    scratchDirectory;
 		
 		/*====================================================================
 		 * Constructors
@@ -855,7 +1208,10 @@ public class MzTabFDRCleaner
 			String psmQValueColumn, String peptideQValueColumn,
 			String proteinQValueColumn,
 			boolean filter, String filterType, Double filterFDR,
-			Double psmFDR, Double peptideFDR, Double proteinFDR
+			Double psmFDR, Double peptideFDR, Double proteinFDR,
+			boolean pipelined, boolean indexed, File indexDirectory,
+			Long externalThreshold, String scoreColumn, String scoreOrder,
+			Integer threads, File scratchDirectory
 		) {
 			// validate mzTab directory
 			if (mzTabDirectory == null)
@@ -908,6 +1264,357 @@ public class MzTabFDRCleaner
 			this.psmFDR = psmFDR;
 			this.peptideFDR = peptideFDR;
 			this.proteinFDR = proteinFDR;
+			// initialize pipelining flag
+			this.pipelined = pipelined;
+			// initialize indexing flag
+			this.indexed = indexed;
+			// initialize index directory (null for the default)
+			this.indexDirectory = indexDirectory;
+			// initialize external statistics threshold (null for default)
+			this.externalThreshold = externalThreshold;
+			// initialize Q-value estimation score column (may be null)
+			this.scoreColumn = scoreColumn;
+			// validate score order
+			if (scoreOrder == null || scoreOrder.trim().equals("") ||
+				scoreOrder.trim().equalsIgnoreCase("higher"))
+				higherScoreBetter = true;
+			else if (scoreOrder.trim().equalsIgnoreCase("lower"))
+				higherScoreBetter = false;
+			else throw new IllegalArgumentException(
+				String.format("Unrecognized score order [%s]: must be " +
+					"\"higher\" or \"lower\".", scoreOrder));
+			// validate thread count (default 1)
+			if (threads == null)
+				this.threads = 1;
+			else if (threads < 1)
+				throw new IllegalArgumentException(String.format(
+					"Thread count [%d] must be a positive integer.", threads));
+			else this.threads = threads;
+			// validate scratch directory (null for the current directory)
+			if (scratchDirectory != null) {
+				scratchDirectory.mkdirs();
+				if (scratchDirectory.isDirectory() == false)
+					throw new IllegalArgumentException(String.format(
+						"Scratch directory [%s] must be a directory.",
+						scratchDirectory.getAbsolutePath()));
+				else if (scratchDirectory.canWrite() == false)
+					throw new IllegalArgumentException(String.format(
+						"Scratch directory [%s] must be writable.",
+						scratchDirectory.getAbsolutePath()));
+			}
+			this.scratchDirectory = scratchDirectory;
+		}
+	}
+	
+	/**
+	 * Processor run last in the first FDR pass, to record the keys from which
+	 * the second pass settles which peptides and proteins remain after
+	 * filtering, before it reaches any PRT or PEP row. Whether a PSM row makes
+	 * the cut can only be decided once the global FDR values are known, so
+	 * for every PSM row that doesn't already fail threshold or is a decoy,
+	 * only its peptide, protein, passThreshold, Q-values and score are held,
+	 * in memory up to a fixed size and spilled to disk beyond that. If FDR
+	 * statistics are kept on disk, then the key of every PRT and PEP row is
+	 * also recorded, to be merge-joined with the kept elements.
+	 */
+	private static class FilterKeyRecorder implements MzTabRowProcessor {
+		/*====================================================================
+		 * Properties
+		 *====================================================================*/
+		private FDRCalculationProcessor fdrProcessor;
+		private String                  peptideQValueColumn;
+		private String                  proteinQValueColumn;
+		private FDRType                 filterType;
+		private Double                  filterFDR;
+		// score columns, mapped only as far as the second pass maps them
+		private Map<Integer, String>    scoreColumns;
+		private boolean                 scoresMapped;
+		// PRT, PEP and PSM section column indices
+		private Integer                 prtAccessionIndex;
+		private Integer                 pepSequenceIndex;
+		private Integer                 sequenceIndex;
+		private Integer                 accessionIndex;
+		private Integer                 passThresholdIndex;
+		private Integer                 isDecoyIndex;
+		private Integer                 qValueIndex;
+		private Integer                 filterQValueIndex;
+		// recorded keys
+		private File                    psmKeysFile;
+		private SpillBuffer             psmKeys;
+		private PrintWriter             psmKeysWriter;
+		private ExternalSorter          sectionRows;
+		private long                    sectionRowCount;
+		
+		/*====================================================================
+		 * Constructors
+		 *====================================================================*/
+		public FilterKeyRecorder(
+			FDRCalculationProcessor fdrProcessor,
+			String peptideQValueColumn, String proteinQValueColumn,
+			FDRType filterType, Double filterFDR, boolean external,
+			File scratchBase
+		) {
+			if (fdrProcessor == null)
+				throw new NullPointerException(
+					"FDR calculation processor cannot be null.");
+			else this.fdrProcessor = fdrProcessor;
+			this.peptideQValueColumn = peptideQValueColumn;
+			this.proteinQValueColumn = proteinQValueColumn;
+			this.filterType = filterType;
+			this.filterFDR = filterFDR;
+			scoreColumns = new HashMap<Integer, String>();
+			scoresMapped = false;
+			psmKeysFile = new File(String.format(
+				"%s.keys.temp", scratchBase.getAbsolutePath()));
+			psmKeys = new SpillBuffer(psmKeysFile);
+			psmKeysWriter = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(
+					psmKeys, MappedLineReader.DEFAULT_CHARSET)));
+			if (external)
+				sectionRows = new ExternalSorter(new File(String.format(
+					"%s.rows.temp", scratchBase.getAbsolutePath())), false);
+			else sectionRows = null;
+			sectionRowCount = 0;
+		}
+		
+		/*====================================================================
+		 * Public interface methods
+		 *====================================================================*/
+		public void setUp(MzTabFile mzTabFile) {}
+		
+		public void processMzTabRow(MzTabRow row) {
+			String line = row.getLine();
+			try {
+				if (line.startsWith("MTD"))
+					mapScoreColumn(row);
+				else if (line.startsWith("PRH"))
+					prtAccessionIndex = getColumnIndex(
+						line, MzTabConstants.PRH_PROTEIN_COLUMN);
+				else if (line.startsWith("PRT"))
+					recordSectionRow(row, "PRT", prtAccessionIndex);
+				else if (line.startsWith("PEH"))
+					pepSequenceIndex = getColumnIndex(
+						line, MzTabConstants.PEH_PEPTIDE_COLUMN);
+				else if (line.startsWith("PEP"))
+					recordSectionRow(row, "PEP", pepSequenceIndex);
+				else if (line.startsWith("PSH"))
+					mapPSMColumns(line);
+				else if (line.startsWith("PSM"))
+					recordPSMRow(row);
+			} catch (IOException error) {
+				throw new RuntimeException(String.format(
+					"Could not record the keys of line %d of mzTab file.",
+					row.getLineNumber()), error);
+			}
+		}
+		
+		public void tearDown() {
+			psmKeysWriter.close();
+			if (psmKeysWriter.checkError())
+				throw new RuntimeException(String.format(
+					"Could not record the keys of PSM rows to [%s].",
+					psmKeysFile.getAbsolutePath()));
+		}
+		
+		/**
+		 * Returns a reader of the recorded keys of all PSM rows that may make
+		 * the cut, in file order; valid once this processor is torn down.
+		 */
+		public BufferedReader getPSMKeys() throws IOException {
+			return new BufferedReader(new InputStreamReader(
+				psmKeys.getInputStream(), MappedLineReader.DEFAULT_CHARSET));
+		}
+		
+		/**
+		 * Returns the recorded keys of all PRT and PEP rows, with their
+		 * ordinals, or null if FDR statistics are kept in memory.
+		 */
+		public ExternalSorter getSectionRows() {
+			return sectionRows;
+		}
+		
+		/**
+		 * Deletes all recorded keys, whether or not they were read back.
+		 */
+		public void close() {
+			psmKeysWriter.close();
+			psmKeysFile.delete();
+			if (sectionRows != null)
+				sectionRows.close();
+		}
+		
+		/*====================================================================
+		 * Convenience methods
+		 *====================================================================*/
+		private void mapScoreColumn(MzTabRow row) {
+			// the second pass stops mapping score columns once it has
+			// written the FDR line, so stop at the same place
+			if (scoresMapped)
+				return;
+			String line = row.getLine();
+			if (MzTabConstants.FDR_LINE_PATTERN.matcher(line).matches()) {
+				scoresMapped = true;
+				return;
+			} else if (row.getColumnCount() > 1 &&
+				isMTDFieldAfterFDR(row.getColumn(1)))
+				scoresMapped = true;
+			// any invalid declaration is reported by the other passes
+			Matcher matcher =
+				MzTabConstants.PSM_SEARCH_ENGINE_SCORE_LINE_PATTERN.matcher(
+					line);
+			if (matcher.matches() == false)
+				return;
+			int index;
+			try { index = Integer.parseInt(matcher.group(1)); }
+			catch (NumberFormatException error) {
+				return;
+			}
+			matcher = MzTabConstants.CV_TERM_PATTERN.matcher(matcher.group(2));
+			if (matcher.matches())
+				scoreColumns.put(index, matcher.group(3));
+		}
+		
+		private void mapPSMColumns(String line) {
+			// record FDR-relevant column indices just like the second pass
+			Integer peptideQValueIndex = null;
+			Integer proteinQValueIndex = null;
+			List<String> headers = new MzTabSectionHeader(line).getColumns();
+			for (int i=0; i<headers.size(); i++) {
+				String header = headers.get(i);
+				if (header == null)
+					continue;
+				else if (header.equalsIgnoreCase(
+					MzTabConstants.PSH_PEPTIDE_COLUMN))
+					sequenceIndex = i;
+				else if (header.equalsIgnoreCase(
+					MzTabConstants.PSH_PROTEIN_COLUMN))
+					accessionIndex = i;
+				else if (header.equalsIgnoreCase(
+					MzTabConstants.PASS_THRESHOLD_COLUMN))
+					passThresholdIndex = i;
+				else if (header.equalsIgnoreCase(
+					MzTabConstants.IS_DECOY_COLUMN))
+					isDecoyIndex = i;
+				else if (header.equalsIgnoreCase(
+					MzTabConstants.Q_VALUE_COLUMN))
+					qValueIndex = i;
+				else if (CommonUtils.headerCorrespondsToColumn(
+					header, peptideQValueColumn, scoreColumns))
+					peptideQValueIndex = i;
+				else if (CommonUtils.headerCorrespondsToColumn(
+					header, proteinQValueColumn, scoreColumns))
+					proteinQValueIndex = i;
+			}
+			// only the Q-values of the selected FDR filter type are needed
+			if (filterFDR == null || filterType == null)
+				filterQValueIndex = null;
+			else if (filterType.equals(FDRType.PEPTIDE))
+				filterQValueIndex = peptideQValueIndex;
+			else if (filterType.equals(FDRType.PROTEIN))
+				filterQValueIndex = proteinQValueIndex;
+		}
+		
+		private void recordPSMRow(MzTabRow row) throws IOException {
+			// any row missing a controlled FDR column is reported
+			// by the second pass, which then fails anyway
+			int count = row.getColumnCount();
+			if (sequenceIndex == null || sequenceIndex >= count ||
+				accessionIndex == null || accessionIndex >= count ||
+				passThresholdIndex == null || passThresholdIndex >= count ||
+				isDecoyIndex == null || isDecoyIndex >= count ||
+				qValueIndex == null || qValueIndex >= count)
+				return;
+			// rows that fail threshold or are decoys never make the cut
+			Boolean passThreshold = CommonUtils.parseBooleanColumn(
+				row.getColumn(passThresholdIndex));
+			if (passThreshold != null && passThreshold == false)
+				return;
+			Boolean isDecoy =
+				CommonUtils.parseBooleanColumn(row.getColumn(isDecoyIndex));
+			if (isDecoy != null && isDecoy == true)
+				return;
+			// note the score from which a missing Q-value may be estimated
+			String score = "null";
+			Integer scoreIndex = fdrProcessor.getScoreIndex();
+			if (scoreIndex != null && scoreIndex < count)
+				score = row.getColumn(scoreIndex);
+			String qValue = "null";
+			if (filterQValueIndex != null && filterQValueIndex < count)
+				qValue = row.getColumn(filterQValueIndex);
+			psmKeysWriter.println(String.format("%s\t%s\t%s\t%s\t%s\t%s",
+				row.getColumn(sequenceIndex), row.getColumn(accessionIndex),
+				passThreshold, row.getColumn(qValueIndex), score, qValue));
+		}
+		
+		private void recordSectionRow(
+			MzTabRow row, String section, Integer index
+		) throws IOException {
+			// rows on either side of the PSM section are filtered alike
+			if (sectionRows == null ||
+				index == null || index >= row.getColumnCount())
+				return;
+			sectionRows.add(getSectionRowRecord(
+				section, row.getColumn(index), sectionRowCount++));
+		}
+		
+		private Integer getColumnIndex(String line, String column) {
+			List<String> headers = new MzTabSectionHeader(line).getColumns();
+			for (int i=0; i<headers.size(); i++) {
+				String header = headers.get(i);
+				if (header != null && header.equalsIgnoreCase(column))
+					return i;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads back, in order, the ordinals of all PRT and PEP rows to be
+	 * filtered out of a file whose FDR statistics are kept on disk.
+	 */
+	private static class DroppedRows {
+		/*====================================================================
+		 * Properties
+		 *====================================================================*/
+		private SortedReader ordinals;
+		private Long         next;
+		private long         count;
+		
+		/*====================================================================
+		 * Constructors
+		 *====================================================================*/
+		public DroppedRows(SortedReader ordinals) throws IOException {
+			this.ordinals = ordinals;
+			count = 0;
+			advance();
+		}
+		
+		/*====================================================================
+		 * Public interface methods
+		 *====================================================================*/
+		/**
+		 * Returns whether the next recorded PRT or PEP row is to be dropped.
+		 */
+		public boolean isNextDropped() throws IOException {
+			long ordinal = count++;
+			if (next == null || next != ordinal)
+				return false;
+			advance();
+			return true;
+		}
+		
+		public void close() {
+			ordinals.close();
+		}
+		
+		/*====================================================================
+		 * Convenience methods
+		 *====================================================================*/
+		private void advance() throws IOException {
+			String ordinal = ordinals.readLine();
+			if (ordinal == null)
+				next = null;
+			else next = Long.parseLong(ordinal);
 		}
 	}
 	
@@ -931,6 +1638,14 @@ public class MzTabFDRCleaner
 		Double psmFDR = null;
 		Double peptideFDR = null;
 		Double proteinFDR = null;
+		Boolean pipelined = false;
+		Boolean indexed = false;
+		File indexDirectory = null;
+		Long externalThreshold = null;
+		String scoreColumn = null;
+		String scoreOrder = null;
+		Integer threads = null;
+		File scratchDirectory = null;
 		for (int i=0; i<args.length; i++) {
 			String argument = args[i];
 			if (argument == null)
@@ -1005,7 +1720,39 @@ public class MzTabFDRCleaner
 					throw new IllegalArgumentException(String.format(
 						"Illegal value for \"-proteinFDR\": [%s]", value),
 						error);
-				} else return null;
+				} else if (argument.equals("-pipeline")) {
+					pipelined = CommonUtils.parseBooleanColumn(value);
+					if (pipelined == null)
+						throw new IllegalArgumentException(String.format(
+							"Unrecognized value for \"-pipeline\": [%s]",
+							value));
+				} else if (argument.equals("-index")) {
+					indexed = CommonUtils.parseBooleanColumn(value);
+					if (indexed == null)
+						throw new IllegalArgumentException(String.format(
+							"Unrecognized value for \"-index\": [%s]",
+							value));
+				} else if (argument.equals("-indexDirectory"))
+					indexDirectory = new File(value);
+				else if (argument.equals("-externalThreshold")) {
+					externalThreshold = CommonUtils.parseBytes(value);
+					if (externalThreshold == null)
+						throw new IllegalArgumentException(String.format(
+							"Illegal value for \"-externalThreshold\": [%s]",
+							value));
+				} else if (argument.equals("-score"))
+					scoreColumn = value;
+				else if (argument.equals("-scoreOrder"))
+					scoreOrder = value;
+				else if (argument.equals("-threads")) try {
+					threads = Integer.parseInt(value);
+				} catch (NumberFormatException error) {
+					throw new IllegalArgumentException(String.format(
+						"Illegal value for \"-threads\": [%s]", value),
+						error);
+				} else if (argument.equals("-scratch"))
+					scratchDirectory = new File(value);
+				else return null;
 			}
 		}
 		try {
@@ -1013,7 +1760,9 @@ public class MzTabFDRCleaner
 				mzTabDirectory, outputDirectory,
 				passThresholdColumn, decoyColumn, decoyPattern,
 				psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
-				filter, filterType, filterFDR, psmFDR, peptideFDR, proteinFDR);
+				filter, filterType, filterFDR, psmFDR, peptideFDR, proteinFDR,
+				pipelined, indexed, indexDirectory, externalThreshold,
+				scoreColumn, scoreOrder, threads, scratchDirectory);
 		} catch (Throwable error) {
 			die("There was an error reading command line parameters " +
 				"to set up mzTab FDR cleanup operation.", error);
@@ -1021,6 +1770,115 @@ public class MzTabFDRCleaner
 		}
 	}
 	
+	/**
+	 * Removes from the argument statistics all peptides and proteins that are
+	 * no longer supported by PSM evidence in the file after filtering.
+	 */
+	private static void removeUnsupportedElements(
+		MzTabFDRStatistics statistics, Set<String> keptPeptides,
+		Set<String> keptProteins
+	) {
+		if (statistics == null)
+			return;
+		// clean peptides
+		for (String peptide : new HashSet<String>(statistics.getPeptides()))
+			if (keptPeptides.contains(peptide) == false)
+				statistics.removePeptide(peptide);
+		// clean proteins
+		for (String protein : new HashSet<String>(statistics.getProteins()))
+			if (keptProteins.contains(protein) == false)
+				statistics.removeProtein(protein);
+	}
+	
+	/**
+	 * Merge-joins the sorted keys of all recorded PRT and PEP rows with the
+	 * sorted keys of all kept elements, and returns the ordinals of all rows
+	 * without a match, to be read back in the order in which the rows are.
+	 */
+	private static ExternalSorter joinSectionRows(
+		ExternalSorter sectionRows, ExternalSorter keptElements,
+		File scratchBase
+	) throws IOException {
+		ExternalSorter dropped = new ExternalSorter(new File(String.format(
+			"%s.dropped.temp", scratchBase.getAbsolutePath())), false);
+		SortedReader rows = sectionRows.finish();
+		SortedReader kept = keptElements.finish();
+		try {
+			String keptKey = getKey(kept.readLine());
+			String row = null;
+			while ((row = rows.readLine()) != null) {
+				String key = getKey(row);
+				while (keptKey != null &&
+					ExternalSorter.compareKeys(keptKey, key) < 0)
+					keptKey = getKey(kept.readLine());
+				if (key.equals(keptKey) == false)
+					dropped.add(row.substring(key.length() + 1));
+			}
+		} finally {
+			rows.close();
+			kept.close();
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Returns whether a PSM row that neither fails threshold nor is a decoy
+	 * makes the FDR cut, given its PSM-level Q-value as originally found in
+	 * the file (or estimated from its score), and its Q-value of the selected
+	 * FDR filter type, if any.
+	 */
+	private static boolean isPSMRowKept(
+		Boolean passThreshold, Double originalPSMQValue, Double qValue,
+		Double filterFDR, Double globalFDR, Double statedPSMFDR
+	) {
+		// if a threshold filter FDR was specified,
+		// determine if this row makes the cut
+		if (filterFDR != null) {
+			// if a non-null Q-value is present
+			// for this row, then filter by that
+			if (qValue != null)
+				return (qValue > filterFDR) == false;
+			// otherwise, the user asked for filtering by FDR threshold, so
+			// check the calculated global FDR of the appropriate type since
+			// it's the only thing left to do; if it's null or greater than
+			// the user-specified cutoff, then this row must be cut (along
+			// with presumably all other rows, since if there is no Q-Value
+			// of the appropriate type for this row then there probably
+			// isn't one for any other row)
+			else return globalFDR != null && (globalFDR > filterFDR) == false;
+		}
+		// if no threshold FDR filter was specified, AND passThreshold is
+		// null, AND a non-null PSM-level Q-value was originally present in
+		// this PSM row, then filter by that Q-value against the user-specified
+		// global PSM-level FDR, or 1% if none was specified
+		else return passThreshold != null || originalPSMQValue == null ||
+			(originalPSMQValue > statedPSMFDR) == false;
+	}
+	
+	private static Double parseQValue(String value) {
+		try { return Double.parseDouble(value); }
+		catch (NumberFormatException error) {
+			return null;
+		}
+	}
+	
+	private static String getSectionRowKey(String section, String value) {
+		return String.format("%s%s\t", section, value);
+	}
+	
+	private static String getSectionRowRecord(
+		String section, String value, long ordinal
+	) {
+		// pad ordinals so that they sort in numeric order
+		return String.format("%s%s\t%019d", section, value, ordinal);
+	}
+	
+	private static String getKey(String record) {
+		if (record == null)
+			return null;
+		else return record.substring(0, record.indexOf('\t'));
+	}
+	
 	private static String getCalculatedFDRList(
 		Double psmFDR, Double peptideFDR, Double proteinFDR
 	) {
@@ -1042,6 +1900,81 @@ public class MzTabFDRCleaner
 		return fdr.toString();
 	}
 	
+	private static void log(String message) {
+		if (message != null)
+			System.out.println(message);
+	}
+	
+	/**
+	 * Reserves the argument number of bytes from the memory budget for FDR
+	 * statistics, returning false if there isn't enough left.
+	 */
+	private static synchronized boolean reserveMemory(long bytes) {
+		if (reservedMemory + bytes > externalThreshold)
+			return false;
+		reservedMemory += bytes;
+		return true;
+	}
+	
+	private static synchronized void releaseMemory(long bytes) {
+		reservedMemory -= bytes;
+	}
+	
+	private static File createScratchDirectory(String filename) {
+		File root = scratchDirectory;
+		if (root == null)
+			root = new File(System.getProperty("user.dir"));
+		root.mkdirs();
+		// File.createTempFile is the only way to atomically claim a unique
+		// name, so claim one and then turn it into a directory
+		try {
+			File scratch = File.createTempFile(
+				String.format("%s.", filename), ".temp", root);
+			if (scratch.delete() && scratch.mkdir())
+				return scratch;
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not create a scratch directory for mzTab file [%s] " +
+				"under [%s].", filename, root.getAbsolutePath()), error);
+		}
+		throw new RuntimeException(String.format(
+			"Could not create a scratch directory for mzTab file [%s] " +
+			"under [%s].", filename, root.getAbsolutePath()));
+	}
+	
+	private static void deleteScratchDirectory(File scratch) {
+		File[] files = scratch.listFiles();
+		if (files != null)
+			for (File file : files) {
+				file.delete();
+				MzTabFileIndex.getIndexFile(file).delete();
+			}
+		scratch.delete();
+	}
+	
+	private static String fillEstimatedQValue(
+		String line, int qValueIndex, int scoreIndex,
+		boolean higherScoreBetter, QValueEstimator qValues
+	) {
+		String[] row = line.split("\\t");
+		if (qValueIndex >= row.length || scoreIndex >= row.length)
+			return line;
+		// leave any valid Q-value alone
+		try {
+			Double.parseDouble(row[qValueIndex]);
+			return line;
+		} catch (NumberFormatException error) {}
+		Double score = FDRCalculationProcessor.parseScore(
+			row[scoreIndex], higherScoreBetter);
+		if (score == null)
+			return line;
+		Double qValue = qValues.getQValue(score);
+		if (qValue == null)
+			return line;
+		row[qValueIndex] = formatFDR(qValue);
+		return getLine(row);
+	}
+	
 	private static String formatFDR(Double fdr) {
 		if (fdr == null)
 			return null;
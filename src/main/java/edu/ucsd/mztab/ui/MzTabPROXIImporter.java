@@ -1,17 +1,22 @@
 package edu.ucsd.mztab.ui;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.RandomAccessFile;
 import java.sql.Connection;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,13 +24,20 @@ import org.apache.commons.lang3.tuple.ImmutableTriple;
 
 import edu.ucsd.mztab.MzTabReader;
 import edu.ucsd.mztab.TaskMzTabContext;
+import edu.ucsd.mztab.model.MetricsRegistry;
 import edu.ucsd.mztab.model.MzTabConstants;
+import edu.ucsd.mztab.model.MzTabFileIndex;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.PSM;
+import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
+import edu.ucsd.mztab.model.MzTabFileIndex.SectionOffsets;
 import edu.ucsd.mztab.processors.MassIVESearchProcessor;
 import edu.ucsd.mztab.util.CommonUtils;
 import edu.ucsd.mztab.util.DatabaseUtils;
+import edu.ucsd.mztab.util.ElementIDCache;
 import edu.ucsd.mztab.util.FileIOUtils;
+import edu.ucsd.mztab.util.ImportJournal;
+import edu.ucsd.mztab.util.MappedLineReader;
 import edu.ucsd.mztab.util.ProteomicsUtils;
 
 public class MzTabPROXIImporter
@@ -48,10 +60,48 @@ public class MzTabPROXIImporter
 		"\n\t-dataset         <DatasetID>|<DatasetIDFile>" +
 		"\n\t[-importByQValue true|false (default true)]" +
 		"\n\t[-startingPSMID  long int (default 1) - " +
-			"starting database ID for this batch of PSMs to be imported]";
+			"starting database ID for this batch of PSMs to be imported]" +
+		"\n\t[-metrics        <SampleInterval> (default 0) - " +
+			"if greater than 0, report import metrics, " +
+			"timing one of every <SampleInterval> rows]" +
+		"\n\t[-staged         true|false (default false) - " +
+			"if true, resolve foreign keys on the database server " +
+			"through temporary staging tables]" +
+		"\n\t[-loadBatch      <PSMCount> (default 0) - " +
+			"if greater than 0, load each batch of <PSMCount> PSMs " +
+			"in the background while the rest of the file is parsed]" +
+		"\n\t[-reserveIDs     true|false (default false) - " +
+			"if true, write new rows with IDs from blocks reserved " +
+			"on the database server instead of querying them back]" +
+		"\n\t[-memoryBudget   <Bytes>[K|M|G]|<PSMCount>PSM (default none) - " +
+			"if set, load each batch of parsed rows as soon as it " +
+			"reaches this size, instead of holding the whole file]" +
+		"\n\t[-threads        <FileCount> (default 1) - " +
+			"number of mzTab files to import at once, each over " +
+			"its own database connection; at most half the " +
+			"connection pool size]" +
+		"\n\t[-streamLoads    true|false (default false) - " +
+			"if true, stream load data to the database server with " +
+			"LOAD DATA LOCAL instead of writing load files for the " +
+			"server to read from a shared filesystem]" +
+		"\n\t[-journal        <JournalFile> (default none) - " +
+			"if set, record each finished file and load level in this " +
+			"file, and skip those already recorded there by an " +
+			"earlier, failed run of the same import]" +
+		"\n\t[-elementCache   <CacheDirectory> (default none) - " +
+			"if set, keep the database IDs of all peptides, proteins, " +
+			"modifications and variants seen by any import in this " +
+			"directory, and look them up there before querying them]";
 	private static final Pattern DATASET_ID_PATTERN =
 		Pattern.compile("^R?MSV(\\d{9}(?:\\.\\d+)?)$");
 	
+	/*========================================================================
+	 * Static properties
+	 *========================================================================*/
+	private static int            importThreads = 1;
+	private static ImportJournal  importJournal = null;
+	private static ElementIDCache elementIDCache = null;
+	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
@@ -59,12 +109,34 @@ public class MzTabPROXIImporter
 		MzTabImportOperation importer = extractArguments(args);
 		if (importer == null)
 			die(USAGE);
+		MetricsRegistry.setDefaultSampleInterval(
+			importer.metricsSampleInterval);
+		MassIVESearchProcessor.setDefaultStagedImport(importer.stagedImport);
+		MassIVESearchProcessor.setDefaultLoadBatchSize(importer.loadBatchSize);
+		MassIVESearchProcessor.setDefaultReservedIDs(importer.reservedIDs);
+		MassIVESearchProcessor.setDefaultMemoryBudget(importer.memoryBudget);
+		MassIVESearchProcessor.setDefaultMemoryBudgetPSMs(
+			importer.memoryBudgetPSMs);
+		MassIVESearchProcessor.setDefaultStreamedLoads(importer.streamedLoads);
+		setImportThreads(importer.importThreads);
 		try {
+			if (importer.journalFile != null)
+				setImportJournal(new ImportJournal(importer.journalFile,
+					importer.taskID, importer.datasetID,
+					importer.importByQValue));
+			if (importer.elementCacheDirectory != null)
+				setElementIDCache(
+					openElementIDCache(importer.elementCacheDirectory));
 			importDataset(importer.mzTabDirectory, importer.context,
 				importer.taskID, importer.datasetID, importer.importByQValue,
 				importer.startingPSMID, importer.start);
 		} catch (Throwable error) {
 			die(null, error);
+		} finally {
+			if (importJournal != null)
+				importJournal.close();
+			if (elementIDCache != null)
+				elementIDCache.close();
 		}
 	}
 	
@@ -96,18 +168,15 @@ public class MzTabPROXIImporter
 		// to improve import performance
 		if (globalElements == null)
 			globalElements = new HashMap<String, Map<String, Integer>>();
-		// set up database connection
-		Connection connection = DatabaseUtils.getConnection();
-		if (connection == null)
-			throw new NullPointerException(
-				"Could not connect to the MassIVE search database server.");
 		// read through all mzTab files, import content to database
+		Connection connection = null;
 		try {
 			int filesImported = 0;
 			long totalLines = 0;
 			long totalPSMRows = 0;
 			// recursively find mzTab files under the argument directory
-			Collection<File> files = FileIOUtils.findFiles(mzTabDirectory);
+			Collection<File> files = MzTabFileIndex.excludeIndexFiles(
+				FileIOUtils.findFiles(mzTabDirectory));
 			if (files == null || files.isEmpty()) {
 				System.out.println(String.format("Could not find " +
 					"any mzTab files to import under directory [%s].",
@@ -118,18 +187,36 @@ public class MzTabPROXIImporter
 			System.out.println(String.format("Importing %d mzTab %s " +
 				"into the MassIVE search database...\n----------",
 				files.size(), CommonUtils.pluralize("file", files.size())));
-			for (File file : files) {
-				// try to import this file; null means it was not imported
-				// for benign reasons, errors should throw an exception
-				ImmutableTriple<Integer, Integer, Long> importCounts =
-					importMzTabFile(file, context, taskID, datasetID,
-						importByQValue, startingPSMID, globalElements, connection);
+			List<ImmutableTriple<Integer, Integer, Long>> results = null;
+			if (importThreads > 1 && files.size() > 1)
+				results = importMzTabFiles(files, context, taskID, datasetID,
+					importByQValue, startingPSMID, globalElements);
+			else {
+				// set up database connection
+				connection = DatabaseUtils.getConnection();
+				if (connection == null)
+					throw new NullPointerException(
+						"Could not connect to the MassIVE search database server.");
+				results = new ArrayList<ImmutableTriple<Integer, Integer, Long>>(
+					files.size());
+				for (File file : files) {
+					// try to import this file; null means it was not imported
+					// for benign reasons, errors should throw an exception
+					ImmutableTriple<Integer, Integer, Long> importCounts =
+						importMzTabFile(file, context, taskID, datasetID,
+							importByQValue, startingPSMID, globalElements,
+							connection);
+					results.add(importCounts);
+					if (importCounts != null)
+						startingPSMID = importCounts.getRight();
+				}
+			}
+			for (ImmutableTriple<Integer, Integer, Long> importCounts : results) {
 				if (importCounts == null)
 					continue;
 				filesImported++;
 				totalLines += importCounts.getLeft();
 				totalPSMRows += importCounts.getMiddle();
-				startingPSMID = importCounts.getRight();
 			}
 			long elapsed = System.currentTimeMillis() - start;
 			double seconds = elapsed / 1000.0;
@@ -151,6 +238,37 @@ public class MzTabPROXIImporter
 			try { connection.close(); } catch (Throwable error) {}
 		}
 	}
+	
+	/**
+	 * Sets the number of mzTab files that {@link #importDataset} imports at
+	 * once, each on its own thread and over its own pooled connection. At
+	 * 1 or less, files are imported one after another, as before. No more
+	 * than half as many files as the connection pool's maximum size are
+	 * ever imported at once, leaving the rest for concurrent table loads.
+	 */
+	public static void setImportThreads(int threads) {
+		importThreads = threads;
+	}
+	
+	/**
+	 * Sets the journal in which {@link #importMzTabFile} records every file
+	 * it finishes, and each load level of every batch within it. Anything
+	 * already recorded there by an earlier, failed run of the same import
+	 * is skipped, so that the import resumes where that run stopped.
+	 */
+	public static void setImportJournal(ImportJournal journal) {
+		importJournal = journal;
+	}
+	
+	/**
+	 * Sets the local cache of global element IDs that every file imported
+	 * by {@link #importMzTabFile} consults before querying the database
+	 * for an element's ID, and adds every newly learned ID to. The cache
+	 * must already have been validated against the database.
+	 */
+	public static void setElementIDCache(ElementIDCache cache) {
+		elementIDCache = cache;
+	}
 
 	// import mzTab file - no database connection, no global elements map
 	public static ImmutableTriple<Integer, Integer, Long> importMzTabFile(
@@ -166,6 +284,18 @@ public class MzTabPROXIImporter
 		File mzTabFile, TaskMzTabContext context, String taskID,
 		String datasetID, Boolean importByQValue, Long startingPSMID,
 		Map<String, Map<String, Integer>> globalElements
+	) {
+		return importMzTabFile(mzTabFile, context, taskID, datasetID,
+			importByQValue, startingPSMID, null, globalElements);
+	}
+
+	// import mzTab file - no database connection, yes global elements map,
+	// starting PSM ID from the argument source if there is one
+	private static ImmutableTriple<Integer, Integer, Long> importMzTabFile(
+		File mzTabFile, TaskMzTabContext context, String taskID,
+		String datasetID, Boolean importByQValue, Long startingPSMID,
+		Callable<Long> startingPSMIDSource,
+		Map<String, Map<String, Integer>> globalElements
 	) {
 		if (mzTabFile == null || context == null || taskID == null)
 			return null;
@@ -176,7 +306,8 @@ public class MzTabPROXIImporter
 				"Could not connect to the MassIVE search database server.");
 		try {
 			return importMzTabFile(mzTabFile, context, taskID, datasetID,
-				importByQValue, startingPSMID, globalElements, connection);
+				importByQValue, startingPSMID, startingPSMIDSource,
+				globalElements, connection);
 		} catch (Throwable error) {
 			throw new RuntimeException(String.format(
 				"Error importing mzTab file [%s] to the MassIVE search " +
@@ -201,6 +332,18 @@ public class MzTabPROXIImporter
 		File mzTabFile, TaskMzTabContext context, String taskID,
 		String datasetID, Boolean importByQValue, Long startingPSMID,
 		Map<String, Map<String, Integer>> globalElements, Connection connection
+	) {
+		return importMzTabFile(mzTabFile, context, taskID, datasetID,
+			importByQValue, startingPSMID, null, globalElements, connection);
+	}
+
+	// import mzTab file - yes database connection, yes global elements map,
+	// starting PSM ID from the argument source if there is one
+	private static ImmutableTriple<Integer, Integer, Long> importMzTabFile(
+		File mzTabFile, TaskMzTabContext context, String taskID,
+		String datasetID, Boolean importByQValue, Long startingPSMID,
+		Callable<Long> startingPSMIDSource,
+		Map<String, Map<String, Integer>> globalElements, Connection connection
 	) {
 		if (mzTabFile == null || context == null || taskID == null ||
 			connection == null)
@@ -208,40 +351,91 @@ public class MzTabPROXIImporter
 		// importByQValue defaults to true
 		if (importByQValue == null)
 			importByQValue = true;
-		// only import this mzTab file if it contains importable PSMs
-		if (isImportable(mzTabFile, importByQValue) == false)
+		// files finished by an earlier run of this import are not read again
+		if (importJournal != null && importJournal.isFileComplete(mzTabFile)) {
+			System.out.println(String.format(
+				"Skipped file [%s]: already imported by an earlier run.",
+				mzTabFile.getName()));
+			return importJournal.getFileCounts(mzTabFile);
+		}
+		// skip files that can't have any PSMs; whether the rest contain
+		// any importable PSMs is determined while they're being imported,
+		// and nothing is written to the database for them if they don't
+		if (mayHavePSMRows(mzTabFile) == false)
 			return null;
 		MzTabReader reader = new MzTabReader(context.getMzTabFile(mzTabFile));
 		MassIVESearchProcessor processor = new MassIVESearchProcessor(
 			taskID, datasetID, importByQValue, startingPSMID, globalElements, connection);
+		processor.setImportJournal(importJournal);
+		processor.setElementIDCache(elementIDCache);
+		if (startingPSMIDSource != null)
+			processor.setStartingPSMID(startingPSMIDSource);
 		reader.addProcessor(processor);
-		reader.read();
-		// return import counts:
+		boolean succeeded = false;
+		try {
+			reader.read();
+			succeeded = true;
+		} finally {
+			// whatever went wrong, including errors like running out of
+			// memory, don't leave any background load running on this
+			// connection, nor any of this file's batches loaded so far
+			if (succeeded == false)
+				processor.abort();
+		}
+		// import counts:
 		// left: total lines read in the mzTab file
 		// right: total unique PSMs imported to search from the mzTab file
-		return new ImmutableTriple<Integer, Integer, Long>(
-			processor.getRowCount("lines_in_file"),
-			processor.getRowCount("PSM"),
-			processor.getLastPSMDatabaseID());
+		ImmutableTriple<Integer, Integer, Long> counts = null;
+		if (processor.isAccepted())
+			counts = new ImmutableTriple<Integer, Integer, Long>(
+				processor.getRowCount("lines_in_file"),
+				processor.getRowCount("PSM"),
+				processor.getLastPSMDatabaseID());
+		if (importJournal != null)
+			importJournal.completeFile(mzTabFile, counts);
+		return counts;
 	}
 	
+	/**
+	 * Standalone check of whether an mzTab file has any PSM row that would
+	 * be imported, reading only as far as the first such row. Imports make
+	 * the same checks in their single pass over the file, so this need not
+	 * be called before importing it.
+	 */
 	public static boolean isImportable(File mzTabFile, boolean importByQValue) {
 		if (mzTabFile == null || mzTabFile.isFile() == false ||
 			mzTabFile.canRead() == false)
 			return false;
+		// if this file has a current section index, then there's no need
+		// to read it at all unless it has PSM rows, and in that case only
+		// the PSM section needs to be read
+		SectionOffsets psmSection = null;
+		MzTabFileIndex index = MzTabFileIndex.load(mzTabFile);
+		if (index != null) {
+			psmSection = index.getSection(MzTabSection.PSM);
+			if (psmSection == null || psmSection.getRowCount() < 1)
+				return false;
+		}
 		// read through mzTab file to determine if
 		// it contains any importable PSM rows
-		BufferedReader reader = null;
+		MappedLineReader reader = null;
 		try {
-			reader = new BufferedReader(new FileReader(mzTabFile));
+			reader = new MappedLineReader(mzTabFile);
 			String line = null;
 			int lineNumber = 0;
+			if (psmSection != null) {
+				reader.seek(psmSection.getStart());
+				lineNumber = psmSection.getFirstLineNumber() - 1;
+			}
 			MzTabSectionHeader psmHeader = null;
 			Set<String> psmIDs = new TreeSet<String>();
 			Integer lastPSMIndex = null;
 			Integer validColumn = null;
 			Integer qValueColumn = null;
 			while (true) {
+				if (psmSection != null &&
+					reader.getPosition() >= psmSection.getEnd())
+					break;
 				line = reader.readLine();
 				if (line == null)
 					break;
@@ -371,6 +565,16 @@ public class MzTabPROXIImporter
 		private Long             startingPSMID;
 		private TaskMzTabContext context;
 		private long             start;
+		private int              metricsSampleInterval;
+		private boolean          stagedImport;
+		private int              loadBatchSize;
+		private boolean          reservedIDs;
+		private long             memoryBudget;
+		private int              memoryBudgetPSMs;
+		private int              importThreads;
+		private boolean          streamedLoads;
+		private File             journalFile;
+		private File             elementCacheDirectory;
 		
 		/*====================================================================
 		 * Constructors
@@ -379,7 +583,11 @@ public class MzTabPROXIImporter
 			File mzTabDirectory, String mzTabRelativePath,
 			File peakListDirectory, String peakListRelativePath,
 			String peakListCollection, File parameters,
-			String taskID, String datasetID, String importByQValue, String startingPSMID
+			String taskID, String datasetID, String importByQValue, String startingPSMID,
+			String metricsSampleInterval, String stagedImport,
+			String loadBatchSize, String reservedIDs, String memoryBudget,
+			String importThreads, String streamedLoads, String journal,
+			String elementCache
 		) {
 			// validate mzTab directory
 			if (mzTabDirectory == null)
@@ -448,6 +656,107 @@ public class MzTabPROXIImporter
 				throw new IllegalArgumentException(String.format(
 					"Starting PSM database ID [%s] must be a positive long integer.", startingPSMID));
 			}
+			// propagate metrics sample interval (default disabled)
+			if (metricsSampleInterval != null) try {
+				this.metricsSampleInterval =
+					Integer.parseInt(metricsSampleInterval);
+				if (this.metricsSampleInterval < 0)
+					throw new NumberFormatException();
+			} catch (NumberFormatException error) {
+				throw new IllegalArgumentException(String.format(
+					"Metrics sample interval [%s] must be a non-negative " +
+					"integer.", metricsSampleInterval));
+			} else this.metricsSampleInterval = MetricsRegistry.DISABLED;
+			// propagate staged import flag, if present (default false)
+			if (stagedImport == null)
+				this.stagedImport = false;
+			else {
+				Boolean staged = CommonUtils.parseBooleanColumn(stagedImport);
+				if (staged == null)
+					throw new IllegalArgumentException(String.format(
+						"staged argument [%s] could not be parsed " +
+						"as a boolean value.", stagedImport));
+				else this.stagedImport = staged;
+			}
+			// propagate load batch size (default disabled)
+			if (loadBatchSize != null) try {
+				this.loadBatchSize = Integer.parseInt(loadBatchSize);
+				if (this.loadBatchSize < 0)
+					throw new NumberFormatException();
+			} catch (NumberFormatException error) {
+				throw new IllegalArgumentException(String.format(
+					"Load batch size [%s] must be a non-negative " +
+					"integer.", loadBatchSize));
+			} else this.loadBatchSize = 0;
+			// propagate reserved IDs flag, if present (default false)
+			if (reservedIDs == null)
+				this.reservedIDs = false;
+			else {
+				Boolean reserved = CommonUtils.parseBooleanColumn(reservedIDs);
+				if (reserved == null)
+					throw new IllegalArgumentException(String.format(
+						"reserveIDs argument [%s] could not be parsed " +
+						"as a boolean value.", reservedIDs));
+				else this.reservedIDs = reserved;
+			}
+			// propagate memory budget, in bytes or PSMs (default none)
+			this.memoryBudget = 0;
+			this.memoryBudgetPSMs = 0;
+			if (memoryBudget != null) {
+				String budget = memoryBudget.trim().toUpperCase();
+				if (budget.endsWith("PSM")) try {
+					this.memoryBudgetPSMs = Integer.parseInt(
+						budget.substring(0, budget.length() - 3).trim());
+				} catch (NumberFormatException error) {}
+				else {
+					Long bytes = CommonUtils.parseBytes(budget);
+					if (bytes != null)
+						this.memoryBudget = bytes;
+				}
+				if (this.memoryBudget < 1 && this.memoryBudgetPSMs < 1)
+					throw new IllegalArgumentException(String.format(
+						"Memory budget [%s] must be a positive number of " +
+						"bytes (optionally suffixed with K, M or G) or of " +
+						"PSMs (suffixed with PSM).", memoryBudget));
+			}
+			// propagate number of files to import at once (default 1)
+			if (importThreads != null) try {
+				this.importThreads = Integer.parseInt(importThreads);
+				if (this.importThreads < 1)
+					throw new NumberFormatException();
+			} catch (NumberFormatException error) {
+				throw new IllegalArgumentException(String.format(
+					"Import thread count [%s] must be a positive " +
+					"integer.", importThreads));
+			} else this.importThreads = 1;
+			// propagate streamed loads flag, if present (default false)
+			if (streamedLoads == null)
+				this.streamedLoads = false;
+			else {
+				Boolean streamed = CommonUtils.parseBooleanColumn(streamedLoads);
+				if (streamed == null)
+					throw new IllegalArgumentException(String.format(
+						"streamLoads argument [%s] could not be parsed " +
+						"as a boolean value.", streamedLoads));
+				else this.streamedLoads = streamed;
+			}
+			// propagate import journal file, if present (default none)
+			if (journal != null) {
+				journalFile = new File(journal);
+				if (journalFile.exists() && journalFile.isFile() == false)
+					throw new IllegalArgumentException(String.format(
+						"Import journal [%s] must be a regular file.",
+						journalFile.getAbsolutePath()));
+			} else journalFile = null;
+			// propagate element ID cache directory, if present (default none)
+			if (elementCache != null) {
+				elementCacheDirectory = new File(elementCache);
+				if (elementCacheDirectory.exists() &&
+					elementCacheDirectory.isDirectory() == false)
+					throw new IllegalArgumentException(String.format(
+						"Element ID cache [%s] must be a directory.",
+						elementCacheDirectory.getAbsolutePath()));
+			} else elementCacheDirectory = null;
 			// timestamp the beginning of the procedure
 			start = System.currentTimeMillis();
 			System.out.println(String.format(
@@ -468,9 +777,131 @@ public class MzTabPROXIImporter
 		}
 	}
 	
+	/**
+	 * The database ID that a file's PSMs start from when several files are
+	 * imported at once: the one after the last PSM of the nearest earlier
+	 * file that imported any, or the import's own starting ID if there is
+	 * no such file, just as when the files are imported one after another.
+	 * Calling it waits for the earlier files' imports to finish.
+	 */
+	private static class StartingPSMID implements Callable<Long> {
+		/*====================================================================
+		 * Properties
+		 *====================================================================*/
+		private StartingPSMID                                   previous;
+		private Future<ImmutableTriple<Integer, Integer, Long>> previousImport;
+		private long                                            first;
+		
+		/*====================================================================
+		 * Constructors
+		 *====================================================================*/
+		public StartingPSMID(long first) {
+			this.previous = null;
+			this.previousImport = null;
+			this.first = first;
+		}
+		
+		public StartingPSMID(
+			StartingPSMID previous,
+			Future<ImmutableTriple<Integer, Integer, Long>> previousImport
+		) {
+			this.previous = previous;
+			this.previousImport = previousImport;
+			this.first = previous.first;
+		}
+		
+		/*====================================================================
+		 * Public interface methods
+		 *====================================================================*/
+		public Long call() throws Exception {
+			// skip back over files that imported no PSMs
+			for (StartingPSMID current = this; current.previousImport != null;
+				current = current.previous) {
+				ImmutableTriple<Integer, Integer, Long> counts =
+					current.previousImport.get();
+				if (counts != null)
+					return counts.getRight();
+			}
+			return first;
+		}
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
+	private static List<ImmutableTriple<Integer, Integer, Long>> importMzTabFiles(
+		Collection<File> files, final TaskMzTabContext context,
+		final String taskID, final String datasetID,
+		final Boolean importByQValue, long startingPSMID,
+		final Map<String, Map<String, Integer>> globalElements
+	) throws Throwable {
+		// every import holds a pooled connection of its own, and borrows
+		// more for concurrent loads whenever they're free, so never import
+		// more files at once than would leave half the pool for those
+		int threads = Math.min(importThreads, files.size());
+		int maxThreads = Math.max(DatabaseUtils.getMaxConnections() / 2, 1);
+		if (threads > maxThreads) {
+			System.out.println(String.format("Importing at most %d mzTab " +
+				"files at once instead of %d, to stay within the database " +
+				"connection pool size of %d.", maxThreads, threads,
+				DatabaseUtils.getMaxConnections()));
+			threads = maxThreads;
+		}
+		// import up to that many files at once; since every import shares
+		// the global elements map, an element already loaded by any one of
+		// them is never inserted again by another
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<ImmutableTriple<Integer, Integer, Long>>> imports =
+			new ArrayList<Future<ImmutableTriple<Integer, Integer, Long>>>(
+				files.size());
+		try {
+			// each file's PSMs get the same IDs they would in a serial
+			// import, starting right after those of the files before it;
+			// a file only waits for that to be known once it's about to
+			// load its own PSMs
+			StartingPSMID previous = new StartingPSMID(startingPSMID);
+			for (final File file : files) {
+				final StartingPSMID fileStartingPSMID = previous;
+				Future<ImmutableTriple<Integer, Integer, Long>> result =
+					workers.submit(
+					new Callable<ImmutableTriple<Integer, Integer, Long>>() {
+						public ImmutableTriple<Integer, Integer, Long> call() {
+							return importMzTabFile(file, context, taskID,
+								datasetID, importByQValue, null,
+								fileStartingPSMID, globalElements);
+						}
+					});
+				imports.add(result);
+				previous = new StartingPSMID(previous, result);
+			}
+			workers.shutdown();
+			// collect results in file order; on the first failure,
+			// stop all other imports and report that failure
+			List<ImmutableTriple<Integer, Integer, Long>> results =
+				new ArrayList<ImmutableTriple<Integer, Integer, Long>>(
+					imports.size());
+			for (Future<ImmutableTriple<Integer, Integer, Long>> result : imports)
+				results.add(result.get());
+			return results;
+		} catch (ExecutionException error) {
+			throw error.getCause();
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+	
+	private static boolean mayHavePSMRows(File mzTabFile) {
+		if (mzTabFile == null || mzTabFile.isFile() == false ||
+			mzTabFile.canRead() == false)
+			return false;
+		// a current section index can tell without reading the file
+		MzTabFileIndex index = MzTabFileIndex.load(mzTabFile);
+		if (index == null)
+			return true;
+		SectionOffsets psmSection = index.getSection(MzTabSection.PSM);
+		return psmSection != null && psmSection.getRowCount() > 0;
+	}
+	
 	private static MzTabImportOperation extractArguments(String[] args) {
 		if (args == null || args.length < 1)
 			return null;
@@ -484,6 +915,15 @@ public class MzTabPROXIImporter
 		String datasetID = null;
 		String importByQValue = null;
 		String startingPSMID = null;
+		String metricsSampleInterval = null;
+		String stagedImport = null;
+		String loadBatchSize = null;
+		String reservedIDs = null;
+		String memoryBudget = null;
+		String importThreads = null;
+		String streamedLoads = null;
+		String journal = null;
+		String elementCache = null;
 		for (int i=0; i<args.length; i++) {
 			String argument = args[i];
 			if (argument == null)
@@ -529,6 +969,24 @@ public class MzTabPROXIImporter
 					importByQValue = value;
 				else if (argument.equals("-startingPSMID"))
 					startingPSMID = value;
+				else if (argument.equals("-metrics"))
+					metricsSampleInterval = value;
+				else if (argument.equals("-staged"))
+					stagedImport = value;
+				else if (argument.equals("-loadBatch"))
+					loadBatchSize = value;
+				else if (argument.equals("-reserveIDs"))
+					reservedIDs = value;
+				else if (argument.equals("-memoryBudget"))
+					memoryBudget = value;
+				else if (argument.equals("-threads"))
+					importThreads = value;
+				else if (argument.equals("-streamLoads"))
+					streamedLoads = value;
+				else if (argument.equals("-journal"))
+					journal = value;
+				else if (argument.equals("-elementCache"))
+					elementCache = value;
 				else return null;
 			}
 		}
@@ -536,13 +994,49 @@ public class MzTabPROXIImporter
 			return new MzTabImportOperation(
 				mzTabDirectory, mzTabRelativePath,
 				peakListDirectory, peakListRelativePath, peakListCollection,
-				parameters, taskID, datasetID, importByQValue, startingPSMID);
+				parameters, taskID, datasetID, importByQValue, startingPSMID,
+				metricsSampleInterval, stagedImport, loadBatchSize,
+				reservedIDs, memoryBudget, importThreads, streamedLoads,
+				journal, elementCache);
 		} catch (Throwable error) {
 			System.err.println(error.getMessage());
 			return null;
 		}
 	}
 	
+	/**
+	 * Opens the element ID cache in the argument directory and checks it
+	 * against the database. Since the cache only saves queries, the import
+	 * goes on without it if it can't be opened, e.g. because another import
+	 * is already using it.
+	 */
+	private static ElementIDCache openElementIDCache(File directory) {
+		ElementIDCache cache = null;
+		Connection connection = null;
+		try {
+			cache = new ElementIDCache(directory);
+			connection = DatabaseUtils.getConnection();
+			if (connection == null)
+				throw new NullPointerException(
+					"Could not connect to the MassIVE search database server.");
+			cache.validate(connection);
+			System.out.println(String.format(
+				"Opened element ID cache [%s] with %d cached IDs.",
+				directory.getAbsolutePath(), cache.getSize()));
+			return cache;
+		} catch (Throwable error) {
+			if (cache != null)
+				cache.close();
+			System.out.println(String.format(
+				"WARNING: Could not open element ID cache [%s], so this " +
+				"import will run without it: %s",
+				directory.getAbsolutePath(), error.getMessage()));
+			return null;
+		} finally {
+			try { connection.close(); } catch (Throwable error) {}
+		}
+	}
+	
 	private static boolean isValidDatasetID(String datasetID) {
 		if (datasetID == null)
 			return false;
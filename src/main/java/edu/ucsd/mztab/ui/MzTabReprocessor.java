@@ -19,7 +19,7 @@ import edu.ucsd.mztab.TaskMzTabContext;
 import edu.ucsd.mztab.converters.MzIdToMzTabConverter;
 import edu.ucsd.mztab.converters.PRIDEXMLToMzTabConverter;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
 import edu.ucsd.mztab.model.MzTabConstants.FDRType;
 import edu.ucsd.mztab.processors.MsRunCleanProcessor;
 import edu.ucsd.mztab.processors.ValidityProcessor;
@@ -205,8 +205,8 @@ public class MzTabReprocessor
 			// get this input mzTab file
 			MzTabFile inputFile = context.getMzTabFile(resultFile);
 			// add all processors needed for general mzTab file cleanup
-			Collection<MzTabProcessor> processors =
-				new LinkedHashSet<MzTabProcessor>(2);
+			Collection<MzTabRowProcessor> processors =
+				new LinkedHashSet<MzTabRowProcessor>(2);
 			// clean all ms_run-location file references to use
 			// fully qualified ProteoSAFe file descriptor paths
 			processors.add(new MsRunCleanProcessor());
@@ -214,7 +214,8 @@ public class MzTabReprocessor
 			// needed by ProteoSAFe to ensure validity
 			processors.add(new ValidityProcessor());
 			// FDR-process this mzTab file
-			MzTabFDRCleaner.processMzTabFileFDR(inputFile, destinationFile,
+			MzTabFDRCleaner.processMzTabFileFDRWithRowProcessors(
+				inputFile, destinationFile,
 				processors, reprocessing.passThresholdColumn,
 				reprocessing.decoyColumn, reprocessing.decoyPattern,
 				reprocessing.psmQValueColumn, reprocessing.peptideQValueColumn,
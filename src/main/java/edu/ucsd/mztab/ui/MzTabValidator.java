@@ -21,14 +21,17 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import edu.ucsd.mztab.MzTabReader;
 import edu.ucsd.mztab.TaskMzTabContext;
 import edu.ucsd.mztab.exceptions.UnverifiableNativeIDException;
+import edu.ucsd.mztab.model.MetricsRegistry;
 import edu.ucsd.mztab.model.MzTabConstants;
 import edu.ucsd.mztab.model.MzTabFile;
+import edu.ucsd.mztab.model.MzTabFileIndex;
 import edu.ucsd.mztab.model.MzTabMsRun;
 import edu.ucsd.mztab.model.MzTabSectionHeader;
 import edu.ucsd.mztab.model.MzTabConstants.MzTabSection;
 import edu.ucsd.mztab.processors.PSMValidationProcessor;
 import edu.ucsd.mztab.processors.SpectraRefValidationProcessor;
 import edu.ucsd.mztab.util.CommonUtils;
+import edu.ucsd.mztab.util.MappedLineReader;
 
 public class MzTabValidator
 {
@@ -58,7 +61,18 @@ public class MzTabValidator
 		"\n\t[-threshold          <InvalidPSMPercentageToFail: 0-100> " +
 			"(default 10)]" +
         "\n\t[-bypass             true/false (default false; " +
-            "if set to true, will allow mzTab validation errors)]";
+            "if set to true, will allow mzTab validation errors)]" +
+        "\n\t[-pipeline           true/false (default false; " +
+            "if set to true, will process each mzTab file in concurrent stages)]" +
+        "\n\t[-index              true/false (default false; " +
+            "if set to true, will write a section index for each mzTab file)]" +
+        "\n\t[-indexDirectory     <IndexDirectory> (default \"mztab-index\" " +
+            "under the system temporary directory; where section indexes are written)]" +
+        "\n\t[-parallel           true/false (default false; " +
+            "if set to true, will validate the PSM rows of each mzTab file on all cores)]" +
+        "\n\t[-metrics            <SampleInterval> (default 0; " +
+            "if greater than 0, will report processing metrics, " +
+            "timing one of every <SampleInterval> rows)]";
 	public static final Double DEFAULT_FAILURE_THRESHOLD = 10.0;
 	public static final String MZTAB_VALIDATION_LOG_HEADER_LINE =
 		"MzTab_file\tUploaded_file\tFile_descriptor\t" +
@@ -74,6 +88,12 @@ public class MzTabValidator
 		MzTabValidationOperation validation = extractArguments(args);
 		if (validation == null)
 			die(USAGE);
+		MzTabReader.Options readerOptions = new MzTabReader.Options(
+			validation.pipelined, validation.indexed, validation.parallel);
+		if (validation.indexDirectory != null)
+			MzTabFileIndex.setIndexDirectory(validation.indexDirectory);
+		MetricsRegistry.setDefaultSampleInterval(
+			validation.metricsSampleInterval);
 		// if no mzTab files were found, then this is a partial
 		// submission and no validation needs to occur
 		if (validation.context == null || validation.mzTabDirectory == null)
@@ -142,7 +162,7 @@ public class MzTabValidator
 				validateMzTabFile(mzTabFile, outputFile,
 					validation.uploadedResultDirectory, validation.validationErrorsDirectory,
 					validation.scansDirectory, validation.failureThreshold,
-					validation.bypassValidation, writer);
+					validation.bypassValidation, writer, readerOptions);
 			}
 			// write peak list stats to log
 			logPeakListStats(
@@ -161,11 +181,27 @@ public class MzTabValidator
 		MzTabFile inputFile, File outputFile, File uploadedResultDirectory,
 		File validationErrorsDirectory, File scansDirectory,
 		double failureThreshold, boolean bypassValidation, PrintWriter writer
+	) {
+		validateMzTabFile(inputFile, outputFile, uploadedResultDirectory,
+			validationErrorsDirectory, scansDirectory, failureThreshold,
+			bypassValidation, writer, null);
+	}
+	
+	/**
+	 * @param readerOptions	execution modes of the readers of the file,
+	 * 						or null to read it serially without indexing it
+	 */
+	public static void validateMzTabFile(
+		MzTabFile inputFile, File outputFile, File uploadedResultDirectory,
+		File validationErrorsDirectory, File scansDirectory,
+		double failureThreshold, boolean bypassValidation, PrintWriter writer,
+		MzTabReader.Options readerOptions
 	) {
 		if (inputFile == null || outputFile == null || writer == null)
 			return;
 		// set up reader
-		MzTabReader reader = new MzTabReader(inputFile, outputFile);
+		MzTabReader reader =
+			new MzTabReader(inputFile, outputFile, readerOptions);
 		reader.addProcessor(new SpectraRefValidationProcessor(
 			//resultDirectory,
 			null,	// using null here for performance reasons
@@ -197,7 +233,7 @@ public class MzTabValidator
 						outputFile.getAbsolutePath(),
 						inputFile.getMzTabPath()), innerError);
 				}
-				reader = new MzTabReader(inputFile, outputFile);
+				reader = new MzTabReader(inputFile, outputFile, readerOptions);
 				reader.addProcessor(new SpectraRefValidationProcessor(
 					uploadedResultDirectory, scansDirectory, false));
 				counts = new HashMap<String, Integer>(2);
@@ -371,6 +407,11 @@ public class MzTabValidator
 		private File             logFile;
 		private double           failureThreshold;
 		private boolean          bypassValidation;
+		private boolean          pipelined;
+		private boolean          indexed;
+		private File             indexDirectory;
+		private boolean          parallel;
+		private int              metricsSampleInterval;
 		
 		/*====================================================================
 		 * Constructors
@@ -381,7 +422,9 @@ public class MzTabValidator
 			String peakListCollection, File scansDirectory, File resultDirectory,
 			File conversionErrorsDirectory, File validationErrorsDirectory,
 			String datasetID, File outputDirectory, File logFile,
-			String failureThreshold, Boolean bypassValidation
+			String failureThreshold, Boolean bypassValidation, Boolean pipelined,
+			Boolean indexed, File indexDirectory, Boolean parallel,
+			String metricsSampleInterval
 		) {
 			// validate parameters file
 			if (parameters == null)
@@ -511,6 +554,31 @@ public class MzTabValidator
             if (bypassValidation == null)
                 this.bypassValidation = false;
             else this.bypassValidation = bypassValidation;
+			// initialize pipelining flag
+			if (pipelined == null)
+				this.pipelined = false;
+			else this.pipelined = pipelined;
+			// initialize indexing flag
+			if (indexed == null)
+				this.indexed = false;
+			else this.indexed = indexed;
+			// initialize index directory (null for the default)
+			this.indexDirectory = indexDirectory;
+			// initialize parallel processing flag
+			if (parallel == null)
+				this.parallel = false;
+			else this.parallel = parallel;
+			// determine metrics sample interval
+			if (metricsSampleInterval != null) try {
+				this.metricsSampleInterval =
+					Integer.parseInt(metricsSampleInterval);
+				if (this.metricsSampleInterval < 0)
+					throw new NumberFormatException();
+			} catch (NumberFormatException error) {
+				throw new IllegalArgumentException(String.format(
+					"Metrics sample interval [%s] must be a non-negative " +
+					"integer.", metricsSampleInterval));
+			} else this.metricsSampleInterval = MetricsRegistry.DISABLED;
 		}
 	}
 	
@@ -535,6 +603,11 @@ public class MzTabValidator
 		File logFile = null;
 		String failureThreshold = null;
         Boolean bypassValidation = null;
+		Boolean pipelined = null;
+		Boolean indexed = null;
+		File indexDirectory = null;
+		Boolean parallel = null;
+		String metricsSampleInterval = null;
 		for (int i=0; i<args.length; i++) {
 			String argument = args[i];
 			if (argument == null)
@@ -590,6 +663,16 @@ public class MzTabValidator
 					failureThreshold = value;
                 else if (argument.equals("-bypass"))
                     bypassValidation = CommonUtils.parseBooleanColumn(value);
+				else if (argument.equals("-pipeline"))
+					pipelined = CommonUtils.parseBooleanColumn(value);
+				else if (argument.equals("-index"))
+					indexed = CommonUtils.parseBooleanColumn(value);
+				else if (argument.equals("-indexDirectory"))
+					indexDirectory = new File(value);
+				else if (argument.equals("-parallel"))
+					parallel = CommonUtils.parseBooleanColumn(value);
+				else if (argument.equals("-metrics"))
+					metricsSampleInterval = value;
 				else return null;
 			}
 		}
@@ -598,7 +681,9 @@ public class MzTabValidator
 				mzTabRelativePath, peakListDirectory, peakListRelativePath,
 				peakListCollection, scansDirectory, resultDirectory,
 				conversionErrorsDirectory, validationErrorsDirectory,
-				datasetID, outputDirectory, logFile, failureThreshold, bypassValidation);
+				datasetID, outputDirectory, logFile, failureThreshold, bypassValidation,
+				pipelined, indexed, indexDirectory, parallel,
+				metricsSampleInterval);
 		} catch (Throwable error) {
 			die("There was an error reading command line parameters " +
 				"to set up mzTab validation operation.", error);
@@ -614,12 +699,12 @@ public class MzTabValidator
 		String mzTabFilename = mzTabFile.getAbsolutePath();
 		// read through mzTab file line by line until
 		// reaching the first invalid PSM row
-		BufferedReader reader = null;
+		MappedLineReader reader = null;
 		try {
 			MzTabSectionHeader psmHeader = null;
 			int validIndex = -1;
 			int invalidReasonIndex = -1;
-			reader = new BufferedReader(new FileReader(mzTabFile));
+			reader = new MappedLineReader(mzTabFile);
 			String line = null;
 			int lineNumber = 0;
 			while (true) {
@@ -6,13 +6,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.io.FilenameUtils;
 
 import edu.ucsd.mztab.TaskMzTabContext;
 import edu.ucsd.mztab.model.MzTabConstants.FDRType;
 import edu.ucsd.mztab.model.MzTabFile;
-import edu.ucsd.mztab.model.MzTabProcessor;
+import edu.ucsd.mztab.model.MzTabFileIndex;
+import edu.ucsd.mztab.model.MzTabRowProcessor;
 import edu.ucsd.mztab.processors.MsRunCleanProcessor;
 import edu.ucsd.mztab.processors.ValidityProcessor;
 import edu.ucsd.mztab.util.CommonUtils;
@@ -57,13 +60,21 @@ public class ProteoSAFeMzTabCleaner
 			"determines which Q-Value column to use when filtering, " +
 			"if filter=true and filterFDR is specified)]" +
 		"\n\t[-filterFDR      0-1 (if not specified, and filter=true, then " +
-			"only PSMs marked as decoy or passThreshold=false will be removed]";
+			"only PSMs marked as decoy or passThreshold=false will be removed]" +
+		"\n\t[-threads        <FileCount> (default 1; " +
+			"number of mzTab files to clean at once)]" +
+		"\n\t[-scratch        <ScratchDirectory> (default current " +
+			"directory; where each file's temporary files are written, " +
+			"in a uniquely named directory of its own)]" +
+		"\n\t[-externalThreshold <Bytes>[K|M|G] (default maximum heap " +
+			"size; total size of the mzTab files being cleaned at once " +
+			"whose FDR statistics may be kept in memory)]";
 	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
 	public static void main(String[] args) {
-		ProteoSAFeMzTabCleanupOperation cleanup = extractArguments(args);
+		final ProteoSAFeMzTabCleanupOperation cleanup = extractArguments(args);
 		if (cleanup == null)
 			die(USAGE);
 		// if no mzTab files were found, then this is a partial
@@ -83,11 +94,19 @@ public class ProteoSAFeMzTabCleaner
         }
 		// otherwise, read through all mzTab files, and run
 		// all relevant MassIVE cleanup operations on each
-		Collection<File> files = FileIOUtils.findFiles(cleanup.mzTabDirectory);
-		if (files != null && files.isEmpty() == false) {
+		Collection<File> found = MzTabFileIndex.excludeIndexFiles(
+			FileIOUtils.findFiles(cleanup.mzTabDirectory));
+		if (found != null && found.isEmpty() == false) {
+			MzTabFDRCleaner.setThreads(cleanup.threads);
+			MzTabFDRCleaner.setScratchDirectory(cleanup.scratchDirectory);
+			if (cleanup.externalThreshold != null)
+				MzTabFDRCleaner.setExternalThreshold(cleanup.externalThreshold);
 			// sort files alphabetically
-			Collections.sort(new ArrayList<File>(files));
-			for (File file : files) {
+			List<File> files = new ArrayList<File>(found);
+			Collections.sort(files);
+			List<Callable<String>> jobs =
+				new ArrayList<Callable<String>>(files.size());
+			for (final File file : files) {
                 // if this file failed previously for any reason, don't clean it
                 String mangledBase = FilenameUtils.getBaseName(file.getName());
                 if (failedMangledNames != null && failedMangledNames.contains(mangledBase))
@@ -97,29 +116,46 @@ public class ProteoSAFeMzTabCleaner
 				if (extension == null ||
 					extension.trim().equalsIgnoreCase("mztab") == false)
 					continue;
-				// get this input mzTab file
-				MzTabFile inputFile = cleanup.context.getMzTabFile(file);
-				// get final output file
-				File outputFile = getOutputFile(
-					file, cleanup.mzTabDirectory, cleanup.outputDirectory);
-				// add all processors needed for general mzTab file cleanup
-				Collection<MzTabProcessor> processors =
-					new LinkedHashSet<MzTabProcessor>(2);
-				// clean all ms_run-location file references to use
-				// fully qualified ProteoSAFe file descriptor paths
-				processors.add(new MsRunCleanProcessor());
-				// ensure that each PSM row has the special columns
-				// needed by ProteoSAFe to ensure validity
-				processors.add(new ValidityProcessor());
-				// FDR-process this mzTab file
-				MzTabFDRCleaner.processMzTabFileFDR(inputFile, outputFile,
-					processors, cleanup.passThresholdColumn,
-					cleanup.decoyColumn, cleanup.decoyPattern,
-					cleanup.psmQValueColumn, cleanup.peptideQValueColumn,
-					cleanup.proteinQValueColumn, cleanup.filter,
-					cleanup.filterType, cleanup.filterFDR,
-					cleanup.psmFDR, cleanup.peptideFDR, cleanup.proteinFDR);
+				jobs.add(new Callable<String>() {
+					public String call() {
+						long start = System.currentTimeMillis();
+						// get this input mzTab file
+						MzTabFile inputFile =
+							cleanup.context.getMzTabFile(file);
+						// get final output file
+						File outputFile = getOutputFile(file,
+							cleanup.mzTabDirectory, cleanup.outputDirectory);
+						// add all processors needed for general
+						// mzTab file cleanup
+						Collection<MzTabRowProcessor> processors =
+							new LinkedHashSet<MzTabRowProcessor>(2);
+						// clean all ms_run-location file references to use
+						// fully qualified ProteoSAFe file descriptor paths
+						processors.add(new MsRunCleanProcessor());
+						// ensure that each PSM row has the special columns
+						// needed by ProteoSAFe to ensure validity
+						processors.add(new ValidityProcessor());
+						// FDR-process this mzTab file
+						MzTabFDRCleaner.processMzTabFileFDRWithRowProcessors(
+							inputFile, outputFile,
+							processors, cleanup.passThresholdColumn,
+							cleanup.decoyColumn, cleanup.decoyPattern,
+							cleanup.psmQValueColumn,
+							cleanup.peptideQValueColumn,
+							cleanup.proteinQValueColumn, cleanup.filter,
+							cleanup.filterType, cleanup.filterFDR,
+							cleanup.psmFDR, cleanup.peptideFDR,
+							cleanup.proteinFDR);
+						return String.format(
+							"Cleaned mzTab file [%s] in %s.", file.getName(),
+							CommonUtils.formatMilliseconds(
+								System.currentTimeMillis() - start));
+					}
+				});
 			}
+			// clean up to the configured number of files at once, logging
+			// each in file order
+			MzTabFDRCleaner.runCleanupJobs(jobs);
 		}
 	}
 	
@@ -149,6 +185,9 @@ public class ProteoSAFeMzTabCleaner
 		private Double           psmFDR;
 		private Double           peptideFDR;
 		private Double           proteinFDR;
+		private int              threads;
+		private File             scratchDirectory;
+		private Long             externalThreshold;
 		
 		/*====================================================================
 		 * Constructors
@@ -162,7 +201,8 @@ public class ProteoSAFeMzTabCleaner
 			String psmQValueColumn, String peptideQValueColumn,
 			String proteinQValueColumn,
 			boolean filter, String filterType, Double filterFDR,
-			Double psmFDR, Double peptideFDR, Double proteinFDR
+			Double psmFDR, Double peptideFDR, Double proteinFDR,
+			Integer threads, File scratchDirectory, Long externalThreshold
 		) {
 			// validate mzTab directory (if null,
 			// then no cleanup is necessary)
@@ -253,6 +293,28 @@ public class ProteoSAFeMzTabCleaner
 			this.psmFDR = psmFDR;
 			this.peptideFDR = peptideFDR;
 			this.proteinFDR = proteinFDR;
+			// validate thread count (default 1)
+			if (threads == null)
+				this.threads = 1;
+			else if (threads < 1)
+				throw new IllegalArgumentException(String.format(
+					"Thread count [%d] must be a positive integer.", threads));
+			else this.threads = threads;
+			// validate scratch directory (null for the current directory)
+			if (scratchDirectory != null) {
+				scratchDirectory.mkdirs();
+				if (scratchDirectory.isDirectory() == false)
+					throw new IllegalArgumentException(String.format(
+						"Scratch directory [%s] must be a directory.",
+						scratchDirectory.getAbsolutePath()));
+				else if (scratchDirectory.canWrite() == false)
+					throw new IllegalArgumentException(String.format(
+						"Scratch directory [%s] must be writable.",
+						scratchDirectory.getAbsolutePath()));
+			}
+			this.scratchDirectory = scratchDirectory;
+			// initialize external statistics threshold (null for default)
+			this.externalThreshold = externalThreshold;
 		}
 	}
 	
@@ -283,6 +345,9 @@ public class ProteoSAFeMzTabCleaner
 		Double psmFDR = null;
 		Double peptideFDR = null;
 		Double proteinFDR = null;
+		Integer threads = null;
+		File scratchDirectory = null;
+		Long externalThreshold = null;
 		for (int i=0; i<args.length; i++) {
 			String argument = args[i];
 			if (argument == null)
@@ -387,6 +452,20 @@ public class ProteoSAFeMzTabCleaner
 					throw new IllegalArgumentException(String.format(
 						"Illegal value for \"-proteinFDR\": [%s]", value),
 						error);
+				} else if (argument.equals("-threads")) try {
+					threads = Integer.parseInt(value);
+				} catch (NumberFormatException error) {
+					throw new IllegalArgumentException(String.format(
+						"Illegal value for \"-threads\": [%s]", value),
+						error);
+				} else if (argument.equals("-scratch"))
+					scratchDirectory = new File(value);
+				else if (argument.equals("-externalThreshold")) {
+					externalThreshold = CommonUtils.parseBytes(value);
+					if (externalThreshold == null)
+						throw new IllegalArgumentException(String.format(
+							"Illegal value for \"-externalThreshold\": [%s]",
+							value));
 				} else return null;
 			}
 		}
@@ -397,7 +476,8 @@ public class ProteoSAFeMzTabCleaner
 				parameters, outputDirectory, datasetID,
 				passThresholdColumn, decoyColumn, decoyPattern,
 				psmQValueColumn, peptideQValueColumn, proteinQValueColumn,
-				filter, filterType, filterFDR, psmFDR, peptideFDR, proteinFDR);
+				filter, filterType, filterFDR, psmFDR, peptideFDR, proteinFDR,
+				threads, scratchDirectory, externalThreshold);
 		} catch (Throwable error) {
 			error.printStackTrace();
 			return null;
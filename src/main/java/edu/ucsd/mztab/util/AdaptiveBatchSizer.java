@@ -0,0 +1,110 @@
+package edu.ucsd.mztab.util;
+
+/**
+ * Tunes the number of rows sent to the database in one statement, based on
+ * how long statements of the current size actually take to execute.
+ *
+ * Each executed statement is reported back with its row count and elapsed
+ * time. From these, a smoothed estimate of the table's throughput (rows per
+ * nanosecond) is kept, and the batch size is moved towards the number of
+ * rows that this throughput would get through in the target latency. The
+ * size never more than doubles or halves in one step, and always stays
+ * within the configured limits.
+ */
+public class AdaptiveBatchSizer
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final long DEFAULT_TARGET_LATENCY = 500; // milliseconds
+	public static final int DEFAULT_MIN_BATCH_SIZE = 100;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100000;
+	private static final int INITIAL_BATCH_SIZE = 1000;
+	// weight of the latest measurement in the throughput estimate
+	private static final double SMOOTHING = 0.5;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private long   targetNanos;
+	private int    minBatchSize;
+	private int    maxBatchSize;
+	private int    batchSize;
+	private double throughput;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public AdaptiveBatchSizer() {
+		this(DEFAULT_TARGET_LATENCY, DEFAULT_MIN_BATCH_SIZE,
+			DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public AdaptiveBatchSizer(
+		long targetLatency, int minBatchSize, int maxBatchSize
+	) {
+		checkLimits(targetLatency, minBatchSize, maxBatchSize);
+		targetNanos = targetLatency * 1000000L;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		batchSize = clamp(INITIAL_BATCH_SIZE);
+		throughput = 0.0;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Throws an IllegalArgumentException if the argument target latency
+	 * (in milliseconds) and batch size limits can't configure a sizer.
+	 */
+	public static void checkLimits(
+		long targetLatency, int minBatchSize, int maxBatchSize
+	) {
+		if (targetLatency < 1)
+			throw new IllegalArgumentException(String.format(
+				"Target batch latency (%d ms) must be at least 1.",
+				targetLatency));
+		else if (minBatchSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Minimum batch size (%d) must be at least 1.", minBatchSize));
+		else if (maxBatchSize < minBatchSize)
+			throw new IllegalArgumentException(String.format(
+				"Maximum batch size (%d) cannot be less than " +
+				"minimum batch size (%d).", maxBatchSize, minBatchSize));
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Reports one executed batch of the argument number of rows, which took
+	 * the argument number of nanoseconds, and adjusts the batch size.
+	 */
+	public void record(int rows, long nanos) {
+		if (rows < 1 || nanos < 1)
+			return;
+		// a short batch that still finished in time says nothing about
+		// how many rows could have been sent, since its time is mostly
+		// the fixed cost of a round trip
+		else if (rows < batchSize && nanos <= targetNanos)
+			return;
+		double measured = (double)rows / nanos;
+		if (throughput <= 0.0)
+			throughput = measured;
+		else throughput =
+			SMOOTHING * measured + (1.0 - SMOOTHING) * throughput;
+		double desired = throughput * targetNanos;
+		desired = Math.max(desired, batchSize / 2.0);
+		desired = Math.min(desired, batchSize * 2.0);
+		batchSize = clamp((int)Math.round(desired));
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private int clamp(int size) {
+		return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+	}
+}
@@ -75,6 +75,33 @@ public class CommonUtils
 	    return String.format("%.2f %sB", bytes / Math.pow(unit, exp), prefix);
 	}
 	
+	public static Long parseBytes(String value) {
+		if (value == null)
+			return null;
+		else value = value.trim().toUpperCase();
+		// sizes may be given in plain bytes, or with a
+		// binary unit suffix (e.g. "512M", "2GB", "64KiB")
+		long unit = 1;
+		if (value.endsWith("IB"))
+			value = value.substring(0, value.length() - 2);
+		else if (value.endsWith("B"))
+			value = value.substring(0, value.length() - 1);
+		int exp = value.isEmpty() ? -1 : "KMGT".indexOf(
+			value.charAt(value.length() - 1));
+		if (exp >= 0) {
+			unit = 1L << (10 * (exp + 1));
+			value = value.substring(0, value.length() - 1).trim();
+		}
+		try {
+			long bytes = Long.parseLong(value);
+			if (bytes < 0 || bytes > Long.MAX_VALUE / unit)
+				return null;
+			else return bytes * unit;
+		} catch (NumberFormatException error) {
+			return null;
+		}
+	}
+	
 	public static Boolean parseBooleanColumn(String value) {
 		if (value == null)
 			return null;
@@ -0,0 +1,563 @@
+package edu.ucsd.mztab.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A small pool of JDBC connections to a single database URL.
+ *
+ * Connections handed out by this pool are wrappers around the physical
+ * connections it holds; closing one returns the physical connection to the
+ * pool instead of disconnecting it, so callers use them exactly as they
+ * would a connection from DriverManager. Idle connections are validated
+ * before being handed out again, and are disconnected once they have been
+ * idle for longer than the pool's idle timeout.
+ *
+ * Each physical connection also keeps a bounded cache of the statements
+ * prepared on it, keyed by their SQL, so that a loader preparing the same
+ * statement for every batch, table or file only pays for the prepare round
+ * trip once per connection. Closing a cached statement only clears its
+ * parameters and batch; it stays open until it is evicted from the cache or
+ * its connection is disconnected.
+ */
+public class ConnectionPool
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+	public static final long DEFAULT_MAX_WAIT = 60 * 1000L;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+	// idle connections younger than this are assumed to still be valid
+	private static final long VALIDATION_INTERVAL = 5 * 1000L;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private String                         url;
+	private int                            maxSize;
+	private long                           idleTimeout;
+	private long                           maxWait;
+	private int                            statementCacheSize;
+	private LinkedList<PooledConnection>   idle;
+	private int                            size;
+	private boolean                        closed;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public ConnectionPool(String url) {
+		this(url, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_WAIT,
+			DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	public ConnectionPool(
+		String url, int maxSize, long idleTimeout, long maxWait,
+		int statementCacheSize
+	) {
+		if (url == null)
+			throw new NullPointerException(
+				"Argument database URL cannot be null.");
+		else if (maxSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Connection pool maximum size (%d) must be at least 1.",
+				maxSize));
+		this.url = url;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.maxWait = maxWait;
+		this.statementCacheSize = Math.max(statementCacheSize, 0);
+		idle = new LinkedList<PooledConnection>();
+		size = 0;
+		closed = false;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Returns a valid connection from this pool, connecting a new one if
+	 * no idle connection is available and the pool is not yet full, or
+	 * otherwise waiting up to the pool's maximum wait time for one to be
+	 * returned.
+	 */
+	public Connection getConnection()
+	throws SQLException {
+		return acquire(true);
+	}
+
+	/**
+	 * Returns a valid connection from this pool only if one can be had
+	 * without waiting for another user to return theirs, or null otherwise.
+	 * This is meant for optional extra connections, such as those used to
+	 * spread independent work across several connections.
+	 */
+	public Connection tryGetConnection()
+	throws SQLException {
+		return acquire(false);
+	}
+
+	/**
+	 * Disconnects all idle connections and stops this pool from handing
+	 * out any more; connections currently in use are disconnected as soon
+	 * as they are returned.
+	 */
+	public void close() {
+		ArrayList<PooledConnection> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<PooledConnection>(idle);
+			size -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		for (PooledConnection pooled : toClose)
+			pooled.disconnect();
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private Connection acquire(boolean wait)
+	throws SQLException {
+		long deadline = System.currentTimeMillis() + maxWait;
+		while (true) {
+			PooledConnection pooled = null;
+			synchronized (this) {
+				while (true) {
+					if (closed)
+						throw new SQLException(
+							"This connection pool has been closed.");
+					evictIdleConnections();
+					if (idle.isEmpty() == false) {
+						pooled = idle.removeFirst();
+						break;
+					} else if (size < maxSize) {
+						// reserve a slot for the new connection
+						size++;
+						break;
+					} else if (wait == false)
+						return null;
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new SQLException(String.format(
+							"Timed out waiting for one of %d pooled " +
+							"database connections to become available.",
+							maxSize));
+					try {
+						wait(remaining);
+					} catch (InterruptedException error) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting " +
+							"for a pooled database connection.");
+					}
+				}
+			}
+			// connect or validate outside the lock,
+			// since either may take a network round trip
+			if (pooled == null) {
+				try {
+					pooled = new PooledConnection(
+						DriverManager.getConnection(url));
+				} catch (SQLException error) {
+					release(null);
+					throw error;
+				} catch (RuntimeException error) {
+					release(null);
+					throw error;
+				}
+			} else if (isValid(pooled) == false) {
+				pooled.disconnect();
+				release(null);
+				continue;
+			}
+			return pooled.lease();
+		}
+	}
+
+	private void evictIdleConnections() {
+		if (idleTimeout <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		for (Iterator<PooledConnection> iterator = idle.iterator();
+			iterator.hasNext(); ) {
+			PooledConnection pooled = iterator.next();
+			if (now - pooled.lastUsed > idleTimeout) {
+				iterator.remove();
+				size--;
+				pooled.disconnect();
+			}
+		}
+	}
+
+	private boolean isValid(PooledConnection pooled) {
+		if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_INTERVAL)
+			return true;
+		try {
+			return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (Throwable error) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a physical connection to the pool, or just frees its slot
+	 * if the argument is null.
+	 */
+	private void release(PooledConnection pooled) {
+		boolean disconnect = false;
+		synchronized (this) {
+			if (pooled == null || closed)
+				size--;
+			if (pooled != null) {
+				if (closed)
+					disconnect = true;
+				else {
+					pooled.lastUsed = System.currentTimeMillis();
+					// most recently used connections are handed out first,
+					// so that the rest can age out when load drops
+					idle.addFirst(pooled);
+				}
+			}
+			notifyAll();
+		}
+		if (disconnect)
+			pooled.disconnect();
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args)
+	throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException error) {
+			throw error.getCause();
+		}
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * A physical connection held by the pool, with its statement cache.
+	 */
+	private class PooledConnection {
+		private Connection                             connection;
+		private Map<StatementKey, CachedStatement>     statements;
+		private long                                   lastUsed;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+			lastUsed = System.currentTimeMillis();
+			// access-ordered, so that the least recently
+			// used statement is the one to be evicted
+			statements =
+				new LinkedHashMap<StatementKey, CachedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(
+					Map.Entry<StatementKey, CachedStatement> eldest
+				) {
+					if (size() <= statementCacheSize)
+						return false;
+					CachedStatement evicted = eldest.getValue();
+					// a statement still in use is closed when it's returned
+					if (evicted.inUse)
+						evicted.evicted = true;
+					else try { evicted.statement.close(); }
+					catch (Throwable error) {}
+					return true;
+				}
+			};
+		}
+
+		private Connection lease() {
+			return (Connection)Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[]{ Connection.class },
+				new LeasedConnection(this));
+		}
+
+		private synchronized PreparedStatement prepareStatement(
+			StatementKey key, Connection owner
+		) throws SQLException {
+			CachedStatement cached = null;
+			if (statementCacheSize > 0) {
+				cached = statements.get(key);
+				// the same SQL may legitimately be open twice at once on one
+				// connection, in which case the second copy is not cached
+				if (cached != null && cached.inUse)
+					return key.prepare(connection);
+				else if (cached == null) {
+					cached = new CachedStatement(key.prepare(connection));
+					statements.put(key, cached);
+				}
+			} else return key.prepare(connection);
+			cached.inUse = true;
+			return (PreparedStatement)Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[]{ PreparedStatement.class },
+				new LeasedStatement(this, cached, owner));
+		}
+
+		private synchronized void release(CachedStatement cached) {
+			cached.release();
+		}
+
+		private synchronized void disconnect() {
+			for (CachedStatement cached : statements.values())
+				try { cached.statement.close(); } catch (Throwable error) {}
+			statements.clear();
+			try { connection.close(); } catch (Throwable error) {}
+		}
+
+		/**
+		 * Puts this connection back into the state a new connection would
+		 * have, before it is returned to the pool. Any transaction left open
+		 * is rolled back, any table locks left held are released, and any
+		 * cached statements left open are closed, just as closing the
+		 * connection would have done.
+		 */
+		private boolean reset() {
+			try {
+				if (connection.isClosed())
+					return false;
+				// first, since the server takes no other command while a
+				// result set is still streaming rows from it
+				closeLeasedStatements();
+				if (connection.getAutoCommit() == false) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				if (connection.isReadOnly())
+					connection.setReadOnly(false);
+				// locks outlive transactions, and would block every other
+				// session using these tables for as long as this connection
+				// sits in the pool
+				Statement statement = connection.createStatement();
+				try {
+					statement.execute("UNLOCK TABLES");
+				} finally {
+					try { statement.close(); } catch (Throwable error) {}
+				}
+				connection.clearWarnings();
+				return true;
+			} catch (Throwable error) {
+				return false;
+			}
+		}
+
+		/**
+		 * Closes every cached statement that its user left open, so that no
+		 * stale reference to it can interfere with this connection's next
+		 * user. Its cache slot is freed for the statement to be prepared
+		 * again.
+		 */
+		private synchronized void closeLeasedStatements() {
+			for (Iterator<CachedStatement> iterator =
+				statements.values().iterator(); iterator.hasNext(); ) {
+				CachedStatement cached = iterator.next();
+				if (cached.inUse) {
+					cached.evicted = true;
+					cached.release();
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handler behind each connection handed out by the pool. Once closed,
+	 * it no longer refers to its physical connection, so that a stale
+	 * reference cannot interfere with the connection's next user.
+	 */
+	private class LeasedConnection
+	implements InvocationHandler {
+		private PooledConnection pooled;
+
+		private LeasedConnection(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+		throws Throwable {
+			String name = method.getName();
+			if (name.equals("equals"))
+				return proxy == args[0];
+			else if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			else if (name.equals("toString"))
+				return "Pooled" + (pooled == null ?
+					" (closed)" : pooled.connection.toString());
+			PooledConnection current;
+			synchronized (this) {
+				current = pooled;
+				if (name.equals("close")) {
+					pooled = null;
+					if (current == null)
+						return null;
+				} else if (name.equals("isClosed") && current == null)
+					return true;
+				else if (current == null)
+					throw new SQLException(
+						"This connection has been returned to the pool.");
+			}
+			if (name.equals("close")) {
+				if (current.reset())
+					release(current);
+				else {
+					current.disconnect();
+					release(null);
+				}
+				return null;
+			} else if (name.equals("prepareStatement") &&
+				args != null && (args.length == 1 || (args.length == 2 &&
+				method.getParameterTypes()[1] == Integer.TYPE))) {
+				return current.prepareStatement(
+					new StatementKey((String)args[0],
+						args.length == 2 ? (Integer)args[1] : null),
+					(Connection)proxy);
+			} else return ConnectionPool.invoke(
+				current.connection, method, args);
+		}
+	}
+
+	/**
+	 * Handler behind each statement handed out from a statement cache.
+	 */
+	private static class LeasedStatement
+	implements InvocationHandler {
+		private PooledConnection pooled;
+		private CachedStatement  cached;
+		private Connection       owner;
+		private boolean          closed;
+
+		private LeasedStatement(
+			PooledConnection pooled, CachedStatement cached, Connection owner
+		) {
+			this.pooled = pooled;
+			this.cached = cached;
+			this.owner = owner;
+			closed = false;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+		throws Throwable {
+			String name = method.getName();
+			if (name.equals("equals"))
+				return proxy == args[0];
+			else if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			else if (name.equals("close")) {
+				if (closed == false) {
+					closed = true;
+					pooled.release(cached);
+				}
+				return null;
+			} else if (name.equals("isClosed") && closed)
+				return true;
+			else if (closed)
+				throw new SQLException("This statement has been closed.");
+			// callers must only ever see the wrapped connection
+			else if (name.equals("getConnection"))
+				return owner;
+			else return ConnectionPool.invoke(cached.statement, method, args);
+		}
+	}
+
+	private static class CachedStatement {
+		private PreparedStatement statement;
+		private boolean           inUse;
+		private boolean           evicted;
+
+		private CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+			inUse = false;
+			evicted = false;
+		}
+
+		private void release() {
+			inUse = false;
+			if (evicted)
+				try { statement.close(); } catch (Throwable error) {}
+			else try {
+				// a result set left open would otherwise keep its rows,
+				// and any still being streamed from the server, until
+				// the statement is next executed
+				ResultSet result = statement.getResultSet();
+				if (result != null)
+					result.close();
+				statement.clearParameters();
+				statement.clearBatch();
+				statement.clearWarnings();
+			} catch (Throwable error) {
+				// a statement that can't be reset is no good to anyone
+				evicted = true;
+				try { statement.close(); } catch (Throwable innerError) {}
+			}
+		}
+	}
+
+	/**
+	 * Struct to identify a cached statement by its SQL and,
+	 * if specified, its auto-generated keys flag.
+	 */
+	private static class StatementKey {
+		private String  sql;
+		private Integer autoGeneratedKeys;
+
+		private StatementKey(String sql, Integer autoGeneratedKeys) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+		}
+
+		private PreparedStatement prepare(Connection connection)
+		throws SQLException {
+			if (autoGeneratedKeys == null)
+				return connection.prepareStatement(sql);
+			else return connection.prepareStatement(sql, autoGeneratedKeys);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other instanceof StatementKey == false)
+				return false;
+			StatementKey key = (StatementKey)other;
+			return sql.equals(key.sql) && (autoGeneratedKeys == null ?
+				key.autoGeneratedKeys == null :
+				autoGeneratedKeys.equals(key.autoGeneratedKeys));
+		}
+
+		@Override
+		public int hashCode() {
+			return sql.hashCode() * 31 + (autoGeneratedKeys == null ?
+				0 : autoGeneratedKeys.hashCode());
+		}
+	}
+}
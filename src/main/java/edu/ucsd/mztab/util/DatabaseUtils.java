@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.util.Properties;
 
 public class DatabaseUtils
@@ -15,12 +14,19 @@ public class DatabaseUtils
 	private static final String DB_CONFIG_FILE = "massive.properties";
 	private static final String DB_DRIVER = "com.mysql.jdbc.Driver";
 	private static final String DB_PROTOCOL = "jdbc:mysql";
+	// optional connection pool settings in the database configuration
+	private static final String DB_POOL_MAX_SIZE = "db.pool.maxSize";
+	private static final String DB_POOL_IDLE_TIMEOUT = "db.pool.idleTimeout";
+	private static final String DB_POOL_MAX_WAIT = "db.pool.maxWait";
+	private static final String DB_POOL_STATEMENT_CACHE_SIZE =
+		"db.pool.statementCacheSize";
 	
 	/*========================================================================
 	 * Static properties
 	 *========================================================================*/
 	private static Properties dbConfig = null;
 	private static String dbURL = null;
+	private static ConnectionPool dbPool = null;
 	static {
 		dbConfig = loadDatabaseConfiguration();
 		if (dbConfig != null) try {
@@ -38,16 +44,47 @@ public class DatabaseUtils
 			error.printStackTrace();
 			dbURL = null;
 		}
+		if (dbURL != null) try {
+			dbPool = new ConnectionPool(dbURL,
+				getIntegerProperty(DB_POOL_MAX_SIZE,
+					ConnectionPool.DEFAULT_MAX_SIZE),
+				getIntegerProperty(DB_POOL_IDLE_TIMEOUT,
+					(int)(ConnectionPool.DEFAULT_IDLE_TIMEOUT / 1000)) * 1000L,
+				getIntegerProperty(DB_POOL_MAX_WAIT,
+					(int)(ConnectionPool.DEFAULT_MAX_WAIT / 1000)) * 1000L,
+				getIntegerProperty(DB_POOL_STATEMENT_CACHE_SIZE,
+					ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE));
+			// don't leave pooled connections hanging open on the server
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					closeConnections();
+				}
+			});
+		} catch (Throwable error) {
+			System.err.println(
+				"There was an error setting up the database connection pool.");
+			error.printStackTrace();
+			dbURL = null;
+			dbPool = null;
+		}
 	}
 	
 	/*========================================================================
 	 * Public interface methods
 	 *========================================================================*/
+	/**
+	 * Returns a connection from the shared connection pool; closing it
+	 * returns it to the pool. Statements prepared on pooled connections are
+	 * cached for as long as the underlying connection stays open, so callers
+	 * should keep preparing and closing their statements as usual rather
+	 * than holding onto them.
+	 */
 	public static Connection getConnection() {
-		if (dbURL == null)
+		if (dbPool == null)
 			return null;
 		else try {
-			return DriverManager.getConnection(dbURL);
+			return dbPool.getConnection();
 		} catch (Throwable error) {
 			System.err.println(
 				"There was an error obtaining a database connection.");
@@ -56,6 +93,43 @@ public class DatabaseUtils
 		}
 	}
 	
+	/**
+	 * Returns a pooled connection only if one is available right away,
+	 * or null if the pool is exhausted or not configured.
+	 */
+	public static Connection tryGetConnection() {
+		if (dbPool == null)
+			return null;
+		else try {
+			return dbPool.tryGetConnection();
+		} catch (Throwable error) {
+			System.err.println(
+				"There was an error obtaining a database connection.");
+			error.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the most connections the shared connection pool will have
+	 * open at once, or 0 if it's not configured.
+	 */
+	public static int getMaxConnections() {
+		if (dbPool == null)
+			return 0;
+		else return dbPool.getMaxSize();
+	}
+	
+	/**
+	 * Disconnects all idle pooled connections. Pooled connections still in
+	 * use are disconnected when they are returned, and no more connections
+	 * will be handed out afterwards.
+	 */
+	public static void closeConnections() {
+		if (dbPool != null)
+			dbPool.close();
+	}
+	
 	/*========================================================================
 	 * Convenience methods
 	 *========================================================================*/
@@ -76,4 +150,17 @@ public class DatabaseUtils
 			return null;
 		else return properties;
 	}
+	
+	private static int getIntegerProperty(String name, int defaultValue) {
+		String value = dbConfig.getProperty(name);
+		if (value == null || value.trim().isEmpty())
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException error) {
+			throw new IllegalArgumentException(String.format(
+				"Database configuration property \"%s\" must be " +
+				"an integer: [%s]", name, value), error);
+		}
+	}
 }
@@ -0,0 +1,439 @@
+package edu.ucsd.mztab.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Local, persistent map of the database IDs of the global rows shared by
+ * all imports - peptides, proteins, modifications and variants - so that a
+ * new import process can find the IDs of rows already seen by an earlier
+ * one without asking the database for them again.
+ *
+ * Each table's entries are kept in two memory-mapped files in the cache
+ * directory: an open-addressing hash index of (key hash, ID, key offset)
+ * slots, and the UTF-8 keys themselves. Only the pages actually probed are
+ * ever read from disk. Entries are only added once their rows are known to
+ * exist in the database, and are never removed individually.
+ *
+ * Each table's index also records a high-water mark: the highest ID ever
+ * cached for it. Rows are never deleted from these tables, so as long as
+ * the database still has a row at or above that mark, every cached ID is
+ * still valid; if it doesn't, the database has been reset or restored
+ * since, and {@link #validate} discards all of the table's entries.
+ *
+ * A cache directory can only be used by one process at a time.
+ */
+public class ElementIDCache
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	private static final int MAGIC = 0x4D5A4943;
+	private static final int VERSION = 1;
+	// magic, version, high-water mark, capacity, size, end of keys
+	private static final int HEADER_SIZE = 32;
+	// key hash, ID, key offset
+	private static final int SLOT_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 1 << 16;
+	// largest index that can still be mapped as a single buffer
+	private static final int MAX_CAPACITY = 1 << 26;
+	private static final int INITIAL_KEYS_SIZE = 1024 * 1024; // 1 MiB
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	// element type -> table whose IDs are cached for it
+	private static final Map<String, String> TABLES =
+		new LinkedHashMap<String, String>(4);
+	static {
+		TABLES.put("sequence", "peptides");
+		TABLES.put("accession", "proteins");
+		TABLES.put("modification", "modifications");
+		TABLES.put("variant", "variants");
+	}
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File               directory;
+	private RandomAccessFile   lockFile;
+	private FileLock           lock;
+	private Map<String, Store> stores;
+	// set once a write has failed, after which nothing more is cached
+	private boolean            readOnly;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	/**
+	 * Opens the cache in the argument directory, creating it if it doesn't
+	 * exist yet. Its entries must be checked against the database with
+	 * {@link #validate} before they are used.
+	 */
+	public ElementIDCache(File directory) throws IOException {
+		if (directory == null)
+			throw new NullPointerException(
+				"Element ID cache directory cannot be null.");
+		directory.mkdirs();
+		if (directory.isDirectory() == false)
+			throw new IOException(String.format(
+				"Element ID cache [%s] must be a directory.",
+				directory.getAbsolutePath()));
+		this.directory = directory;
+		lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException error) {
+			lock = null;
+		}
+		if (lock == null) {
+			try { lockFile.close(); } catch (Throwable error) {}
+			throw new IOException(String.format(
+				"Element ID cache [%s] is already in use by another import.",
+				directory.getAbsolutePath()));
+		}
+		stores = new LinkedHashMap<String, Store>(TABLES.size());
+		readOnly = false;
+		try {
+			for (Entry<String, String> table : TABLES.entrySet())
+				stores.put(table.getKey(), new Store(
+					new File(directory, table.getValue() + ".index"),
+					new File(directory, table.getValue() + ".keys")));
+		} catch (IOException error) {
+			close();
+			throw error;
+		}
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Compares each table's high-water mark with the highest ID that the
+	 * table currently has in the database, and discards the table's cached
+	 * entries if the database no longer reaches it.
+	 */
+	public synchronized void validate(Connection connection)
+	throws SQLException, IOException {
+		if (connection == null)
+			throw new NullPointerException(
+				"Argument database connection is null.");
+		for (Entry<String, Store> entry : stores.entrySet()) {
+			String table = TABLES.get(entry.getKey());
+			Store store = entry.getValue();
+			long maxID = 0;
+			PreparedStatement statement = null;
+			ResultSet result = null;
+			try {
+				statement = connection.prepareStatement(
+					"SELECT MAX(id) FROM proxi." + table);
+				result = statement.executeQuery();
+				if (result.next())
+					maxID = result.getLong(1);
+			} finally {
+				try { result.close(); } catch (Throwable error) {}
+				try { statement.close(); } catch (Throwable error) {}
+			}
+			if (store.highWaterMark > maxID) {
+				System.out.println(String.format(
+					"WARNING: Element ID cache [%s] has IDs up to %d for " +
+					"table [proxi.%s], but the database only goes up to %d; " +
+					"discarding %d cached %s IDs.", directory.getAbsolutePath(),
+					store.highWaterMark, table, maxID, store.size, table));
+				store.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached database ID of the argument element, or null if
+	 * it isn't cached, or elements of its type aren't cached at all.
+	 */
+	public synchronized Integer getID(String type, String value) {
+		if (type == null || value == null || stores == null)
+			return null;
+		Store store = stores.get(type);
+		if (store == null)
+			return null;
+		else return store.get(value.getBytes(CHARSET));
+	}
+
+	/**
+	 * Caches the argument database ID of the argument element, which must
+	 * already exist in the database. IDs below 1 are never cached.
+	 */
+	public synchronized void putID(String type, String value, int id) {
+		if (type == null || value == null || id < 1 || stores == null ||
+			readOnly)
+			return;
+		Store store = stores.get(type);
+		if (store == null)
+			return;
+		// the cache only saves queries, so failing to add
+		// to it must not fail the import that's using it
+		try {
+			store.put(value.getBytes(CHARSET), id);
+		} catch (IOException error) {
+			readOnly = true;
+			System.out.println(String.format(
+				"WARNING: Could not add to element ID cache [%s], so no " +
+				"more IDs will be cached by this import: %s",
+				directory.getAbsolutePath(), error.getMessage()));
+		}
+	}
+
+	public synchronized int getSize() {
+		int size = 0;
+		if (stores != null)
+			for (Store store : stores.values())
+				size += store.size;
+		return size;
+	}
+
+	public synchronized void close() {
+		if (stores != null)
+			for (Store store : stores.values())
+				store.close();
+		stores = null;
+		if (lock != null)
+			try { lock.release(); } catch (Throwable error) {}
+		lock = null;
+		try { lockFile.close(); } catch (Throwable error) {}
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Mapped hash index and key files of the cached IDs of one table.
+	 */
+	private static class Store {
+		private File             indexFile;
+		private RandomAccessFile indexAccess;
+		private MappedByteBuffer index;
+		private RandomAccessFile keysAccess;
+		private MappedByteBuffer keys;
+		private int              capacity;
+		private int              size;
+		private int              keysEnd;
+		private long             highWaterMark;
+
+		public Store(File indexFile, File keysFile) throws IOException {
+			this.indexFile = indexFile;
+			keysAccess = new RandomAccessFile(keysFile, "rw");
+			if (keysAccess.length() < INITIAL_KEYS_SIZE)
+				keysAccess.setLength(INITIAL_KEYS_SIZE);
+			keys = map(keysAccess);
+			if (indexFile.isFile()) {
+				indexAccess = new RandomAccessFile(indexFile, "rw");
+				index = map(indexAccess);
+			}
+			// a missing or unreadable index starts the table over
+			if (index == null || readHeader() == false)
+				rebuild(INITIAL_CAPACITY, false);
+		}
+
+		public Integer get(byte[] key) {
+			int position = find(key, hash(key));
+			if (position < 0 || index.getLong(position) == 0)
+				return null;
+			else return index.getInt(position + 8);
+		}
+
+		public void put(byte[] key, int id) throws IOException {
+			// keep the index at most half full, so that probes stay short
+			if ((size + 1) * 2L > capacity) {
+				if (capacity >= MAX_CAPACITY)
+					return;
+				rebuild(capacity * 2, true);
+			}
+			long hash = hash(key);
+			int position = find(key, hash);
+			if (position < 0)
+				return;
+			else if (index.getLong(position) != 0) {
+				if (index.getInt(position + 8) != id) {
+					index.putInt(position + 8, id);
+					highWaterMark = Math.max(highWaterMark, id);
+					writeHeader(index);
+				}
+				return;
+			}
+			// write the key first, so that the slot never points past it
+			long needed = (long)keysEnd + 4 + key.length;
+			if (needed > keys.capacity() && growKeys(needed) == false)
+				return;
+			keys.putInt(keysEnd, key.length);
+			for (int i=0; i<key.length; i++)
+				keys.put(keysEnd + 4 + i, key[i]);
+			index.putInt(position + 8, id);
+			index.putInt(position + 12, keysEnd);
+			index.putLong(position, hash);
+			keysEnd = (int)needed;
+			size++;
+			highWaterMark = Math.max(highWaterMark, id);
+			writeHeader(index);
+		}
+
+		public void clear() throws IOException {
+			rebuild(INITIAL_CAPACITY, false);
+		}
+
+		public void close() {
+			if (index != null)
+				try { index.force(); } catch (Throwable error) {}
+			if (keys != null)
+				try { keys.force(); } catch (Throwable error) {}
+			try { indexAccess.close(); } catch (Throwable error) {}
+			try { keysAccess.close(); } catch (Throwable error) {}
+		}
+
+		/**
+		 * Returns the position of the slot holding the argument key, or of
+		 * the empty slot where it would go, or -1 if there is neither.
+		 */
+		private int find(byte[] key, long hash) {
+			int mask = capacity - 1;
+			int slot = (int)(hash & mask);
+			for (int i=0; i<capacity; i++) {
+				int position = HEADER_SIZE + slot * SLOT_SIZE;
+				long slotHash = index.getLong(position);
+				if (slotHash == 0 ||
+					(slotHash == hash && keyEquals(index.getInt(position + 12), key)))
+					return position;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private boolean keyEquals(int offset, byte[] key) {
+			if (offset < 0 || (long)offset + 4 + key.length > keysEnd ||
+				keys.getInt(offset) != key.length)
+				return false;
+			for (int i=0; i<key.length; i++)
+				if (keys.get(offset + 4 + i) != key[i])
+					return false;
+			return true;
+		}
+
+		private boolean readHeader() {
+			if (index.capacity() < HEADER_SIZE ||
+				index.getInt(0) != MAGIC || index.getInt(4) != VERSION)
+				return false;
+			highWaterMark = index.getLong(8);
+			capacity = index.getInt(16);
+			size = index.getInt(20);
+			keysEnd = index.getInt(24);
+			return highWaterMark >= 0 && capacity > 0 &&
+				(capacity & (capacity - 1)) == 0 && capacity <= MAX_CAPACITY &&
+				index.capacity() == HEADER_SIZE + (long)capacity * SLOT_SIZE &&
+				size >= 0 && size * 2L <= capacity &&
+				keysEnd >= 0 && keysEnd <= keys.capacity();
+		}
+
+		private void writeHeader(MappedByteBuffer buffer) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putLong(8, highWaterMark);
+			buffer.putInt(16, capacity);
+			buffer.putInt(20, size);
+			buffer.putInt(24, keysEnd);
+		}
+
+		/**
+		 * Writes a new index of the argument capacity next to the current
+		 * one, either with all of its entries or with none, and then swaps
+		 * it in, so that the current index stays whole until it's replaced.
+		 */
+		private void rebuild(int newCapacity, boolean keepEntries)
+		throws IOException {
+			File rebuiltFile = new File(indexFile.getParentFile(),
+				indexFile.getName() + ".rebuild");
+			RandomAccessFile rebuiltAccess =
+				new RandomAccessFile(rebuiltFile, "rw");
+			MappedByteBuffer rebuilt = null;
+			try {
+				rebuiltAccess.setLength(0);
+				rebuiltAccess.setLength(
+					HEADER_SIZE + (long)newCapacity * SLOT_SIZE);
+				rebuilt = map(rebuiltAccess);
+				if (keepEntries) {
+					int mask = newCapacity - 1;
+					for (int slot=0; slot<capacity; slot++) {
+						int position = HEADER_SIZE + slot * SLOT_SIZE;
+						long hash = index.getLong(position);
+						if (hash == 0)
+							continue;
+						int target = (int)(hash & mask);
+						while (rebuilt.getLong(HEADER_SIZE + target * SLOT_SIZE) != 0)
+							target = (target + 1) & mask;
+						int targetPosition = HEADER_SIZE + target * SLOT_SIZE;
+						rebuilt.putInt(targetPosition + 8, index.getInt(position + 8));
+						rebuilt.putInt(targetPosition + 12, index.getInt(position + 12));
+						rebuilt.putLong(targetPosition, hash);
+					}
+				} else {
+					size = 0;
+					keysEnd = 0;
+					highWaterMark = 0;
+				}
+				capacity = newCapacity;
+				writeHeader(rebuilt);
+				rebuilt.force();
+				if (rebuiltFile.renameTo(indexFile) == false &&
+					(indexFile.delete() == false ||
+					rebuiltFile.renameTo(indexFile) == false))
+					throw new IOException(String.format(
+						"Could not replace element ID cache index [%s].",
+						indexFile.getAbsolutePath()));
+			} catch (IOException error) {
+				try { rebuiltAccess.close(); } catch (Throwable innerError) {}
+				rebuiltFile.delete();
+				throw error;
+			}
+			if (indexAccess != null)
+				try { indexAccess.close(); } catch (Throwable error) {}
+			indexAccess = rebuiltAccess;
+			index = rebuilt;
+		}
+
+		private boolean growKeys(long needed) throws IOException {
+			if (needed > Integer.MAX_VALUE)
+				return false;
+			long length = Math.min(Integer.MAX_VALUE,
+				Math.max(needed, (long)keys.capacity() * 2));
+			keysAccess.setLength(length);
+			keys = map(keysAccess);
+			return true;
+		}
+
+		private static MappedByteBuffer map(RandomAccessFile file)
+		throws IOException {
+			long length = file.length();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException(
+					"Element ID cache file is too large to be mapped.");
+			return file.getChannel().map(MapMode.READ_WRITE, 0, length);
+		}
+
+		// 64-bit FNV-1a, never 0 since that marks an empty slot
+		private static long hash(byte[] key) {
+			long hash = 0xCBF29CE484222325L;
+			for (byte b : key) {
+				hash ^= b & 0xFF;
+				hash *= 0x100000001B3L;
+			}
+			return hash == 0 ? 1 : hash;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package edu.ucsd.mztab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts an arbitrary number of string records in their natural order within
+ * a bounded amount of memory, so that they can be grouped or merge-joined
+ * with other sorted records in a single sequential read.
+ *
+ * Records are buffered in memory up to a fixed number; whenever the buffer
+ * fills up, it is sorted and spilled to a temporary run file. When all
+ * records have been added, the buffer is sorted and, if there were any
+ * spills, merged with all the runs as the sorted records are read back.
+ * If too many runs pile up to be merged at once, the oldest of them are
+ * first merged into a single larger run.
+ */
+public class ExternalSorter
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final int DEFAULT_BUFFER_RECORDS = 250000;
+	private static final int MAX_MERGED_RUNS = 128;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final Comparator<RunReader> HEAD_ORDER =
+		new Comparator<RunReader>() {
+			public int compare(RunReader reader1, RunReader reader2) {
+				return reader1.current.compareTo(reader2.current);
+			}
+		};
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File       runBase;
+	private boolean    distinct;
+	private String[]   buffer;
+	private int        bufferLimit;
+	private int        buffered;
+	private long       count;
+	private List<File> runs;
+	private int        runNumber;
+	private boolean    finished;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public ExternalSorter(File runBase, boolean distinct) {
+		this(runBase, distinct, DEFAULT_BUFFER_RECORDS);
+	}
+
+	/**
+	 * @param runBase	base path of the temporary run files; the runs are
+	 * 					named by appending ".run<N>" to it
+	 * @param distinct	whether equal records are only read back once
+	 */
+	public ExternalSorter(File runBase, boolean distinct, int bufferRecords) {
+		if (runBase == null)
+			throw new NullPointerException("Run file base cannot be null.");
+		else if (bufferRecords < 1)
+			throw new IllegalArgumentException(String.format(
+				"Record buffer size (%d) must be at least 1.", bufferRecords));
+		this.runBase = runBase;
+		this.distinct = distinct;
+		// the record buffer only grows as far as it's needed
+		buffer = new String[Math.min(bufferRecords, 1024)];
+		bufferLimit = bufferRecords;
+		buffered = 0;
+		count = 0;
+		runs = new ArrayList<File>();
+		runNumber = 0;
+		finished = false;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void add(String record) throws IOException {
+		if (record == null)
+			throw new NullPointerException("Sorted record cannot be null.");
+		else if (finished)
+			throw new IllegalStateException(String.format(
+				"Sorted records [%s] have already been read back.",
+				runBase.getAbsolutePath()));
+		if (buffered == bufferLimit)
+			spill();
+		else if (buffered == buffer.length)
+			buffer = Arrays.copyOf(buffer,
+				(int)Math.min((long)buffer.length * 2, bufferLimit));
+		buffer[buffered++] = record;
+		count++;
+	}
+
+	/**
+	 * Returns the number of records added so far, including duplicates.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns a reader of all records added so far, in sorted order. No more
+	 * records can be added afterwards, and the records can only be read back
+	 * once; the reader must be closed to delete the run files.
+	 */
+	public SortedReader finish() throws IOException {
+		if (finished)
+			throw new IllegalStateException(String.format(
+				"Sorted records [%s] have already been read back.",
+				runBase.getAbsolutePath()));
+		finished = true;
+		// without any spills, the sorted buffer is all there is
+		if (runs.isEmpty()) {
+			Arrays.sort(buffer, 0, buffered);
+			final String[] records = buffer;
+			final int size = buffered;
+			buffer = null;
+			return new SortedReader(distinct) {
+				private int next = 0;
+
+				@Override
+				protected String readRecord() {
+					if (next >= size)
+						return null;
+					String record = records[next];
+					records[next++] = null;
+					return record;
+				}
+
+				@Override
+				public void close() {
+					next = size;
+					Arrays.fill(records, null);
+				}
+			};
+		}
+		// otherwise the rest of the buffer becomes one more run,
+		// and all the runs are merged as they're read
+		if (buffered > 0)
+			spill();
+		buffer = null;
+		while (runs.size() > MAX_MERGED_RUNS)
+			mergeOldestRuns();
+		final List<File> merged = new ArrayList<File>(runs);
+		runs.clear();
+		final MergeReader reader = new MergeReader(merged);
+		return new SortedReader(distinct) {
+			@Override
+			protected String readRecord() throws IOException {
+				return reader.next();
+			}
+
+			@Override
+			public void close() {
+				reader.close();
+				for (File run : merged)
+					run.delete();
+			}
+		};
+	}
+
+	/**
+	 * Releases all buffered records and deletes any temporary run files,
+	 * without reading them back.
+	 */
+	public void close() {
+		finished = true;
+		buffer = null;
+		for (File run : runs)
+			run.delete();
+		runs.clear();
+	}
+
+	/**
+	 * Compares two record keys (leading fields, which can't contain tabs) in
+	 * the order in which the records starting with them are sorted, i.e. as
+	 * if each were followed by a tab. Two sets of sorted records can only be
+	 * merge-joined on their keys in this order.
+	 */
+	public static int compareKeys(String key1, String key2) {
+		int length = Math.min(key1.length(), key2.length());
+		for (int i=0; i<length; i++)
+			if (key1.charAt(i) != key2.charAt(i))
+				return key1.charAt(i) - key2.charAt(i);
+		if (key1.length() == key2.length())
+			return 0;
+		else if (key1.length() == length)
+			return '\t' - key2.charAt(length);
+		else return key1.charAt(length) - '\t';
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * Reads back sorted records one at a time, like lines of a file.
+	 */
+	public static abstract class SortedReader {
+		private boolean distinct;
+		private String  previous;
+
+		protected SortedReader(boolean distinct) {
+			this.distinct = distinct;
+			previous = null;
+		}
+
+		/**
+		 * Returns the next record in sorted order, or null if there are
+		 * no more.
+		 */
+		public String readLine() throws IOException {
+			while (true) {
+				String record = readRecord();
+				if (record == null || distinct == false ||
+					record.equals(previous) == false) {
+					previous = record;
+					return record;
+				}
+			}
+		}
+
+		public abstract void close();
+
+		protected abstract String readRecord() throws IOException;
+	}
+
+	/**
+	 * Reads back the records of one sorted run file, one at a time.
+	 */
+	private static class RunReader {
+		private DataInputStream input;
+		private String          current;
+
+		public RunReader(File run) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(run), READ_BUFFER_SIZE));
+			advance();
+		}
+
+		public void advance() throws IOException {
+			try {
+				byte[] record = new byte[input.readInt()];
+				input.readFully(record);
+				current = new String(record, CHARSET);
+			} catch (EOFException error) {
+				current = null;
+				close();
+			}
+		}
+
+		public void close() {
+			try { input.close(); } catch (Throwable error) {}
+		}
+	}
+
+	/**
+	 * Merges any number of sorted run files, always returning the lowest
+	 * record among the heads of all runs.
+	 */
+	private static class MergeReader {
+		private PriorityQueue<RunReader> heads;
+		private List<RunReader>          readers;
+
+		public MergeReader(List<File> runs) throws IOException {
+			heads = new PriorityQueue<RunReader>(
+				Math.max(runs.size(), 1), HEAD_ORDER);
+			readers = new ArrayList<RunReader>(runs.size());
+			try {
+				for (File run : runs) {
+					RunReader reader = new RunReader(run);
+					readers.add(reader);
+					if (reader.current != null)
+						heads.add(reader);
+				}
+			} catch (IOException error) {
+				close();
+				throw error;
+			}
+		}
+
+		public String next() throws IOException {
+			RunReader reader = heads.poll();
+			if (reader == null)
+				return null;
+			String record = reader.current;
+			reader.advance();
+			if (reader.current != null)
+				heads.add(reader);
+			return record;
+		}
+
+		public void close() {
+			heads.clear();
+			for (RunReader reader : readers)
+				reader.close();
+		}
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private void spill() throws IOException {
+		Arrays.sort(buffer, 0, buffered);
+		DataOutputStream output = openRun();
+		try {
+			String previous = null;
+			for (int i=0; i<buffered; i++) {
+				String record = buffer[i];
+				buffer[i] = null;
+				if (distinct && record.equals(previous))
+					continue;
+				writeRecord(output, record);
+				previous = record;
+			}
+			output.close();
+		} finally {
+			try { output.close(); } catch (Throwable error) {}
+		}
+		buffered = 0;
+	}
+
+	private void mergeOldestRuns() throws IOException {
+		List<File> oldest = new ArrayList<File>(runs.subList(0, MAX_MERGED_RUNS));
+		runs.subList(0, MAX_MERGED_RUNS).clear();
+		MergeReader reader = new MergeReader(oldest);
+		DataOutputStream output = null;
+		try {
+			output = openRun();
+			String previous = null;
+			String record = null;
+			while ((record = reader.next()) != null) {
+				if (distinct && record.equals(previous))
+					continue;
+				writeRecord(output, record);
+				previous = record;
+			}
+			output.close();
+		} finally {
+			reader.close();
+			if (output != null)
+				try { output.close(); } catch (Throwable error) {}
+			for (File run : oldest)
+				run.delete();
+		}
+	}
+
+	private DataOutputStream openRun() throws IOException {
+		File run = new File(String.format(
+			"%s.run%d", runBase.getAbsolutePath(), runNumber++));
+		runs.add(run);
+		return new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(run), READ_BUFFER_SIZE));
+	}
+
+	private static void writeRecord(DataOutputStream output, String record)
+	throws IOException {
+		byte[] bytes = record.getBytes(CHARSET);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
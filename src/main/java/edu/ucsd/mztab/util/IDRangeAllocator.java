@@ -0,0 +1,159 @@
+package edu.ucsd.mztab.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out database IDs for new rows of auto-increment tables from
+ * contiguous blocks reserved on the database server, so that a loader can
+ * write new rows with their IDs already filled in instead of looking up the
+ * generated IDs after inserting them.
+ *
+ * A block is reserved with the table locked: the next ID is read from the
+ * table's auto-increment counter (or its highest existing ID, whichever is
+ * greater), and the counter is then moved past the end of the block. Any
+ * other writer that lets the server generate its IDs therefore never gets
+ * one from a reserved block, whether or not the rows reserved for it have
+ * been inserted yet. IDs left over at the end of a block are never used.
+ * Since MySQL 8 caches the counters reported by information_schema, the
+ * cache is bypassed for the session while a block is being reserved, so
+ * that the counter read is always the one last set by any other session.
+ */
+public class IDRangeAllocator
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private int                 blockSize;
+	// table -> { next unused ID, end of reserved block (exclusive) }
+	private Map<String, long[]> blocks;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public IDRangeAllocator() {
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	public IDRangeAllocator(int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"ID block size (%d) must be at least 1.", blockSize));
+		this.blockSize = blockSize;
+		blocks = new HashMap<String, long[]>();
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Returns the first of the argument number of consecutive IDs reserved
+	 * for new rows of the argument table, which must be given as
+	 * "<schema>.<table>". A new block is reserved over the argument
+	 * connection only if the current one doesn't have enough IDs left.
+	 */
+	public synchronized long allocate(
+		Connection connection, String table, int count
+	) throws SQLException {
+		if (connection == null)
+			throw new NullPointerException(
+				"Argument database connection cannot be null.");
+		else if (table == null)
+			throw new NullPointerException(
+				"Argument table name cannot be null.");
+		else if (count < 1)
+			throw new IllegalArgumentException(String.format(
+				"Number of IDs to allocate (%d) must be at least 1.", count));
+		long[] block = blocks.get(table);
+		if (block == null || block[1] - block[0] < count) {
+			block = reserve(connection, table, Math.max(count, blockSize));
+			blocks.put(table, block);
+		}
+		long first = block[0];
+		block[0] += count;
+		return first;
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private long[] reserve(Connection connection, String table, int size)
+	throws SQLException {
+		int separator = table.indexOf('.');
+		if (separator < 1 || separator == table.length() - 1)
+			throw new IllegalArgumentException(String.format(
+				"Table name [%s] must be given as \"<schema>.<table>\".",
+				table));
+		Statement statement = null;
+		PreparedStatement query = null;
+		ResultSet result = null;
+		boolean locked = false;
+		boolean uncached = false;
+		try {
+			statement = connection.createStatement();
+			// no other session can insert rows or move the
+			// counter until this block has been reserved
+			statement.execute(String.format("LOCK TABLES %s WRITE", table));
+			locked = true;
+			uncached = disableStatisticsCache(statement);
+			long next = 1;
+			query = connection.prepareStatement(
+				"SELECT AUTO_INCREMENT FROM information_schema.TABLES " +
+				"WHERE TABLE_SCHEMA=? AND TABLE_NAME=?");
+			query.setString(1, table.substring(0, separator));
+			query.setString(2, table.substring(separator + 1));
+			result = query.executeQuery();
+			if (result.next())
+				next = Math.max(next, result.getLong(1));
+			else throw new IllegalArgumentException(String.format(
+				"Table [%s] could not be found.", table));
+			try { result.close(); } catch (Throwable error) {}
+			try { query.close(); } catch (Throwable error) {}
+			// the reported counter can lag behind rows inserted
+			// with explicit IDs, so never start below those
+			result = statement.executeQuery(String.format(
+				"SELECT MAX(id) FROM %s", table));
+			if (result.next())
+				next = Math.max(next, result.getLong(1) + 1);
+			statement.executeUpdate(String.format(
+				"ALTER TABLE %s AUTO_INCREMENT = %d", table, next + size));
+			return new long[]{ next, next + size };
+		} finally {
+			try { result.close(); } catch (Throwable error) {}
+			try { query.close(); } catch (Throwable error) {}
+			// pooled connections outlive this reservation, so put
+			// the session back to caching statistics as usual
+			if (uncached) try {
+				statement.execute(
+					"SET SESSION information_schema_stats_expiry = DEFAULT");
+			} catch (Throwable error) {}
+			if (locked) try {
+				statement.execute("UNLOCK TABLES");
+			} catch (Throwable error) {}
+			try { statement.close(); } catch (Throwable error) {}
+		}
+	}
+
+	private static boolean disableStatisticsCache(Statement statement) {
+		// otherwise a counter just moved by another session could still be
+		// reported as it was, for up to a day by default; servers without
+		// this variable (before MySQL 8.0) don't cache statistics at all
+		try {
+			statement.execute(
+				"SET SESSION information_schema_stats_expiry = 0");
+			return true;
+		} catch (SQLException error) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package edu.ucsd.mztab.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+/**
+ * Local record of the progress of one dataset import, so that an import
+ * that failed partway through can be run again without redoing the work
+ * that was already finished.
+ *
+ * Two kinds of units are recorded as they finish: whole mzTab files, along
+ * with the counts their import returned, and single dependency levels of
+ * each batch loaded for a file. A batch is identified by its number within
+ * the file and by the range of PSM database IDs given to its new PSMs.
+ * Since a re-run parses the file the same way and gives its PSMs the same
+ * IDs, a recorded level is only trusted if the batch it belongs to comes
+ * out with the same range again. Once whatever was loaded for a file has
+ * been removed again, because its import failed, all of its recorded
+ * levels are discarded.
+ *
+ * The journal is a plain text file that is only ever appended to, with one
+ * tab-separated record per line. Its first line identifies the import it
+ * belongs to, and a journal can only be reopened for that same import. A
+ * last line left unterminated by a process that died while writing it is
+ * cut off when the journal is reopened.
+ */
+public class ImportJournal
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	private static final String IMPORT_RECORD = "import";
+	private static final String FILE_RECORD = "file";
+	private static final String LEVEL_RECORD = "level";
+	private static final String DISCARD_RECORD = "discard";
+	// counts recorded for a file that was read, but had nothing to import
+	private static final String SKIPPED = "skipped";
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File        journalFile;
+	// mzTab file -> import counts, or null if nothing was imported
+	private Map<String, ImmutableTriple<Integer, Integer, Long>> files;
+	// "<mzTab file>\t<batch>\t<first PSM ID>\t<next PSM ID>" -> levels
+	private Map<String, Set<Integer>> levels;
+	private FileOutputStream stream;
+	private PrintWriter writer;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	/**
+	 * Opens the argument journal file for the import of the argument task,
+	 * creating it if it doesn't exist yet, and reads back any progress
+	 * already recorded in it.
+	 */
+	public ImportJournal(
+		File journalFile, String taskID, String datasetID,
+		boolean importByQValue
+	) throws IOException {
+		if (journalFile == null)
+			throw new NullPointerException("Journal file cannot be null.");
+		else if (taskID == null)
+			throw new NullPointerException("Task ID cannot be null.");
+		this.journalFile = journalFile;
+		files = new HashMap<String, ImmutableTriple<Integer, Integer, Long>>();
+		levels = new HashMap<String, Set<Integer>>();
+		String header = join(IMPORT_RECORD, taskID,
+			datasetID == null ? "" : datasetID, Boolean.toString(importByQValue));
+		long complete = 0;
+		if (journalFile.isFile() && journalFile.length() > 0)
+			complete = read(header);
+		stream = new FileOutputStream(journalFile, true);
+		// the next record must start on a line of its own, rather than
+		// complete whatever was left of the last one
+		try {
+			if (stream.getChannel().size() > complete)
+				stream.getChannel().truncate(complete);
+		} catch (IOException error) {
+			try { stream.close(); } catch (Throwable innerError) {}
+			throw error;
+		}
+		writer = new PrintWriter(new OutputStreamWriter(stream, "UTF-8"));
+		if (complete == 0)
+			append(header);
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public synchronized boolean isFileComplete(File mzTabFile) {
+		return files.containsKey(getKey(mzTabFile));
+	}
+
+	/**
+	 * Returns the import counts recorded for the argument mzTab file, or
+	 * null if it was read to the end without importing anything.
+	 */
+	public synchronized ImmutableTriple<Integer, Integer, Long> getFileCounts(
+		File mzTabFile
+	) {
+		return files.get(getKey(mzTabFile));
+	}
+
+	/**
+	 * Records the argument mzTab file as done, with the counts its import
+	 * returned; null counts mean it was read but nothing was imported.
+	 */
+	public synchronized void completeFile(
+		File mzTabFile, ImmutableTriple<Integer, Integer, Long> counts
+	) {
+		String key = getKey(mzTabFile);
+		if (counts == null)
+			append(join(FILE_RECORD, key, SKIPPED));
+		else append(join(FILE_RECORD, key,
+			Integer.toString(counts.getLeft()),
+			Integer.toString(counts.getMiddle()),
+			Long.toString(counts.getRight())));
+		files.put(key, counts);
+	}
+
+	/**
+	 * Returns the dependency levels recorded as loaded for the argument
+	 * batch of the argument mzTab file, whose new PSMs were given the
+	 * database IDs from the first one up to (not including) the next one.
+	 */
+	public synchronized Set<Integer> getCompletedLevels(
+		File mzTabFile, int batch, long firstPSMID, long nextPSMID
+	) {
+		Set<Integer> completed =
+			levels.get(getBatchKey(mzTabFile, batch, firstPSMID, nextPSMID));
+		if (completed == null)
+			return new HashSet<Integer>();
+		else return new HashSet<Integer>(completed);
+	}
+
+	public synchronized void completeLevel(
+		File mzTabFile, int batch, long firstPSMID, long nextPSMID, int level
+	) {
+		String key = getBatchKey(mzTabFile, batch, firstPSMID, nextPSMID);
+		append(join(LEVEL_RECORD, key, Integer.toString(level)));
+		Set<Integer> completed = levels.get(key);
+		if (completed == null) {
+			completed = new HashSet<Integer>();
+			levels.put(key, completed);
+		}
+		completed.add(level);
+	}
+
+	/**
+	 * Forgets all dependency levels recorded for the argument mzTab file,
+	 * once whatever was loaded for them has been removed from the database.
+	 */
+	public synchronized void discardFile(File mzTabFile) {
+		String key = getKey(mzTabFile);
+		append(join(DISCARD_RECORD, key));
+		discardLevels(key);
+	}
+
+	public synchronized void close() {
+		if (writer != null)
+			writer.close();
+		writer = null;
+		stream = null;
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	/**
+	 * Reads back all complete records, returning the length in bytes
+	 * of the journal up to the end of the last one.
+	 */
+	private long read(String header) throws IOException {
+		String content = FileUtils.readFileToString(journalFile, "UTF-8");
+		// a record is only complete once its line has been terminated;
+		// if not even the header line was, then the journal is empty
+		content = content.substring(0, content.lastIndexOf('\n') + 1);
+		if (content.isEmpty())
+			return 0;
+		String[] lines = content.split("\n", -1);
+		if (header.equals(lines[0]) == false)
+			throw new IllegalArgumentException(String.format(
+				"Import journal [%s] belongs to a different import " +
+				"(\"%s\") than this one (\"%s\").",
+				journalFile.getAbsolutePath(), lines[0], header));
+		for (int i=1; i<lines.length - 1; i++) {
+			String[] fields = lines[i].split("\t");
+			if (fields[0].equals(FILE_RECORD) && fields.length == 3 &&
+				fields[2].equals(SKIPPED))
+				files.put(fields[1], null);
+			else if (fields[0].equals(FILE_RECORD) && fields.length == 5) try {
+				files.put(fields[1], new ImmutableTriple<Integer, Integer, Long>(
+					Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+					Long.parseLong(fields[4])));
+			} catch (NumberFormatException error) {}
+			else if (fields[0].equals(LEVEL_RECORD) && fields.length == 6) try {
+				String key = join(fields[1], fields[2], fields[3], fields[4]);
+				int level = Integer.parseInt(fields[5]);
+				Set<Integer> completed = levels.get(key);
+				if (completed == null) {
+					completed = new HashSet<Integer>();
+					levels.put(key, completed);
+				}
+				completed.add(level);
+			} catch (NumberFormatException error) {}
+			else if (fields[0].equals(DISCARD_RECORD) && fields.length == 2)
+				discardLevels(fields[1]);
+		}
+		return content.getBytes("UTF-8").length;
+	}
+
+	private void discardLevels(String key) {
+		String prefix = key + "\t";
+		Iterator<String> batches = levels.keySet().iterator();
+		while (batches.hasNext())
+			if (batches.next().startsWith(prefix))
+				batches.remove();
+	}
+
+	private void append(String record) {
+		if (writer == null)
+			throw new IllegalStateException(String.format(
+				"Import journal [%s] has already been closed.",
+				journalFile.getAbsolutePath()));
+		// every record must be on disk before the work after it begins,
+		// so that it survives even if the machine itself goes down
+		writer.print(record);
+		writer.print("\n");
+		writer.flush();
+		if (writer.checkError())
+			throw new RuntimeException(String.format(
+				"Could not write to import journal [%s].",
+				journalFile.getAbsolutePath()));
+		try {
+			stream.getChannel().force(false);
+		} catch (IOException error) {
+			throw new RuntimeException(String.format(
+				"Could not sync import journal [%s] to disk.",
+				journalFile.getAbsolutePath()), error);
+		}
+	}
+
+	private static String getKey(File mzTabFile) {
+		if (mzTabFile == null)
+			throw new NullPointerException("MzTab file cannot be null.");
+		else return mzTabFile.getAbsolutePath();
+	}
+
+	private static String getBatchKey(
+		File mzTabFile, int batch, long firstPSMID, long nextPSMID
+	) {
+		return join(getKey(mzTabFile), Integer.toString(batch),
+			Long.toString(firstPSMID), Long.toString(nextPSMID));
+	}
+
+	private static String join(String... fields) {
+		StringBuilder joined = new StringBuilder();
+		for (String field : fields) {
+			if (joined.length() > 0)
+				joined.append("\t");
+			joined.append(field);
+		}
+		return joined.toString();
+	}
+}
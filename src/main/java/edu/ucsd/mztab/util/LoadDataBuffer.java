@@ -0,0 +1,26 @@
+package edu.ucsd.mztab.util;
+
+import java.io.File;
+
+/**
+ * Holds the content of one database load file in memory, so that it can be
+ * streamed to the server through "LOAD DATA LOCAL INFILE" rather than being
+ * written to disk for the server to read back. To keep memory bounded, any
+ * content beyond a fixed number of bytes is spilled to a local file, which
+ * is then streamed right after the content held in memory.
+ *
+ * Content is released as it's read, so a buffer can only be read once.
+ */
+public class LoadDataBuffer extends SpillBuffer
+{
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public LoadDataBuffer(File spillFile) {
+		super(spillFile);
+	}
+
+	public LoadDataBuffer(File spillFile, long memoryLimit) {
+		super(spillFile, memoryLimit);
+	}
+}
@@ -0,0 +1,255 @@
+package edu.ucsd.mztab.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a file through a sliding memory-mapped region, decoding
+ * them with an explicit charset rather than the platform default.
+ *
+ * Bytes are copied out of the mapped region in bulk and line terminators
+ * are found by scanning those bytes directly, so the charset must encode
+ * tab, newline and carriage return as their single ASCII bytes (e.g. UTF-8,
+ * US-ASCII or ISO-8859-1). Lines consisting only of ASCII bytes skip the
+ * charset's multi-byte decoding entirely. As with BufferedReader.readLine(),
+ * a line may be terminated by "\n", "\r" or "\r\n", and the terminator
+ * is not included in the returned line.
+ */
+public class MappedLineReader
+implements Closeable
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+	public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	// pure ASCII bytes decode identically under every supported
+	// charset, and ISO-8859-1 decodes them with a straight copy
+	private static final Charset ASCII_CHARSET = Charset.forName("ISO-8859-1");
+	private static final byte[] ASCII_CONTROL_BYTES =
+		new byte[]{ '\t', '\n', '\r' };
+	
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File             file;
+	private FileInputStream  input;
+	private FileChannel      channel;
+	private Charset          charset;
+	private long             fileSize;
+	private int              regionSize;
+	private MappedByteBuffer region;
+	private long             regionStart;
+	// bytes copied out of the mapped region, not yet returned as lines
+	private byte[]           buffer;
+	private int              position;
+	private int              limit;
+	
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public MappedLineReader(File file)
+	throws IOException {
+		this(file, DEFAULT_CHARSET, DEFAULT_REGION_SIZE);
+	}
+	
+	public MappedLineReader(File file, Charset charset)
+	throws IOException {
+		this(file, charset, DEFAULT_REGION_SIZE);
+	}
+	
+	public MappedLineReader(File file, Charset charset, int regionSize)
+	throws IOException {
+		// validate input file
+		if (file == null)
+			throw new NullPointerException("Argument file cannot be null.");
+		else if (file.isFile() == false || file.canRead() == false)
+			throw new IllegalArgumentException(String.format(
+				"Argument file [%s] must be a readable file.",
+				file.getAbsolutePath()));
+		else this.file = file;
+		// validate charset
+		if (charset == null)
+			throw new NullPointerException("Argument charset cannot be null.");
+		else if (Arrays.equals(
+			"\t\n\r".getBytes(charset), ASCII_CONTROL_BYTES) == false)
+			throw new IllegalArgumentException(String.format(
+				"Argument charset [%s] is not supported: tabs and line " +
+				"terminators must be encoded as single ASCII bytes.",
+				charset.name()));
+		else this.charset = charset;
+		// validate region size
+		if (regionSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Mapped region size (%d) must be a positive integer.",
+				regionSize));
+		else this.regionSize = regionSize;
+		// initialize line buffer
+		buffer = new byte[Math.min(regionSize, DEFAULT_BUFFER_SIZE)];
+		position = 0;
+		limit = 0;
+		// open file and map its first region
+		input = new FileInputStream(file);
+		try {
+			channel = input.getChannel();
+			fileSize = channel.size();
+			map(0);
+		} catch (IOException error) {
+			close();
+			throw error;
+		}
+	}
+	
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public String readLine()
+	throws IOException {
+		if (channel == null)
+			throw new IOException(String.format(
+				"Line reader for file [%s] has already been closed.",
+				file.getAbsolutePath()));
+		boolean ascii = true;
+		int i = position;
+		while (true) {
+			// if the buffer is exhausted, pull in more of the file
+			if (i >= limit) {
+				int shift = position;
+				boolean filled = fill();
+				i -= shift;
+				if (filled)
+					continue;
+				// at end of file, whatever is left is the final line
+				else if (position >= limit)
+					return null;
+				else {
+					String line = decode(position, limit - position, ascii);
+					position = limit;
+					return line;
+				}
+			}
+			byte current = buffer[i];
+			if (current == '\n' || current == '\r') {
+				// a carriage return may be followed by a
+				// newline that has not been buffered yet
+				if (current == '\r' && i + 1 >= limit) {
+					int shift = position;
+					boolean filled = fill();
+					i -= shift;
+					if (filled)
+						continue;
+				}
+				String line = decode(position, i - position, ascii);
+				position = i + 1;
+				if (current == '\r' && position < limit &&
+					buffer[position] == '\n')
+					position++;
+				return line;
+			} else if (current < 0)
+				ascii = false;
+			i++;
+		}
+	}
+	
+	/**
+	 * Returns the byte offset in the file of the next line to be read.
+	 */
+	public long getPosition() {
+		if (region == null)
+			return 0;
+		else return regionStart + region.position() - (limit - position);
+	}
+
+	/**
+	 * Moves this reader to the argument byte offset in the file, so that the
+	 * next line read starts there. The offset should be the start of a line,
+	 * as returned by getPosition() or recorded by an index of the file.
+	 */
+	public void seek(long offset)
+	throws IOException {
+		if (channel == null)
+			throw new IOException(String.format(
+				"Line reader for file [%s] has already been closed.",
+				file.getAbsolutePath()));
+		else if (offset < 0 || offset > fileSize)
+			throw new IllegalArgumentException(String.format(
+				"Seek offset (%d) is outside the bounds of file [%s] " +
+				"(%d bytes).", offset, file.getAbsolutePath(), fileSize));
+		// discard all buffered bytes and remap from the new offset
+		position = 0;
+		limit = 0;
+		map(offset);
+	}
+
+	public void close()
+	throws IOException {
+		region = null;
+		channel = null;
+		if (input != null) try {
+			input.close();
+		} finally {
+			input = null;
+		}
+	}
+	
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private void map(long start)
+	throws IOException {
+		long size = Math.min(regionSize, fileSize - start);
+		region = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		regionStart = start;
+	}
+	
+	/**
+	 * Moves the unread part of the buffer to its front and then copies as
+	 * many more bytes into it as possible from the mapped region, mapping
+	 * the next region of the file first if the current one is used up.
+	 * Returns false only if the end of the file has been reached.
+	 */
+	private boolean fill()
+	throws IOException {
+		int remaining = limit - position;
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+			position = 0;
+			limit = remaining;
+		}
+		// if a single line fills the entire buffer, then grow it
+		if (limit == buffer.length) {
+			if (buffer.length == Integer.MAX_VALUE)
+				throw new IOException(String.format(
+					"A line of file [%s] is too long to be read.",
+					file.getAbsolutePath()));
+			buffer = Arrays.copyOf(buffer,
+				(int)Math.min((long)buffer.length * 2, Integer.MAX_VALUE));
+		}
+		if (region.hasRemaining() == false) {
+			long next = regionStart + region.limit();
+			if (next >= fileSize)
+				return false;
+			else map(next);
+		}
+		int count = Math.min(buffer.length - limit, region.remaining());
+		region.get(buffer, limit, count);
+		limit += count;
+		return true;
+	}
+	
+	private String decode(int start, int length, boolean ascii) {
+		if (length == 0)
+			return "";
+		else if (ascii)
+			return new String(buffer, start, length, ASCII_CHARSET);
+		else return new String(buffer, start, length, charset);
+	}
+}
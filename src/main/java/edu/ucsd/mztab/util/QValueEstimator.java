@@ -0,0 +1,476 @@
+package edu.ucsd.mztab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Target-decoy estimate of the Q-values of a set of scored identifications
+ * (PSMs, peptides or proteins), where higher scores are better; scores for
+ * which lower is better must be negated first.
+ *
+ * Scores are collected into plain double arrays, one for targets and one
+ * for decoys, without any per-identification objects. Once all scores are
+ * in, each array is sorted in chunks in parallel, and all sorted chunks are
+ * merged into a single ascending walk over both arrays. At each distinct
+ * score, the FDR of accepting everything scored at least that high is the
+ * ratio of decoys to targets so accepted, and the Q-value of a score is the
+ * lowest FDR of any threshold that accepts it. Since Q-values only ever
+ * fall as scores rise, only the scores at which they fall are kept, so that
+ * the Q-value of any score can be looked up with a binary search.
+ *
+ * If more scores are added than fit in the arrays, the arrays are sorted
+ * and spilled to temporary run files, which are merged into the same walk.
+ */
+public class QValueEstimator
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	// 32 MiB per array
+	public static final int DEFAULT_BUFFER_SCORES = 4 * 1024 * 1024;
+	// below this, a chunk isn't worth sorting in its own thread
+	private static final int MIN_PARALLEL_CHUNK_SIZE = 64 * 1024;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final Comparator<ScoreSource> SOURCE_ORDER =
+		new Comparator<ScoreSource>() {
+			public int compare(ScoreSource source1, ScoreSource source2) {
+				return Double.compare(source1.current, source2.current);
+			}
+		};
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File       runBase;
+	private int        bufferLimit;
+	private double[]   targets;
+	private int        targetCount;
+	private double[]   decoys;
+	private int        decoyCount;
+	private List<File> targetRuns;
+	private List<File> decoyRuns;
+	private int        runNumber;
+	private long       totalTargets;
+	private long       totalDecoys;
+	// lowest score at which each Q-value applies, in ascending order
+	private double[]   thresholds;
+	private double[]   qValues;
+	// whether any target score falls under each Q-value
+	private boolean[]  targetQValues;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public QValueEstimator(File runBase) {
+		this(runBase, DEFAULT_BUFFER_SCORES);
+	}
+
+	/**
+	 * @param runBase	base path of the temporary run files of any spilled
+	 * 					scores; the runs are named by appending ".run<N>"
+	 */
+	public QValueEstimator(File runBase, int bufferScores) {
+		if (runBase == null)
+			throw new NullPointerException("Run file base cannot be null.");
+		else if (bufferScores < 1)
+			throw new IllegalArgumentException(String.format(
+				"Score buffer size (%d) must be at least 1.", bufferScores));
+		this.runBase = runBase;
+		bufferLimit = bufferScores;
+		// the score arrays only grow as far as they're needed
+		targets = new double[Math.min(bufferScores, 1024)];
+		targetCount = 0;
+		decoys = new double[Math.min(bufferScores, 1024)];
+		decoyCount = 0;
+		targetRuns = new ArrayList<File>();
+		decoyRuns = new ArrayList<File>();
+		runNumber = 0;
+		totalTargets = 0;
+		totalDecoys = 0;
+		thresholds = null;
+		qValues = null;
+		targetQValues = null;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void addScore(double score, boolean isDecoy) throws IOException {
+		if (thresholds != null)
+			throw new IllegalStateException(
+				"Q-values have already been estimated from these scores.");
+		else if (Double.isNaN(score))
+			return;
+		// -0.0 would otherwise sort apart from 0.0
+		else if (score == 0.0)
+			score = 0.0;
+		if (isDecoy) {
+			if (decoyCount == bufferLimit) {
+				spill(decoys, decoyCount, decoyRuns);
+				decoyCount = 0;
+			} else if (decoyCount == decoys.length)
+				decoys = grow(decoys);
+			decoys[decoyCount++] = score;
+			totalDecoys++;
+		} else {
+			if (targetCount == bufferLimit) {
+				spill(targets, targetCount, targetRuns);
+				targetCount = 0;
+			} else if (targetCount == targets.length)
+				targets = grow(targets);
+			targets[targetCount++] = score;
+			totalTargets++;
+		}
+	}
+
+	public long getTargetCount() {
+		return totalTargets;
+	}
+
+	public long getDecoyCount() {
+		return totalDecoys;
+	}
+
+	/**
+	 * Estimates the Q-values of all scores added so far; no more scores can
+	 * be added afterwards. Without any decoys, there is nothing to estimate
+	 * Q-values from, so none will be found.
+	 */
+	public void estimate() throws IOException {
+		if (thresholds != null)
+			return;
+		thresholds = new double[0];
+		qValues = new double[0];
+		targetQValues = new boolean[0];
+		if (totalDecoys < 1) {
+			close();
+			return;
+		}
+		ScoreStream targetStream = null;
+		ScoreStream decoyStream = null;
+		try {
+			targetStream = openStream(targets, targetCount, targetRuns);
+			decoyStream = openStream(decoys, decoyCount, decoyRuns);
+			walk(targetStream, decoyStream);
+		} finally {
+			if (targetStream != null)
+				targetStream.close();
+			if (decoyStream != null)
+				decoyStream.close();
+			close();
+		}
+	}
+
+	/**
+	 * Returns the estimated Q-value of the argument score, or null if no
+	 * Q-values could be estimated.
+	 */
+	public Double getQValue(double score) {
+		if (thresholds == null || thresholds.length < 1 || Double.isNaN(score))
+			return null;
+		int index = Arrays.binarySearch(thresholds, score);
+		// a score between two thresholds falls under the lower one
+		if (index < 0)
+			index = -index - 2;
+		// a score below all thresholds is only accepted along with everything
+		return qValues[Math.max(index, 0)];
+	}
+
+	/**
+	 * Returns the highest estimated Q-value of any target score, not higher
+	 * than the argument limit (if not null), or null if there is none.
+	 */
+	public Double getMaxTargetQValue(Double limit) {
+		if (thresholds == null)
+			return null;
+		// Q-values fall as scores rise, so the first one is the highest
+		for (int i=0; i<qValues.length; i++)
+			if (targetQValues[i] && (limit == null || qValues[i] <= limit))
+				return qValues[i];
+		return null;
+	}
+
+	/**
+	 * Releases all collected scores and deletes any temporary run files,
+	 * keeping whatever Q-values were already estimated.
+	 */
+	public void close() {
+		targets = null;
+		decoys = null;
+		for (File run : targetRuns)
+			run.delete();
+		targetRuns.clear();
+		for (File run : decoyRuns)
+			run.delete();
+		decoyRuns.clear();
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	/**
+	 * One ascending sequence of scores, either a sorted range of an array
+	 * or a sorted run file.
+	 */
+	private static abstract class ScoreSource {
+		protected double current;
+
+		/**
+		 * Moves on to the next score, returning false if there are no more.
+		 */
+		public abstract boolean advance() throws IOException;
+
+		public void close() {}
+	}
+
+	private static class ArraySource extends ScoreSource {
+		private double[] scores;
+		private int      next;
+		private int      end;
+
+		public ArraySource(double[] scores, int start, int end) {
+			this.scores = scores;
+			next = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean advance() {
+			if (next >= end)
+				return false;
+			current = scores[next++];
+			return true;
+		}
+	}
+
+	private static class RunSource extends ScoreSource {
+		private DataInputStream input;
+
+		public RunSource(File run) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(run), READ_BUFFER_SIZE));
+		}
+
+		@Override
+		public boolean advance() throws IOException {
+			try {
+				current = input.readDouble();
+				return true;
+			} catch (EOFException error) {
+				close();
+				return false;
+			}
+		}
+
+		@Override
+		public void close() {
+			try { input.close(); } catch (Throwable error) {}
+		}
+	}
+
+	/**
+	 * Merges any number of score sources into one ascending sequence.
+	 */
+	private static class ScoreStream {
+		private PriorityQueue<ScoreSource> heads;
+		private List<ScoreSource>          sources;
+
+		public ScoreStream(List<ScoreSource> sources) throws IOException {
+			this.sources = sources;
+			heads = new PriorityQueue<ScoreSource>(
+				Math.max(sources.size(), 1), SOURCE_ORDER);
+			for (ScoreSource source : sources)
+				if (source.advance())
+					heads.add(source);
+		}
+
+		public boolean hasNext() {
+			return heads.isEmpty() == false;
+		}
+
+		public double peek() {
+			return heads.peek().current;
+		}
+
+		public double next() throws IOException {
+			ScoreSource source = heads.poll();
+			double score = source.current;
+			if (source.advance())
+				heads.add(source);
+			return score;
+		}
+
+		/**
+		 * Consumes all scores equal to the argument score, returning how
+		 * many there were.
+		 */
+		public long skip(double score) throws IOException {
+			long count = 0;
+			while (hasNext() && peek() == score) {
+				next();
+				count++;
+			}
+			return count;
+		}
+
+		public void close() {
+			for (ScoreSource source : sources)
+				source.close();
+		}
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	/**
+	 * Walks all target and decoy scores together in ascending order, noting
+	 * the Q-value at each distinct score wherever it falls.
+	 */
+	private void walk(ScoreStream targetStream, ScoreStream decoyStream)
+	throws IOException {
+		List<Double> foundThresholds = new ArrayList<Double>();
+		List<Double> foundQValues = new ArrayList<Double>();
+		List<Boolean> foundTargets = new ArrayList<Boolean>();
+		// targets and decoys scored at least as high as the current score
+		long acceptedTargets = totalTargets;
+		long acceptedDecoys = totalDecoys;
+		double qValue = Double.POSITIVE_INFINITY;
+		while (targetStream.hasNext() || decoyStream.hasNext()) {
+			double score;
+			if (targetStream.hasNext() == false)
+				score = decoyStream.peek();
+			else if (decoyStream.hasNext() == false)
+				score = targetStream.peek();
+			else score = Math.min(targetStream.peek(), decoyStream.peek());
+			// same ratio as MzTabFDRCleaner.calculateFDR
+			double fdr = acceptedTargets <= 0 ? 1.0 :
+				Math.min(1.0, (double)acceptedDecoys / acceptedTargets);
+			if (fdr < qValue) {
+				qValue = fdr;
+				foundThresholds.add(score);
+				foundQValues.add(qValue);
+				foundTargets.add(false);
+			}
+			long scoreTargets = targetStream.skip(score);
+			if (scoreTargets > 0)
+				foundTargets.set(foundTargets.size() - 1, true);
+			acceptedTargets -= scoreTargets;
+			acceptedDecoys -= decoyStream.skip(score);
+		}
+		thresholds = new double[foundThresholds.size()];
+		qValues = new double[foundQValues.size()];
+		targetQValues = new boolean[foundTargets.size()];
+		for (int i=0; i<thresholds.length; i++) {
+			thresholds[i] = foundThresholds.get(i);
+			qValues[i] = foundQValues.get(i);
+			targetQValues[i] = foundTargets.get(i);
+		}
+	}
+
+	/**
+	 * Sorts the argument scores and returns a stream of them merged with
+	 * all of the argument runs.
+	 */
+	private ScoreStream openStream(
+		double[] scores, int count, List<File> runs
+	) throws IOException {
+		List<ScoreSource> sources = new ArrayList<ScoreSource>();
+		try {
+			for (File run : runs)
+				sources.add(new RunSource(run));
+			int[] chunks = sortChunks(scores, count);
+			for (int i=0; i<chunks.length - 1; i++)
+				sources.add(new ArraySource(scores, chunks[i], chunks[i + 1]));
+			return new ScoreStream(sources);
+		} catch (IOException error) {
+			for (ScoreSource source : sources)
+				source.close();
+			throw error;
+		}
+	}
+
+	/**
+	 * Sorts the argument scores in chunks, one per processor, in parallel,
+	 * and returns the boundaries of the sorted chunks.
+	 */
+	private static int[] sortChunks(final double[] scores, int count)
+	throws IOException {
+		int chunkCount = Math.max(1, Math.min(
+			Runtime.getRuntime().availableProcessors(),
+			count / MIN_PARALLEL_CHUNK_SIZE));
+		int[] chunks = new int[chunkCount + 1];
+		for (int i=0; i<=chunkCount; i++)
+			chunks[i] = (int)((long)count * i / chunkCount);
+		if (chunkCount == 1) {
+			Arrays.sort(scores, 0, count);
+			return chunks;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(chunkCount);
+		try {
+			List<Future<Object>> sorts = new ArrayList<Future<Object>>();
+			for (int i=0; i<chunkCount; i++) {
+				final int start = chunks[i];
+				final int end = chunks[i + 1];
+				sorts.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						Arrays.sort(scores, start, end);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> sort : sorts)
+				sort.get();
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sorting scores.");
+		} catch (ExecutionException error) {
+			throw new RuntimeException(error.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return chunks;
+	}
+
+	private void spill(double[] scores, int count, List<File> runs)
+	throws IOException {
+		File run = new File(String.format(
+			"%s.run%d", runBase.getAbsolutePath(), runNumber++));
+		runs.add(run);
+		int[] chunks = sortChunks(scores, count);
+		List<ScoreSource> sources = new ArrayList<ScoreSource>();
+		for (int i=0; i<chunks.length - 1; i++)
+			sources.add(new ArraySource(scores, chunks[i], chunks[i + 1]));
+		ScoreStream stream = new ScoreStream(sources);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(run), READ_BUFFER_SIZE));
+		try {
+			while (stream.hasNext())
+				output.writeDouble(stream.next());
+			output.close();
+		} finally {
+			try { output.close(); } catch (Throwable error) {}
+		}
+	}
+
+	private double[] grow(double[] scores) {
+		return Arrays.copyOf(scores,
+			(int)Math.min((long)scores.length * 2, bufferLimit));
+	}
+}
@@ -0,0 +1,297 @@
+package edu.ucsd.mztab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Writes the rows of a database load file in the order of a two-part
+ * numeric key, e.g. a table's clustered primary key, regardless of the order
+ * in which they are added, so that a bulk load inserts them sequentially
+ * into the table's index rather than into random pages.
+ *
+ * Rows are buffered in memory up to a fixed number; whenever the buffer
+ * fills up, it is sorted and spilled to a temporary run file next to the
+ * load file. When the load file is finished, the buffer is sorted and, if
+ * there were any spills, merged with all the runs into the load file.
+ */
+public class SortedLoadFileWriter
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final int DEFAULT_BUFFER_ROWS = 1000000;
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024; // 1 MiB
+	// same encoding the load files were always written with
+	private static final Charset CHARSET = Charset.defaultCharset();
+	private static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+		public int compare(Row row1, Row row2) {
+			if (row1.key != row2.key)
+				return row1.key < row2.key ? -1 : 1;
+			else if (row1.subKey != row2.subKey)
+				return row1.subKey < row2.subKey ? -1 : 1;
+			// rows with equal keys keep the order in which they were added
+			else if (row1.sequence != row2.sequence)
+				return row1.sequence < row2.sequence ? -1 : 1;
+			else return 0;
+		}
+	};
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File       loadFile;
+	private int        writeBufferSize;
+	private Row[]      buffer;
+	private int        bufferLimit;
+	private int        buffered;
+	private long       written;
+	private List<File> runs;
+	private boolean    closed;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public SortedLoadFileWriter(File loadFile) {
+		this(loadFile, DEFAULT_BUFFER_ROWS, DEFAULT_WRITE_BUFFER_SIZE);
+	}
+
+	public SortedLoadFileWriter(
+		File loadFile, int bufferRows, int writeBufferSize
+	) {
+		if (loadFile == null)
+			throw new NullPointerException("Load file cannot be null.");
+		else if (bufferRows < 1)
+			throw new IllegalArgumentException(String.format(
+				"Row buffer size (%d) must be at least 1.", bufferRows));
+		else if (writeBufferSize < 1)
+			throw new IllegalArgumentException(String.format(
+				"Write buffer size (%d) must be at least 1.", writeBufferSize));
+		this.loadFile = loadFile;
+		this.writeBufferSize = writeBufferSize;
+		// the row buffer only grows as far as it's needed
+		buffer = new Row[Math.min(bufferRows, 1024)];
+		bufferLimit = bufferRows;
+		buffered = 0;
+		written = 0;
+		runs = new ArrayList<File>();
+		closed = false;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	public void write(long key, long subKey, String line) throws IOException {
+		if (line == null)
+			throw new NullPointerException("Load file line cannot be null.");
+		else if (closed)
+			throw new IllegalStateException(String.format(
+				"Load file [%s] has already been finished.",
+				loadFile.getAbsolutePath()));
+		if (buffered == bufferLimit)
+			spill();
+		else if (buffered == buffer.length)
+			buffer = Arrays.copyOf(buffer,
+				(int)Math.min((long)buffer.length * 2, bufferLimit));
+		buffer[buffered++] = new Row(key, subKey, written++, line);
+	}
+
+	/**
+	 * Writes all rows added so far to the load file, in key order. No more
+	 * rows can be added afterwards.
+	 */
+	public void finish() throws IOException {
+		finish(new FileOutputStream(loadFile));
+	}
+
+	/**
+	 * Writes all rows added so far, in key order, to the argument stream
+	 * instead of the load file, and closes it. No more rows can be added
+	 * afterwards.
+	 */
+	public void finish(OutputStream output) throws IOException {
+		if (output == null)
+			throw new NullPointerException("Output stream cannot be null.");
+		else if (closed) {
+			try { output.close(); } catch (Throwable error) {}
+			return;
+		}
+		closed = true;
+		Writer writer = null;
+		try {
+			// without any spills, the sorted buffer is the whole file
+			if (runs.isEmpty()) {
+				Arrays.sort(buffer, 0, buffered, ROW_ORDER);
+				writer = openWriter(output);
+				for (int i=0; i<buffered; i++)
+					writeLine(writer, buffer[i].line);
+			}
+			// otherwise the rest of the buffer becomes one more run,
+			// and all the runs are merged into the load file
+			else {
+				if (buffered > 0)
+					spill();
+				writer = openWriter(output);
+				merge(writer);
+			}
+			// a failure to flush the load file must not go unnoticed
+			writer.close();
+		} finally {
+			buffer = null;
+			if (writer != null)
+				try { writer.close(); } catch (Throwable error) {}
+			else try { output.close(); } catch (Throwable error) {}
+			deleteRuns();
+		}
+	}
+
+	/**
+	 * Releases all buffered rows and deletes any temporary run files,
+	 * without finishing the load file if it wasn't already.
+	 */
+	public void close() {
+		closed = true;
+		buffer = null;
+		deleteRuns();
+	}
+
+	/*========================================================================
+	 * Convenience classes
+	 *========================================================================*/
+	private static class Row {
+		private long   key;
+		private long   subKey;
+		private long   sequence;
+		private String line;
+
+		public Row(long key, long subKey, long sequence, String line) {
+			this.key = key;
+			this.subKey = subKey;
+			this.sequence = sequence;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Reads back the rows of one sorted run file, one at a time.
+	 */
+	private static class RunReader {
+		private DataInputStream input;
+		private Row             current;
+
+		public RunReader(File run, int bufferSize) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(run), bufferSize));
+			advance();
+		}
+
+		public void advance() throws IOException {
+			try {
+				long key = input.readLong();
+				long subKey = input.readLong();
+				long sequence = input.readLong();
+				byte[] line = new byte[input.readInt()];
+				input.readFully(line);
+				current = new Row(key, subKey, sequence, new String(line, CHARSET));
+			} catch (EOFException error) {
+				current = null;
+				close();
+			}
+		}
+
+		public void close() {
+			try { input.close(); } catch (Throwable error) {}
+		}
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	private void spill() throws IOException {
+		Arrays.sort(buffer, 0, buffered, ROW_ORDER);
+		File run = new File(loadFile.getParentFile(), String.format(
+			"%s.run%d", loadFile.getName(), runs.size()));
+		runs.add(run);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(run), writeBufferSize));
+		try {
+			for (int i=0; i<buffered; i++) {
+				Row row = buffer[i];
+				byte[] line = row.line.getBytes(CHARSET);
+				output.writeLong(row.key);
+				output.writeLong(row.subKey);
+				output.writeLong(row.sequence);
+				output.writeInt(line.length);
+				output.write(line);
+				buffer[i] = null;
+			}
+			output.close();
+		} finally {
+			try { output.close(); } catch (Throwable error) {}
+		}
+		buffered = 0;
+	}
+
+	private void merge(Writer writer) throws IOException {
+		PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(
+			runs.size(), new Comparator<RunReader>() {
+				public int compare(RunReader reader1, RunReader reader2) {
+					return ROW_ORDER.compare(reader1.current, reader2.current);
+				}
+			});
+		List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+		// split the write buffer's size among all run readers
+		int readBufferSize = Math.max(64 * 1024, writeBufferSize / runs.size());
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run, readBufferSize);
+				readers.add(reader);
+				if (reader.current != null)
+					heads.add(reader);
+			}
+			// always write the lowest row among the heads of all runs
+			while (heads.isEmpty() == false) {
+				RunReader reader = heads.poll();
+				writeLine(writer, reader.current.line);
+				reader.advance();
+				if (reader.current != null)
+					heads.add(reader);
+			}
+		} finally {
+			for (RunReader reader : readers)
+				reader.close();
+		}
+	}
+
+	private Writer openWriter(OutputStream output) {
+		return new BufferedWriter(
+			new OutputStreamWriter(output, CHARSET), writeBufferSize);
+	}
+
+	private void writeLine(Writer writer, String line) throws IOException {
+		writer.write(line);
+		writer.write('\n');
+	}
+
+	private void deleteRuns() {
+		for (File run : runs)
+			run.delete();
+		runs.clear();
+	}
+}
@@ -0,0 +1,171 @@
+package edu.ucsd.mztab.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds content written to it in memory, up to a fixed number of bytes;
+ * any content beyond that is spilled to a local file. Once closed, all of
+ * it can be read back as one stream, the content held in memory followed
+ * by the spilled content.
+ *
+ * Content is released as it's read, so a buffer can only be read once.
+ */
+public class SpillBuffer extends OutputStream
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	public static final long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024; // 64 MiB
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private File         spillFile;
+	private long         memoryLimit;
+	private List<byte[]> chunks;
+	private int          chunkPosition;
+	private long         size;
+	private OutputStream spill;
+	private boolean      closed;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public SpillBuffer(File spillFile) {
+		this(spillFile, DEFAULT_MEMORY_LIMIT);
+	}
+
+	public SpillBuffer(File spillFile, long memoryLimit) {
+		if (spillFile == null)
+			throw new NullPointerException("Spill file cannot be null.");
+		this.spillFile = spillFile;
+		this.memoryLimit = memoryLimit;
+		chunks = new ArrayList<byte[]>();
+		chunkPosition = CHUNK_SIZE;
+		size = 0;
+		spill = null;
+		closed = false;
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{ (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (closed)
+			throw new IOException("This buffer has been closed.");
+		while (length > 0) {
+			// once the memory limit is reached, everything else is spilled
+			if (spill != null) {
+				spill.write(bytes, offset, length);
+				size += length;
+				return;
+			} else if (chunkPosition == CHUNK_SIZE) {
+				if ((long)(chunks.size() + 1) * CHUNK_SIZE > memoryLimit) {
+					spill = new BufferedOutputStream(
+						new FileOutputStream(spillFile), CHUNK_SIZE);
+					continue;
+				}
+				chunks.add(new byte[CHUNK_SIZE]);
+				chunkPosition = 0;
+			}
+			int count = Math.min(length, CHUNK_SIZE - chunkPosition);
+			System.arraycopy(bytes, offset,
+				chunks.get(chunks.size() - 1), chunkPosition, count);
+			chunkPosition += count;
+			offset += count;
+			length -= count;
+			size += count;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (spill != null)
+			spill.close();
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public boolean isSpilled() {
+		return spill != null;
+	}
+
+	/**
+	 * Returns a stream of all content written to this buffer, which must
+	 * have been closed first. Memory is released as the stream is read.
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (closed == false)
+			throw new IllegalStateException(
+				"A buffer must be closed before it can be read.");
+		final InputStream spilled = spill == null ? null :
+			new BufferedInputStream(new FileInputStream(spillFile), CHUNK_SIZE);
+		final List<byte[]> content = chunks;
+		final int lastChunkLength = chunkPosition;
+		chunks = new ArrayList<byte[]>();
+		return new InputStream() {
+			private int chunk = 0;
+			private int position = 0;
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				int count = read(single, 0, 1);
+				return count < 0 ? -1 : single[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length)
+			throws IOException {
+				if (length == 0)
+					return 0;
+				while (chunk < content.size()) {
+					int chunkLength = chunk == content.size() - 1 ?
+						lastChunkLength : CHUNK_SIZE;
+					if (position < chunkLength) {
+						int count = Math.min(length, chunkLength - position);
+						System.arraycopy(
+							content.get(chunk), position, bytes, offset, count);
+						position += count;
+						return count;
+					}
+					// this chunk has been read, so let it go
+					content.set(chunk++, null);
+					position = 0;
+				}
+				if (spilled == null)
+					return -1;
+				else return spilled.read(bytes, offset, length);
+			}
+
+			@Override
+			public void close() {
+				content.clear();
+				chunk = 0;
+				if (spilled != null)
+					try { spilled.close(); } catch (Throwable error) {}
+			}
+		};
+	}
+}
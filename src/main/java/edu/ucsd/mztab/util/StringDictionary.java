@@ -0,0 +1,171 @@
+package edu.ucsd.mztab.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Dictionary encoding of distinct strings as dense int IDs, numbered from 0
+ * in the order the strings were first added.
+ *
+ * Strings are not kept as objects; their UTF-8 bytes are appended to a
+ * single byte pool, and they are found again through an open-addressing
+ * hash table of IDs. Apart from the pool, each string costs three ints,
+ * so that tens of millions of short identifiers fit in a modest heap.
+ */
+public class StringDictionary
+{
+	/*========================================================================
+	 * Constants
+	 *========================================================================*/
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int INITIAL_CAPACITY = 1024;
+	// largest array the JVM is sure to allocate
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/*========================================================================
+	 * Properties
+	 *========================================================================*/
+	private byte[] pool;
+	private int    poolSize;
+	// ID -> start of its string in the pool; the next ID's start is its end
+	private int[]  offsets;
+	// ID -> hash of its string, so that the table can grow without rehashing
+	private int[]  hashes;
+	private int    size;
+	// hash slot -> ID + 1, or 0 if empty
+	private int[]  slots;
+
+	/*========================================================================
+	 * Constructors
+	 *========================================================================*/
+	public StringDictionary() {
+		pool = new byte[INITIAL_CAPACITY * 16];
+		poolSize = 0;
+		offsets = new int[INITIAL_CAPACITY + 1];
+		hashes = new int[INITIAL_CAPACITY];
+		size = 0;
+		slots = new int[INITIAL_CAPACITY * 2];
+	}
+
+	/*========================================================================
+	 * Public interface methods
+	 *========================================================================*/
+	/**
+	 * Returns the ID of the argument string, adding it first if it isn't
+	 * in this dictionary yet.
+	 */
+	public int add(String value) {
+		if (value == null)
+			throw new NullPointerException("Dictionary string cannot be null.");
+		byte[] bytes = value.getBytes(CHARSET);
+		int hash = hash(bytes);
+		int slot = find(bytes, hash);
+		if (slots[slot] != 0)
+			return slots[slot] - 1;
+		// keep the table at most half full, so that probes stay short
+		if ((size + 1) * 2L > slots.length) {
+			grow();
+			slot = find(bytes, hash);
+		}
+		if (size == hashes.length) {
+			int capacity = (int)Math.min(MAX_ARRAY_SIZE - 1, size * 2L);
+			if (capacity <= size)
+				throw new IllegalStateException(
+					"String dictionary cannot hold any more strings.");
+			hashes = Arrays.copyOf(hashes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+		}
+		if ((long)poolSize + bytes.length > pool.length) {
+			long capacity = Math.max(
+				(long)poolSize + bytes.length, pool.length * 2L);
+			if (capacity > MAX_ARRAY_SIZE) {
+				if ((long)poolSize + bytes.length > MAX_ARRAY_SIZE)
+					throw new IllegalStateException(
+						"String dictionary cannot hold any more strings.");
+				capacity = MAX_ARRAY_SIZE;
+			}
+			pool = Arrays.copyOf(pool, (int)capacity);
+		}
+		System.arraycopy(bytes, 0, pool, poolSize, bytes.length);
+		poolSize += bytes.length;
+		int id = size++;
+		hashes[id] = hash;
+		offsets[size] = poolSize;
+		slots[slot] = id + 1;
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the argument string, or -1 if it isn't in this
+	 * dictionary.
+	 */
+	public int getID(String value) {
+		if (value == null)
+			return -1;
+		byte[] bytes = value.getBytes(CHARSET);
+		return slots[find(bytes, hash(bytes))] - 1;
+	}
+
+	public String getString(int id) {
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException(String.format(
+				"String dictionary has no ID %d.", id));
+		else return new String(
+			pool, offsets[id], offsets[id + 1] - offsets[id], CHARSET);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/*========================================================================
+	 * Convenience methods
+	 *========================================================================*/
+	/**
+	 * Returns the slot holding the argument string's ID, or else the empty
+	 * slot where its ID would go.
+	 */
+	private int find(byte[] bytes, int hash) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && equals(id, bytes))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equals(int id, byte[] bytes) {
+		int start = offsets[id];
+		if (offsets[id + 1] - start != bytes.length)
+			return false;
+		for (int i=0; i<bytes.length; i++)
+			if (pool[start + i] != bytes[i])
+				return false;
+		return true;
+	}
+
+	private void grow() {
+		if (slots.length >= 1 << 30)
+			throw new IllegalStateException(
+				"String dictionary cannot hold any more strings.");
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id=0; id<size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static int hash(byte[] bytes) {
+		int hash = 0;
+		for (byte b : bytes)
+			hash = 31 * hash + b;
+		// spread the low bits, which are all a power-of-two table uses
+		return hash ^ (hash >>> 16);
+	}
+}